@@ -0,0 +1,539 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+// Block-compressed CSV in the BGZF layout: a series of independent gzip members of at most 64 KiB each,
+// whose header carries the member's compressed size in a "BC" extra field, followed by an empty end
+// block. gunzip/zcat read it like any multi-member gzip file. The sidecar <file>.gzi (the bgzip -i
+// layout: a little-endian count, then compressed/uncompressed offset pairs of every block but the first)
+// lets a reader find the block holding any uncompressed offset without inflating anything; when it is
+// missing or older than the data the offsets are rebuilt from the block headers.
+//
+// An open BlockGzip reads uncompressed bytes at any offset; a read spanning many blocks inflates them on
+// up to `threads` pool workers, each straight into its part of the destination buffer.
+final class BlockGzip implements Closeable {
+
+    // uncompressed bytes per block, as bgzip
+    static final int BLOCK_DATA = 0xff00;
+    // size of the pooled buffers compressed scans read their windows into
+    static final int WINDOW = 8 << 20;
+    static final int DEFAULT_LEVEL = 6;
+
+    private static final int MAX_BLOCK = 1 << 16;
+    private static final int HEADER = 18;
+    private static final int TRAILER = 8;
+    private static final int BATCH_BLOCKS = 16;
+    private static final byte[] EOF_BLOCK = {
+        0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0, 0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    static final class CompressStats {
+        long blocks;
+        long inputBytes;
+        long outputBytes;
+        long indexBytes;
+    }
+
+    private final String file;
+    private final FileChannel channel;
+    // block k spans [coffsets[k], coffsets[k + 1]) of the file and [uoffsets[k], uoffsets[k + 1]) of the data
+    private final long[] coffsets;
+    private final long[] uoffsets;
+    private final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<ByteBuffer> windows = new ConcurrentLinkedQueue<>();
+    private ForkJoinPool pool;
+    // the block small reads inflated last, so a run of short reads inflates each block once
+    private volatile Cached last;
+
+    private static final class Cached {
+        final int block;
+        final byte[] data;
+
+        Cached(int block, byte[] data) {
+            this.block = block;
+            this.data = data;
+        }
+    }
+
+    private BlockGzip(String file, FileChannel channel, long[][] index) {
+        this.file = file;
+        this.channel = channel;
+        this.coffsets = index[0];
+        this.uoffsets = index[1];
+    }
+
+    static String indexPath(String file) {
+        return file + ".gzi";
+    }
+
+    // true for a block-compressed file; a gzip file without the block headers is rejected rather than
+    // scanned as if it were text
+    static boolean detect(String file) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            ByteBuffer h = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            while (h.hasRemaining()) {
+                if (ch.read(h, h.position()) <= 0) break;
+            }
+            if (h.position() < 2 || h.get(0) != 0x1f || h.get(1) != (byte) 0x8b) {
+                return false;
+            }
+            if (h.position() < HEADER || blockSize(h, 0) < 0) {
+                throw new IllegalStateException(file + " is gzip-compressed but not block-compressed;"
+                        + " recompress it with the compress command (or gunzip it)");
+            }
+            return true;
+        }
+    }
+
+    // `channel` stays owned by the caller
+    static BlockGzip open(String file, FileChannel channel) throws IOException {
+        long[][] index = null;
+        File gzi = new File(indexPath(file));
+        if (gzi.isFile() && gzi.lastModified() >= new File(file).lastModified()) {
+            index = readIndex(gzi, channel);
+        }
+        if (index == null) {
+            index = scanIndex(file, channel);
+        }
+        return new BlockGzip(file, channel, index);
+    }
+
+    long size() {
+        return uoffsets[uoffsets.length - 1];
+    }
+
+    // where the block holding uncompressed offset `pos` starts in the file; the file's data end past size()
+    long compressedOffset(long pos) {
+        return pos >= size() ? coffsets[coffsets.length - 1] : coffsets[block(pos)];
+    }
+
+    int blocks() {
+        return coffsets.length - 1;
+    }
+
+    // like FileChannel.read(dst, pos) on the uncompressed data: fills dst from its position, returns the
+    // byte count or -1 at the end
+    int read(ByteBuffer dst, long pos) throws IOException {
+        return read(dst, pos, 1);
+    }
+
+    int read(ByteBuffer dst, long pos, int threads) throws IOException {
+        if (pos >= size()) {
+            return -1;
+        }
+        int n = (int) Math.min(dst.remaining(), size() - pos);
+        if (n == 0) {
+            return 0;
+        }
+        int first = block(pos);
+        int last = block(pos + n - 1);
+        int base = dst.position();
+        if (last - first < 2) {
+            // a short read (a gap between edited rows, a preview row): serve it from whole cached blocks
+            for (int k = first; k <= last; k++) {
+                byte[] data = cached(k);
+                if (data.length == 0) continue;
+                int skip = (int) Math.max(0L, pos - uoffsets[k]);
+                int keep = (int) Math.min(data.length, pos + n - uoffsets[k]) - skip;
+                dst.put(base + (int) (uoffsets[k] + skip - pos), data, skip, keep);
+            }
+            dst.position(base + n);
+            return n;
+        }
+        long cFrom = coffsets[first];
+        ByteBuffer comp = compressed(first, last);
+        int blocks = last - first + 1;
+        int tasks = Math.min(threads, blocks);
+        if (tasks <= 1) {
+            inflate(comp, cFrom, first, last + 1, dst, base, pos, n);
+        } else {
+            List<Callable<Void>> work = new ArrayList<>(tasks);
+            for (int t = 0; t < tasks; t++) {
+                int from = first + (int) ((long) blocks * t / tasks);
+                int to = first + (int) ((long) blocks * (t + 1) / tasks);
+                work.add(() -> {
+                    inflate(comp, cFrom, from, to, dst, base, pos, n);
+                    return null;
+                });
+            }
+            for (Future<Void> f : pool(threads).invokeAll(work)) await(f);
+        }
+        dst.position(base + n);
+        return n;
+    }
+
+    private byte[] cached(int k) throws IOException {
+        Cached c = last;
+        if (c != null && c.block == k) {
+            return c.data;
+        }
+        byte[] data = new byte[(int) (uoffsets[k + 1] - uoffsets[k])];
+        inflate(compressed(k, k), coffsets[k], k, k + 1, ByteBuffer.wrap(data), 0, uoffsets[k], data.length);
+        last = new Cached(k, data);
+        return data;
+    }
+
+    // the raw bytes of blocks first..last
+    private ByteBuffer compressed(int first, int last) throws IOException {
+        long cFrom = coffsets[first];
+        ByteBuffer comp = ByteBuffer.allocate((int) (coffsets[last + 1] - cFrom)).order(ByteOrder.LITTLE_ENDIAN);
+        while (comp.hasRemaining()) {
+            if (channel.read(comp, cFrom + comp.position()) < 0) {
+                throw new IOException("Unexpected end of " + file + " at offset " + (cFrom + comp.position()));
+            }
+        }
+        return comp;
+    }
+
+    // a cleared WINDOW-sized buffer, from the pool when one is free
+    ByteBuffer acquire() {
+        ByteBuffer b = windows.poll();
+        return b != null ? b.clear() : ByteBuffer.allocateDirect(WINDOW);
+    }
+
+    void release(ByteBuffer window) {
+        windows.add(window);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (pool != null) pool.shutdown();
+        for (Inflater inf; (inf = inflaters.poll()) != null; ) inf.end();
+    }
+
+    // inflates blocks [fromBlock, toBlock) into dst, keeping only the data inside [pos, pos + n)
+    private void inflate(ByteBuffer comp, long cFrom, int fromBlock, int toBlock, ByteBuffer dst, int base, long pos, int n)
+            throws IOException {
+        Inflater inf = inflaters.poll();
+        if (inf == null) inf = new Inflater(true);
+        ByteBuffer scratch = null;
+        CRC32 crc = new CRC32();
+        try {
+            for (int k = fromBlock; k < toBlock; k++) {
+                int usize = (int) (uoffsets[k + 1] - uoffsets[k]);
+                if (usize == 0) continue;
+                int cOff = (int) (coffsets[k] - cFrom);
+                int bsize = (int) (coffsets[k + 1] - coffsets[k]);
+                int skip = (int) Math.max(0L, pos - uoffsets[k]);
+                int keep = (int) Math.min(usize, pos + n - uoffsets[k]) - skip;
+                int at = base + (int) (uoffsets[k] + skip - pos);
+                // whole blocks go straight into dst; the partial ones at either end through scratch
+                ByteBuffer out;
+                if (skip == 0 && keep == usize) {
+                    out = dst.duplicate();
+                    out.limit(at + usize).position(at);
+                } else {
+                    if (scratch == null) scratch = ByteBuffer.allocate(MAX_BLOCK);
+                    out = scratch.clear().limit(usize);
+                }
+                int start = out.position();
+                inf.reset();
+                inf.setInput(comp.duplicate().limit(cOff + bsize - TRAILER).position(cOff + HEADER));
+                try {
+                    while (out.hasRemaining()) {
+                        if (inf.inflate(out) == 0) break;
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt block at offset " + coffsets[k] + " of " + file, e);
+                }
+                if (out.hasRemaining() || !inf.finished()) {
+                    throw new IOException("Block at offset " + coffsets[k] + " of " + file + " does not inflate to "
+                            + usize + " bytes");
+                }
+                crc.reset();
+                crc.update(out.duplicate().limit(out.position()).position(start));
+                if ((int) crc.getValue() != comp.getInt(cOff + bsize - TRAILER)) {
+                    throw new IOException("CRC mismatch in block at offset " + coffsets[k] + " of " + file);
+                }
+                if (out == scratch) {
+                    dst.put(at, scratch, skip, keep);
+                }
+            }
+        } finally {
+            inflaters.add(inf);
+        }
+    }
+
+    // the last block starting at or before uncompressed offset `pos`, skipping empty ones
+    private int block(long pos) {
+        int k = Arrays.binarySearch(uoffsets, 0, uoffsets.length - 1, pos);
+        if (k < 0) return -k - 2;
+        while (k + 1 < uoffsets.length - 1 && uoffsets[k + 1] == pos) k++;
+        return k;
+    }
+
+    private synchronized ForkJoinPool pool(int threads) {
+        if (pool == null || pool.getParallelism() < threads) {
+            if (pool != null) pool.shutdown();
+            pool = new ForkJoinPool(threads);
+        }
+        return pool;
+    }
+
+    private static void await(Future<?> f) throws IOException {
+        try {
+            f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while inflating", e);
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof IOException) throw (IOException) c;
+            if (c instanceof RuntimeException) throw (RuntimeException) c;
+            throw new IOException(c);
+        }
+    }
+
+    // BSIZE of the block header at `p`, or -1 when it is not a BGZF header
+    private static int blockSize(ByteBuffer h, int p) {
+        if (h.get(p) != 0x1f || h.get(p + 1) != (byte) 0x8b || h.get(p + 2) != 8 || (h.get(p + 3) & 4) == 0
+                || h.getShort(p + 10) != 6 || h.get(p + 12) != 'B' || h.get(p + 13) != 'C' || h.getShort(p + 14) != 2) {
+            return -1;
+        }
+        return (h.getShort(p + 16) & 0xffff) + 1;
+    }
+
+    // walks the block headers, reading each block's size from its header and its data size from its trailer
+    private static long[][] scanIndex(String file, FileChannel ch) throws IOException {
+        long size = ch.size();
+        long[] c = new long[1024];
+        long[] u = new long[1024];
+        int blocks = 0;
+        long cpos = 0L;
+        long upos = 0L;
+        ByteBuffer h = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer isize = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        while (cpos < size) {
+            h.clear();
+            readFully(ch, h, cpos);
+            int bsize = blockSize(h, 0);
+            if (bsize < HEADER + TRAILER || cpos + bsize > size) {
+                throw new IllegalStateException("No block header at offset " + cpos + " of " + file);
+            }
+            isize.clear();
+            readFully(ch, isize, cpos + bsize - 4);
+            if (blocks + 1 == c.length) {
+                c = Arrays.copyOf(c, c.length * 2);
+                u = Arrays.copyOf(u, u.length * 2);
+            }
+            c[blocks] = cpos;
+            u[blocks] = upos;
+            blocks++;
+            cpos += bsize;
+            upos += isize.getInt(0) & 0xffffffffL;
+        }
+        c[blocks] = cpos;
+        u[blocks] = upos;
+        return new long[][] { Arrays.copyOf(c, blocks + 1), Arrays.copyOf(u, blocks + 1) };
+    }
+
+    // null when the index does not fit the file, so the caller rebuilds it
+    private static long[][] readIndex(File gzi, FileChannel ch) throws IOException {
+        byte[] bytes = Files.readAllBytes(gzi.toPath());
+        ByteBuffer in = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (bytes.length < 8 || (bytes.length - 8) % 16 != 0 || in.getLong(0) != (bytes.length - 8) / 16) {
+            return null;
+        }
+        int blocks = (int) in.getLong(0) + 1;
+        long[] c = new long[blocks + 1];
+        long[] u = new long[blocks + 1];
+        for (int k = 1; k < blocks; k++) {
+            c[k] = in.getLong(8 + (k - 1) * 16);
+            u[k] = in.getLong(16 + (k - 1) * 16);
+            if (c[k] <= c[k - 1] || u[k] < u[k - 1]) return null;
+        }
+        // the last block has to end exactly at the end of the file
+        long size = ch.size();
+        ByteBuffer h = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        if (c[blocks - 1] + HEADER > size) return null;
+        readFully(ch, h, c[blocks - 1]);
+        if (blockSize(h, 0) != size - c[blocks - 1]) return null;
+        ByteBuffer isize = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(ch, isize, size - 4);
+        c[blocks] = size;
+        u[blocks] = u[blocks - 1] + (isize.getInt(0) & 0xffffffffL);
+        return new long[][] { c, u };
+    }
+
+    // writes <file>.gzi from the block headers of `file`; returns its size
+    static long writeIndex(String file) throws IOException {
+        long[][] index;
+        try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            index = scanIndex(file, ch);
+        }
+        return writeIndex(file, index[0], index[1], index[0].length - 1);
+    }
+
+    private static long writeIndex(String file, long[] c, long[] u, int blocks) throws IOException {
+        ByteBuffer out = ByteBuffer.allocate(8 + 16 * Math.max(0, blocks - 1)).order(ByteOrder.LITTLE_ENDIAN);
+        out.putLong(Math.max(0, blocks - 1));
+        for (int k = 1; k < blocks; k++) {
+            out.putLong(c[k]);
+            out.putLong(u[k]);
+        }
+        File target = new File(indexPath(file));
+        File tmp = new File(target.getAbsolutePath() + ".tmp");
+        Files.write(tmp.toPath(), out.array());
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return target.length();
+    }
+
+    // Compresses `input` into `output` (and its index, when `index` is set). Batches of blocks are deflated
+    // on `threads` workers and written in order.
+    static CompressStats compress(String input, String output, int threads, int level, boolean index) throws IOException {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Compression level must be between 0 and 9: " + level);
+        }
+        CompressStats stats = new CompressStats();
+        File target = new File(output);
+        File tmp = new File(target.getAbsolutePath() + ".tmp");
+        long[] c = new long[1024];
+        long[] u = new long[1024];
+        int blocks = 0;
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try (FileChannel in = FileChannel.open(Paths.get(input), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            int tasks = Math.max(1, threads);
+            byte[] batch = new byte[tasks * BATCH_BLOCKS * BLOCK_DATA];
+            long cpos = 0L;
+            while (true) {
+                ByteBuffer b = ByteBuffer.wrap(batch);
+                while (b.hasRemaining()) {
+                    if (in.read(b, stats.inputBytes + b.position()) <= 0) break;
+                }
+                int len = b.position();
+                if (len == 0) break;
+                int count = (len + BLOCK_DATA - 1) / BLOCK_DATA;
+                List<Callable<byte[][]>> work = new ArrayList<>(tasks);
+                for (int t = 0; t < tasks; t++) {
+                    int from = (int) ((long) count * t / tasks);
+                    int to = (int) ((long) count * (t + 1) / tasks);
+                    work.add(() -> deflate(batch, len, from, to, level));
+                }
+                long upos = stats.inputBytes;
+                for (Future<byte[][]> f : pool.invokeAll(work)) {
+                    byte[][] compressed;
+                    try {
+                        compressed = f.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while compressing", e);
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                        throw new IOException(cause);
+                    }
+                    for (byte[] block : compressed) {
+                        if (blocks + 1 == c.length) {
+                            c = Arrays.copyOf(c, c.length * 2);
+                            u = Arrays.copyOf(u, u.length * 2);
+                        }
+                        c[blocks] = cpos;
+                        u[blocks] = upos;
+                        blocks++;
+                        writeFully(out, ByteBuffer.wrap(block));
+                        cpos += block.length;
+                        upos += BLOCK_DATA;
+                    }
+                }
+                stats.inputBytes += len;
+            }
+            c[blocks] = cpos;
+            u[blocks] = stats.inputBytes;
+            blocks++;
+            writeFully(out, ByteBuffer.wrap(EOF_BLOCK));
+            stats.blocks = blocks;
+        } catch (IOException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        } finally {
+            pool.shutdown();
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        stats.outputBytes = target.length();
+        if (index) {
+            stats.indexBytes = writeIndex(output, c, u, blocks);
+        }
+        return stats;
+    }
+
+    // replaces the plain file `file` with its block-compressed form, without an index
+    static void recompress(File file, int threads) throws IOException {
+        File packed = new File(file.getAbsolutePath() + ".bgz");
+        compress(file.getPath(), packed.getPath(), threads, DEFAULT_LEVEL, false);
+        Files.move(packed.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // blocks [from, to) of the first `len` bytes of `batch`, each as a complete BGZF member
+    private static byte[][] deflate(byte[] batch, int len, int from, int to, int level) {
+        Deflater d = new Deflater(level, true);
+        Deflater stored = null;
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[MAX_BLOCK];
+        byte[][] out = new byte[to - from][];
+        try {
+            for (int k = from; k < to; k++) {
+                int off = k * BLOCK_DATA;
+                int n = Math.min(BLOCK_DATA, len - off);
+                d.reset();
+                d.setInput(batch, off, n);
+                d.finish();
+                int clen = d.deflate(buf, HEADER, MAX_BLOCK - HEADER - TRAILER);
+                if (!d.finished()) {
+                    // incompressible data: stored deflate blocks always fit
+                    if (stored == null) stored = new Deflater(Deflater.NO_COMPRESSION, true);
+                    stored.reset();
+                    stored.setInput(batch, off, n);
+                    stored.finish();
+                    clen = stored.deflate(buf, HEADER, MAX_BLOCK - HEADER - TRAILER);
+                }
+                int bsize = HEADER + clen + TRAILER;
+                ByteBuffer b = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+                b.put(0, EOF_BLOCK, 0, 16);
+                b.putShort(16, (short) (bsize - 1));
+                crc.reset();
+                crc.update(batch, off, n);
+                b.putInt(HEADER + clen, (int) crc.getValue());
+                b.putInt(HEADER + clen + 4, n);
+                out[k - from] = Arrays.copyOf(buf, bsize);
+            }
+        } finally {
+            d.end();
+            if (stored != null) stored.end();
+        }
+        return out;
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer b, long pos) throws IOException {
+        while (b.hasRemaining()) {
+            if (ch.read(b, pos + b.position()) < 0) {
+                throw new IOException("Unexpected end of file at offset " + (pos + b.position()));
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) ch.write(b);
+    }
+}
@@ -0,0 +1,551 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+
+final class ChunkedCsvScanner implements Closeable {
+
+    private static final long MAP_WINDOW = 1L << 30;
+    private static final long MIN_CHUNK = 8L << 20;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int ADVANCE_EVERY = 1 << 20;
+
+    interface RowVisitor {
+        boolean visit(ByteBuffer buf, int start, int end);
+
+        default void window(long fileOffset) {
+        }
+
+        // true when the visitor times its own parse/decode/match phases on sampled rows
+        default boolean metrics(ScanMetrics.Recorder recorder) {
+            return false;
+        }
+    }
+
+    // receives a matched row as raw bytes; buf is only valid for the duration of the call
+    interface MatchSink {
+        void accept(ByteBuffer buf, int from, int to) throws IOException;
+    }
+
+    interface RangeListener {
+        void completed(Result range) throws IOException;
+    }
+
+    static final class Result {
+        long scanned;
+        long matched;
+        long start;
+        long end;
+        List<RowVisitor> visitors = new ArrayList<>();
+    }
+
+    private final String file;
+    private final FileChannel channel;
+    // non-null for block-compressed input: offsets are then offsets into the uncompressed data, and windows
+    // are inflated into pooled buffers instead of being mapped
+    private final BlockGzip gz;
+    private final long mapWindow;
+    private final long size;
+    private final String header;
+    private final long dataStart;
+    private final DeltaLog.Overlay overlay;
+    private ScanMetrics metrics;
+    private boolean readAhead;
+
+    private ChunkedCsvScanner(String file, FileChannel channel, BlockGzip gz, DeltaLog.Overlay overlay) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        this.gz = gz;
+        this.mapWindow = gz == null ? MAP_WINDOW : BlockGzip.WINDOW;
+        this.overlay = overlay == null || overlay.size() == 0 ? null : overlay;
+        this.size = gz == null ? channel.size() : gz.size();
+        if (size == 0) {
+            this.header = null;
+            this.dataStart = 0L;
+        } else {
+            ByteBuffer pooled = gz == null ? null : gz.acquire();
+            ByteBuffer buf = window(0L, Math.min(size, mapWindow), pooled, 1);
+            int end = recordEnd(buf, 0, buf.limit());
+            int headerEnd = end < 0 ? buf.limit() : end;
+            int rowEnd = headerEnd > 0 && buf.get(headerEnd - 1) == '\r' ? headerEnd - 1 : headerEnd;
+            this.header = decode(buf, 0, rowEnd);
+            this.dataStart = Math.min(size, headerEnd + 1L);
+            if (pooled != null) gz.release(pooled);
+        }
+    }
+
+    static ChunkedCsvScanner open(String file) throws IOException {
+        return open(file, true);
+    }
+
+    // with mergeDeltas, rows replaced in the file's delta log are read from the log instead of the base;
+    // the log is read and the base opened under the log's shared lock, so a compaction cannot come between
+    static ChunkedCsvScanner open(String file, boolean mergeDeltas) throws IOException {
+        DeltaLog.Overlay overlay = null;
+        FileChannel ch;
+        if (mergeDeltas) {
+            try (DeltaLog.Snapshot snapshot = DeltaLog.snapshot(file)) {
+                overlay = snapshot.overlay;
+                ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+            }
+        } else {
+            ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        }
+        BlockGzip gz = null;
+        try {
+            gz = BlockGzip.detect(file) ? BlockGzip.open(file, ch) : null;
+            return new ChunkedCsvScanner(file, ch, gz, overlay);
+        } catch (IOException | RuntimeException e) {
+            if (gz != null) gz.close();
+            ch.close();
+            throw e;
+        }
+    }
+
+    String file() {
+        return file;
+    }
+
+    String header() {
+        return header;
+    }
+
+    // of the uncompressed data when the file is block-compressed
+    long size() {
+        return size;
+    }
+
+    boolean compressed() {
+        return gz != null;
+    }
+
+    // FileChannel.read(dst, pos) on the uncompressed data
+    int read(ByteBuffer dst, long pos) throws IOException {
+        return gz == null ? channel.read(dst, pos) : gz.read(dst, pos);
+    }
+
+    long dataStart() {
+        return dataStart;
+    }
+
+    // offsets of the rows read from the delta log; index lookups have to re-check these
+    long[] overlaidRows() {
+        if (overlay == null) {
+            return new long[0];
+        }
+        long[] rows = new long[overlay.size()];
+        for (int k = 0; k < rows.length; k++) rows[k] = overlay.offset(k);
+        return rows;
+    }
+
+    boolean overlaid(long offset) {
+        return overlay != null && overlay.get(offset) != null;
+    }
+
+    // later scans record their phases into `metrics` (null turns recording off)
+    void record(ScanMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Later single-threaded scans of the whole range read ahead of themselves on a ReadAhead thread. Off
+    // by default: on a warm page cache the reader only costs time, and scans cut short by a limit would
+    // read far past where they stop.
+    void readAhead(boolean on) {
+        this.readAhead = on;
+    }
+
+
+
+    Result scan(int threads, Long limit, Supplier<? extends RowVisitor> visitors, Consumer<String> onMatch) throws IOException {
+        return scan(threads, limit, visitors, onMatch, null);
+    }
+
+    // onRange sees each kept range on the calling thread, in file order, while later ranges are still running
+    Result scan(int threads, Long limit, Supplier<? extends RowVisitor> visitors, Consumer<String> onMatch,
+                RangeListener onRange) throws IOException {
+        return run(threads, limit, null, visitors,
+                onMatch == null ? null : (buf, from, to) -> onMatch.accept(decode(buf, from, to)), onRange);
+    }
+
+    // hands matched rows to `sink` undecoded, in file order; with stopAfter the scan runs on the calling
+    // thread and ends right after the stopAfter-th match
+    Result scanMatches(int threads, Long limit, Long stopAfter, Supplier<? extends RowVisitor> visitors,
+                       MatchSink sink) throws IOException {
+        return run(threads, limit, stopAfter, visitors, sink, null);
+    }
+
+    private Result run(int threads, Long limit, Long stopAfter, Supplier<? extends RowVisitor> visitors,
+                       MatchSink onMatch, RangeListener onRange) throws IOException {
+        long span = size - dataStart;
+        int parts = (int) Math.min((long) threads * CHUNKS_PER_THREAD, span / MIN_CHUNK);
+        parts = (int) Math.max(parts, (span + MAP_WINDOW / 2 - 1) / (MAP_WINDOW / 2));
+        if (limit != null || stopAfter != null || threads <= 1 || parts <= 1) {
+            // one scanning thread: compressed windows are inflated on all of them instead
+            Result r = scanRange(dataStart, size, limit, stopAfter, visitors.get(), onMatch, threads, true);
+            if (onRange != null) {
+                onRange.completed(r);
+            }
+            return r;
+        }
+
+        long[] bounds = new long[parts + 1];
+        bounds[0] = dataStart;
+        bounds[parts] = size;
+        for (int k = 1; k < parts; k++) {
+            bounds[k] = nextLineStart(dataStart + span * k / parts);
+        }
+        return parallel(threads, Arrays.copyOf(bounds, parts), Arrays.copyOfRange(bounds, 1, parts + 1), false,
+                visitors, onMatch, onRange);
+    }
+
+    // Like scanMatches(), but reads only the byte ranges [ranges[2k], ranges[2k + 1]), which have to start
+    // at row starts and come in file order; everything between them is skipped without being read.
+    Result scanMatches(int threads, Long limit, Long stopAfter, Supplier<? extends RowVisitor> visitors,
+                       MatchSink sink, long[] ranges) throws IOException {
+        int n = ranges.length / 2;
+        long[] starts = new long[n];
+        long[] ends = new long[n];
+        for (int k = 0; k < n; k++) {
+            starts[k] = ranges[2 * k];
+            ends[k] = ranges[2 * k + 1];
+        }
+        if (limit == null && stopAfter == null && threads > 1 && n > 1) {
+            return parallel(threads, starts, ends, true, visitors, sink, null);
+        }
+        Result total = new Result();
+        total.start = n > 0 ? starts[0] : dataStart;
+        total.end = total.start;
+        RowVisitor visitor = visitors.get();
+        total.visitors.add(visitor);
+        for (int k = 0; k < n; k++) {
+            Long rowsLeft = limit == null ? null : limit - total.scanned;
+            Long matchesLeft = stopAfter == null ? null : stopAfter - total.matched;
+            if ((rowsLeft != null && rowsLeft <= 0) || (matchesLeft != null && matchesLeft <= 0)) {
+                break;
+            }
+            Result r = scanRange(starts[k], ends[k], rowsLeft, matchesLeft, visitor, sink, threads, true);
+            total.scanned += r.scanned;
+            total.matched += r.matched;
+            total.end = r.end;
+        }
+        return total;
+    }
+
+    // Scans [starts[k], ends[k]) on `threads` workers. Unless the ranges are `aligned` to row starts, they
+    // are speculative splits of one contiguous span, and a range whose predecessor ended past its start
+    // is redone from there.
+    private Result parallel(int threads, long[] starts, long[] ends, boolean aligned, Supplier<? extends RowVisitor> visitors,
+                            MatchSink onMatch, RangeListener onRange) throws IOException {
+        int parts = starts.length;
+        ScanMetrics.Recorder caller = metrics == null ? ScanMetrics.OFF : metrics.recorder();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Future<Result>> futures = new ArrayList<>(parts);
+            List<Collector> collectors = new ArrayList<>(parts);
+            for (int k = 0; k < parts; k++) {
+                final long from = starts[k];
+                final long to = ends[k];
+                final Collector c = onMatch == null ? null : new Collector();
+                collectors.add(c);
+                futures.add(pool.submit(() -> scanRange(from, to, null, null, visitors.get(), c, 1, false)));
+            }
+
+            Result total = new Result();
+            total.start = starts[0];
+            long expected = starts[0];
+            for (int k = 0; k < parts; k++) {
+                Result r = await(futures.get(k));
+                Collector c = collectors.get(k);
+                if (!aligned && r.start != expected) {
+                    // the previous chunk's last record ran past our boundary (a quoted newline), so the
+                    // speculative split landed inside a field; redo this chunk from the true record start
+                    c = onMatch == null ? null : new Collector();
+                    r = scanRange(expected, Math.max(expected, ends[k]), null, null, visitors.get(), c, 1, false);
+                }
+                total.scanned += r.scanned;
+                total.matched += r.matched;
+                total.visitors.addAll(r.visitors);
+                if (onMatch != null) {
+                    long t = caller.clock();
+                    c.replay(onMatch);
+                    caller.lap(ScanMetrics.WRITE, t);
+                }
+                if (onRange != null) {
+                    onRange.completed(r);
+                }
+                expected = r.end;
+            }
+            total.end = expected;
+            return total;
+        } finally {
+            pool.shutdown();
+            caller.finish();
+        }
+    }
+
+    // `sequential` is set when this is the only thread scanning; with readAhead on and no limit it then
+    // reads ahead of itself (parallel workers already keep several reads in flight)
+    private Result scanRange(long from, long to, Long limit, Long stopAfter, RowVisitor visitor, MatchSink onMatch,
+                             int inflaters, boolean sequential) throws IOException {
+        Result r = new Result();
+        r.start = from;
+        r.visitors.add(visitor);
+        ScanMetrics.Recorder rec = metrics == null ? ScanMetrics.OFF : metrics.recorder();
+        boolean timed = rec.enabled();
+        boolean detailed = visitor.metrics(rec);
+        ScanChunkEvent event = new ScanChunkEvent();
+        event.begin();
+        long pos = from;
+        int k = overlay == null ? 0 : overlay.first(from);
+        long next = overlay == null ? Long.MAX_VALUE : overlay.offset(k);
+        ByteBuffer pooled = gz == null ? null : gz.acquire();
+        // compressed windows stop this far past `to`, enough for the row crossing it unless that row is huge
+        long tail = BlockGzip.BLOCK_DATA;
+        ReadAhead ahead = null;
+        if (readAhead && sequential && limit == null && stopAfter == null && to - from > ReadAhead.SLOT) {
+            ahead = gz == null ? ReadAhead.start(channel, from, to)
+                    : ReadAhead.start(channel, gz.compressedOffset(from), gz.compressedOffset(to));
+        }
+        try {
+            scan:
+            while (pos < to) {
+                long window = Math.min(size - pos, gz == null ? mapWindow : Math.min(mapWindow, to - pos + tail));
+                long rt = rec.clock();
+                ByteBuffer buf = window(pos, window, pooled, inflaters);
+                rec.lap(ScanMetrics.READ, rt, gz == null ? 0L : window);
+                if (ahead != null && gz != null) ahead.advance(gz.compressedOffset(pos + window));
+                visitor.window(pos);
+                int limitInWindow = (int) Math.min(window, to - pos);
+                boolean lastWindow = pos + window >= size;
+                int touched = 0;
+                int advanced = 0;
+                int i = 0;
+                while (i < limitInWindow) {
+                    if ((limit != null && r.scanned >= limit) || (stopAfter != null && r.matched >= stopAfter)) {
+                        pos += i;
+                        break scan;
+                    }
+                    if (timed && i >= touched) {
+                        touched = rec.touch(buf, i, limitInWindow);
+                    }
+                    if (ahead != null && gz == null && i >= advanced) {
+                        ahead.advance(pos + i);
+                        advanced = i + ADVANCE_EVERY;
+                    }
+                    boolean sample = rec.sample();
+                    long t = sample ? System.nanoTime() : 0L;
+                    int end = recordEnd(buf, i, (int) window);
+                    if (end < 0) {
+                        if (!lastWindow) {
+                            if (i == 0) {
+                                if (window < Math.min(size - pos, mapWindow)) {
+                                    tail = mapWindow;
+                                    continue scan;
+                                }
+                                throw new IllegalStateException("Record at offset " + pos + " is larger than " + mapWindow + " bytes");
+                            }
+                            break;
+                        }
+                        end = (int) window;
+                    }
+                    int rowEnd = end;
+                    if (rowEnd > i && buf.get(rowEnd - 1) == '\r') rowEnd--;
+                    r.scanned++;
+                    ByteBuffer row = buf;
+                    int rowStart = i;
+                    boolean hit;
+                    if (sample) {
+                        t = rec.lap(ScanMetrics.FRAME, t);
+                        rec.sampling = true;
+                    }
+                    if (pos + i == next) {
+                        // the logged row stands in for this one; index 0 of its buffer is the row's offset
+                        row = ByteBuffer.wrap(overlay.row(k));
+                        rowStart = 0;
+                        rowEnd = row.limit();
+                        next = overlay.offset(++k);
+                        visitor.window(pos + i);
+                        hit = visitor.visit(row, 0, rowEnd);
+                        visitor.window(pos);
+                    } else {
+                        hit = visitor.visit(buf, i, rowEnd);
+                    }
+                    if (sample) {
+                        rec.sampling = false;
+                        if (!detailed) rec.lap(ScanMetrics.VISIT, t);
+                    }
+                    if (hit) {
+                        r.matched++;
+                        if (onMatch != null) {
+                            long w = rec.clock();
+                            onMatch.accept(row, rowStart, rowEnd);
+                            rec.lap(ScanMetrics.WRITE, w, rowEnd - rowStart);
+                        }
+                    }
+                    while (next <= pos + end) next = overlay.offset(++k);
+                    i = end + 1;
+                }
+                pos += Math.min(i, window);
+            }
+        } finally {
+            if (ahead != null) ahead.close();
+            if (pooled != null) gz.release(pooled);
+        }
+        r.end = Math.min(pos, size);
+        rec.count(ScanMetrics.FRAME, r.end - r.start);
+        rec.finish();
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = file;
+            event.start = r.start;
+            event.bytes = r.end - r.start;
+            event.rows = r.scanned;
+            event.matched = r.matched;
+            event.commit();
+        }
+        return r;
+    }
+
+    ByteBuffer readRecord(long offset) throws IOException {
+        byte[] logged = overlay == null ? null : overlay.get(offset);
+        if (logged != null) {
+            return ByteBuffer.wrap(logged);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        while (true) {
+            int n = read(buf, offset + buf.position());
+            int end = recordEnd(buf, 0, buf.position());
+            if (end < 0) {
+                if (n >= 0) {
+                    if (!buf.hasRemaining()) {
+                        ByteBuffer bigger = ByteBuffer.allocate(buf.capacity() * 2);
+                        buf.flip();
+                        bigger.put(buf);
+                        buf = bigger;
+                    }
+                    continue;
+                }
+                end = buf.position();
+            }
+            if (end > 0 && buf.get(end - 1) == '\r') end--;
+            buf.limit(end);
+            buf.position(0);
+            return buf;
+        }
+    }
+
+    static int recordEnd(ByteBuffer buf, int from, int limit) {
+        boolean inQuotes = false;
+        for (int i = from; i < limit; i++) {
+            byte b = buf.get(i);
+            if (b == '"') {
+                inQuotes = !inQuotes;
+            } else if (b == '\n' && !inQuotes) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static String decode(ByteBuffer buf, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buf.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long nextLineStart(long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(64 << 10);
+        long p = pos;
+        while (p < size) {
+            buf.clear();
+            int n = read(buf, p);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    return p + i + 1;
+                }
+            }
+            p += n;
+        }
+        return size;
+    }
+
+    // [pos, pos + len) of the data: a mapping of the file, or inflated into `pooled` on `inflaters` threads
+    private ByteBuffer window(long pos, long len, ByteBuffer pooled, int inflaters) throws IOException {
+        if (gz == null) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, pos, len);
+        }
+        pooled.clear().limit((int) len);
+        while (pooled.hasRemaining()) {
+            if (gz.read(pooled, pos + pooled.position(), inflaters) < 0) break;
+        }
+        return pooled.flip();
+    }
+
+    private static Result await(Future<Result> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning", e);
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof IOException) throw (IOException) c;
+            if (c instanceof RuntimeException) throw (RuntimeException) c;
+            throw new IOException(c);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (gz != null) gz.close();
+        channel.close();
+    }
+
+
+
+
+    // a worker's matched rows, copied out of the mapped window back to back until the caller replays them
+    private static final class Collector implements MatchSink {
+        private byte[] bytes = new byte[64 << 10];
+        private int[] ends = new int[1024];
+        private int size;
+        private int count;
+
+        @Override
+        public void accept(ByteBuffer buf, int from, int to) {
+            int n = to - from;
+            if (size + n > bytes.length) {
+                bytes = Arrays.copyOf(bytes, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(2L * bytes.length, (long) size + n)));
+                if (size + n > bytes.length) {
+                    throw new IllegalStateException("More than " + bytes.length + " bytes of matched rows in one range");
+                }
+            }
+            if (count == ends.length) ends = Arrays.copyOf(ends, 2 * count);
+            buf.get(from, bytes, size, n);
+            size += n;
+            ends[count++] = size;
+        }
+
+        void replay(MatchSink sink) throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            int from = 0;
+            for (int k = 0; k < count; k++) {
+                sink.accept(buf, from, ends[k]);
+                from = ends[k];
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+import java.nio.ByteBuffer;
+
+
+final class ColumnKeywordMatcher implements ChunkedCsvScanner.RowVisitor {
+
+    private final int column;
+    private final KeywordMatcher matcher;
+    private final CsvTokenizer tokenizer = new CsvTokenizer();
+    private ScanMetrics.Recorder metrics = ScanMetrics.OFF;
+
+    ColumnKeywordMatcher(int column, KeywordMatcher matcher) {
+        this.column = column;
+        this.matcher = matcher;
+    }
+
+    @Override
+    public boolean metrics(ScanMetrics.Recorder recorder) {
+        metrics = recorder;
+        return true;
+    }
+
+    @Override
+    public boolean visit(ByteBuffer buf, int start, int end) {
+        long t = metrics.mark();
+        if (tokenizer.tokenize(buf, start, end, column) <= column) {
+            metrics.lap(ScanMetrics.PARSE, t);
+            return false;
+        }
+        t = metrics.lap(ScanMetrics.PARSE, t);
+        boolean hit;
+        if (tokenizer.needsUnescape(column)) {
+            String value = tokenizer.fieldString(column);
+            t = metrics.lap(ScanMetrics.DECODE, t);
+            hit = matcher.containedIn(value);
+        } else {
+            hit = matcher.containedIn(buf, tokenizer.start(column), tokenizer.end(column));
+        }
+        metrics.lap(ScanMetrics.MATCH, t);
+        return hit;
+    }
+}
@@ -0,0 +1,676 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+
+final class ColumnarTable implements Closeable {
+
+    static final byte INT = 1;
+    static final byte STRING = 2;
+    static final byte DICT = 3;
+    static final int NULL_INT = Integer.MIN_VALUE;
+
+    private static final int MAGIC = 0x434F4C31;
+    private static final int BLOCK_MAGIC = 0x424C4B31;
+    private static final int VERSION = 1;
+    private static final int FOOTER = 12;
+    static final int DEFAULT_BLOCK_ROWS = 1 << 16;
+    private static final int MAX_DICT = 256;
+
+    static final class ConvertStats {
+        long rows;
+        int blocks;
+        long bytes;
+        String layout;
+    }
+
+    private final FileChannel channel;
+    private final String[] names;
+    private final byte[] types;
+    private final byte[][][] dicts;
+    private final long rows;
+    private final int[] blockRows;
+    private final long[][] chunkOffsets;
+    private final int[][] chunkLengths;
+    private final int[][] intMin;
+    private final int[][] intMax;
+
+    private ColumnarTable(FileChannel channel, DataInputStream in) throws IOException {
+        this.channel = channel;
+        this.rows = in.readLong();
+        int ncols = in.readInt();
+        this.names = new String[ncols];
+        this.types = new byte[ncols];
+        this.dicts = new byte[ncols][][];
+        for (int c = 0; c < ncols; c++) {
+            names[c] = in.readUTF();
+            types[c] = in.readByte();
+            if (types[c] == DICT) {
+                byte[][] d = new byte[in.readInt()][];
+                for (int i = 0; i < d.length; i++) {
+                    d[i] = new byte[in.readUnsignedShort()];
+                    in.readFully(d[i]);
+                }
+                dicts[c] = d;
+            }
+        }
+        int blocks = in.readInt();
+        this.blockRows = new int[blocks];
+        this.chunkOffsets = new long[blocks][ncols];
+        this.chunkLengths = new int[blocks][ncols];
+        this.intMin = new int[blocks][ncols];
+        this.intMax = new int[blocks][ncols];
+        for (int b = 0; b < blocks; b++) {
+            in.readLong();
+            blockRows[b] = in.readInt();
+            for (int c = 0; c < ncols; c++) {
+                chunkOffsets[b][c] = in.readLong();
+                chunkLengths[b][c] = in.readInt();
+                if (types[c] == INT) {
+                    intMin[b][c] = in.readInt();
+                    intMax[b][c] = in.readInt();
+                }
+            }
+        }
+    }
+
+    static String defaultPath(String csvFile) {
+        return csvFile.endsWith(".csv") ? csvFile.substring(0, csvFile.length() - 4) + ".col" : csvFile + ".col";
+    }
+
+    static boolean isColumnar(String file) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            if (ch.size() < FOOTER) {
+                return false;
+            }
+            ByteBuffer tail = ByteBuffer.allocate(4);
+            readFully(ch, tail, ch.size() - 4);
+            return tail.getInt(0) == MAGIC;
+        }
+    }
+
+    static ColumnarTable open(String file) throws IOException {
+        FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        try {
+            long size = ch.size();
+            if (size < FOOTER) {
+                throw new IllegalStateException("Not a columnar table: " + file);
+            }
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER);
+            readFully(ch, footer, size - FOOTER);
+            long start = footer.getLong(0);
+            if (footer.getInt(8) != MAGIC || start < 0 || start > size - FOOTER) {
+                throw new IllegalStateException("Not a columnar table: " + file);
+            }
+            ByteBuffer meta = ByteBuffer.allocate((int) (size - FOOTER - start));
+            readFully(ch, meta, start);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(meta.array()));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalStateException("Unsupported columnar table: " + file);
+            }
+            return new ColumnarTable(ch, in);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+
+
+
+    static ConvertStats convert(String csvFile, String outFile, int blockSize) throws IOException {
+        ConvertStats stats = new ConvertStats();
+        try (ChunkedCsvScanner scanner = ChunkedCsvScanner.open(csvFile)) {
+            String header = scanner.header();
+            if (header == null) {
+                throw new IllegalStateException("Empty file. Nothing to convert.");
+            }
+            CsvTokenizer cols = new CsvTokenizer();
+            cols.tokenize(header, -1);
+            String[] names = new String[cols.count()];
+            for (int c = 0; c < names.length; c++) {
+                names[c] = cols.fieldString(c);
+            }
+
+            // pass 1: pick a physical type per column
+            Analyzer analyzer = new Analyzer(names.length);
+            scanner.scan(1, null, () -> analyzer, null);
+            byte[] types = new byte[names.length];
+            List<Map<String, Integer>> dictionaries = new ArrayList<>();
+            StringBuilder layout = new StringBuilder();
+            for (int c = 0; c < names.length; c++) {
+                Map<String, Integer> dict = null;
+                if (analyzer.allInt[c]) {
+                    types[c] = INT;
+                } else if (analyzer.distinct.get(c) != null && analyzer.rows > 2L * analyzer.distinct.get(c).size()) {
+                    types[c] = DICT;
+                    dict = new HashMap<>();
+                    List<String> values = new ArrayList<>(analyzer.distinct.get(c));
+                    values.sort(null);
+                    for (String v : values) dict.put(v, dict.size());
+                } else {
+                    types[c] = STRING;
+                }
+                dictionaries.add(dict);
+                if (c > 0) layout.append(", ");
+                layout.append(names[c]).append(':').append(types[c] == INT ? "int" : types[c] == DICT ? "dict(" + dict.size() + ")" : "string");
+            }
+            stats.layout = layout.toString();
+
+            // pass 2: write row blocks
+            File target = new File(outFile);
+            File tmp = new File(target.getAbsolutePath() + ".tmp");
+            try (Writer w = new Writer(tmp, names, types, dictionaries, blockSize)) {
+                scanner.scan(1, null, () -> w, null);
+                w.finish();
+                stats.rows = w.rows;
+                stats.blocks = w.blocks;
+            }
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            stats.bytes = target.length();
+        }
+        return stats;
+    }
+
+
+
+
+    String[] columnNames() {
+        return names.clone();
+    }
+
+    int columnIndex(String name) {
+        for (int c = 0; c < names.length; c++) {
+            if (names[c].equalsIgnoreCase(name)) return c;
+        }
+        return -1;
+    }
+
+    byte type(int column) {
+        return types[column];
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    int blocks() {
+        return blockRows.length;
+    }
+
+    int blockRows(int block) {
+        return blockRows[block];
+    }
+
+    // per-block min/max of an int column, NULL_INT when the block holds only NULLs
+    int blockMin(int block, int column) {
+        return intMin[block][column];
+    }
+
+    int blockMax(int block, int column) {
+        return intMax[block][column];
+    }
+
+    long scan(int column, KeywordMatcher matcher, Long limit, int threads) throws IOException {
+        if (threads <= 1 || limit != null) {
+            long remaining = limit == null ? Long.MAX_VALUE : limit;
+            long matched = 0L;
+            for (int b = 0; b < blockRows.length && remaining > 0; b++) {
+                int n = (int) Math.min(blockRows[b], remaining);
+                matched += scanBlock(b, column, matcher, n);
+                remaining -= n;
+            }
+            return matched;
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Future<Long>> parts = new ArrayList<>();
+            for (int b = 0; b < blockRows.length; b++) {
+                int block = b;
+                parts.add(pool.submit(() -> scanBlock(block, column, matcher, blockRows[block])));
+            }
+            long matched = 0L;
+            for (Future<Long> f : parts) {
+                matched += f.get();
+            }
+            return matched;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning " + names[column], e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    long scanned(Long limit) {
+        return limit == null ? rows : Math.min(rows, Math.max(0L, limit));
+    }
+
+    void preview(long limit, Consumer<String> out) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int c = 0; c < names.length; c++) {
+            if (c > 0) sb.append(',');
+            CsvTokenizer.appendField(sb, names[c]);
+        }
+        out.accept(sb.toString());
+        long remaining = limit;
+        ByteBuffer[] chunks = new ByteBuffer[names.length];
+        for (int b = 0; b < blockRows.length && remaining > 0; b++) {
+            for (int c = 0; c < names.length; c++) chunks[c] = chunk(b, c);
+            int n = (int) Math.min(blockRows[b], remaining);
+            for (int r = 0; r < n; r++) {
+                sb.setLength(0);
+                for (int c = 0; c < names.length; c++) {
+                    if (c > 0) sb.append(',');
+                    appendValue(sb, chunks[c], c, r, blockRows[b]);
+                }
+                out.accept(sb.toString());
+            }
+            remaining -= n;
+        }
+    }
+
+    GroupAggregator aggregate(int keyColumn, int[] ops, int[] columns, int threads) throws IOException {
+        long[][] dictValues = new long[columns.length][];
+        for (int a = 0; a < columns.length; a++) {
+            if (types[columns[a]] == DICT) {
+                byte[][] d = dicts[columns[a]];
+                dictValues[a] = new long[d.length];
+                for (int i = 0; i < d.length; i++) {
+                    dictValues[a][i] = GroupAggregator.parseValue(new String(d[i], StandardCharsets.UTF_8));
+                }
+            }
+        }
+        int workers = Math.min(threads, blockRows.length);
+        if (workers <= 1) {
+            return aggregateBlocks(0, blockRows.length, keyColumn, ops, columns, dictValues);
+        }
+        // contiguous block ranges, one partial aggregator each, merged in block order
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        try {
+            List<Future<GroupAggregator>> parts = new ArrayList<>();
+            for (int w = 0; w < workers; w++) {
+                int from = (int) ((long) blockRows.length * w / workers);
+                int to = (int) ((long) blockRows.length * (w + 1) / workers);
+                parts.add(pool.submit(() -> aggregateBlocks(from, to, keyColumn, ops, columns, dictValues)));
+            }
+            GroupAggregator total = parts.get(0).get();
+            for (int w = 1; w < parts.size(); w++) {
+                total.merge(parts.get(w).get());
+            }
+            return total;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while aggregating by " + names[keyColumn], e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private GroupAggregator aggregateBlocks(int from, int to, int keyColumn, int[] ops, int[] columns, long[][] dictValues)
+            throws IOException {
+        GroupAggregator agg = new GroupAggregator(keyColumn, ops, columns);
+        ByteBuffer[] values = new ByteBuffer[columns.length];
+        for (int b = from; b < to; b++) {
+            int n = blockRows[b];
+            ByteBuffer keys = chunk(b, keyColumn);
+            for (int a = 0; a < columns.length; a++) values[a] = chunk(b, columns[a]);
+            int[] dictGroups = null;
+            if (types[keyColumn] == DICT) {
+                byte[][] d = dicts[keyColumn];
+                dictGroups = new int[d.length];
+                for (int i = 0; i < d.length; i++) {
+                    dictGroups[i] = d[i].length == 0 ? agg.nullGroup() : agg.group(ByteBuffer.wrap(d[i]), 0, d[i].length);
+                }
+            }
+            for (int r = 0; r < n; r++) {
+                int g;
+                if (types[keyColumn] == INT) {
+                    int v = keys.getInt(4 * r);
+                    g = v == NULL_INT ? agg.nullGroup() : agg.group(v);
+                } else if (types[keyColumn] == DICT) {
+                    g = dictGroups[keys.get(r) & 0xFF];
+                } else {
+                    int base = 4 * (n + 1);
+                    g = agg.group(keys, base + keys.getInt(4 * r), base + keys.getInt(4 * r + 4));
+                }
+                agg.count(g, 1L);
+                for (int a = 0; a < columns.length; a++) {
+                    long v = value(values[a], columns[a], r, n, dictValues[a]);
+                    if (v != GroupAggregator.NONE) {
+                        agg.add(g, a, v);
+                    }
+                }
+            }
+        }
+        return agg;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private long scanBlock(int b, int column, KeywordMatcher matcher, int n) throws IOException {
+        ByteBuffer c = chunk(b, column);
+        long matched = 0L;
+        if (types[column] == STRING) {
+            int base = 4 * (blockRows[b] + 1);
+            for (int r = 0; r < n; r++) {
+                if (matcher.containedIn(c, base + c.getInt(4 * r), base + c.getInt(4 * r + 4))) matched++;
+            }
+        } else if (types[column] == DICT) {
+            byte[][] d = dicts[column];
+            boolean[] hit = new boolean[d.length];
+            for (int i = 0; i < d.length; i++) {
+                hit[i] = matcher.containedIn(ByteBuffer.wrap(d[i]), 0, d[i].length);
+            }
+            for (int r = 0; r < n; r++) {
+                if (hit[c.get(r) & 0xFF]) matched++;
+            }
+        } else {
+            for (int r = 0; r < n; r++) {
+                int v = c.getInt(4 * r);
+                if (matcher.containedIn(v == NULL_INT ? "" : Integer.toString(v))) matched++;
+            }
+        }
+        return matched;
+    }
+
+    private long value(ByteBuffer c, int column, int r, int n, long[] dictValues) {
+        if (types[column] == INT) {
+            int v = c.getInt(4 * r);
+            return v == NULL_INT ? GroupAggregator.NONE : v;
+        }
+        if (types[column] == DICT) {
+            return dictValues[c.get(r) & 0xFF];
+        }
+        int base = 4 * (n + 1);
+        return GroupAggregator.parseValue(c, base + c.getInt(4 * r), base + c.getInt(4 * r + 4));
+    }
+
+    private void appendValue(StringBuilder sb, ByteBuffer c, int column, int r, int n) {
+        if (types[column] == INT) {
+            int v = c.getInt(4 * r);
+            if (v != NULL_INT) sb.append(v);
+        } else if (types[column] == DICT) {
+            CsvTokenizer.appendField(sb, new String(dicts[column][c.get(r) & 0xFF], StandardCharsets.UTF_8));
+        } else {
+            int base = 4 * (n + 1);
+            CsvTokenizer.appendField(sb, ChunkedCsvScanner.decode(c, base + c.getInt(4 * r), base + c.getInt(4 * r + 4)));
+        }
+    }
+
+    // only the requested column's chunk of the requested block is mapped
+    private ByteBuffer chunk(int block, int column) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, chunkOffsets[block][column], chunkLengths[block][column]);
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) {
+                throw new IOException("Unexpected end of columnar table");
+            }
+        }
+    }
+
+    private static boolean isCanonicalInt(String s) {
+        int n = s.length();
+        int i = s.startsWith("-") ? 1 : 0;
+        if (i == n || n - i > 10 || (s.charAt(i) == '0' && (n - i > 1 || i == 1))) {
+            return false;
+        }
+        for (int k = i; k < n; k++) {
+            char ch = s.charAt(k);
+            if (ch < '0' || ch > '9') return false;
+        }
+        long v = Long.parseLong(s);
+        return v > NULL_INT && v <= Integer.MAX_VALUE;
+    }
+
+
+
+
+    private static final class Analyzer implements ChunkedCsvScanner.RowVisitor {
+        private final CsvTokenizer tokenizer = new CsvTokenizer();
+        final boolean[] allInt;
+        final List<Set<String>> distinct = new ArrayList<>();
+        long rows;
+
+        Analyzer(int columns) {
+            allInt = new boolean[columns];
+            Arrays.fill(allInt, true);
+            for (int c = 0; c < columns; c++) distinct.add(new HashSet<>());
+        }
+
+        @Override
+        public boolean visit(ByteBuffer buf, int start, int end) {
+            rows++;
+            int n = Math.min(tokenizer.tokenize(buf, start, end, -1), allInt.length);
+            for (int c = 0; c < allInt.length; c++) {
+                if (!allInt[c] && distinct.get(c) == null) continue;
+                String v = c < n ? tokenizer.fieldString(c) : "";
+                if (allInt[c] && !v.isEmpty() && !isCanonicalInt(v)) {
+                    allInt[c] = false;
+                }
+                Set<String> d = distinct.get(c);
+                if (d != null && v.getBytes(StandardCharsets.UTF_8).length <= 0xFFFF) {
+                    d.add(v);
+                    if (d.size() > MAX_DICT) distinct.set(c, null);
+                } else if (d != null) {
+                    distinct.set(c, null);
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Writer implements ChunkedCsvScanner.RowVisitor, Closeable {
+        private final CsvTokenizer tokenizer = new CsvTokenizer();
+        private final DataOutputStream out;
+        private final String[] names;
+        private final byte[] types;
+        private final List<Map<String, Integer>> dictionaries;
+        private final int blockSize;
+        private final ByteArrayOutputStream directory = new ByteArrayOutputStream();
+        private final DataOutputStream dir = new DataOutputStream(directory);
+        private final int[][] ints;
+        private final byte[][] codes;
+        private final byte[][] bytes;
+        private final int[] used;
+        private final int[][] offsets;
+        private byte[] scratch = new byte[256];
+        private int inBlock;
+        private long pos;
+        long rows;
+        int blocks;
+
+        Writer(File file, String[] names, byte[] types, List<Map<String, Integer>> dictionaries, int blockSize) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 20));
+            this.names = names;
+            this.types = types;
+            this.dictionaries = dictionaries;
+            this.blockSize = blockSize;
+            int n = names.length;
+            ints = new int[n][];
+            codes = new byte[n][];
+            bytes = new byte[n][];
+            used = new int[n];
+            offsets = new int[n][];
+            for (int c = 0; c < n; c++) {
+                if (types[c] == INT) ints[c] = new int[blockSize];
+                else if (types[c] == DICT) codes[c] = new byte[blockSize];
+                else {
+                    bytes[c] = new byte[1 << 16];
+                    offsets[c] = new int[blockSize + 1];
+                }
+            }
+        }
+
+        @Override
+        public boolean visit(ByteBuffer buf, int start, int end) {
+            int n = tokenizer.tokenize(buf, start, end, -1);
+            if (n > names.length) {
+                throw new IllegalStateException("Row " + (rows + 1) + " has " + n + " fields, header has " + names.length);
+            }
+            for (int c = 0; c < names.length; c++) {
+                if (types[c] == INT) {
+                    ints[c][inBlock] = c < n && tokenizer.end(c) > tokenizer.start(c)
+                            ? Integer.parseInt(tokenizer.fieldString(c)) : NULL_INT;
+                } else if (types[c] == DICT) {
+                    codes[c][inBlock] = (byte) (int) dictionaries.get(c).get(c < n ? tokenizer.fieldString(c) : "");
+                } else {
+                    int len = c < n ? tokenizer.copyField(c, scratch) : 0;
+                    if (len > scratch.length) {
+                        scratch = new byte[len * 2];
+                        len = tokenizer.copyField(c, scratch);
+                    }
+                    if (used[c] + len > bytes[c].length) {
+                        bytes[c] = Arrays.copyOf(bytes[c], Math.max(bytes[c].length * 2, used[c] + len));
+                    }
+                    System.arraycopy(scratch, 0, bytes[c], used[c], len);
+                    used[c] += len;
+                    offsets[c][inBlock + 1] = used[c];
+                }
+            }
+            inBlock++;
+            rows++;
+            if (inBlock == blockSize) {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return false;
+        }
+
+        private void flush() throws IOException {
+            if (inBlock == 0) {
+                return;
+            }
+            dir.writeLong(pos);
+            dir.writeInt(inBlock);
+            out.writeInt(BLOCK_MAGIC);
+            out.writeInt(inBlock);
+            pos += 8;
+            for (int c = 0; c < names.length; c++) {
+                long chunkStart = pos;
+                int min = NULL_INT;
+                int max = NULL_INT;
+                if (types[c] == INT) {
+                    ByteBuffer b = ByteBuffer.allocate(4 * inBlock);
+                    for (int r = 0; r < inBlock; r++) {
+                        int v = ints[c][r];
+                        b.putInt(v);
+                        if (v != NULL_INT) {
+                            min = min == NULL_INT ? v : Math.min(min, v);
+                            max = max == NULL_INT ? v : Math.max(max, v);
+                        }
+                    }
+                    out.write(b.array());
+                } else if (types[c] == DICT) {
+                    out.write(codes[c], 0, inBlock);
+                } else {
+                    ByteBuffer b = ByteBuffer.allocate(4 * (inBlock + 1));
+                    for (int r = 0; r <= inBlock; r++) b.putInt(offsets[c][r]);
+                    out.write(b.array());
+                    out.write(bytes[c], 0, used[c]);
+                    used[c] = 0;
+                }
+                long len = chunkLength(c);
+                if (len > Integer.MAX_VALUE) {
+                    throw new IllegalStateException("Column '" + names[c] + "' block exceeds 2 GiB; use a smaller --block-rows");
+                }
+                pos += len;
+                dir.writeLong(chunkStart);
+                dir.writeInt((int) len);
+                if (types[c] == INT) {
+                    dir.writeInt(min);
+                    dir.writeInt(max);
+                }
+            }
+            inBlock = 0;
+            blocks++;
+        }
+
+        private long chunkLength(int c) {
+            if (types[c] == INT) return 4L * inBlock;
+            if (types[c] == DICT) return inBlock;
+            return 4L * (inBlock + 1) + offsets[c][inBlock];
+        }
+
+        void finish() throws IOException {
+            flush();
+            dir.flush();
+            ByteArrayOutputStream meta = new ByteArrayOutputStream();
+            DataOutputStream m = new DataOutputStream(meta);
+            m.writeInt(MAGIC);
+            m.writeInt(VERSION);
+            m.writeLong(rows);
+            m.writeInt(names.length);
+            for (int c = 0; c < names.length; c++) {
+                m.writeUTF(names[c]);
+                m.writeByte(types[c]);
+                if (types[c] == DICT) {
+                    Map<String, Integer> dict = dictionaries.get(c);
+                    byte[][] values = new byte[dict.size()][];
+                    for (Map.Entry<String, Integer> e : dict.entrySet()) {
+                        values[e.getValue()] = e.getKey().getBytes(StandardCharsets.UTF_8);
+                    }
+                    m.writeInt(values.length);
+                    for (byte[] v : values) {
+                        m.writeShort(v.length);
+                        m.write(v);
+                    }
+                }
+            }
+            m.writeInt(blocks);
+            directory.writeTo(m);
+            m.flush();
+            meta.writeTo(out);
+            out.writeLong(pos);
+            out.writeInt(MAGIC);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+final class CsvTokenizer {
+
+    private static final int INITIAL_FIELDS = 16;
+
+    private int[] starts = new int[INITIAL_FIELDS];
+    private int[] ends = new int[INITIAL_FIELDS];
+    private boolean[] escaped = new boolean[INITIAL_FIELDS];
+    private FieldView[] views = new FieldView[INITIAL_FIELDS];
+    private int count;
+
+    private CharSequence chars;
+    private ByteBuffer bytes;
+
+
+
+
+    int tokenize(CharSequence line, int lastField) {
+        chars = line;
+        bytes = null;
+        count = 0;
+        int len = line.length();
+        int fieldStart = 0;
+        int quotes = 0;
+        boolean inQuotes = false;
+        for (int i = 0; i < len; i++) {
+            char ch = line.charAt(i);
+            if (ch == '"') {
+                inQuotes = !inQuotes;
+                quotes++;
+            } else if (ch == ',' && !inQuotes) {
+                add(fieldStart, i, quotes, quotes == 2 && line.charAt(fieldStart) == '"' && line.charAt(i - 1) == '"');
+                if (lastField >= 0 && count > lastField) {
+                    return count;
+                }
+                fieldStart = i + 1;
+                quotes = 0;
+            }
+        }
+        add(fieldStart, len, quotes, quotes == 2 && line.charAt(fieldStart) == '"' && line.charAt(len - 1) == '"');
+        return count;
+    }
+
+    int tokenize(ByteBuffer buf, int from, int to, int lastField) {
+        chars = null;
+        bytes = buf;
+        count = 0;
+        int fieldStart = from;
+        int quotes = 0;
+        boolean inQuotes = false;
+        for (int i = from; i < to; i++) {
+            byte b = buf.get(i);
+            if (b == '"') {
+                inQuotes = !inQuotes;
+                quotes++;
+            } else if (b == ',' && !inQuotes) {
+                add(fieldStart, i, quotes, quotes == 2 && buf.get(fieldStart) == '"' && buf.get(i - 1) == '"');
+                if (lastField >= 0 && count > lastField) {
+                    return count;
+                }
+                fieldStart = i + 1;
+                quotes = 0;
+            }
+        }
+        add(fieldStart, to, quotes, quotes == 2 && buf.get(fieldStart) == '"' && buf.get(to - 1) == '"');
+        return count;
+    }
+
+    private void add(int start, int end, int quotes, boolean wrapped) {
+        if (count == starts.length) {
+            int n = count * 2;
+            starts = Arrays.copyOf(starts, n);
+            ends = Arrays.copyOf(ends, n);
+            escaped = Arrays.copyOf(escaped, n);
+            views = Arrays.copyOf(views, n);
+        }
+        if (wrapped) {
+            start++;
+            end--;
+            quotes = 0;
+        }
+        starts[count] = start;
+        ends[count] = end;
+        escaped[count] = quotes != 0;
+        if (views[count] != null) {
+            views[count].reset();
+        }
+        count++;
+    }
+
+    int count() {
+        return count;
+    }
+
+    int start(int field) {
+        return starts[field];
+    }
+
+    int end(int field) {
+        return ends[field];
+    }
+
+    boolean needsUnescape(int field) {
+        return escaped[field];
+    }
+
+    CharSequence field(int field) {
+        if (field < 0 || field >= count) {
+            return null;
+        }
+        FieldView v = views[field];
+        if (v == null) {
+            v = new FieldView(field);
+            views[field] = v;
+        }
+        return v;
+    }
+
+    String fieldString(int field) {
+        if (field < 0 || field >= count) {
+            return null;
+        }
+        if (chars != null) {
+            return escaped[field] ? unescape(chars, starts[field], ends[field])
+                    : chars.subSequence(starts[field], ends[field]).toString();
+        }
+        byte[] raw = new byte[ends[field] - starts[field]];
+        bytes.get(starts[field], raw);
+        String s = new String(raw, StandardCharsets.UTF_8);
+        return escaped[field] ? unescape(s, 0, s.length()) : s;
+    }
+
+    int copyField(int field, byte[] dst) {
+        if (chars != null || escaped[field]) {
+            byte[] b = fieldString(field).getBytes(StandardCharsets.UTF_8);
+            if (b.length <= dst.length) {
+                System.arraycopy(b, 0, dst, 0, b.length);
+            }
+            return b.length;
+        }
+        int len = ends[field] - starts[field];
+        if (len <= dst.length) {
+            bytes.get(starts[field], dst, 0, len);
+        }
+        return len;
+    }
+
+    boolean fieldEquals(int field, byte[] value) {
+        if (chars != null || escaped[field]) {
+            return Arrays.equals(fieldString(field).getBytes(StandardCharsets.UTF_8), value);
+        }
+        int len = ends[field] - starts[field];
+        if (len != value.length) {
+            return false;
+        }
+        for (int i = 0; i < len; i++) {
+            if (bytes.get(starts[field] + i) != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static void appendField(StringBuilder sb, CharSequence s) {
+        if (s == null) s = "";
+        boolean needQuote = false;
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == ',' || ch == '"' || ch == '\n' || ch == '\r') {
+                needQuote = true;
+                break;
+            }
+        }
+        if (!needQuote) {
+            sb.append(s);
+            return;
+        }
+
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == '"') sb.append('"');
+            sb.append(ch);
+        }
+        sb.append('"');
+    }
+
+    static String unescape(CharSequence src, int from, int to) {
+        StringBuilder cur = new StringBuilder(to - from);
+        boolean inQuotes = false;
+        for (int i = from; i < to; i++) {
+            char ch = src.charAt(i);
+            if (ch == '"') {
+                if (inQuotes && i + 1 < to && src.charAt(i + 1) == '"') {
+                    cur.append('"');
+                    i++;
+                } else {
+                    inQuotes = !inQuotes;
+                }
+            } else {
+                cur.append(ch);
+            }
+        }
+        return cur.toString();
+    }
+
+
+
+
+    private final class FieldView implements CharSequence {
+        private final int field;
+        private String unescaped;
+
+        FieldView(int field) {
+            this.field = field;
+        }
+
+        void reset() {
+            unescaped = null;
+        }
+
+        private boolean direct() {
+            return chars != null && !escaped[field];
+        }
+
+        private String materialized() {
+            if (unescaped == null) {
+                unescaped = fieldString(field);
+            }
+            return unescaped;
+        }
+
+        @Override
+        public int length() {
+            return direct() ? ends[field] - starts[field] : materialized().length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return direct() ? chars.charAt(starts[field] + index) : materialized().charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return direct() ? chars.subSequence(starts[field] + start, starts[field] + end)
+                    : materialized().subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return direct() ? chars.subSequence(starts[field], ends[field]).toString() : materialized();
+        }
+    }
+}
@@ -0,0 +1,373 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+
+// Append-only log of replacement rows for a CSV file, keyed by the byte offset of the row in the base
+// file. Rows are appended in batches that only become visible once their COMMIT record is on disk, so a
+// crashed or concurrent writer never exposes a partial update; compaction folds the log into a new base.
+final class DeltaLog implements AutoCloseable {
+
+    private static final int MAGIC = 0x444C5431;
+    private static final int VERSION = 1;
+    private static final int HEADER = 4 + 4 + 16;
+    private static final byte ROW = 1;
+    private static final byte COMMIT = 2;
+    private static final int SNAPSHOT_ATTEMPTS = 10;
+
+    static final class Overlay {
+        private final long[] offsets;
+        private final byte[][] rows;
+        final long logBytes;
+        final long commits;
+
+        private Overlay(long[] offsets, byte[][] rows, long logBytes, long commits) {
+            this.offsets = offsets;
+            this.rows = rows;
+            this.logBytes = logBytes;
+            this.commits = commits;
+        }
+
+        int size() {
+            return offsets.length;
+        }
+
+        // index of the first overlaid row at or after `offset`
+        int first(long offset) {
+            int i = Arrays.binarySearch(offsets, offset);
+            return i >= 0 ? i : -i - 1;
+        }
+
+        long offset(int k) {
+            return k < offsets.length ? offsets[k] : Long.MAX_VALUE;
+        }
+
+        byte[] row(int k) {
+            return rows[k];
+        }
+
+        byte[] get(long offset) {
+            int i = Arrays.binarySearch(offsets, offset);
+            return i >= 0 ? rows[i] : null;
+        }
+    }
+
+    // The log rows of a file, read under a shared lock on the log that is held until close(); base file
+    // channels opened before then belong to the same version of the file as `overlay`.
+    static final class Snapshot implements AutoCloseable {
+        final Overlay overlay;
+        private final FileChannel log;
+        private final FileLock lock;
+
+        private Snapshot(Overlay overlay, FileChannel log, FileLock lock) {
+            this.overlay = overlay;
+            this.log = log;
+            this.lock = lock;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (log == null) {
+                return;
+            }
+            try {
+                lock.release();
+            } finally {
+                log.close();
+            }
+        }
+    }
+
+    static final class CompactStats {
+        long folded;
+        long baseBytes;
+        long logBytes;
+    }
+
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final DataOutputStream out;
+    private final Overlay committed;
+    private final CRC32 crc = new CRC32();
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+    private long pending;
+
+    private DeltaLog(FileChannel channel, FileLock lock, Overlay committed) {
+        this.channel = channel;
+        this.lock = lock;
+        this.committed = committed;
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+    }
+
+    static String path(String csvFile) {
+        return csvFile + ".delta";
+    }
+
+    static boolean exists(String csvFile) {
+        return new File(path(csvFile)).isFile();
+    }
+
+
+    // Reads the log under a shared lock, for callers that open the base before closing the snapshot.
+    // compact() holds the exclusive lock from before it replaces the base until after it deletes the log,
+    // so a base opened under the shared lock is the one the log was written against. A log that was
+    // deleted or replaced while this waited for the lock is noticed by its file key, and read again.
+    // Without a log nothing is locked: only compact() replaces a base that has one.
+    static Snapshot snapshot(String csvFile) throws IOException {
+        Path logPath = Paths.get(path(csvFile));
+        for (int attempt = 0; attempt < SNAPSHOT_ATTEMPTS; attempt++) {
+            Object key = fileKey(logPath);
+            if (key == null) {
+                return new Snapshot(null, null, null);
+            }
+            FileChannel ch;
+            try {
+                ch = FileChannel.open(logPath, StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            FileLock lock = null;
+            try {
+                lock = ch.lock(0L, Long.MAX_VALUE, true);
+                if (key.equals(fileKey(logPath))) {
+                    Snapshot s = new Snapshot(read(ch, csvFile, logPath.toString()), ch, lock);
+                    lock = null;
+                    ch = null;
+                    return s;
+                }
+            } finally {
+                if (lock != null) lock.release();
+                if (ch != null) ch.close();
+            }
+        }
+        throw new IllegalStateException("The delta log of " + csvFile + " kept changing while it was being read");
+    }
+
+    // null when the file does not exist; falls back to the path where the platform has no file keys
+    private static Object fileKey(Path p) throws IOException {
+        try {
+            BasicFileAttributes a = Files.readAttributes(p, BasicFileAttributes.class);
+            return Objects.requireNonNullElse(a.fileKey(), p.toAbsolutePath().toString());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    // Opens the log for appending, holding an exclusive lock until close(); an uncommitted tail left by a
+    // crashed writer is cut off first.
+    static DeltaLog append(String csvFile) throws IOException {
+        String logFile = path(csvFile);
+        FileChannel ch = FileChannel.open(Paths.get(logFile), StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE);
+        try {
+            FileLock lock = ch.lock();
+            if (ch.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER);
+                FileFingerprint fp = FileFingerprint.of(csvFile);
+                header.putInt(MAGIC).putInt(VERSION).putLong(fp.size).putLong(fp.mtime).flip();
+                while (header.hasRemaining()) ch.write(header, header.position());
+                ch.force(false);
+            }
+            Overlay committed = read(ch, csvFile, logFile);
+            ch.truncate(committed.logBytes);
+            ch.position(committed.logBytes);
+            return new DeltaLog(ch, lock, committed);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    // The rows committed when the log was opened, read through the locked channel. Writers must not open
+    // the log a second time: closing any channel on it drops this process's lock.
+    Overlay committed() {
+        return committed;
+    }
+
+    void put(long rowOffset, byte[] row) throws IOException {
+        record.reset();
+        DataOutputStream r = new DataOutputStream(record);
+        r.writeByte(ROW);
+        r.writeLong(rowOffset);
+        r.writeInt(row.length);
+        r.write(row);
+        writeRecord();
+        pending++;
+    }
+
+    // makes every row put() since the last commit visible to readers at once
+    void commit() throws IOException {
+        if (pending == 0) {
+            return;
+        }
+        record.reset();
+        DataOutputStream r = new DataOutputStream(record);
+        r.writeByte(COMMIT);
+        r.writeLong(pending);
+        out.flush();
+        channel.force(false);
+        writeRecord();
+        out.flush();
+        channel.force(false);
+        pending = 0;
+    }
+
+    long size() throws IOException {
+        out.flush();
+        return channel.size();
+    }
+
+    private void writeRecord() throws IOException {
+        crc.reset();
+        crc.update(record.toByteArray(), 0, record.size());
+        record.writeTo(out);
+        out.writeInt((int) crc.getValue());
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            out.flush();
+        } finally {
+            lock.release();
+            channel.close();
+        }
+    }
+
+    // Folds the log into a new base file: the merged rows are written next to the base, moved over it
+    // atomically and only then is the log removed, all under the log's exclusive lock. A reader opening
+    // through snapshot() waits for that lock, so it sees either the old base plus its log or the new base
+    // without one, never rows applied twice.
+    static CompactStats compact(String csvFile) throws IOException {
+        CompactStats stats = new CompactStats();
+        File base = new File(csvFile);
+        File log = new File(path(csvFile));
+        if (!log.isFile()) {
+            stats.baseBytes = base.length();
+            return stats;
+        }
+        File tmp = new File(base.getAbsolutePath() + ".tmp.compacting");
+        boolean compressed = BlockGzip.detect(csvFile);
+        try (DeltaLog writer = append(csvFile)) {
+            stats.logBytes = writer.size();
+            try {
+                stats.folded = FieldRewriter.rewrite(csvFile, tmp, List.of(), 1, null, null, null, false, writer.committed()).merged;
+                if (compressed) {
+                    BlockGzip.recompress(tmp, Runtime.getRuntime().availableProcessors());
+                }
+                try (FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE)) {
+                    ch.force(true);
+                }
+                Files.move(tmp.toPath(), base.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                if (compressed) {
+                    BlockGzip.writeIndex(csvFile);
+                }
+            } catch (IOException | RuntimeException e) {
+                tmp.delete();
+                throw e;
+            }
+            if (!log.delete()) {
+                throw new IOException("Compacted " + csvFile + " but failed to delete " + log.getAbsolutePath());
+            }
+        }
+        stats.baseBytes = base.length();
+        return stats;
+    }
+
+    static void delete(String csvFile) throws IOException {
+        Files.deleteIfExists(Paths.get(path(csvFile)));
+    }
+
+    private static Overlay read(FileChannel ch, String csvFile, String logFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(ch.position(0)), 1 << 16));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IllegalStateException("Not a delta log: " + logFile);
+        }
+        FileFingerprint fp = FileFingerprint.read(in);
+        if (!fp.matches(csvFile)) {
+            throw new IllegalStateException("Delta log " + logFile + " is stale for " + csvFile
+                    + " (size/mtime changed); compact it against the original base or delete it");
+        }
+        Map<Long, byte[]> committed = new HashMap<>();
+        Map<Long, byte[]> batch = new HashMap<>();
+        long valid = HEADER;
+        long commits = 0L;
+        long pos = HEADER;
+        CRC32 crc = new CRC32();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        try {
+            while (true) {
+                body.reset();
+                byte type = in.readByte();
+                long offset;
+                byte[] row = null;
+                if (type == ROW) {
+                    offset = in.readLong();
+                    int len = in.readInt();
+                    if (len < 0 || len > 1 << 30) {
+                        break;
+                    }
+                    row = new byte[len];
+                    in.readFully(row);
+                    bodyOut.writeByte(type);
+                    bodyOut.writeLong(offset);
+                    bodyOut.writeInt(len);
+                    bodyOut.write(row);
+                } else if (type == COMMIT) {
+                    offset = in.readLong();
+                    bodyOut.writeByte(type);
+                    bodyOut.writeLong(offset);
+                } else {
+                    break;
+                }
+                crc.reset();
+                crc.update(body.toByteArray(), 0, body.size());
+                if (in.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+                pos += body.size() + 4;
+                if (type == ROW) {
+                    batch.put(offset, row);
+                } else {
+                    committed.putAll(batch);
+                    batch.clear();
+                    valid = pos;
+                    commits++;
+                }
+            }
+        } catch (EOFException torn) {
+            // the tail past the last COMMIT was never made visible
+        }
+        long[] offsets = new long[committed.size()];
+        int n = 0;
+        for (long o : committed.keySet()) offsets[n++] = o;
+        Arrays.sort(offsets);
+        byte[][] rows = new byte[n][];
+        for (int i = 0; i < n; i++) rows[i] = committed.get(offsets[i]);
+        return new Overlay(offsets, rows, valid, commits);
+    }
+}
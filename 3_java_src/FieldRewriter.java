@@ -0,0 +1,395 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+
+final class FieldRewriter implements ChunkedCsvScanner.RowVisitor {
+
+    // `field` is the position of the column in the list passed to rewrite()/appendDeltas()
+    interface Replacement {
+        // cheap test on the raw field bytes; false means apply() would return the value unchanged
+        boolean mayChange(int field, ByteBuffer buf, int from, int to);
+
+        String apply(int field, String value);
+    }
+
+    static final class RewriteStats {
+        long scanned;
+        long updated;
+        long merged;
+        long copiedBytes;
+        long rewrittenBytes;
+        final List<Replacement> replacements = new ArrayList<>();
+    }
+
+    private final int[] columns;
+    private final int[] order;
+    private final int last;
+    private final Replacement replacement;
+    private final DeltaLog.Overlay overlay;
+    private final boolean wholeRows;
+    private final CsvTokenizer tokenizer = new CsvTokenizer();
+    private ScanMetrics.Recorder metrics = ScanMetrics.OFF;
+    private final StringBuilder field = new StringBuilder(64);
+    private long base;
+    private int cursor = -1;
+    private long[] starts = new long[64];
+    private long[] ends = new long[64];
+    private List<byte[]> values = new ArrayList<>();
+    private int count;
+    private long updated;
+    private long merged;
+    private final int[] fieldFrom;
+    private final int[] fieldTo;
+    private final byte[][] fieldValues;
+
+    private FieldRewriter(int[] columns, Replacement replacement, DeltaLog.Overlay overlay, boolean wholeRows) {
+        this.columns = columns;
+        int max = -1;
+        for (int c : columns) max = Math.max(max, c);
+        this.last = max;
+        // fields are spliced left to right, whatever order the caller listed the columns in
+        this.order = IntStream.range(0, columns.length).boxed()
+                .sorted((a, b) -> Integer.compare(columns[a], columns[b])).mapToInt(Integer::intValue).toArray();
+        this.fieldFrom = new int[columns.length];
+        this.fieldTo = new int[columns.length];
+        this.fieldValues = new byte[columns.length][];
+        this.replacement = replacement;
+        this.overlay = overlay;
+        this.wholeRows = wholeRows;
+    }
+
+    // Copies `input` to `output`, replacing the values of `columns` in every row the replacement changes and
+    // folding in the input's delta log; no columns only folds the log. Rows are transformed on `threads`
+    // workers; the calling thread writes ranges back in input order, copying everything between changed
+    // fields with FileChannel.transferTo.
+    static RewriteStats rewrite(String input, File output, List<String> columns, int threads, Long limit,
+                                Supplier<? extends Replacement> replacements) throws IOException {
+        return rewrite(input, output, columns, threads, limit, replacements, null, false);
+    }
+
+    // as above, recording phases into `metrics` when it is not null (writing the output is the write phase),
+    // and with readAhead, reading the input ahead of a one-thread scan (ChunkedCsvScanner.readAhead)
+    static RewriteStats rewrite(String input, File output, List<String> columns, int threads, Long limit,
+                                Supplier<? extends Replacement> replacements, ScanMetrics metrics,
+                                boolean readAhead) throws IOException {
+        // the shared lock keeps a compaction from swapping the base between reading the log and the base
+        try (DeltaLog.Snapshot snapshot = DeltaLog.snapshot(input)) {
+            return rewrite(input, output, columns, threads, limit, replacements, metrics, readAhead, snapshot.overlay);
+        }
+    }
+
+    // as above, folding in `overlay`, which the caller read while holding a lock on the input's delta log
+    static RewriteStats rewrite(String input, File output, List<String> columns, int threads, Long limit,
+                                Supplier<? extends Replacement> replacements, ScanMetrics metrics,
+                                boolean readAhead, DeltaLog.Overlay overlay) throws IOException {
+        RewriteStats stats = new RewriteStats();
+        ScanMetrics.Recorder writer = metrics == null ? ScanMetrics.OFF : metrics.recorder();
+        try (ChunkedCsvScanner scanner = ChunkedCsvScanner.open(input, false);
+             FileChannel src = FileChannel.open(Paths.get(input), StandardOpenOption.READ);
+             FileChannel dst = FileChannel.open(output.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (scanner.header() == null) {
+                return stats;
+            }
+            scanner.record(metrics);
+            scanner.readAhead(readAhead);
+            int[] cols = columnIndexes(scanner, columns);
+            Output out = new Output(scanner, src, dst);
+            ChunkedCsvScanner.Result r = scanner.scan(threads, limit,
+                    () -> new FieldRewriter(cols, cols.length == 0 ? null : replacements.get(), overlay, false), null, range -> {
+                        long t = writer.clock();
+                        long written = out.copied + out.rewritten;
+                        for (ChunkedCsvScanner.RowVisitor v : range.visitors) {
+                            FieldRewriter w = (FieldRewriter) v;
+                            for (int k = 0; k < w.count; k++) {
+                                out.copyTo(w.starts[k]);
+                                out.write(w.values.get(k));
+                                out.skipTo(w.ends[k]);
+                            }
+                            stats.updated += w.updated;
+                            stats.merged += w.merged;
+                            if (w.replacement != null) stats.replacements.add(w.replacement);
+                            w.release();
+                        }
+                        writer.lap(ScanMetrics.WRITE, t, out.copied + out.rewritten - written);
+                    });
+            long t = writer.clock();
+            long written = out.copied + out.rewritten;
+            out.copyTo(r.end);
+            out.flush();
+            writer.lap(ScanMetrics.WRITE, t, out.copied + out.rewritten - written);
+            stats.scanned = r.scanned;
+            stats.copiedBytes = out.copied;
+            stats.rewrittenBytes = out.rewritten;
+        } finally {
+            writer.finish();
+        }
+        return stats;
+    }
+
+    // Like rewrite(), but the changed rows are appended to the input's delta log as one committed batch
+    // and the base file is left untouched.
+    static RewriteStats appendDeltas(String input, List<String> columns, int threads, Long limit,
+                                     Supplier<? extends Replacement> replacements) throws IOException {
+        return appendDeltas(input, columns, threads, limit, replacements, null, false);
+    }
+
+    static RewriteStats appendDeltas(String input, List<String> columns, int threads, Long limit,
+                                     Supplier<? extends Replacement> replacements, ScanMetrics metrics,
+                                     boolean readAhead) throws IOException {
+        RewriteStats stats = new RewriteStats();
+        ScanMetrics.Recorder writer = metrics == null ? ScanMetrics.OFF : metrics.recorder();
+        try (DeltaLog log = DeltaLog.append(input);
+             ChunkedCsvScanner scanner = ChunkedCsvScanner.open(input, false)) {
+            if (scanner.header() == null) {
+                return stats;
+            }
+            scanner.record(metrics);
+            scanner.readAhead(readAhead);
+            DeltaLog.Overlay overlay = log.committed();
+            int[] cols = columnIndexes(scanner, columns);
+            ChunkedCsvScanner.Result r = scanner.scan(threads, limit,
+                    () -> new FieldRewriter(cols, replacements.get(), overlay, true), null, range -> {
+                        long t = writer.clock();
+                        long written = stats.rewrittenBytes;
+                        for (ChunkedCsvScanner.RowVisitor v : range.visitors) {
+                            FieldRewriter w = (FieldRewriter) v;
+                            for (int k = 0; k < w.count; k++) {
+                                byte[] row = w.values.get(k);
+                                log.put(w.starts[k], row);
+                                stats.rewrittenBytes += row.length;
+                            }
+                            stats.updated += w.updated;
+                            stats.replacements.add(w.replacement);
+                            w.release();
+                        }
+                        writer.lap(ScanMetrics.WRITE, t, stats.rewrittenBytes - written);
+                    });
+            long t = writer.clock();
+            log.commit();
+            writer.lap(ScanMetrics.WRITE, t);
+            stats.scanned = r.scanned;
+        } finally {
+            writer.finish();
+        }
+        return stats;
+    }
+
+    @Override
+    public void window(long fileOffset) {
+        base = fileOffset;
+    }
+
+    @Override
+    public boolean metrics(ScanMetrics.Recorder recorder) {
+        metrics = recorder;
+        return true;
+    }
+
+    @Override
+    public boolean visit(ByteBuffer buf, int start, int end) {
+        long at = base + start;
+        byte[] logged = null;
+        if (overlay != null) {
+            if (cursor < 0) cursor = overlay.first(at);
+            while (overlay.offset(cursor) < at) cursor++;
+            if (overlay.offset(cursor) == at) logged = overlay.row(cursor);
+        }
+        ByteBuffer row = buf;
+        int rowStart = start;
+        int rowEnd = end;
+        if (logged != null) {
+            row = ByteBuffer.wrap(logged);
+            rowStart = 0;
+            rowEnd = logged.length;
+        }
+
+        int changed = 0;
+        long t = metrics.mark();
+        int fields = last >= 0 ? tokenizer.tokenize(row, rowStart, rowEnd, last) : 0;
+        t = metrics.lap(ScanMetrics.PARSE, t);
+        if (fields > 0) {
+            for (int f : order) {
+                int c = columns[f];
+                if (c >= tokenizer.count()) continue;
+                int from = tokenizer.start(c);
+                int to = tokenizer.end(c);
+                boolean escaped = tokenizer.needsUnescape(c);
+                if (!escaped && !replacement.mayChange(f, row, from, to)) continue;
+                t = metrics.lap(ScanMetrics.MATCH, t);
+                String original = tokenizer.fieldString(c);
+                t = metrics.lap(ScanMetrics.DECODE, t);
+                String value = replacement.apply(f, original);
+                if (original.equals(value)) continue;
+                // widen to the raw field, including the quotes the tokenizer strips from a wrapped value
+                if (!escaped && from > rowStart && row.get(from - 1) == '"') {
+                    from--;
+                    to++;
+                }
+                field.setLength(0);
+                CsvTokenizer.appendField(field, value);
+                fieldFrom[changed] = from;
+                fieldTo[changed] = to;
+                fieldValues[changed] = field.toString().getBytes(StandardCharsets.UTF_8);
+                changed++;
+            }
+        }
+        metrics.lap(ScanMetrics.MATCH, t);
+        if (changed == 0) {
+            if (logged != null && !wholeRows) {
+                add(at, base + end, logged);
+                merged++;
+            }
+            return false;
+        }
+
+        updated++;
+        if (logged == null && !wholeRows) {
+            for (int k = 0; k < changed; k++) {
+                add(base + fieldFrom[k], base + fieldTo[k], fieldValues[k]);
+                fieldValues[k] = null;
+            }
+            return true;
+        }
+        // whole-row replacement: the row comes from the log, or is going into it
+        int len = rowEnd - rowStart;
+        for (int k = 0; k < changed; k++) len += fieldValues[k].length - (fieldTo[k] - fieldFrom[k]);
+        byte[] whole = new byte[len];
+        int p = rowStart;
+        int o = 0;
+        for (int k = 0; k < changed; k++) {
+            row.get(p, whole, o, fieldFrom[k] - p);
+            o += fieldFrom[k] - p;
+            System.arraycopy(fieldValues[k], 0, whole, o, fieldValues[k].length);
+            o += fieldValues[k].length;
+            p = fieldTo[k];
+            fieldValues[k] = null;
+        }
+        row.get(p, whole, o, rowEnd - p);
+        add(at, base + end, whole);
+        if (logged != null && !wholeRows) {
+            merged++;
+        }
+        return true;
+    }
+
+    private static int[] columnIndexes(ChunkedCsvScanner scanner, List<String> columns) {
+        int[] cols = new int[columns.size()];
+        for (int i = 0; i < cols.length; i++) {
+            cols[i] = JoinQueries.columnIndex(scanner, columns.get(i));
+            for (int j = 0; j < i; j++) {
+                if (cols[j] == cols[i]) {
+                    throw new IllegalArgumentException("Column '" + columns.get(i) + "' is listed twice");
+                }
+            }
+        }
+        return cols;
+    }
+
+    private void add(long from, long to, byte[] value) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        starts[count] = from;
+        ends[count] = to;
+        values.add(value);
+        count++;
+    }
+
+    private void release() {
+        values = new ArrayList<>();
+        count = 0;
+        updated = 0;
+        merged = 0;
+    }
+
+    // Short gaps between changed fields are staged with the replacements in one buffer so a file full
+    // of small edits does not turn into two syscalls per row; long gaps go through transferTo, unless the
+    // input is block-compressed and has to be inflated through the stage as well.
+    private static final class Output {
+        private static final int STAGE = 1 << 20;
+        private static final int DIRECT_COPY = 64 << 10;
+
+        private final ChunkedCsvScanner input;
+        private final FileChannel src;
+        private final FileChannel dst;
+        private final ByteBuffer stage = ByteBuffer.allocateDirect(STAGE);
+        private long pos;
+        long copied;
+        long rewritten;
+
+        Output(ChunkedCsvScanner input, FileChannel src, FileChannel dst) {
+            this.input = input;
+            this.src = src;
+            this.dst = dst;
+        }
+
+        void copyTo(long end) throws IOException {
+            long len = end - pos;
+            if (len <= 0) {
+                return;
+            }
+            if (len >= DIRECT_COPY && !input.compressed()) {
+                flush();
+                while (pos < end) {
+                    long n = src.transferTo(pos, end - pos, dst);
+                    if (n <= 0) {
+                        throw new IOException("Unexpected end of input at offset " + pos);
+                    }
+                    pos += n;
+                }
+            } else {
+                if (stage.remaining() < len) {
+                    flush();
+                }
+                while (pos < end) {
+                    if (!stage.hasRemaining()) {
+                        flush();
+                    }
+                    stage.limit(stage.position() + (int) Math.min(stage.remaining(), end - pos));
+                    int n = input.read(stage, pos);
+                    if (n < 0) {
+                        throw new IOException("Unexpected end of input at offset " + pos);
+                    }
+                    pos += n;
+                    stage.limit(stage.capacity());
+                }
+            }
+            copied += len;
+        }
+
+        void write(byte[] b) throws IOException {
+            if (stage.remaining() < b.length) {
+                flush();
+            }
+            if (b.length > stage.capacity()) {
+                ByteBuffer big = ByteBuffer.wrap(b);
+                while (big.hasRemaining()) dst.write(big);
+            } else {
+                stage.put(b);
+            }
+            rewritten += b.length;
+        }
+
+        void skipTo(long end) {
+            pos = end;
+        }
+
+        void flush() throws IOException {
+            stage.flip();
+            while (stage.hasRemaining()) dst.write(stage);
+            stage.clear();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+
+final class FileFingerprint {
+
+    final long size;
+    final long mtime;
+
+    FileFingerprint(long size, long mtime) {
+        this.size = size;
+        this.mtime = mtime;
+    }
+
+    static FileFingerprint of(String file) throws IOException {
+        Path p = Paths.get(file);
+        return new FileFingerprint(Files.size(p), Files.getLastModifiedTime(p).toMillis());
+    }
+
+    static FileFingerprint read(DataInput in) throws IOException {
+        long size = in.readLong();
+        long mtime = in.readLong();
+        return new FileFingerprint(size, mtime);
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeLong(size);
+        out.writeLong(mtime);
+    }
+
+    boolean matches(String file) throws IOException {
+        FileFingerprint now = of(file);
+        return now.size == size && now.mtime == mtime;
+    }
+
+    void requireMatch(String sidecar, String file, String rebuildHint) throws IOException {
+        if (!matches(file)) {
+            throw new IllegalStateException(sidecar + " is stale for " + file
+                    + " (size/mtime changed); rebuild it with " + rebuildHint);
+        }
+    }
+}
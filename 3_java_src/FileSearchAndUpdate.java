@@ -1,180 +1,1418 @@
-
-
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
+
+
+public class FileSearchAndUpdate {
+
+    private static final long DEFAULT_CACHE_SIZE = 64L << 20;
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            printUsageAndExit(0);
+            return;
+        }
+
+        String cmd = args[0].trim().toLowerCase();
+        String[] rest = slice(args, 1);
+
+        try {
+            switch (cmd) {
+                case "preview":
+                    cmdPreview(rest);
+                    break;
+                case "search-movies":
+                    cmdSearchMovies(rest);
+                    break;
+                case "update-persons":
+                    cmdUpdatePersons(rest);
+                    break;
+                case "build-index":
+                    cmdBuildIndex(rest);
+                    break;
+                case "build-name-index":
+                    cmdBuildNameIndex(rest);
+                    break;
+                case "build-zone-map":
+                    cmdBuildZoneMap(rest);
+                    break;
+                case "build-row-index":
+                    cmdBuildRowIndex(rest);
+                    break;
+                case "lookup-persons":
+                    cmdLookupPersons(rest);
+                    break;
+                case "join":
+                    cmdJoin(rest);
+                    break;
+                case "semi-join":
+                    cmdSemiJoin(rest, false);
+                    break;
+                case "anti-join":
+                    cmdSemiJoin(rest, true);
+                    break;
+                case "aggregate":
+                    cmdAggregate(rest);
+                    break;
+                case "convert":
+                    cmdConvert(rest);
+                    break;
+                case "compact":
+                    cmdCompact(rest);
+                    break;
+                case "serve":
+                    cmdServe(rest);
+                    break;
+                case "client":
+                    cmdClient(rest);
+                    break;
+                case "generate":
+                    cmdGenerate(rest);
+                    break;
+                case "compress":
+                    cmdCompress(rest);
+                    break;
+                case "bench":
+                    cmdBench(rest);
+                    break;
+                case "help":
+                case "--help":
+                case "-h":
+                    printUsageAndExit(0);
+                    break;
+                default:
+                    System.err.println("Unknown command: " + cmd);
+                    printUsageAndExit(1);
+                    break;
+            }
+        } catch (Exception ex) {
+            System.err.println("Operation failed: " + ex.getMessage());
+            ex.printStackTrace(System.err);
+            System.exit(2);
+        }
+    }
+
+
+
+
+    private static void cmdPreview(String[] args) throws IOException {
+        String file = null;
+        int lines = 10;
+        Long offset = null;
+        Long tail = null;
+        Long sample = null;
+        Long seed = null;
+        String indexFile = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--file":
+                    file = expectArg(args, ++i, "--file requires a value");
+                    break;
+                case "--lines":
+                    lines = Integer.parseInt(expectArg(args, ++i, "--lines requires a number"));
+                    break;
+                case "--offset":
+                    offset = Long.parseLong(expectArg(args, ++i, "--offset requires a row number"));
+                    break;
+                case "--tail":
+                    tail = Long.parseLong(expectArg(args, ++i, "--tail requires a number"));
+                    break;
+                case "--sample":
+                    sample = Long.parseLong(expectArg(args, ++i, "--sample requires a number"));
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(expectArg(args, ++i, "--seed requires a number"));
+                    break;
+                case "--index":
+                    indexFile = expectArg(args, ++i, "--index requires a value");
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument for preview: " + args[i]);
+            }
+        }
+
+        requireNonEmpty(file, "--file is required");
+        if ((offset != null ? 1 : 0) + (tail != null ? 1 : 0) + (sample != null ? 1 : 0) > 1) {
+            throw new IllegalArgumentException("--offset, --tail and --sample cannot be combined");
+        }
+        if (seed != null && sample == null) {
+            throw new IllegalArgumentException("--seed only applies to --sample");
+        }
+        if (indexFile != null && offset == null && tail == null && sample == null) {
+            throw new IllegalArgumentException("--index needs --offset, --tail or --sample");
+        }
+        if (offset != null || tail != null || sample != null) {
+            previewRows(file, indexFile, lines, offset, tail, sample, seed);
+            return;
+        }
+
+        System.out.println("== Preview: " + file + " (first " + lines + " lines) ==");
+        if (ColumnarTable.isColumnar(file)) {
+            try (ColumnarTable table = ColumnarTable.open(file)) {
+                table.preview(Math.max(0, lines - 1), System.out::println);
+            }
+            return;
+        }
+        if (DeltaLog.exists(file) || BlockGzip.detect(file)) {
+            try (ChunkedCsvScanner scanner = ChunkedCsvScanner.open(file)) {
+                if (scanner.header() != null && lines > 0) {
+                    System.out.println(scanner.header());
+                    scanner.scan(1, (long) lines - 1, () -> (buf, start, end) -> true, System.out::println);
+                }
+            }
+            return;
+        }
+        try (BufferedReader br = newBufferedReader(file)) {
+            String line;
+            int count = 0;
+            while ((line = br.readLine()) != null && count < lines) {
+                System.out.println(line);
+                count++;
+            }
+        }
+    }
+
+
+
+
+    // preview --offset/--tail/--sample: seeks through the row index, building it first when it is missing or stale
+    private static void previewRows(String file, String indexFile, int lines, Long offset, Long tail, Long sample, Long seed)
+            throws IOException {
+        if (ColumnarTable.isColumnar(file)) {
+            throw new IllegalArgumentException("--offset, --tail and --sample read CSV files, not " + file);
+        }
+        long n = tail != null ? tail : sample != null ? sample : lines;
+        if (n < 0 || (offset != null && offset < 0)) {
+            throw new IllegalArgumentException("--offset, --tail, --sample and --lines must not be negative");
+        }
+        if (indexFile == null) {
+            indexFile = RowIndex.defaultPath(file);
+        }
+        RowIndex index = null;
+        if (new File(indexFile).isFile()) {
+            try {
+                index = RowIndex.open(indexFile, file);
+            } catch (IOException | IllegalStateException e) {
+                // stale or damaged: build it again below
+            }
+        }
+        if (index == null) {
+            Instant start = Instant.now();
+            RowIndex.BuildStats stats = RowIndex.build(file, indexFile, RowIndex.DEFAULT_EVERY);
+            System.out.println("(built row index " + indexFile + ": " + stats.rows + " rows in "
+                    + Duration.between(start, Instant.now()).toMillis() + " ms)");
+            index = RowIndex.open(indexFile, file);
+        }
+
+        try (ChunkedCsvScanner scanner = ChunkedCsvScanner.open(file)) {
+            long rows = index.rows();
+            ChunkedCsvScanner.MatchSink out = (buf, from, to) -> System.out.println(ChunkedCsvScanner.decode(buf, from, to));
+            if (sample != null) {
+                long s = seed != null ? seed : System.nanoTime();
+                long[] picked = sampleRows(rows, n, new Random(s));
+                System.out.println("== Preview: " + file + " (" + picked.length + " random rows of " + rows + ", seed " + s + ") ==");
+                System.out.println(scanner.header());
+                index.rows(scanner, picked, out);
+                return;
+            }
+            long first = tail != null ? Math.max(0L, rows - n) : offset;
+            long last = Math.min(rows, first + n);
+            System.out.println("== Preview: " + file + (first >= last ? " (no rows from " + first + "; it has " + rows + ")"
+                    : " (rows " + first + ".." + (last - 1) + " of " + rows + ", counted from 0)") + " ==");
+            System.out.println(scanner.header());
+            index.rows(scanner, first, n, out);
+        }
+    }
+
+    // n distinct row numbers below `rows`, ascending (Floyd's algorithm, so it stays O(n) however large `rows` is)
+    private static long[] sampleRows(long rows, long n, Random random) {
+        if (Math.min(n, rows) > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("--sample is too large: " + n);
+        }
+        if (n >= rows) {
+            long[] all = new long[(int) rows];
+            for (int i = 0; i < all.length; i++) all[i] = i;
+            return all;
+        }
+        Set<Long> picked = new HashSet<>();
+        for (long j = rows - n; j < rows; j++) {
+            long t = (long) (random.nextDouble() * (j + 1));
+            if (!picked.add(t)) picked.add(j);
+        }
+        long[] out = new long[picked.size()];
+        int k = 0;
+        for (long r : picked) out[k++] = r;
+        Arrays.sort(out);
+        return out;
+    }
+
+    private static void cmdSearchMovies(String[] args) throws IOException {
+        String file = null;
+        String keyword = null;
+        boolean caseSensitive = false;
+        Long limit = null;
+        int threads = 1;
+        boolean useIndex = false;
+        String indexFile = null;
+        boolean useCache = true;
+        String cacheDir = null;
+        long cacheSize = DEFAULT_CACHE_SIZE;
+        boolean cacheVerify = false;
+        String metricsFormat = null;
+        boolean readAhead = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--file":
+                    file = expectArg(args, ++i, "--file requires a value");
+                    break;
+                case "--read-ahead":
+                    readAhead = true;
+                    break;
+                case "--metrics":
+                    metricsFormat = expectArg(args, ++i, "--metrics requires json or prometheus");
+                    ScanMetrics.checkFormat(metricsFormat);
+                    break;
+                case "--no-cache":
+                    useCache = false;
+                    break;
+                case "--cache-dir":
+                    cacheDir = expectArg(args, ++i, "--cache-dir requires a value");
+                    break;
+                case "--cache-size":
+                    cacheSize = parseSize(expectArg(args, ++i, "--cache-size requires a size"));
+                    break;
+                case "--cache-verify":
+                    cacheVerify = true;
+                    break;
+                case "--keyword":
+                    keyword = expectArg(args, ++i, "--keyword requires a value");
+                    break;
+                case "--case-sensitive":
+                    caseSensitive = true;
+                    break;
+                case "--limit":
+                    limit = Long.parseLong(expectArg(args, ++i, "--limit requires a number"));
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(expectArg(args, ++i, "--threads requires a number"));
+                    if (threads < 1) {
+                        throw new IllegalArgumentException("--threads must be at least 1");
+                    }
+                    break;
+                case "--use-index":
+                    useIndex = true;
+                    break;
+                case "--index":
+                    indexFile = expectArg(args, ++i, "--index requires a value");
+                    useIndex = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument for search-movies: " + args[i]);
+            }
+        }
+
+        requireNonEmpty(file, "--file is required");
+        requireNonEmpty(keyword, "--keyword is required");
+        boolean columnar = ColumnarTable.isColumnar(file);
+        if (useIndex && columnar) {
+            throw new IllegalArgumentException("--use-index applies to CSV input, not to columnar tables");
+        }
+        if (useIndex && limit != null) {
+            throw new IllegalArgumentException("--limit cannot be combined with --use-index");
+        }
+        if (useIndex && indexFile == null) {
+            indexFile = TrigramIndex.defaultPath(file);
+        }
+
+        Instant start = Instant.now();
+        ScanMetrics metrics = ScanMetrics.start("search-movies", metricsFormat);
+        long matched = 0L;
+        long scanned = 0L;
+        int titleIdx = -1;
+        String indexNote = null;
+
+        ResultCache cache = null;
+        String cacheKey = null;
+        ResultCache.Entry cached = null;
+        if (useCache) {
+            cache = ResultCache.open(cacheDir, cacheSize);
+            cacheKey = cache.key(file, cacheVerify, "search-movies\ntitle\n" + keyword + "\n" + caseSensitive
+                    + "\n" + limit + "\n" + (columnar ? "columnar" : useIndex ? "index" : "scan"));
+            cached = cache.get(file, cacheKey);
+        }
+
+        if (cached != null) {
+            scanned = cached.scanned;
+            matched = cached.matched;
+        } else if (columnar) {
+            try (ColumnarTable table = ColumnarTable.open(file)) {
+                titleIdx = table.columnIndex("title");
+                if (titleIdx < 0) {
+                    throw new IllegalStateException("Cannot find 'title' column in " + file);
+                }
+                matched = table.scan(titleIdx, KeywordMatcher.compile(keyword, caseSensitive), limit, threads);
+                scanned = table.scanned(limit);
+            }
+        } else {
+            try (ChunkedCsvScanner scanner = ChunkedCsvScanner.open(file)) {
+                String header = scanner.header();
+                if (header == null) {
+                    System.out.println("Empty file. Nothing to search.");
+                    return;
+                }
+                scanner.record(metrics);
+                scanner.readAhead(readAhead);
+                CsvTokenizer headerCols = new CsvTokenizer();
+                headerCols.tokenize(header, -1);
+                titleIdx = indexOfIgnoreCase(headerCols, "title");
+                if (titleIdx < 0) {
+                    throw new IllegalStateException("Cannot find 'title' column in header: " + header);
+                }
+
+                final int idx = titleIdx;
+                KeywordMatcher matcher = KeywordMatcher.compile(keyword, caseSensitive);
+                long[] candidates = null;
+                if (useIndex) {
+                    try (TrigramIndex index = TrigramIndex.open(indexFile, file)) {
+                        if (index.columnIndex() != titleIdx) {
+                            throw new IllegalStateException("Index " + indexFile + " covers column '" + index.column() + "', not 'title'");
+                        }
+                        candidates = index.candidates(keyword, caseSensitive);
+                    }
+                    long[] logged = scanner.overlaidRows();
+                    if (candidates != null && logged.length > 0) {
+                        // rows replaced by the delta log were indexed with their old values
+                        long[] merged = Arrays.copyOf(candidates, candidates.length + logged.length);
+                        System.arraycopy(logged, 0, merged, candidates.length, logged.length);
+                        candidates = Arrays.stream(merged).sorted().distinct().toArray();
+                    }
+                    indexNote = candidates == null
+                            ? indexFile + " (keyword shorter than 3 bytes, full scan used)"
+                            : indexFile + " (" + candidates.length + " candidate rows verified)";
+                }
+
+                if (candidates != null) {
+                    ColumnKeywordMatcher verifier = new ColumnKeywordMatcher(idx, matcher);
+                    for (long offset : candidates) {
+                        ByteBuffer row = scanner.readRecord(offset);
+                        scanned++;
+                        if (verifier.visit(row, 0, row.limit())) {
+                            matched++;
+                        }
+                    }
+                } else {
+                    ChunkedCsvScanner.Result r = scanner.scan(threads, limit,
+                            () -> new ColumnKeywordMatcher(idx, matcher), null);
+                    scanned = r.scanned;
+                    matched = r.matched;
+                }
+            }
+        }
+
+        if (cache != null && cached == null) {
+            ResultCache.Entry e = new ResultCache.Entry();
+            e.scanned = scanned;
+            e.matched = matched;
+            cache.put(file, cacheKey, e);
+        }
+
+        Instant end = Instant.now();
+        long millis = Duration.between(start, end).toMillis();
+        if (metrics != null) metrics.stop();
+
+        System.out.println("Search complete.");
+        System.out.println("  File: " + file);
+        System.out.println("  Keyword: " + keyword + (caseSensitive ? " (case-sensitive)" : " (case-insensitive)"));
+        if (limit != null) {
+            System.out.println("  Limit: " + limit + " lines (data rows excluding header)");
+        }
+        if (cached != null) {
+            System.out.println("  Cache: hit (" + cache.dir() + ")");
+        } else if (indexNote != null) {
+            System.out.println("  Index: " + indexNote);
+        } else {
+            System.out.println("  Threads: " + threads);
+        }
+        System.out.println("  Scanned rows: " + scanned);
+        System.out.println("  Matches: " + matched);
+        System.out.println("  Elapsed: " + millis + " ms");
+        if (millis > 0) {
+            double rowsPerSec = (scanned * 1000.0) / millis;
+            System.out.printf("  Throughput: %.2f rows/sec%n", rowsPerSec);
+        }
+        if (metrics != null) metrics.print(System.out);
+    }
+
+
+
+
+    private static void cmdBuildIndex(String[] args) throws IOException {
+        String file = null;
+        String column = "title";
+        String indexFile = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--file":
+                    file = expectArg(args, ++i, "--file requires a value");
+                    break;
+                case "--column":
+                    column = expectArg(args, ++i, "--column requires a value");
+                    break;
+                case "--index":
+                    indexFile = expectArg(args, ++i, "--index requires a value");
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument for build-index: " + args[i]);
+            }
+        }
+
+        requireNonEmpty(file, "--file is required");
+        requireNonEmpty(column, "--column must not be empty");
+        if (indexFile == null) {
+            indexFile = TrigramIndex.defaultPath(file);
+        }
+
+        Instant start = Instant.now();
+        TrigramIndex.BuildStats stats = TrigramIndex.build(file, column, indexFile);
+        long millis = Duration.between(start, Instant.now()).toMillis();
+
+        System.out.println("Index build complete.");
+        System.out.println("  File: " + file);
+        System.out.println("  Column: " + column);
+        System.out.println("  Index: " + indexFile);
+        System.out.println("  Indexed rows: " + stats.rows);
+        System.out.println("  Trigrams: " + stats.trigrams);
+        System.out.println("  Postings: " + stats.postings);
+        System.out.println("  Index size: " + stats.bytes + " bytes");
+        System.out.println("  Elapsed: " + millis + " ms");
+    }
+
+    private static void cmdBuildNameIndex(String[] args) throws IOException {
+        String file = null;
+        String column = "person_name";
+        String indexFile = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--file":
+                    file = expectArg(args, ++i, "--file requires a value");
+                    break;
+                case "--column":
+                    column = expectArg(args, ++i, "--column requires a value");
+                    break;
+                case "--index":
+                    indexFile = expectArg(args, ++i, "--index requires a value");
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument for build-name-index: " + args[i]);
+            }
+        }
+
+        requireNonEmpty(file, "--file is required");
+        requireNonEmpty(column, "--column must not be empty");
+        if (indexFile == null) {
+            indexFile = SortedNameIndex.defaultPath(file);
+        }
+
+        Instant start = Instant.now();
+        SortedNameIndex.BuildStats stats = SortedNameIndex.build(file, column, indexFile);
+        long millis = Duration.between(start, Instant.now()).toMillis();
+
+        System.out.println("Index build complete.");
+        System.out.println("  File: " + file);
+        System.out.println("  Column: " + column);
+        System.out.println("  Index: " + indexFile);
+        System.out.println("  Indexed rows: " + stats.entries);
+        System.out.println("  Blocks: " + stats.blocks);
+        System.out.println("  Index size: " + stats.bytes + " bytes");
+        System.out.println("  Elapsed: " + millis + " ms");
+    }
+
+    private static void cmdBuildZoneMap(String[] args) throws IOException {
+        String file = null;
+        String output = null;
+        long blockSize = ZoneMap.DEFAULT_BLOCK_SIZE;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--file":
+                    file = expectArg(args, ++i, "--file requires a value");
+                    break;
+                case "--output":
+                    output = expectArg(args, ++i, "--output requires a value");
+                    break;
+                case "--block-size":
+                    blockSize = parseSize(expectArg(args, ++i, "--block-size requires a size"));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument for build-zone-map: " + args[i]);
+            }
+        }
+
+        requireNonEmpty(file, "--file is required");
+        if (blockSize > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("--block-size is too large: " + blockSize);
+        }
+        if (output == null) {
+            output = ZoneMap.defaultPath(file);
+        }
+
+        Instant start = Instant.now();
+        ZoneMap.BuildStats stats = ZoneMap.build(file, output, (int) blockSize);
+        long millis = Duration.between(start, Instant.now()).toMillis();
+
+        System.out.println("Zone map build complete.");
+        System.out.println("  File: " + file);
+        System.out.println("  Zone map: " + output);
+        System.out.println("  Rows: " + stats.rows);
+        System.out.println("  Columns: " + stats.columns);
+        System.out.println("  Blocks: " + stats.blocks + " of about " + blockSize + " bytes");
+        System.out.println("  Zone map size: " + stats.bytes + " bytes");
+        System.out.println("  Elapsed: " + millis + " ms");
+    }
+
+    private static void cmdBuildRowIndex(String[] args) throws IOException {
+        String file = null;
+        String output = null;
+        int every = RowIndex.DEFAULT_EVERY;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--file":
+                    file = expectArg(args, ++i, "--file requires a value");
+                    break;
+                case "--output":
+                    output = expectArg(args, ++i, "--output requires a value");
+                    break;
+                case "--every":
+                    every = Integer.parseInt(expectArg(args, ++i, "--every requires a number"));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument for build-row-index: " + args[i]);
+            }
+        }
+
+        requireNonEmpty(file, "--file is required");
+        if (output == null) {
+            output = RowIndex.defaultPath(file);
+        }
+
+        Instant start = Instant.now();
+        RowIndex.BuildStats stats = RowIndex.build(file, output, every);
+        long millis = Duration.between(start, Instant.now()).toMillis();
+
+        System.out.println("Row index build complete.");
+        System.out.println("  File: " + file);
+        System.out.println("  Row index: " + output);
+        System.out.println("  Rows: " + stats.rows);
+        System.out.println("  Checkpoints: " + stats.checkpoints + " (every " + every + " rows)");
+        System.out.println("  Row index size: " + stats.bytes + " bytes");
+        System.out.println("  Elapsed: " + millis + " ms");
+    }
+
+    private static void cmdLookupPersons(String[] args) throws IOException {
+        String file = null;
+        String name = null;
+        String prefix = null;
+        String indexFile = null;
+        boolean print = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--file":
+                    file = expectArg(args, ++i, "--file requires a value");
+                    break;
+                case "--name":
+                    name = expectArg(args, ++i, "--name requires a value");
+                    break;
+                case "--prefix":
+                    prefix = expectArg(args, ++i, "--prefix requires a value");
+                    break;
+                case "--index":
+                    indexFile = expectArg(args, ++i, "--index requires a value");
+                    break;
+                case "--print":
+                    print = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument for lookup-persons: " + args[i]);
+            }
+        }
+
+        requireNonEmpty(file, "--file is required");
+        if ((name == null) == (prefix == null)) {
+            throw new IllegalArgumentException("Exactly one of --name or --prefix is required");
+        }
+        if (indexFile == null) {
+            indexFile = SortedNameIndex.defaultPath(file);
+        }
+
+        Instant start = Instant.now();
+        long matched;
+        String predicate;
+        try (SortedNameIndex index = SortedNameIndex.open(indexFile, file);
+             ChunkedCsvScanner scanner = ChunkedCsvScanner.open(file)) {
+            predicate = name != null
+                    ? index.column() + " = '" + name + "'"
+                    : index.column() + " LIKE '" + prefix + "%'";
+            if (print) {
+                System.out.println(scanner.header());
+                matched = index.lookup(name != null ? name : prefix, name == null, scanner, offset -> {
+                    try {
+                        ByteBuffer row = scanner.readRecord(offset);
+                        System.out.println(ChunkedCsvScanner.decode(row, 0, row.limit()));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } else {
+                matched = index.lookup(name != null ? name : prefix, name == null, scanner, null);
+            }
+        }
+        long millis = Duration.between(start, Instant.now()).toMillis();
+
+        System.out.println("Lookup complete.");
+        System.out.println("  File: " + file);
+        System.out.println("  Index: " + indexFile);
+        System.out.println("  Predicate: " + predicate);
+        System.out.println("  Matched rows: " + matched);
+        System.out.println("  Elapsed: " + millis + " ms");
+    }
+
+
+
+
+    private static void cmdJoin(String[] args) throws IOException {
+        String movies = null;
+        String principals = null;
+        String persons = null;
+        String name = null;
+        String categories = "actor,actress";
+        long memory = 256L << 20;
+        String spillDir = null;
+        boolean useIndex = false;
+        String indexFile = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--movies":
+                    movies = expectArg(args, ++i, "--movies requires a value");
+                    break;
+                case "--principals":
+                    principals = expectArg(args, ++i, "--principals requires a value");
+                    break;
+                case "--persons":
+                    persons = expectArg(args, ++i, "--persons requires a value");
+                    break;
+                case "--name":
+                    name = expectArg(args, ++i, "--name requires a value");
+                    break;
+                case "--categories":
+                    categories = expectArg(args, ++i, "--categories requires a value");
+                    break;
+                case "--memory":
+                    memory = parseSize(expectArg(args, ++i, "--memory requires a size"));
+                    break;
+                case "--spill-dir":
+                    spillDir = expectArg(args, ++i, "--spill-dir requires a value");
+                    break;
+                case "--use-index":
+                    useIndex = true;
+                    break;
+                case "--index":
+                    indexFile = expectArg(args, ++i, "--index requires a value");
+                    useIndex = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument for join: " + args[i]);
+            }
+        }
+
+        requireNonEmpty(movies, "--movies is required");
+        requireNonEmpty(principals, "--principals is required");
+        requireNonEmpty(persons, "--persons is required");
+        requireNonEmpty(name, "--name is required");
+        List<String> wanted = new ArrayList<>();
+        for (String c : categories.split(",")) {
+            if (!c.trim().isEmpty()) wanted.add(c.trim());
+        }
+        if (wanted.isEmpty()) {
+            throw new IllegalArgumentException("--categories must name at least one category");
+        }
+        if (useIndex && indexFile == null) {
+            indexFile = SortedNameIndex.defaultPath(persons);
+        }
+
+        Instant start = Instant.now();
+        JoinQueries.JoinStats stats = JoinQueries.countCredits(movies, principals, persons, name, wanted,
+                memory, spillDir == null ? null : new File(spillDir), useIndex ? indexFile : null);
+        long millis = Duration.between(start, Instant.now()).toMillis();
+
+        System.out.println("Join complete.");
+        System.out.println("  Query: person_name = '" + name + "' AND category IN ('" + String.join("', '", wanted) + "')");
+        System.out.println("  Count: " + stats.count);
+        System.out.println("  Matching persons: " + stats.personRows + (useIndex ? " (via " + indexFile + ")" : ""));
+        System.out.println("  Principal rows after category filter: " + stats.principalRows);
+        System.out.println("  Credited movie rows: " + stats.creditRows);
+        System.out.println("  Movies scanned: " + stats.movieRows);
+        System.out.println("  Spill: " + (stats.spillFiles == 0 ? "none" : stats.spillFiles + " partition files, " + stats.spilledBytes + " bytes"));
+        System.out.println("  Elapsed: " + millis + " ms");
+    }
+
+    private static void cmdSemiJoin(String[] args, boolean anti) throws IOException {
+        String command = anti ? "anti-join" : "semi-join";
+        String file = null;
+        String principals = null;
+        String key = null;
+        String categories = "";
+        int threads = 1;
+        boolean print = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--file":
+                    file = expectArg(args, ++i, "--file requires a value");
+                    break;
+                case "--principals":
+                    principals = expectArg(args, ++i, "--principals requires a value");
+                    break;
+                case "--key":
+                    key = expectArg(args, ++i, "--key requires a value");
+                    break;
+                case "--categories":
+                    categories = expectArg(args, ++i, "--categories requires a value");
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(expectArg(args, ++i, "--threads requires a number"));
+                    if (threads < 1) {
+                        throw new IllegalArgumentException("--threads must be at least 1");
+                    }
+                    break;
+                case "--print":
+                    print = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument for " + command + ": " + args[i]);
+            }
+        }
+
+        requireNonEmpty(file, "--file is required");
+        requireNonEmpty(principals, "--principals is required");
+        requireNonEmpty(key, "--key is required (movie_id or person_id)");
+        List<String> wanted = new ArrayList<>();
+        for (String c : categories.split(",")) {
+            if (!c.trim().isEmpty()) wanted.add(c.trim());
+        }
+
+        Instant start = Instant.now();
+        JoinQueries.SemiJoinStats stats = JoinQueries.semiJoin(file, principals, key, wanted, anti, threads,
+                print ? System.out::println : null);
+        long millis = Duration.between(start, Instant.now()).toMillis();
+
+        System.out.println((anti ? "Anti-join" : "Semi-join") + " complete.");
+        System.out.println("  Query: " + key + (anti ? " NOT IN " : " IN ") + "(movie_principals"
+                + (wanted.isEmpty() ? "" : " WHERE category IN ('" + String.join("', '", wanted) + "')") + ")");
+        System.out.println("  Count: " + stats.count);
+        System.out.println("  Rows scanned: " + stats.outerRows);
+        System.out.println("  Principal rows used: " + stats.innerRows);
+        System.out.println("  Distinct keys: " + stats.distinctKeys);
+        System.out.println("  Bitmap size: " + stats.bitmapBytes + " bytes");
+        System.out.println("  Elapsed: " + millis + " ms");
+    }
+
+    private static void cmdAggregate(String[] args) throws IOException {
+        String file = null;
+        String groupBy = null;
+        List<String> aggs = new ArrayList<>();
+        long having = -1L;
+        int threads = 1;
+        Long maxGroups = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--file":
+                    file = expectArg(args, ++i, "--file requires a value");
+                    break;
+                case "--group-by":
+                    groupBy = expectArg(args, ++i, "--group-by requires a column");
+                    break;
+                case "--agg":
+                    aggs.add(expectArg(args, ++i, "--agg requires <count|min|max|sum>[:<column>]"));
+                    break;
+                case "--having":
+                    having = Long.parseLong(expectArg(args, ++i, "--having requires a number"));
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(expectArg(args, ++i, "--threads requires a number"));
+                    if (threads < 1) {
+                        throw new IllegalArgumentException("--threads must be at least 1");
+                    }
+                    break;
+                case "--max-groups":
+                    maxGroups = Long.parseLong(expectArg(args, ++i, "--max-groups requires a number"));
+                    if (maxGroups < 0) {
+                        throw new IllegalArgumentException("--max-groups must not be negative");
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument for aggregate: " + args[i]);
+            }
+        }
+
+        requireNonEmpty(file, "--file is required");
+        requireNonEmpty(groupBy, "--group-by is required");
+
+        Instant start = Instant.now();
+        List<GroupAggregator.Group> rows;
+        List<String> labels = new ArrayList<>();
+        long scanned;
+        ColumnarTable table = ColumnarTable.isColumnar(file) ? ColumnarTable.open(file) : null;
+        try (ChunkedCsvScanner scanner = table == null ? ChunkedCsvScanner.open(file) : null) {
+            int keyIdx = table != null ? columnarIndex(table, groupBy) : JoinQueries.columnIndex(scanner, groupBy);
+            List<Integer> opList = new ArrayList<>();
+            List<Integer> colList = new ArrayList<>();
+            for (String a : aggs) {
+                int colon = a.indexOf(':');
+                String op = (colon < 0 ? a : a.substring(0, colon)).trim().toLowerCase();
+                if (op.equals("count") && colon < 0) {
+                    continue;
+                }
+                if (colon < 0) {
+                    throw new IllegalArgumentException("--agg " + a + " needs a column, e.g. " + op + ":year");
+                }
+                String col = a.substring(colon + 1).trim();
+                switch (op) {
+                    case "min":
+                        opList.add(GroupAggregator.MIN);
+                        break;
+                    case "max":
+                        opList.add(GroupAggregator.MAX);
+                        break;
+                    case "sum":
+                        opList.add(GroupAggregator.SUM);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown aggregate: " + a);
+                }
+                colList.add(table != null ? columnarIndex(table, col) : JoinQueries.columnIndex(scanner, col));
+                labels.add(op + "_" + col);
+            }
+            int[] ops = opList.stream().mapToInt(Integer::intValue).toArray();
+            int[] cols = colList.stream().mapToInt(Integer::intValue).toArray();
+
+            if (table != null) {
+                GroupAggregator total = table.aggregate(keyIdx, ops, cols, threads);
+                scanned = table.rows();
+                rows = total.groups(having);
+            } else {
+                ChunkedCsvScanner.Result r = scanner.scan(threads, null, () -> new GroupAggregator(keyIdx, ops, cols), null);
+                GroupAggregator total = (GroupAggregator) r.visitors.get(0);
+                for (int v = 1; v < r.visitors.size(); v++) {
+                    total.merge((GroupAggregator) r.visitors.get(v));
+                }
+                scanned = r.scanned;
+                rows = total.groups(having);
+            }
+        } finally {
+            closeQuietly(table);
+        }
+        long millis = Duration.between(start, Instant.now()).toMillis();
+
+        StringBuilder sb = new StringBuilder();
+        quoteCsvField(sb, groupBy);
+        sb.append(",count");
+        for (String l : labels) sb.append(',').append(l);
+        System.out.println(sb);
+        long printed = 0L;
+        for (GroupAggregator.Group g : rows) {
+            if (maxGroups != null && printed >= maxGroups) break;
+            sb.setLength(0);
+            if (g.key != null) quoteCsvField(sb, g.key);
+            sb.append(',').append(g.count);
+            for (int a = 0; a < labels.size(); a++) {
+                sb.append(',');
+                if (g.present[a]) sb.append(g.values[a]);
+            }
+            System.out.println(sb);
+            printed++;
+        }
+
+        System.out.println("Aggregate complete.");
+        System.out.println("  File: " + file);
+        System.out.println("  Group by: " + groupBy + (having >= 0 ? " HAVING COUNT(*) > " + having : ""));
+        System.out.println("  Groups: " + rows.size() + (printed < rows.size() ? " (first " + printed + " printed)" : ""));
+        System.out.println("  Rows scanned: " + scanned);
+        System.out.println("  Elapsed: " + millis + " ms");
+    }
+
+    private static void cmdConvert(String[] args) throws IOException {
+        List<String> files = new ArrayList<>();
+        String output = null;
+        int blockRows = ColumnarTable.DEFAULT_BLOCK_ROWS;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--file":
+                    files.add(expectArg(args, ++i, "--file requires a value"));
+                    break;
+                case "--output":
+                    output = expectArg(args, ++i, "--output requires a value");
+                    break;
+                case "--block-rows":
+                    blockRows = Integer.parseInt(expectArg(args, ++i, "--block-rows requires a number"));
+                    if (blockRows < 1) {
+                        throw new IllegalArgumentException("--block-rows must be at least 1");
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument for convert: " + args[i]);
+            }
+        }
+
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("--file is required");
+        }
+        if (output != null && files.size() > 1) {
+            throw new IllegalArgumentException("--output can only be used with a single --file");
+        }
 
+        for (String file : files) {
+            String target = output != null ? output : ColumnarTable.defaultPath(file);
+            Instant start = Instant.now();
+            ColumnarTable.ConvertStats stats = ColumnarTable.convert(file, target, blockRows);
+            long millis = Duration.between(start, Instant.now()).toMillis();
+
+            System.out.println("Convert complete.");
+            System.out.println("  File: " + file);
+            System.out.println("  Output: " + target);
+            System.out.println("  Columns: " + stats.layout);
+            System.out.println("  Rows: " + stats.rows);
+            System.out.println("  Blocks: " + stats.blocks + " x " + blockRows + " rows");
+            System.out.println("  Size: " + stats.bytes + " bytes (CSV " + new File(file).length() + " bytes)");
+            System.out.println("  Elapsed: " + millis + " ms");
+        }
+    }
 
-public class FileSearchAndUpdate {
+    private static void cmdCompact(String[] args) throws IOException {
+        String file = null;
+        String cacheDir = null;
 
-    public static void main(String[] args) {
-        if (args.length == 0) {
-            printUsageAndExit(0);
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--file":
+                    file = expectArg(args, ++i, "--file requires a value");
+                    break;
+                case "--cache-dir":
+                    cacheDir = expectArg(args, ++i, "--cache-dir requires a value");
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument for compact: " + args[i]);
+            }
+        }
+
+        requireNonEmpty(file, "--file is required");
+        if (!DeltaLog.exists(file)) {
+            System.out.println("No delta log for " + file + ". Nothing to compact.");
             return;
         }
 
-        String cmd = args[0].trim().toLowerCase();
-        String[] rest = slice(args, 1);
+        Instant start = Instant.now();
+        DeltaLog.CompactStats stats = DeltaLog.compact(file);
+        ResultCache.invalidate(cacheDir, file);
+        long millis = Duration.between(start, Instant.now()).toMillis();
 
-        try {
-            switch (cmd) {
-                case "preview":
-                    cmdPreview(rest);
+        System.out.println("Compaction complete.");
+        System.out.println("  File: " + file);
+        System.out.println("  Delta log: " + DeltaLog.path(file) + " (" + stats.logBytes + " bytes, removed)");
+        System.out.println("  Folded rows: " + stats.folded);
+        System.out.println("  Size: " + stats.baseBytes + " bytes");
+        System.out.println("  Elapsed: " + millis + " ms");
+    }
+
+    private static void cmdServe(String[] args) throws IOException {
+        String listen = "127.0.0.1:7070";
+        List<String> files = new ArrayList<>();
+        boolean inMemory = false;
+        boolean allowShutdown = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--listen":
+                    listen = expectArg(args, ++i, "--listen requires host:port or unix:<path>");
                     break;
-                case "search-movies":
-                    cmdSearchMovies(rest);
+                case "--file":
+                    files.add(expectArg(args, ++i, "--file requires a value"));
                     break;
-                case "update-persons":
-                    cmdUpdatePersons(rest);
+                case "--in-memory":
+                    inMemory = true;
                     break;
-                case "help":
-                case "--help":
-                case "-h":
-                    printUsageAndExit(0);
+                case "--allow-shutdown":
+                    allowShutdown = true;
                     break;
-                default:
-                    System.err.println("Unknown command: " + cmd);
-                    printUsageAndExit(1);
+                case "--threads":
+                    threads = Integer.parseInt(expectArg(args, ++i, "--threads requires a number"));
                     break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument for serve: " + args[i]);
             }
-        } catch (Exception ex) {
-            System.err.println("Operation failed: " + ex.getMessage());
-            ex.printStackTrace(System.err);
-            System.exit(2);
         }
-    }
 
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("--file is required; the server answers only for the files it is given");
+        }
 
+        Instant start = Instant.now();
+        QueryServer server = QueryServer.bind(listen, inMemory, allowShutdown, threads);
+        try {
+            for (String f : files) {
+                // open and count up front so the first query does not pay for it
+                try (QueryServer.Table t = server.serve(f)) {
+                    t.rows();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            server.close();
+            throw e;
+        }
+        long millis = Duration.between(start, Instant.now()).toMillis();
+
+        System.out.println("Server listening.");
+        System.out.println("  Address: " + (listen.startsWith("unix:") ? listen : server.address()));
+        System.out.println("  Handlers: " + (server.virtualThreads() ? "virtual thread per connection"
+                : "platform thread per connection (virtual threads need Java 21+)"));
+        System.out.println("  Threads per request: at most " + threads);
+        for (QueryServer.Table t : server.tables()) {
+            String layout = t.columnar != null ? ", columnar"
+                    : t.memory != null ? String.format(", in memory: %d bytes off-heap + %d bytes of offsets, %.1f MiB per million rows",
+                            t.memory.offHeapBytes(), t.memory.offsetBytes(), t.memory.bytesPerMillionRows() / (double) (1 << 20))
+                    : "";
+            System.out.println("  Table: " + t.file + " (" + t.rows() + " rows" + layout + ")");
+        }
+        System.out.println("  Startup: " + millis + " ms");
+        System.out.flush();
 
+        server.run();
+        System.out.println("Server stopped.");
+        System.out.println("  Connections: " + server.connections());
+        System.out.println("  Requests: " + server.requests());
+    }
 
-    private static void cmdPreview(String[] args) throws IOException {
-        String file = null;
-        int lines = 10;
+    private static void cmdClient(String[] args) throws IOException {
+        String connect = "127.0.0.1:7070";
+        List<String> requests = new ArrayList<>();
 
         for (int i = 0; i < args.length; i++) {
             switch (args[i]) {
-                case "--file":
-                    file = expectArg(args, ++i, "--file requires a value");
+                case "--connect":
+                    connect = expectArg(args, ++i, "--connect requires host:port or unix:<path>");
                     break;
-                case "--lines":
-                    lines = Integer.parseInt(expectArg(args, ++i, "--lines requires a number"));
+                case "--request":
+                    requests.add(expectArg(args, ++i, "--request requires a JSON object"));
                     break;
                 default:
-                    throw new IllegalArgumentException("Unknown argument for preview: " + args[i]);
+                    throw new IllegalArgumentException("Unknown argument for client: " + args[i]);
             }
         }
 
-        requireNonEmpty(file, "--file is required");
-
-        System.out.println("== Preview: " + file + " (first " + lines + " lines) ==");
-        try (BufferedReader br = newBufferedReader(file)) {
-            String line;
-            int count = 0;
-            while ((line = br.readLine()) != null && count < lines) {
-                System.out.println(line);
-                count++;
+        // without --request, every line on stdin is sent as a request
+        BufferedReader stdin = requests.isEmpty()
+                ? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)) : null;
+        try (SocketChannel ch = QueryServer.connect(connect);
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                     Channels.newInputStream(ch), StandardCharsets.UTF_8));
+             Writer out = new OutputStreamWriter(
+                     Channels.newOutputStream(ch), StandardCharsets.UTF_8)) {
+            int next = 0;
+            while (true) {
+                String req = stdin != null ? stdin.readLine() : next < requests.size() ? requests.get(next++) : null;
+                if (req == null) break;
+                if (req.isBlank()) continue;
+                out.write(req.replace('\n', ' '));
+                out.write('\n');
+                out.flush();
+                String res = in.readLine();
+                if (res == null) {
+                    throw new IOException("Server at " + connect + " closed the connection");
+                }
+                System.out.println(res);
             }
         }
     }
 
+    private static void cmdGenerate(String[] args) throws IOException {
+        String outputDir = null;
+        double scale = 0.1;
+        long seed = 42L;
 
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--output-dir":
+                    outputDir = expectArg(args, ++i, "--output-dir requires a value");
+                    break;
+                case "--scale":
+                    scale = Double.parseDouble(expectArg(args, ++i, "--scale requires a number"));
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(expectArg(args, ++i, "--seed requires a number"));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument for generate: " + args[i]);
+            }
+        }
 
+        requireNonEmpty(outputDir, "--output-dir is required");
+        Instant start = Instant.now();
+        ImdbGenerator.GenerateStats stats = ImdbGenerator.generate(new File(outputDir), scale, seed);
+        long millis = Duration.between(start, Instant.now()).toMillis();
+
+        System.out.println("Generate complete.");
+        System.out.println("  Scale: " + scale + " (seed " + seed + ")");
+        for (ImdbGenerator.TableStats t : Arrays.asList(stats.movies, stats.persons, stats.principals)) {
+            System.out.println(String.format("  Table: %s (%d rows, %d bytes, %.1f%% quoted, %.1f%% non-ASCII)",
+                    t.file, t.rows, t.bytes, 100.0 * t.quoted / Math.max(1L, t.rows), 100.0 * t.nonAscii / Math.max(1L, t.rows)));
+        }
+        System.out.println("  Elapsed: " + millis + " ms");
+    }
 
-    private static void cmdSearchMovies(String[] args) throws IOException {
-        String file = null;
-        String keyword = null;
-        boolean caseSensitive = false;
-        Long limit = null;
+    private static void cmdCompress(String[] args) throws IOException {
+        String input = null;
+        String output = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int level = BlockGzip.DEFAULT_LEVEL;
 
         for (int i = 0; i < args.length; i++) {
             switch (args[i]) {
-                case "--file":
-                    file = expectArg(args, ++i, "--file requires a value");
+                case "--input":
+                    input = expectArg(args, ++i, "--input requires a value");
                     break;
-                case "--keyword":
-                    keyword = expectArg(args, ++i, "--keyword requires a value");
+                case "--output":
+                    output = expectArg(args, ++i, "--output requires a value");
                     break;
-                case "--case-sensitive":
-                    caseSensitive = true;
+                case "--threads":
+                    threads = Integer.parseInt(expectArg(args, ++i, "--threads requires a number"));
+                    if (threads < 1) {
+                        throw new IllegalArgumentException("--threads must be at least 1");
+                    }
                     break;
-                case "--limit":
-                    limit = Long.parseLong(expectArg(args, ++i, "--limit requires a number"));
+                case "--level":
+                    level = Integer.parseInt(expectArg(args, ++i, "--level requires a number"));
                     break;
                 default:
-                    throw new IllegalArgumentException("Unknown argument for search-movies: " + args[i]);
+                    throw new IllegalArgumentException("Unknown argument for compress: " + args[i]);
             }
         }
 
-        requireNonEmpty(file, "--file is required");
-        requireNonEmpty(keyword, "--keyword is required");
-
+        requireNonEmpty(input, "--input is required");
+        if (BlockGzip.detect(input)) {
+            throw new IllegalArgumentException(input + " is already block-compressed");
+        }
+        if (output == null) {
+            output = input + ".gz";
+        }
         Instant start = Instant.now();
-        long matched = 0L;
-        long scanned = 0L;
-        int titleIdx = -1;
+        BlockGzip.CompressStats stats = BlockGzip.compress(input, output, threads, level, true);
+        long millis = Duration.between(start, Instant.now()).toMillis();
+
+        System.out.println("Compress complete.");
+        System.out.println("  Input: " + input + " (" + stats.inputBytes + " bytes)");
+        System.out.println("  Output: " + output);
+        System.out.println("  Index: " + BlockGzip.indexPath(output) + " (" + stats.indexBytes + " bytes)");
+        System.out.println("  Blocks: " + stats.blocks + " x " + BlockGzip.BLOCK_DATA + " bytes");
+        System.out.printf("  Size: %d bytes (%.1f%% of the input)%n", stats.outputBytes,
+                100.0 * stats.outputBytes / Math.max(1L, stats.inputBytes));
+        System.out.println("  Level: " + level);
+        System.out.println("  Threads: " + threads);
+        System.out.println("  Elapsed: " + millis + " ms");
+    }
 
-        try (BufferedReader br = newBufferedReader(file)) {
-            String header = br.readLine();
-            if (header == null) {
-                System.out.println("Empty file. Nothing to search.");
-                return;
-            }
-            List<String> headerCols = parseCsvLine(header);
-            titleIdx = indexOfIgnoreCase(headerCols, "title");
-            if (titleIdx < 0) {
-                throw new IllegalStateException("Cannot find 'title' column in header: " + header);
-            }
+    private static void cmdBench(String[] args) throws IOException {
+        String dataDir = null;
+        List<String> selected = new ArrayList<>();
+        int warmup = 3;
+        int iterations = 10;
+        int threads = 1;
+        String name = "Tom Hanks";
+        String output = null;
+        String label = null;
 
-            String line;
-            while ((line = br.readLine()) != null) {
-                scanned++;
-                if (limit != null && scanned > limit) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--data-dir":
+                    dataDir = expectArg(args, ++i, "--data-dir requires a value");
                     break;
-                }
-                List<String> cols = parseCsvLine(line);
-                if (titleIdx >= cols.size()) {
+                case "--workload":
+                    selected.add(expectArg(args, ++i, "--workload requires a name"));
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(expectArg(args, ++i, "--warmup requires a number"));
+                    if (warmup < 0) {
+                        throw new IllegalArgumentException("--warmup must not be negative");
+                    }
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(expectArg(args, ++i, "--iterations requires a number"));
+                    if (iterations < 1) {
+                        throw new IllegalArgumentException("--iterations must be at least 1");
+                    }
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(expectArg(args, ++i, "--threads requires a number"));
+                    if (threads < 1) {
+                        throw new IllegalArgumentException("--threads must be at least 1");
+                    }
+                    break;
+                case "--name":
+                    name = expectArg(args, ++i, "--name requires a value");
+                    break;
+                case "--output":
+                    output = expectArg(args, ++i, "--output requires a value");
+                    break;
+                case "--label":
+                    label = expectArg(args, ++i, "--label requires a value");
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument for bench: " + args[i]);
+            }
+        }
 
-                    continue;
+        requireNonEmpty(dataDir, "--data-dir is required (see generate)");
+        String movies = new File(dataDir, "movies.csv").getPath();
+        String persons = new File(dataDir, "persons.csv").getPath();
+        String principals = new File(dataDir, "movie_principals.csv").getPath();
+        for (String f : Arrays.asList(movies, persons, principals)) {
+            if (!new File(f).isFile()) {
+                throw new IllegalArgumentException("Missing " + f + "; create the data set with generate first");
+            }
+        }
+        // a fixed path keeps the recorded command identical between runs
+        File updated = new File(dataDir, "bench-update-persons.csv");
+        String t = Integer.toString(threads);
+
+        // the same commands a user would type; search runs bypass the result cache
+        List<String> names = Arrays.asList("search-star", "search-xxx", "update-persons", "join", "semi-join");
+        List<List<String>> commands = Arrays.asList(
+                MacroBenchmark.command("search-movies", "--file", movies, "--keyword", "STAR", "--no-cache", "--threads", t),
+                MacroBenchmark.command("search-movies", "--file", movies, "--keyword", "XXX", "--no-cache", "--threads", t),
+                MacroBenchmark.command("update-persons", "--input", persons, "--output", updated.getPath(),
+                        "--from", "To", "--to", "TTOO", "--threads", t),
+                MacroBenchmark.command("join", "--movies", movies, "--principals", principals, "--persons", persons,
+                        "--name", name),
+                MacroBenchmark.command("semi-join", "--file", movies, "--principals", principals, "--key", "movie_id",
+                        "--threads", t));
+        List<List<String>> inputs = Arrays.asList(Arrays.asList(movies), Arrays.asList(movies), Arrays.asList(persons),
+                Arrays.asList(persons, principals, movies), Arrays.asList(principals, movies));
+        for (String w : selected) {
+            if (!names.contains(w)) {
+                throw new IllegalArgumentException("Unknown workload: " + w + " (one of " + String.join(", ", names) + ")");
+            }
+        }
+
+        Map<String, Long> rowCounts = new HashMap<>();
+        List<MacroBenchmark.Result> results = new ArrayList<>();
+        Instant start = Instant.now();
+        try {
+            for (int w = 0; w < names.size(); w++) {
+                if (!selected.isEmpty() && !selected.contains(names.get(w))) continue;
+                long rows = 0L;
+                long bytes = 0L;
+                for (String f : inputs.get(w)) {
+                    Long n = rowCounts.get(f);
+                    if (n == null) {
+                        try (ChunkedCsvScanner scanner = ChunkedCsvScanner.open(f)) {
+                            n = scanner.scan(1, null, () -> (buf, from, to) -> false, null).scanned;
+                        }
+                        rowCounts.put(f, n);
+                    }
+                    rows += n;
+                    bytes += new File(f).length();
                 }
-                String title = cols.get(titleIdx);
-                if (containsWithCaseOption(title, keyword, caseSensitive)) {
-                    matched++;
+                List<String> command = commands.get(w);
+                String[] cmdArgs = command.subList(1, command.size()).toArray(new String[0]);
+                MacroBenchmark.Workload run;
+                switch (command.get(0)) {
+                    case "search-movies":
+                        run = () -> cmdSearchMovies(cmdArgs);
+                        break;
+                    case "update-persons":
+                        run = () -> cmdUpdatePersons(cmdArgs);
+                        break;
+                    case "join":
+                        run = () -> cmdJoin(cmdArgs);
+                        break;
+                    default:
+                        run = () -> cmdSemiJoin(cmdArgs, false);
+                        break;
                 }
+                results.add(MacroBenchmark.measure(names.get(w), command, rows, bytes, warmup, iterations, run));
             }
+        } finally {
+            updated.delete();
         }
-
-        Instant end = Instant.now();
-        long millis = Duration.between(start, end).toMillis();
-
-        System.out.println("Search complete.");
-        System.out.println("  File: " + file);
-        System.out.println("  Keyword: " + keyword + (caseSensitive ? " (case-sensitive)" : " (case-insensitive)"));
-        if (limit != null) {
-            System.out.println("  Limit: " + limit + " lines (data rows excluding header)");
+        long millis = Duration.between(start, Instant.now()).toMillis();
+
+        Map<String, Object> header = new LinkedHashMap<>();
+        header.put("schema", "file-search-bench/1");
+        header.put("label", label);
+        header.put("started", start.toString());
+        header.put("java", System.getProperty("java.vm.name") + " " + System.getProperty("java.version"));
+        header.put("os", System.getProperty("os.name") + " " + System.getProperty("os.arch"));
+        header.put("cpus", Runtime.getRuntime().availableProcessors());
+        header.put("max_heap_bytes", Runtime.getRuntime().maxMemory());
+        header.put("data_dir", dataDir);
+        header.put("warmup", warmup);
+        header.put("iterations", iterations);
+        header.put("threads", threads);
+        header.put("alloc_counter", MacroBenchmark.exactAllocation() ? "process" : "live threads");
+        String json = MacroBenchmark.write(header, results);
+
+        // without --output the JSON is the only thing printed, so it can be piped
+        if (output == null) {
+            System.out.print(json);
+            return;
         }
-        System.out.println("  Scanned rows: " + scanned);
-        System.out.println("  Matches: " + matched);
-        System.out.println("  Elapsed: " + millis + " ms");
-        if (millis > 0) {
-            double rowsPerSec = (scanned * 1000.0) / millis;
-            System.out.printf("  Throughput: %.2f rows/sec%n", rowsPerSec);
+        Files.write(Paths.get(output), json.getBytes(StandardCharsets.UTF_8));
+        System.out.println("Benchmark complete.");
+        System.out.println("  Data: " + dataDir + " (warm-up " + warmup + ", iterations " + iterations + ", threads " + threads + ")");
+        for (MacroBenchmark.Result r : results) {
+            Map<String, Object> m = MacroBenchmark.toJson(r);
+            Map<?, ?> latency = (Map<?, ?>) m.get("latency_ms");
+            System.out.println(String.format("  %s: p50 %s ms, p95 %s ms, p99 %s ms, %s rows/s, %s MB/s, %s bytes allocated per row",
+                    r.name, latency.get("p50"), latency.get("p95"), latency.get("p99"), m.get("rows_per_s"),
+                    m.get("mb_per_s"), m.get("alloc_bytes_per_row")));
         }
+        System.out.println("  Results: " + output);
+        System.out.println("  Elapsed: " + millis + " ms");
     }
 
-
-
-
     private static void cmdUpdatePersons(String[] args) throws IOException {
         String input = null;
         String output = null;
@@ -183,7 +1421,14 @@ public class FileSearchAndUpdate {
         boolean inPlace = false;
         String backupExt = ".bak";
         boolean caseInsensitive = false;
+        boolean readAhead = false;
         Long limit = null;
+        int threads = 1;
+        boolean delta = false;
+        Long compactThreshold = null;
+        String rulesFile = null;
+        String cacheDir = null;
+        String metricsFormat = null;
 
         for (int i = 0; i < args.length; i++) {
             switch (args[i]) {
@@ -199,6 +1444,9 @@ public class FileSearchAndUpdate {
                 case "--to":
                     to = expectArg(args, ++i, "--to requires a value");
                     break;
+                case "--rules":
+                    rulesFile = expectArg(args, ++i, "--rules requires a file");
+                    break;
                 case "--in-place":
                     inPlace = true;
                     break;
@@ -208,32 +1456,67 @@ public class FileSearchAndUpdate {
                 case "--case-insensitive":
                     caseInsensitive = true;
                     break;
+                case "--read-ahead":
+                    readAhead = true;
+                    break;
                 case "--limit":
                     limit = Long.parseLong(expectArg(args, ++i, "--limit requires a number"));
                     break;
+                case "--threads":
+                    threads = Integer.parseInt(expectArg(args, ++i, "--threads requires a number"));
+                    if (threads < 1) {
+                        throw new IllegalArgumentException("--threads must be at least 1");
+                    }
+                    break;
+                case "--delta":
+                    delta = true;
+                    break;
+                case "--compact-threshold":
+                    compactThreshold = parseSize(expectArg(args, ++i, "--compact-threshold requires a size"));
+                    break;
+                case "--cache-dir":
+                    cacheDir = expectArg(args, ++i, "--cache-dir requires a value");
+                    break;
+                case "--metrics":
+                    metricsFormat = expectArg(args, ++i, "--metrics requires json or prometheus");
+                    ScanMetrics.checkFormat(metricsFormat);
+                    break;
                 default:
                     throw new IllegalArgumentException("Unknown argument for update-persons: " + args[i]);
             }
         }
 
         requireNonEmpty(input, "--input is required");
-        requireNonEmpty(from, "--from is required");
-        requireNonEmpty(to, "--to is required");
+        if (rulesFile != null) {
+            if (from != null || to != null) {
+                throw new IllegalArgumentException("--rules cannot be combined with --from/--to");
+            }
+        } else {
+            requireNonEmpty(from, "--from is required");
+            requireNonEmpty(to, "--to is required");
+        }
 
         File inFile = new File(input);
         if (!inFile.isFile()) {
             throw new IllegalArgumentException("Input is not a file: " + input);
         }
 
-        File outFile;
+        if (delta && (inPlace || output != null)) {
+            throw new IllegalArgumentException("--delta appends to " + DeltaLog.path(input) + "; it cannot be combined with --output or --in-place");
+        }
+        if (compactThreshold != null && !delta) {
+            throw new IllegalArgumentException("--compact-threshold only applies with --delta");
+        }
+
+        File outFile = null;
         boolean tempUsed = false;
 
         if (inPlace) {
 
             outFile = new File(inFile.getParentFile(), inFile.getName() + ".tmp.updating");
             tempUsed = true;
-        } else {
-            requireNonEmpty(output, "--output is required when not using --in-place");
+        } else if (!delta) {
+            requireNonEmpty(output, "--output is required when not using --in-place or --delta");
             outFile = new File(output);
             if (outFile.isDirectory()) {
                 throw new IllegalArgumentException("--output points to a directory, expected a file path");
@@ -241,56 +1524,76 @@ public class FileSearchAndUpdate {
         }
 
         Instant start = Instant.now();
-        long scanned = 0L;
-        long updated = 0L;
-        int nameIdx = -1;
-        List<String> headerCols;
-
-        try (BufferedReader br = newBufferedReader(input);
-             BufferedWriter bw = newBufferedWriter(outFile.getAbsolutePath())) {
-
-            String header = br.readLine();
-            if (header == null) {
-
-
-            } else {
-                headerCols = parseCsvLine(header);
-                nameIdx = indexOfIgnoreCase(headerCols, "person_name");
-                if (nameIdx < 0) {
-
+        ScanMetrics metrics = ScanMetrics.start("update-persons", metricsFormat);
+        List<String> columns = List.of("person_name");
+        ReplacementRules rules = null;
+        Supplier<? extends FieldRewriter.Replacement> replacements;
+        if (rulesFile != null) {
+            rules = ReplacementRules.load(rulesFile, caseInsensitive, columns);
+            columns = rules.columns();
+            replacements = rules::newReplacement;
+        } else {
+            KeywordMatcher fromMatcher = KeywordMatcher.compile(from, !caseInsensitive);
+            String needle = from;
+            String replacement = to;
+            boolean ignoreCase = caseInsensitive;
+            replacements = () -> new FieldRewriter.Replacement() {
+                @Override
+                public boolean mayChange(int field, ByteBuffer buf, int from, int to) {
+                    return fromMatcher.containedIn(buf, from, to);
+                }
 
-                    throw new IllegalStateException("Cannot find 'person_name' column in header: " + header);
+                @Override
+                public String apply(int field, String value) {
+                    return ignoreCase ? replaceAllCaseInsensitive(value, fromMatcher, replacement)
+                            : value.replace(needle, replacement);
                 }
-                bw.write(header);
-                bw.write('\n');
+            };
+        }
+        FieldRewriter.RewriteStats stats;
+
+        if (delta) {
+            stats = FieldRewriter.appendDeltas(input, columns, threads, limit, replacements, metrics, readAhead);
+            long logBytes = new File(DeltaLog.path(input)).length();
+            long threshold = compactThreshold != null ? compactThreshold : Math.max(1L << 20, inFile.length() / 10);
+            DeltaLog.CompactStats compacted = logBytes > threshold ? DeltaLog.compact(input) : null;
+            ResultCache.invalidate(cacheDir, input);
+            long millis = Duration.between(start, Instant.now()).toMillis();
+            if (metrics != null) metrics.stop();
+
+            System.out.println("Update complete.");
+            System.out.println("  Input: " + input);
+            System.out.println("  Output: " + DeltaLog.path(input) + " (delta log)");
+            printReplacements(rulesFile, rules, stats, from, to, caseInsensitive);
+            if (limit != null) {
+                System.out.println("  Limit: " + limit + " lines (data rows excluding header)");
             }
+            System.out.println("  Threads: " + threads);
+            System.out.println("  Scanned rows: " + stats.scanned);
+            System.out.println("  Updated rows: " + stats.updated);
+            System.out.println("  Bytes appended: " + stats.rewrittenBytes);
+            System.out.println("  Delta log size: " + logBytes + " bytes (compaction threshold " + threshold + ")");
+            if (compacted != null) {
+                System.out.println("  Compacted: " + compacted.folded + " rows folded into " + input + " (" + compacted.baseBytes + " bytes)");
+            }
+            System.out.println("  Elapsed: " + millis + " ms");
+            if (metrics != null) metrics.print(System.out);
+            return;
+        }
 
-            String line;
-            while ((line = br.readLine()) != null) {
-                scanned++;
-                if (limit != null && scanned > limit) {
-                    break;
-                }
-                List<String> cols = parseCsvLine(line);
-                if (nameIdx >= 0 && nameIdx < cols.size()) {
-                    String original = cols.get(nameIdx);
-                    String replaced = caseInsensitive
-                            ? replaceAllCaseInsensitive(original, from, to)
-                            : original.replace(from, to);
-                    if (!original.equals(replaced)) {
-                        updated++;
-                        cols.set(nameIdx, replaced);
-                    }
-                }
-                bw.write(toCsvLine(cols));
-                bw.write('\n');
+        // an in-place update keeps a block-compressed input compressed; --output always writes plain CSV
+        boolean recompress = inPlace && BlockGzip.detect(input);
+        try {
+            stats = FieldRewriter.rewrite(input, outFile, columns, threads, limit, replacements, metrics, readAhead);
+            if (recompress) {
+                BlockGzip.recompress(outFile, threads);
             }
-        } catch (IOException ioe) {
+        } catch (IOException | RuntimeException e) {
 
             if (tempUsed && outFile.exists()) {
                 outFile.delete();
             }
-            throw ioe;
+            throw e;
         }
 
 
@@ -299,7 +1602,9 @@ public class FileSearchAndUpdate {
             if (backupFile.exists() && !backupFile.delete()) {
                 throw new IOException("Failed to delete existing backup: " + backupFile.getAbsolutePath());
             }
-            if (!inFile.renameTo(backupFile)) {
+            DeltaLog.delete(backupFile.getPath());
+            boolean renamed = inFile.renameTo(backupFile);
+            if (!renamed) {
 
                 copyFile(inFile, backupFile);
                 if (!inFile.delete()) {
@@ -314,48 +1619,105 @@ public class FileSearchAndUpdate {
                     throw new IOException("Failed to delete temp file after manual move: " + outFile.getAbsolutePath());
                 }
             }
+            // the delta log is folded into the new file; a renamed backup keeps its size and mtime, so the
+            // log can travel with it and stay valid
+            if (renamed && DeltaLog.exists(input)) {
+                Files.move(Paths.get(DeltaLog.path(input)), Paths.get(DeltaLog.path(backupFile.getPath())));
+            } else {
+                DeltaLog.delete(input);
+            }
+            ResultCache.invalidate(cacheDir, backupFile.getPath());
+            if (recompress) {
+                BlockGzip.writeIndex(input);
+            }
+        }
+        ResultCache.invalidate(cacheDir, outFile.getPath());
+        if (inPlace) {
+            ResultCache.invalidate(cacheDir, input);
         }
 
         Instant end = Instant.now();
         long millis = Duration.between(start, end).toMillis();
+        if (metrics != null) metrics.stop();
 
         System.out.println("Update complete.");
         System.out.println("  Input: " + input);
-        System.out.println("  Output: " + (inPlace ? input + " (in-place with backup " + backupExt + ")" : outFile.getAbsolutePath()));
-        System.out.println("  Replacement: '" + from + "' -> '" + to + "'" + (caseInsensitive ? " (case-insensitive)" : " (case-sensitive)"));
+        System.out.println("  Output: " + (inPlace ? input + " (in-place with backup " + backupExt
+                + (recompress ? ", block-compressed" : "") + ")" : outFile.getAbsolutePath()));
+        printReplacements(rulesFile, rules, stats, from, to, caseInsensitive);
         if (limit != null) {
             System.out.println("  Limit: " + limit + " lines (data rows excluding header)");
         }
-        System.out.println("  Scanned rows: " + scanned);
-        System.out.println("  Updated rows: " + updated);
+        System.out.println("  Threads: " + threads);
+        System.out.println("  Scanned rows: " + stats.scanned);
+        System.out.println("  Updated rows: " + stats.updated);
+        System.out.println("  Bytes copied raw: " + stats.copiedBytes);
+        System.out.println("  Bytes rewritten: " + stats.rewrittenBytes);
         System.out.println("  Elapsed: " + millis + " ms");
         if (millis > 0) {
-            double rowsPerSec = (scanned * 1000.0) / millis;
+            double rowsPerSec = (stats.scanned * 1000.0) / millis;
             System.out.printf("  Throughput: %.2f rows/sec%n", rowsPerSec);
         }
+        if (metrics != null) metrics.print(System.out);
     }
 
 
 
 
 
-    private static BufferedReader newBufferedReader(String path) throws IOException {
-        return new BufferedReader(new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8), 1 << 20);
+    private static void printReplacements(String rulesFile, ReplacementRules rules, FieldRewriter.RewriteStats stats,
+                                          String from, String to, boolean caseInsensitive) {
+        if (rules == null) {
+            System.out.println("  Replacement: '" + from + "' -> '" + to + "'" + (caseInsensitive ? " (case-insensitive)" : " (case-sensitive)"));
+            return;
+        }
+        long[] hits = new long[rules.rules().size()];
+        for (FieldRewriter.Replacement r : stats.replacements) {
+            long[] h = ((ReplacementRules.Applier) r).hits();
+            for (int i = 0; i < hits.length; i++) hits[i] += h[i];
+        }
+        System.out.println("  Rules: " + rulesFile + " (" + hits.length + " rules, one pass over " + String.join(",", rules.columns()) + ")");
+        for (int i = 0; i < hits.length; i++) {
+            ReplacementRules.Rule r = rules.rules().get(i);
+            System.out.println("    line " + r.line + ": " + ReplacementRules.describe(r) + " in " + String.join(",", r.columns) + ": " + hits[i] + " hits");
+        }
     }
 
-    private static BufferedWriter newBufferedWriter(String path) throws IOException {
-        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8), 1 << 20);
+    private static BufferedReader newBufferedReader(String path) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8), 1 << 20);
     }
 
-    private static int indexOfIgnoreCase(List<String> cols, String name) {
-        for (int i = 0; i < cols.size(); i++) {
-            if (name.equalsIgnoreCase(cols.get(i))) {
+    private static int indexOfIgnoreCase(CsvTokenizer cols, String name) {
+        for (int i = 0; i < cols.count(); i++) {
+            if (name.equalsIgnoreCase(cols.fieldString(i))) {
                 return i;
             }
         }
         return -1;
     }
 
+    private static long parseSize(String s) {
+        String v = s.trim().toLowerCase();
+        long unit = 1L;
+        if (v.endsWith("k")) unit = 1L << 10;
+        else if (v.endsWith("m")) unit = 1L << 20;
+        else if (v.endsWith("g")) unit = 1L << 30;
+        if (unit != 1L) v = v.substring(0, v.length() - 1);
+        long n = Long.parseLong(v);
+        if (n < 0) {
+            throw new IllegalArgumentException("Size must not be negative: " + s);
+        }
+        return n * unit;
+    }
+
+    private static int columnarIndex(ColumnarTable table, String column) {
+        int idx = table.columnIndex(column);
+        if (idx < 0) {
+            throw new IllegalStateException("Cannot find '" + column + "' column in columnar table");
+        }
+        return idx;
+    }
+
     private static String expectArg(String[] args, int idx, String err) {
         if (idx < 0 || idx >= args.length) {
             throw new IllegalArgumentException(err);
@@ -380,15 +1742,67 @@ public class FileSearchAndUpdate {
     private static void printUsageAndExit(int code) {
         String usage = ""
             + "Usage:\n"
-            + "  preview --file <path> [--lines <N>]\n"
-            + "  search-movies --file <movies.csv> --keyword <kw> [--case-sensitive] [--limit <N>]\n"
-            + "  update-persons --input <persons.csv> (--output <out.csv> | --in-place [--backup <.bak>]) --from <s> --to <s> [--case-insensitive] [--limit <N>]\n"
+            + "  preview --file <path> [--lines <N>] [--offset <row> | --tail <N> | --sample <N> [--seed <S>]] [--index <path>]\n"
+            + "  (--offset/--tail/--sample seek through a <file>.ridx row index, built on first use; rows count from 0)\n"
+            + "  search-movies --file <movies.csv> --keyword <kw> [--case-sensitive] [--limit <N>] [--threads <N>] [--read-ahead] [--use-index [--index <path>]] [--no-cache | [--cache-dir <dir>] [--cache-size <size>] [--cache-verify]] [--metrics json|prometheus]\n"
+            + "  (results are cached per file size/mtime, by default in " + ResultCache.defaultDir() + "; --cache-verify also hashes the first/last 64 KiB)\n"
+            + "  build-index --file <movies.csv> [--column <title>] [--index <path, default: <file>.tri>]\n"
+            + "  build-name-index --file <persons.csv> [--column <person_name>] [--index <path, default: <file>.nidx>]\n"
+            + "  build-zone-map --file <path.csv> [--output <path, default: <file>.zmap>] [--block-size <size, default 64k>]\n"
+            + "  (FileSearchStandalone --where skips the blocks a fresh <file>.zmap rules out)\n"
+            + "  build-row-index --file <path.csv> [--output <path, default: <file>.ridx>] [--every <N, default 1024>]\n"
+            + "  lookup-persons --file <persons.csv> (--name <s> | --prefix <s>) [--index <path>] [--print]\n"
+            + "  join --movies <movies.csv> --principals <movie_principals.csv> --persons <persons.csv> --name <s> [--categories actor,actress] [--memory <size, e.g. 256m>] [--spill-dir <dir>] [--use-index [--index <path>]]\n"
+            + "  semi-join --file <movies.csv|persons.csv> --principals <movie_principals.csv> --key <movie_id|person_id> [--categories <c1,c2>] [--threads <N>] [--print]\n"
+            + "  anti-join --file <movies.csv|persons.csv> --principals <movie_principals.csv> --key <movie_id|person_id> [--categories <c1,c2>] [--threads <N>] [--print]\n"
+            + "  aggregate --file <path> --group-by <column> [--agg <min|max|sum>:<column>]... [--having <N>] [--threads <N>] [--max-groups <N>]\n"
+            + "  (aggregate prints groups in key order; --max-groups only shortens that list, every row is still scanned)\n"
+            + "  convert --file <path.csv> [--file <path.csv>]... [--output <path.col>] [--block-rows <N>]\n"
+            + "  (preview, search-movies and aggregate read a .col file produced by convert directly)\n"
+            + "  update-persons --input <persons.csv> (--output <out.csv> | --in-place [--backup <.bak>] | --delta [--compact-threshold <size>]) (--from <s> --to <s> | --rules <file>) [--case-insensitive] [--limit <N>] [--threads <N>] [--read-ahead] [--cache-dir <dir>] [--metrics json|prometheus]\n"
+            + "  (--rules lines are from<TAB>to[<TAB>i|c[<TAB>col,col...]]; all rules run in one leftmost-longest pass)\n"
+            + "  (--metrics prints per-phase times (read, frame, parse, decode, match, write), bytes, allocation and GC after the summary)\n"
+            + "  (--read-ahead reads the file ahead of a one-thread scan on a second thread, for a cold page cache; not with --limit)\n"
+            + "  compact --file <path.csv> [--cache-dir <dir>]\n"
+            + "  serve [--listen <host:port | unix:<path>, default: 127.0.0.1:7070>] --file <path> [--file <path>]... [--in-memory] [--allow-shutdown] [--threads <most per request, default: cores>]\n"
+            + "  client [--connect <host:port | unix:<path>>] [--request <json>]...   (reads JSON lines from stdin without --request)\n"
+            + "  compress --input <path.csv> [--output <path, default: <input>.gz>] [--threads <N>] [--level <0-9>]\n"
+            + "  (compress writes BGZF block-gzip plus a <output>.gzi block index; every command that reads a CSV reads\n"
+            + "   the compressed file directly, inflating blocks on --threads cores; gunzip still reads it too)\n"
+            + "  generate --output-dir <dir> [--scale <factor, default 0.1; 1 is about the size of the IMDb dump>] [--seed <N>]\n"
+            + "  bench --data-dir <dir> [--workload <search-star|search-xxx|update-persons|join|semi-join>]... [--warmup <N>] [--iterations <N>] [--threads <N>] [--name <s>] [--label <s>] [--output <results.json>]\n"
+            + "  (bench runs each workload in this JVM and reports p50/p95/p99 latency, rows/s, MB/s and allocation as JSON)\n"
+            + "  (serve answers one JSON object per line: {\"op\":\"search\"|\"preview\"|\"count\"|\"shutdown\", \"file\":..., \"keyword\"/\"keywords\", \"column\", \"case_sensitive\", \"limit\", \"threads\", \"rows\", \"id\"}; \"file\" must be one of the --file paths; shutdown needs --allow-shutdown and a local client)\n"
             + "\n"
             + "Examples:\n"
             + "  java FileSearchAndUpdate preview --file yuproject1/1_data/movies.csv --lines 10\n"
+            + "  java FileSearchAndUpdate preview --file yuproject1/1_data/persons.csv --tail 20\n"
+            + "  java FileSearchAndUpdate preview --file yuproject1/1_data/movies.csv --sample 10 --seed 7\n"
             + "  java FileSearchAndUpdate search-movies --file yuproject1/1_data/movies.csv --keyword \"STAR\"\n"
+            + "  java FileSearchAndUpdate search-movies --file yuproject1/1_data/movies.csv --keyword \"STAR\" --threads 8\n"
+            + "  java FileSearchAndUpdate search-movies --file yuproject1/1_data/movies.csv --keyword \"STAR\" --no-cache\n"
+            + "  java FileSearchAndUpdate build-index --file yuproject1/1_data/movies.csv\n"
+            + "  java FileSearchAndUpdate search-movies --file yuproject1/1_data/movies.csv --keyword \"Godfather\" --use-index\n"
+            + "  java FileSearchAndUpdate build-name-index --file yuproject1/1_data/persons.csv\n"
+            + "  java FileSearchAndUpdate build-zone-map --file yuproject1/1_data/movies.csv\n"
+            + "  java FileSearchAndUpdate lookup-persons --file yuproject1/1_data/persons.csv --prefix \"Tom\"\n"
+            + "  java FileSearchAndUpdate join --movies yuproject1/1_data/movies.csv --principals yuproject1/1_data/movie_principals.csv --persons yuproject1/1_data/persons.csv --name \"Tom Hanks\"\n"
+            + "  java FileSearchAndUpdate semi-join --file yuproject1/1_data/movies.csv --principals yuproject1/1_data/movie_principals.csv --key movie_id --categories actor\n"
+            + "  java FileSearchAndUpdate anti-join --file yuproject1/1_data/persons.csv --principals yuproject1/1_data/movie_principals.csv --key person_id\n"
+            + "  java FileSearchAndUpdate aggregate --file yuproject1/1_data/movies.csv --group-by year --having 10\n"
+            + "  java FileSearchAndUpdate convert --file yuproject1/1_data/movies.csv --file yuproject1/1_data/persons.csv\n"
+            + "  java FileSearchAndUpdate search-movies --file yuproject1/1_data/movies.col --keyword \"STAR\"\n"
             + "  java FileSearchAndUpdate update-persons --input yuproject1/1_data/persons.csv --output /tmp/persons_updated.csv --from \"To\" --to \"TTOO\"\n"
             + "  java FileSearchAndUpdate update-persons --input yuproject1/1_data/persons.csv --in-place --backup \".bak\" --from \"To\" --to \"TTOO\"\n"
+            + "  java FileSearchAndUpdate update-persons --input yuproject1/1_data/persons.csv --delta --from \"To\" --to \"TTOO\"\n"
+            + "  java FileSearchAndUpdate update-persons --input yuproject1/1_data/persons.csv --output /tmp/persons_cleaned.csv --rules cleanup.tsv\n"
+            + "  java FileSearchAndUpdate compact --file yuproject1/1_data/persons.csv\n"
+            + "  java FileSearchAndUpdate serve --listen unix:/tmp/file-search.sock --file yuproject1/1_data/movies.csv\n"
+            + "  java FileSearchAndUpdate compress --input yuproject1/1_data/movies.csv\n"
+            + "  java FileSearchAndUpdate search-movies --file yuproject1/1_data/movies.csv.gz --keyword \"STAR\" --threads 8\n"
+            + "  java FileSearchAndUpdate generate --output-dir /tmp/imdb-sf1 --scale 1\n"
+            + "  java FileSearchAndUpdate bench --data-dir /tmp/imdb-sf1 --label \"$(git rev-parse --short HEAD)\" --output bench.json\n"
+            + "  java FileSearchAndUpdate client --connect unix:/tmp/file-search.sock --request '{\"op\":\"search\",\"file\":\"yuproject1/1_data/movies.csv\",\"keyword\":\"STAR\"}'\n";
         System.out.println(usage);
         System.exit(code);
     }
@@ -398,91 +1812,35 @@ public class FileSearchAndUpdate {
 
 
 
-    private static List<String> parseCsvLine(String line) {
-        List<String> out = new ArrayList<>();
-        if (line == null) {
-            return out;
-        }
-
-        StringBuilder cur = new StringBuilder();
-        boolean inQuotes = false;
-        int i = 0;
-        while (i < line.length()) {
-            char ch = line.charAt(i);
-            if (inQuotes) {
-                if (ch == '"') {
-                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
-
-                        cur.append('"');
-                        i += 2;
-                    } else {
-
-                        inQuotes = false;
-                        i++;
-                    }
-                } else {
-                    cur.append(ch);
-                    i++;
-                }
-            } else {
-                if (ch == '"') {
-                    inQuotes = true;
-                    i++;
-                } else if (ch == ',') {
-                    out.add(cur.toString());
-                    cur.setLength(0);
-                    i++;
-                } else {
-                    cur.append(ch);
-                    i++;
-                }
-            }
-        }
-        out.add(cur.toString());
-        return out;
+    private static void quoteCsvField(StringBuilder sb, CharSequence s) {
+        CsvTokenizer.appendField(sb, s);
     }
 
-
-    private static String toCsvLine(List<String> fields) {
-        StringBuilder sb = new StringBuilder();
-        for (int idx = 0; idx < fields.size(); idx++) {
-            if (idx > 0) sb.append(',');
-            sb.append(quoteCsvField(fields.get(idx)));
+    static String replaceAllCaseInsensitive(String input, KeywordMatcher from, String to) {
+        if (input == null || input.isEmpty() || from.length() == 0) {
+            return input;
         }
-        return sb.toString();
-    }
 
-    private static String quoteCsvField(String s) {
-        if (s == null) s = "";
-        boolean needQuote = false;
-        for (int i = 0; i < s.length(); i++) {
-            char ch = s.charAt(i);
-            if (ch == ',' || ch == '"' || ch == '\n' || ch == '\r') {
-                needQuote = true;
-                break;
-            }
+        if (!from.fastPathFor(input)) {
+            return replaceAllLowerCased(input, from.keyword(), to);
         }
-        if (!needQuote) {
-            return s;
-        }
-
-        String escaped = s.replace("\"", "\"\"");
-        return "\"" + escaped + "\"";
-    }
-
-    private static boolean containsWithCaseOption(String text, String needle, boolean caseSensitive) {
-        if (text == null) return false;
-        if (needle == null || needle.isEmpty()) return true;
-        return caseSensitive
-                ? text.contains(needle)
-                : text.toLowerCase().contains(needle.toLowerCase());
-    }
-
-    private static String replaceAllCaseInsensitive(String input, String from, String to) {
-        if (input == null || input.isEmpty() || from == null || from.isEmpty()) {
+        int idx = from.indexIn(input, 0);
+        if (idx < 0) {
             return input;
         }
+        StringBuilder out = new StringBuilder(input.length() + to.length());
+        int i = 0;
+        while (idx >= 0) {
+            out.append(input, i, idx);
+            out.append(to);
+            i = idx + from.length();
+            idx = from.indexIn(input, i);
+        }
+        out.append(input, i, input.length());
+        return out.toString();
+    }
 
+    private static String replaceAllLowerCased(String input, String from, String to) {
         String lowerInput = input.toLowerCase();
         String lowerFrom = from.toLowerCase();
         StringBuilder out = new StringBuilder(input.length());
@@ -512,7 +1870,6 @@ public class FileSearchAndUpdate {
         }
     }
 
-    @SuppressWarnings("unused")
     private static void closeQuietly(Closeable c) {
         if (c != null) try { c.close(); } catch (IOException ignored) {}
     }
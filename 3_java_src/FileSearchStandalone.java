@@ -1,12 +1,14 @@
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.InputStreamReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.function.Supplier;
 
 
 public class FileSearchStandalone {
@@ -17,12 +19,26 @@ public class FileSearchStandalone {
         }
 
         String file = null;
-        String keyword = null;
+        List<String> keywords = new ArrayList<>();
+        String keywordsFile = null;
         String column = "title";
         boolean caseSensitive = false;
         boolean printMatches = false;
+        String output = null;
+        long offset = 0L;
+        Long maxMatches = null;
         Long limit = null;
-
+        int threads = 1;
+        boolean useCache = true;
+        String cacheDir = null;
+        long cacheSize = 64L << 20;
+        boolean cacheVerify = false;
+        boolean inMemory = false;
+        String metricsFormat = null;
+        String where = null;
+        String zoneMap = null;
+        boolean useZoneMap = true;
+        boolean readAhead = false;
 
         for (int i = 0; i < args.length; i++) {
             String a = args[i];
@@ -31,7 +47,12 @@ public class FileSearchStandalone {
                     file = expectArg(args, ++i, "--file requires a value");
                     break;
                 case "--keyword":
-                    keyword = expectArg(args, ++i, "--keyword requires a value");
+                    String kw = expectArg(args, ++i, "--keyword requires a value");
+                    requireNonEmpty(kw, "--keyword must not be empty");
+                    keywords.add(kw);
+                    break;
+                case "--keywords-file":
+                    keywordsFile = expectArg(args, ++i, "--keywords-file requires a value");
                     break;
                 case "--column":
                     column = expectArg(args, ++i, "--column requires a value");
@@ -45,6 +66,56 @@ public class FileSearchStandalone {
                 case "--print":
                     printMatches = true;
                     break;
+                case "--output":
+                    output = expectArg(args, ++i, "--output requires a value");
+                    requireNonEmpty(output, "--output must not be empty");
+                    break;
+                case "--offset":
+                    offset = parseLong(expectArg(args, ++i, "--offset requires a number"), "--offset must be a number");
+                    if (offset < 0) fail("--offset must not be negative");
+                    break;
+                case "--max-matches":
+                    maxMatches = parseLong(expectArg(args, ++i, "--max-matches requires a number"), "--max-matches must be a number");
+                    if (maxMatches < 1) fail("--max-matches must be at least 1");
+                    break;
+                case "--threads":
+                    threads = (int) parseLong(expectArg(args, ++i, "--threads requires a number"), "--threads must be a number");
+                    if (threads < 1) fail("--threads must be at least 1");
+                    break;
+                case "--no-cache":
+                    useCache = false;
+                    break;
+                case "--cache-dir":
+                    cacheDir = expectArg(args, ++i, "--cache-dir requires a value");
+                    break;
+                case "--cache-size":
+                    cacheSize = parseSize(expectArg(args, ++i, "--cache-size requires a size"));
+                    break;
+                case "--cache-verify":
+                    cacheVerify = true;
+                    break;
+                case "--in-memory":
+                    inMemory = true;
+                    break;
+                case "--where":
+                    where = expectArg(args, ++i, "--where requires an expression");
+                    requireNonEmpty(where.trim(), "--where must not be empty");
+                    break;
+                case "--zone-map":
+                    zoneMap = expectArg(args, ++i, "--zone-map requires a value");
+                    break;
+                case "--no-zone-map":
+                    useZoneMap = false;
+                    break;
+                case "--read-ahead":
+                    readAhead = true;
+                    break;
+                case "--metrics":
+                    metricsFormat = expectArg(args, ++i, "--metrics requires json or prometheus");
+                    if (!metricsFormat.equals("json") && !metricsFormat.equals("prometheus")) {
+                        fail("--metrics must be json or prometheus");
+                    }
+                    break;
                 default:
                     if (a.startsWith("--")) {
                         fail("Unknown argument: " + a);
@@ -55,11 +126,24 @@ public class FileSearchStandalone {
         }
 
         requireNonEmpty(file, "--file is required");
-        requireNonEmpty(keyword, "--keyword is required");
         requireNonEmpty(column, "--column must not be empty");
+        if (output != null) printMatches = true;
+        if (!printMatches && (offset > 0 || maxMatches != null)) fail("--offset and --max-matches select printed rows; add --print or --output");
+        if (inMemory && printMatches) fail("--print needs whole rows; it cannot be combined with --in-memory");
+        if (inMemory && where != null) fail("--where reads several columns; it cannot be combined with --in-memory");
+        if (zoneMap != null && (where == null || !useZoneMap)) fail("--zone-map needs --where and cannot be combined with --no-zone-map");
 
         try {
-            runSearch(file, column, keyword, caseSensitive, printMatches, limit);
+            if (keywordsFile != null) {
+                for (String line : Files.readAllLines(Paths.get(keywordsFile), StandardCharsets.UTF_8)) {
+                    if (!line.isEmpty()) keywords.add(line);
+                }
+            }
+            if (keywords.isEmpty() && where == null) fail("--keyword, --keywords-file or --where is required");
+            if (keywords.size() > 1 && where != null) fail("--where combines with at most one --keyword");
+            ResultCache cache = useCache ? ResultCache.open(cacheDir, cacheSize) : null;
+            runSearch(file, column, keywords, caseSensitive, printMatches, output, offset, maxMatches, limit, threads, cache,
+                    cacheVerify, inMemory, metricsFormat, where, zoneMap, useZoneMap, readAhead);
         } catch (Exception e) {
             System.err.println("Search failed: " + e.getMessage());
             e.printStackTrace(System.err);
@@ -69,65 +153,234 @@ public class FileSearchStandalone {
 
     private static void runSearch(String file,
                                   String column,
-                                  String keyword,
+                                  List<String> keywords,
                                   boolean caseSensitive,
                                   boolean printMatches,
-                                  Long limit) throws IOException {
+                                  String output,
+                                  long offset,
+                                  Long maxMatches,
+                                  Long limit,
+                                  int threads,
+                                  ResultCache cache,
+                                  boolean cacheVerify,
+                                  boolean inMemory,
+                                  String metricsFormat,
+                                  String whereExpr,
+                                  String zoneMapFile,
+                                  boolean useZoneMap,
+                                  boolean readAhead) throws IOException {
         long scanned = 0L;
         long matched = 0L;
+        long[] perKeyword = new long[keywords.size()];
 
         int colIdx = -1;
         Instant start = Instant.now();
+        ScanMetrics metrics = ScanMetrics.start("search", metricsFormat);
+        InMemoryTable table = null;
+        long loadMillis = 0L;
+        MatchWriter writer = printMatches ? MatchWriter.open(output, offset, maxMatches) : null;
+        boolean stopped = false;
+        WhereClause where = null;
+        String zoneNote = null;
+
+        String cacheKey = null;
+        ResultCache.Entry cached = null;
+        if (cache != null) {
+            cacheKey = cache.key(file, cacheVerify, "search\n" + column.toLowerCase() + "\n" + caseSensitive + "\n" + limit
+                    + "\n" + String.join("\n", keywords) + (whereExpr == null ? "" : "\nwhere " + whereExpr));
+            cached = cache.get(file, cacheKey);
+            if (cached != null && (cached.counts.length != keywords.size() || (printMatches && cached.offsets == null))) {
+                // stored by a run that did not record what this one needs
+                cached = null;
+            }
+        }
 
-        try (BufferedReader br = new BufferedReader(
-                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8),
-                1 << 20)) {
-
-
-            String header = br.readLine();
-            if (header == null) {
-                throw new IllegalStateException("Empty file: " + file);
+        if (cached != null) {
+            scanned = cached.scanned;
+            matched = cached.matched;
+            perKeyword = cached.counts;
+            if (printMatches) {
+                try (ChunkedCsvScanner scanner = ChunkedCsvScanner.open(file)) {
+                    int k = (int) Math.min(offset, cached.offsets.length);
+                    writer.skipped(k);
+                    for (; k < cached.offsets.length && !writer.full(); k++) {
+                        ByteBuffer row = scanner.readRecord(cached.offsets[k]);
+                        writer.accept(row, 0, row.limit());
+                    }
+                }
+            }
+        } else if (inMemory) {
+            table = InMemoryTable.load(file, List.of(column), limit);
+            loadMillis = Duration.between(start, Instant.now()).toMillis();
+            start = Instant.now();
+            colIdx = table.columnIndex(column);
+            if (keywords.size() == 1) {
+                matched = table.scan(colIdx, KeywordMatcher.compile(keywords.get(0), caseSensitive), null, threads);
+                perKeyword[0] = matched;
+            } else {
+                long[] counts = table.scan(colIdx, MultiKeywordMatcher.compile(keywords, caseSensitive), null, threads);
+                System.arraycopy(counts, 0, perKeyword, 0, perKeyword.length);
+                matched = counts[perKeyword.length];
             }
-            List<String> headerCols = parseCsvLine(header);
-            colIdx = indexOfIgnoreCase(headerCols, column);
-            if (colIdx < 0) {
-                throw new IllegalStateException("Column not found in header: '" + column + "'. Header: " + header);
+            scanned = table.rows();
+            if (cache != null) {
+                ResultCache.Entry e = new ResultCache.Entry();
+                e.scanned = scanned;
+                e.matched = matched;
+                e.counts = perKeyword;
+                cache.put(file, cacheKey, e);
             }
+        } else {
+            try (ChunkedCsvScanner scanner = ChunkedCsvScanner.open(file)) {
 
 
-            String line;
-            while ((line = br.readLine()) != null) {
-                scanned++;
-                if (limit != null && scanned > limit) {
-                    break;
+                String header = scanner.header();
+                if (header == null) {
+                    throw new IllegalStateException("Empty file: " + file);
+                }
+                scanner.record(metrics);
+                scanner.readAhead(readAhead);
+                CsvTokenizer headerCols = new CsvTokenizer();
+                headerCols.tokenize(header, -1);
+                colIdx = keywords.isEmpty() ? -1 : indexOfIgnoreCase(headerCols, column);
+                if (colIdx < 0 && !keywords.isEmpty()) {
+                    throw new IllegalStateException("Column not found in header: '" + column + "'. Header: " + header);
+                }
+
+
+                final int idx = colIdx;
+                // offsets are only worth storing when the rows get printed, and only a scan that read to the
+                // end (or to --limit) has a result worth storing
+                Long stopAfter = writer == null ? null : writer.stopAfter();
+                boolean store = cache != null && stopAfter == null;
+                boolean record = store && printMatches;
+                ChunkedCsvScanner.Result r;
+                if (whereExpr != null) {
+                    where = WhereClause.compile(whereExpr, header, caseSensitive);
+                    ZoneMap.Selection selection = null;
+                    if (!useZoneMap) {
+                        zoneNote = "off";
+                    } else if (limit != null) {
+                        // skipping blocks would change which rows are the first --limit ones
+                        zoneNote = "not used with --limit";
+                    } else if (DeltaLog.exists(file)) {
+                        if (zoneMapFile != null) {
+                            throw new IllegalStateException("Zone map " + zoneMapFile + " does not cover the delta log of " + file
+                                    + "; run compact first");
+                        }
+                        zoneNote = "not used, " + DeltaLog.path(file) + " has rows it does not cover";
+                    } else {
+                        String path = zoneMapFile != null ? zoneMapFile : ZoneMap.defaultPath(file);
+                        if (zoneMapFile != null || Files.isRegularFile(Paths.get(path))) {
+                            try {
+                                selection = ZoneMap.open(path, file).select(where, threads);
+                                zoneNote = path + " (kept " + selection.keptBlocks + " of " + selection.blocks + " blocks, "
+                                        + selection.keptBytes + " of " + selection.bytes + " bytes)";
+                            } catch (IllegalStateException e) {
+                                if (zoneMapFile != null) throw e;
+                                zoneNote = "not used, " + e.getMessage();
+                            }
+                        } else {
+                            zoneNote = "none (build one with FileSearchAndUpdate build-zone-map)";
+                        }
+                    }
+                    KeywordMatcher matcher = keywords.isEmpty() ? null : KeywordMatcher.compile(keywords.get(0), caseSensitive);
+                    WhereClause filter = where;
+                    Supplier<ChunkedCsvScanner.RowVisitor> visitors = () -> recording(matcher == null ? filter.visitor()
+                            : WhereClause.both(filter.visitor(), new ColumnKeywordMatcher(idx, matcher)), record);
+                    r = selection == null ? scanner.scanMatches(threads, limit, stopAfter, visitors, writer)
+                            : scanner.scanMatches(threads, limit, stopAfter, visitors, writer, selection.ranges);
+                    if (matcher != null) perKeyword[0] = r.matched;
+                } else if (keywords.size() == 1) {
+                    KeywordMatcher matcher = KeywordMatcher.compile(keywords.get(0), caseSensitive);
+                    r = scanner.scanMatches(threads, limit, stopAfter,
+                            () -> recording(new ColumnKeywordMatcher(idx, matcher), record), writer);
+                    perKeyword[0] = r.matched;
+                } else {
+                    MultiKeywordMatcher matcher = MultiKeywordMatcher.compile(keywords, caseSensitive);
+                    r = scanner.scanMatches(threads, limit, stopAfter,
+                            () -> recording(matcher.columnVisitor(idx), record), writer);
+                    for (ChunkedCsvScanner.RowVisitor v : r.visitors) {
+                        if (v instanceof ResultCache.OffsetRecorder) v = ((ResultCache.OffsetRecorder) v).inner;
+                        long[] counts = ((MultiKeywordMatcher.ColumnVisitor) v).counts();
+                        for (int k = 0; k < counts.length; k++) perKeyword[k] += counts[k];
+                    }
                 }
-                List<String> cols = parseCsvLine(line);
-                String val = (colIdx < cols.size() ? cols.get(colIdx) : null);
-                if (containsWithCaseOption(val, keyword, caseSensitive)) {
-                    matched++;
-                    if (printMatches) {
-                        System.out.println(line);
+                scanned = r.scanned;
+                matched = r.matched;
+                stopped = stopAfter != null && matched >= stopAfter;
+
+                if (store) {
+                    ResultCache.Entry e = new ResultCache.Entry();
+                    e.scanned = scanned;
+                    e.matched = matched;
+                    e.counts = perKeyword;
+                    if (record) {
+                        long[] offsets = new long[0];
+                        for (ChunkedCsvScanner.RowVisitor v : r.visitors) {
+                            long[] more = ((ResultCache.OffsetRecorder) v).offsets();
+                            offsets = Arrays.copyOf(offsets, offsets.length + more.length);
+                            System.arraycopy(more, 0, offsets, offsets.length - more.length, more.length);
+                        }
+                        e.offsets = offsets;
                     }
+                    cache.put(file, cacheKey, e);
                 }
             }
         }
 
+        if (writer != null) writer.close();
         Instant end = Instant.now();
         long millis = Duration.between(start, end).toMillis();
+        if (metrics != null) metrics.stop();
 
 
         System.out.println("== File Search Summary ==");
         System.out.println("  File           : " + file);
-        System.out.println("  Column         : " + column);
-        System.out.println("  Keyword        : " + keyword + (caseSensitive ? " (case-sensitive)" : " (case-insensitive)"));
+        if (!keywords.isEmpty()) System.out.println("  Column         : " + column);
+        if (whereExpr != null) System.out.println("  Where          : " + (where != null ? where : whereExpr));
+        if (keywords.size() == 1) {
+            System.out.println("  Keyword        : " + keywords.get(0) + (caseSensitive ? " (case-sensitive)" : " (case-insensitive)"));
+        } else if (keywords.size() > 1) {
+            System.out.println("  Keywords       : " + keywords.size() + (caseSensitive ? " (case-sensitive, single pass)" : " (case-insensitive, single pass)"));
+        }
         if (limit != null) System.out.println("  Limit          : " + limit + " data rows");
+        if (zoneNote != null) System.out.println("  Zone map       : " + zoneNote);
+        if (cached != null) {
+            System.out.println("  Cache          : hit (" + cache.dir() + ")");
+        } else {
+            System.out.println("  Threads        : " + threads);
+            System.out.println("  Cache          : " + (cache == null ? "off"
+                    : maxMatches != null ? "miss, not stored (--max-matches)" : "miss, stored in " + cache.dir()));
+        }
         System.out.println("  Scanned rows   : " + scanned);
-        System.out.println("  Matches        : " + matched);
+        System.out.println("  Matches        : " + matched + (keywords.size() > 1 ? " (rows matching any keyword)" : "")
+                + (stopped ? " (counted up to the last requested row)" : ""));
+        if (keywords.size() > 1) {
+            for (int k = 0; k < keywords.size(); k++) {
+                System.out.printf("    %-12s : %d%n", keywords.get(k), perKeyword[k]);
+            }
+        }
+        if (writer != null) {
+            System.out.println("  Printed        : " + writer.written() + " rows, " + writer.bytes() + " bytes to "
+                    + (output == null ? "stdout" : output)
+                    + (offset > 0 || maxMatches != null ? " (offset " + offset + (maxMatches != null ? ", max " + maxMatches : "") + ")" : ""));
+        }
+        if (table != null) {
+            System.out.println("  In-memory load : " + loadMillis + " ms (" + table.rows() + " rows of '" + column + "', elapsed below is the search alone)");
+            System.out.printf("  Memory         : %d bytes off-heap + %d bytes of offsets (%.1f MiB per million rows)%n",
+                    table.offHeapBytes(), table.offsetBytes(), table.bytesPerMillionRows() / (double) (1 << 20));
+        }
         System.out.println("  Elapsed        : " + millis + " ms");
         if (millis > 0) {
             double rps = scanned * 1000.0 / millis;
             System.out.printf("  Throughput     : %.2f rows/sec%n", rps);
         }
+        if (metrics != null) metrics.print(System.out);
+    }
+
+    private static ChunkedCsvScanner.RowVisitor recording(ChunkedCsvScanner.RowVisitor v, boolean record) {
+        return record ? new ResultCache.OffsetRecorder(v) : v;
     }
 
     private static boolean hasHelp(String[] args) {
@@ -140,23 +393,53 @@ public class FileSearchStandalone {
     private static void printUsageAndExit(int code) {
         String usage = String.join("\n",
             "Usage:",
-            "  java FileSearchStandalone --file <movies.csv> --keyword <kw> [--column <title>] [--case-sensitive] [--limit <N>] [--print]",
+            "  java FileSearchStandalone --file <movies.csv> (--keyword <kw> [--keyword <kw> ...] | --keywords-file <path> | --where <expr> [--keyword <kw>]) [--column <title>] [--zone-map <path> | --no-zone-map] [--case-sensitive] [--limit <N>] [--print | --output <path> | --in-memory] [--offset <N>] [--max-matches <N>] [--threads <N>] [--read-ahead] [--no-cache] [--cache-dir <dir>] [--cache-size <size>] [--cache-verify] [--metrics json|prometheus]",
             "",
             "Options:",
             "  --file <path>          Path to CSV file (must contain a header row)",
-            "  --keyword <kw>         Substring to search for",
+            "  --keyword <kw>         Substring to search for (repeat to count several keywords in one pass)",
+            "  --keywords-file <path> File with one keyword per line (blank lines ignored), scanned in one pass",
             "  --column <name>        Column name to search (default: title, case-insensitive header match)",
+            "  --where <expr>         Only count rows passing a filter over any columns, e.g. \"year BETWEEN 1990 AND",
+            "                         1999 AND NOT genre IN ('Drama', 'Horror')\"; tests are = != < <= > >=, BETWEEN,",
+            "                         IN, CONTAINS 'text' and IS [NOT] NULL, joined with AND, OR, NOT and parentheses.",
+            "                         Number literals compare numerically, quoted ones as text; empty and \\N are NULL.",
+            "                         A --keyword given with it must also be found in --column",
+            "  --zone-map <path>      Skip the blocks this zone map rules out for --where (default: <file>.zmap when",
+            "                         it exists and is up to date; build it with FileSearchAndUpdate build-zone-map)",
+            "  --no-zone-map          Read every block even when a zone map exists",
             "  --case-sensitive       Enable case-sensitive matching (default: case-insensitive)",
             "  --limit <N>            Only scan the first N data rows (excluding header)",
-            "  --print                Print matching rows (off by default to avoid timing distortion)",
+            "  --print                Print matching rows to stdout through a 1 MiB buffer, ahead of the summary",
+            "  --output <path>        Write matching rows to this file instead of stdout (implies --print)",
+            "  --offset <N>           Skip the first N matching rows when printing (default: 0)",
+            "  --max-matches <N>      Print at most N matching rows and stop scanning once they are written; the",
+            "                         summary then counts matches only up to that point and nothing is cached",
+            "  --threads <N>          Scan line-aligned byte ranges on N worker threads (default: 1; ignored with",
+            "                         --limit or --max-matches)",
+            "  --read-ahead           With one thread, read the file ahead of the scan on a second thread, so a cold",
+            "                         page cache is filled while rows are matched (not with --limit or --max-matches)",
+            "  --in-memory            Load the column into an off-heap UTF-8 arena first, then search it there",
+            "  --no-cache             Always scan the file; neither read nor store a cached result",
+            "  --cache-dir <dir>      Result cache directory (default: " + ResultCache.defaultDir() + ")",
+            "  --cache-size <size>    Evict least recently used results past this total size, e.g. 64m (default: 64m)",
+            "  --cache-verify         Also key results on a hash of the first and last 64 KiB of the file",
+            "  --metrics <format>     After the summary, print per-phase times and bytes (read, frame, parse, decode,",
+            "                         match, write), allocation per thread and GC time as json or prometheus text",
             "  -h, --help             Show this help",
             "",
             "Examples:",
-            "  javac -d out 3_java_src/FileSearchStandalone.java",
+            "  javac -d out 3_java_src/*.java",
             "  java -cp out FileSearchStandalone --file 1_data/movies.csv --keyword \"STAR\"",
             "  java -cp out FileSearchStandalone --file 1_data/movies.csv --keyword \"STAR\" --case-sensitive",
             "  java -cp out FileSearchStandalone --file 1_data/movies.csv --keyword \"xxx\" --limit 100000",
-            "  java -cp out FileSearchStandalone --file 1_data/movies.csv --keyword \"xxx\" --print"
+            "  java -cp out FileSearchStandalone --file 1_data/movies.csv --keyword \"xxx\" --print",
+            "  java -cp out FileSearchStandalone --file 1_data/movies.csv --keyword \"STAR\" --print --offset 100 --max-matches 100",
+            "  java -cp out FileSearchStandalone --file 1_data/movies.csv --keyword \"STAR\" --output star.csv --threads 8",
+            "  java -cp out FileSearchStandalone --file 1_data/movies.csv --keyword \"STAR\" --threads 8",
+            "  java -cp out FileSearchStandalone --file 1_data/movies.csv --keyword \"XXX\" --keyword \"STAR\"",
+            "  java -cp out FileSearchStandalone --file 1_data/movies.csv --keyword \"STAR\" --in-memory --no-cache",
+            "  java -cp out FileSearchStandalone --file 1_data/movies.csv --where \"year >= 2000 AND title CONTAINS 'star'\" --print"
         );
         System.out.println(usage);
         System.exit(code);
@@ -178,6 +461,18 @@ public class FileSearchStandalone {
         }
     }
 
+    private static long parseSize(String s) {
+        String v = s.trim().toLowerCase();
+        long unit = 1L;
+        if (v.endsWith("k")) unit = 1L << 10;
+        else if (v.endsWith("m")) unit = 1L << 20;
+        else if (v.endsWith("g")) unit = 1L << 30;
+        if (unit != 1L) v = v.substring(0, v.length() - 1);
+        long n = parseLong(v, "Size must be a number like 64m");
+        if (n < 0) fail("Size must not be negative: " + s);
+        return n * unit;
+    }
+
     private static void requireNonEmpty(String s, String msg) {
         if (s == null || s.isEmpty()) fail(msg);
     }
@@ -186,57 +481,11 @@ public class FileSearchStandalone {
         throw new IllegalArgumentException(msg);
     }
 
-    private static int indexOfIgnoreCase(List<String> cols, String name) {
+    private static int indexOfIgnoreCase(CsvTokenizer cols, String name) {
         if (cols == null || name == null) return -1;
-        for (int i = 0; i < cols.size(); i++) {
-            if (name.equalsIgnoreCase(cols.get(i))) return i;
+        for (int i = 0; i < cols.count(); i++) {
+            if (name.equalsIgnoreCase(cols.fieldString(i))) return i;
         }
         return -1;
     }
-
-    private static boolean containsWithCaseOption(String text, String needle, boolean caseSensitive) {
-        if (text == null) return false;
-        if (needle == null || needle.isEmpty()) return true;
-        return caseSensitive ? text.contains(needle) : text.toLowerCase().contains(needle.toLowerCase());
-    }
-
-
-    private static List<String> parseCsvLine(String line) {
-        List<String> out = new ArrayList<>();
-        if (line == null || line.isEmpty()) {
-            out.add("");
-            return out;
-        }
-
-        StringBuilder cur = new StringBuilder(line.length());
-        boolean inQuotes = false;
-
-        for (int i = 0; i < line.length(); i++) {
-            char ch = line.charAt(i);
-            if (inQuotes) {
-                if (ch == '"') {
-                    boolean hasNext = (i + 1) < line.length();
-                    if (hasNext && line.charAt(i + 1) == '"') {
-                        cur.append('"');
-                        i++;
-                    } else {
-                        inQuotes = false;
-                    }
-                } else {
-                    cur.append(ch);
-                }
-            } else {
-                if (ch == '"') {
-                    inQuotes = true;
-                } else if (ch == ',') {
-                    out.add(cur.toString());
-                    cur.setLength(0);
-                } else {
-                    cur.append(ch);
-                }
-            }
-        }
-        out.add(cur.toString());
-        return out;
-    }
 }
@@ -0,0 +1,349 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+
+final class GraceHashJoin implements Closeable {
+
+    private static final int FANOUT = 16;
+    private static final int MAX_LEVEL = 3;
+
+    interface TupleSink {
+        void accept(byte[] buf, int len, long weight) throws IOException;
+    }
+
+    private final long budget;
+    private final File spillDir;
+    private Table table = new Table();
+    private File[] buildFiles;
+    private File[] probeFiles;
+    private DataOutputStream[] buildOut;
+    private DataOutputStream[] probeOut;
+    private long buildRows;
+    private int spilledPartitions;
+    private long spilledBytes;
+
+    GraceHashJoin(long budget, File spillDir) {
+        this.budget = budget;
+        this.spillDir = spillDir;
+    }
+
+    void build(byte[] key, int len, long weight) throws IOException {
+        buildRows++;
+        int h = hash(key, len);
+        if (buildOut != null) {
+            write(buildOut[partition(h, 0)], key, len, null, 0, weight);
+            return;
+        }
+        table.add(key, len, h, weight);
+        if (table.bytes() > budget) {
+            spill();
+        }
+    }
+
+    void probe(byte[] key, int klen, byte[] payload, int plen, long weight, TupleSink out) throws IOException {
+        int h = hash(key, klen);
+        if (buildOut != null) {
+            if (probeOut == null) {
+                probeFiles = new File[FANOUT];
+                probeOut = open(probeFiles, "probe");
+            }
+            write(probeOut[partition(h, 0)], key, klen, payload, plen, weight);
+            return;
+        }
+        long w = table.get(key, klen, h);
+        if (w != 0L) {
+            out.accept(payload, plen, weight * w);
+        }
+    }
+
+    void finish(TupleSink out) throws IOException {
+        if (buildOut == null) {
+            return;
+        }
+        closeAll(buildOut);
+        closeAll(probeOut);
+        buildOut = null;
+        probeOut = null;
+        for (int p = 0; p < FANOUT; p++) {
+            joinPartition(buildFiles[p], probeFiles == null ? null : probeFiles[p], 1, out);
+        }
+    }
+
+    long buildRows() {
+        return buildRows;
+    }
+
+    int spilledPartitions() {
+        return spilledPartitions;
+    }
+
+    long spilledBytes() {
+        return spilledBytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeAll(buildOut);
+        closeAll(probeOut);
+        deleteAll(buildFiles);
+        deleteAll(probeFiles);
+        table = null;
+    }
+
+    private void spill() throws IOException {
+        buildFiles = new File[FANOUT];
+        buildOut = open(buildFiles, "build");
+        for (int id = 0; id < table.size; id++) {
+            write(buildOut[partition(table.hashes[id], 0)], table.arena, table.starts[id], table.lengths[id], table.weights[id]);
+        }
+        table = new Table();
+    }
+
+    private void joinPartition(File build, File probe, int level, TupleSink out) throws IOException {
+        if (build.length() == 0L || probe == null || probe.length() == 0L) {
+            build.delete();
+            if (probe != null) probe.delete();
+            return;
+        }
+        Table t = new Table();
+        byte[] key = new byte[64];
+        byte[] payload = new byte[64];
+        boolean tooBig = false;
+        try (DataInputStream in = input(build)) {
+            while (true) {
+                int klen = readShort(in);
+                if (klen < 0) break;
+                if (key.length < klen) key = new byte[klen * 2];
+                in.readFully(key, 0, klen);
+                in.skipBytes(in.readUnsignedShort());
+                t.add(key, klen, hash(key, klen), in.readLong());
+                if (level < MAX_LEVEL && t.size > 1 && t.bytes() > budget) {
+                    tooBig = true;
+                    break;
+                }
+            }
+        }
+        if (tooBig) {
+            // a skewed partition: split both sides again on the next hash bits
+            File[] subBuild = repartition(build, level);
+            File[] subProbe = repartition(probe, level);
+            for (int p = 0; p < FANOUT; p++) {
+                joinPartition(subBuild[p], subProbe[p], level + 1, out);
+            }
+            return;
+        }
+        build.delete();
+        try (DataInputStream in = input(probe)) {
+            while (true) {
+                int klen = readShort(in);
+                if (klen < 0) break;
+                if (key.length < klen) key = new byte[klen * 2];
+                in.readFully(key, 0, klen);
+                int plen = in.readUnsignedShort();
+                if (payload.length < plen) payload = new byte[plen * 2];
+                in.readFully(payload, 0, plen);
+                long weight = in.readLong();
+                long w = t.get(key, klen, hash(key, klen));
+                if (w != 0L) {
+                    out.accept(payload, plen, weight * w);
+                }
+            }
+        }
+        probe.delete();
+    }
+
+    private File[] repartition(File src, int level) throws IOException {
+        File[] files = new File[FANOUT];
+        DataOutputStream[] outs = open(files, "l" + level);
+        byte[] key = new byte[64];
+        byte[] payload = new byte[64];
+        try (DataInputStream in = input(src)) {
+            while (true) {
+                int klen = readShort(in);
+                if (klen < 0) break;
+                if (key.length < klen) key = new byte[klen * 2];
+                in.readFully(key, 0, klen);
+                int plen = in.readUnsignedShort();
+                if (payload.length < plen) payload = new byte[plen * 2];
+                in.readFully(payload, 0, plen);
+                write(outs[partition(hash(key, klen), level)], key, klen, payload, plen, in.readLong());
+            }
+        } finally {
+            closeAll(outs);
+        }
+        src.delete();
+        return files;
+    }
+
+    private DataOutputStream[] open(File[] files, String side) throws IOException {
+        if (spillDir != null && !spillDir.isDirectory() && !spillDir.mkdirs()) {
+            throw new IOException("Cannot create spill directory " + spillDir);
+        }
+        DataOutputStream[] outs = new DataOutputStream[files.length];
+        for (int p = 0; p < files.length; p++) {
+            files[p] = File.createTempFile("join-" + side + "-" + p + "-", ".part", spillDir);
+            files[p].deleteOnExit();
+            outs[p] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(files[p]), 1 << 16));
+        }
+        spilledPartitions += files.length;
+        return outs;
+    }
+
+    private void write(DataOutputStream out, byte[] key, int from, int len, long weight) throws IOException {
+        out.writeShort(len);
+        out.write(key, from, len);
+        out.writeShort(0);
+        out.writeLong(weight);
+        spilledBytes += 12L + len;
+    }
+
+    private void write(DataOutputStream out, byte[] key, int klen, byte[] payload, int plen, long weight) throws IOException {
+        if (klen > 0xFFFF || plen > 0xFFFF) {
+            throw new IllegalStateException("Join key or payload longer than 65535 bytes");
+        }
+        out.writeShort(klen);
+        out.write(key, 0, klen);
+        out.writeShort(plen);
+        if (plen > 0) out.write(payload, 0, plen);
+        out.writeLong(weight);
+        spilledBytes += 12L + klen + plen;
+    }
+
+    private static DataInputStream input(File f) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16));
+    }
+
+    private static int readShort(DataInputStream in) throws IOException {
+        try {
+            return in.readUnsignedShort();
+        } catch (EOFException e) {
+            return -1;
+        }
+    }
+
+    private static void closeAll(DataOutputStream[] outs) throws IOException {
+        if (outs == null) return;
+        for (DataOutputStream o : outs) {
+            if (o != null) o.close();
+        }
+    }
+
+    private static void deleteAll(File[] files) {
+        if (files == null) return;
+        for (File f : files) {
+            if (f != null) f.delete();
+        }
+    }
+
+    private static int partition(int h, int level) {
+        return (h >>> (28 - 4 * level)) & (FANOUT - 1);
+    }
+
+    static int hash(byte[] key, int len) {
+        int h = 0x9747B28C;
+        for (int i = 0; i < len; i++) {
+            h = (h ^ (key[i] & 0xFF)) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+
+
+
+    private static final class Table {
+        private byte[] arena = new byte[1 << 12];
+        private int used;
+        private int[] starts = new int[256];
+        private int[] lengths = new int[256];
+        private int[] hashes = new int[256];
+        private long[] weights = new long[256];
+        private int size;
+        private int[] slots = new int[512];
+        private int shift = 32 - 9;
+
+        void add(byte[] key, int len, int h, long weight) {
+            int mask = slots.length - 1;
+            int s = slot(h, shift);
+            while (slots[s] != 0) {
+                int id = slots[s] - 1;
+                if (hashes[id] == h && equal(id, key, len)) {
+                    weights[id] += weight;
+                    return;
+                }
+                s = (s + 1) & mask;
+            }
+            if (size == starts.length) {
+                int n = size * 2;
+                starts = Arrays.copyOf(starts, n);
+                lengths = Arrays.copyOf(lengths, n);
+                hashes = Arrays.copyOf(hashes, n);
+                weights = Arrays.copyOf(weights, n);
+            }
+            if (used + len > arena.length) {
+                arena = Arrays.copyOf(arena, Math.max(arena.length * 2, used + len));
+            }
+            System.arraycopy(key, 0, arena, used, len);
+            starts[size] = used;
+            lengths[size] = len;
+            hashes[size] = h;
+            weights[size] = weight;
+            used += len;
+            slots[s] = ++size;
+            if (size * 2 > slots.length) {
+                rehash();
+            }
+        }
+
+        long get(byte[] key, int len, int h) {
+            int mask = slots.length - 1;
+            int s = slot(h, shift);
+            while (slots[s] != 0) {
+                int id = slots[s] - 1;
+                if (hashes[id] == h && equal(id, key, len)) {
+                    return weights[id];
+                }
+                s = (s + 1) & mask;
+            }
+            return 0L;
+        }
+
+        long bytes() {
+            return used + 32L * size;
+        }
+
+        // partitions fix the top hash bits, so slots take the high bits of a multiplicative remix
+        private static int slot(int h, int shift) {
+            return (h * 0x9E3779B9) >>> shift;
+        }
+
+        private boolean equal(int id, byte[] key, int len) {
+            return lengths[id] == len && Arrays.equals(arena, starts[id], starts[id] + len, key, 0, len);
+        }
+
+        private void rehash() {
+            int[] grown = new int[slots.length * 2];
+            int mask = grown.length - 1;
+            shift--;
+            for (int id = 0; id < size; id++) {
+                int s = slot(hashes[id], shift);
+                while (grown[s] != 0) s = (s + 1) & mask;
+                grown[s] = id + 1;
+            }
+            slots = grown;
+        }
+    }
+}
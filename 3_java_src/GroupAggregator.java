@@ -0,0 +1,312 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+final class GroupAggregator implements ChunkedCsvScanner.RowVisitor {
+
+    static final int MIN = 0;
+    static final int MAX = 1;
+    static final int SUM = 2;
+
+    // canonical integer keys in [-DENSE_LIMIT, DENSE_LIMIT) are counted in a dense array
+    private static final int DENSE_LIMIT = 1 << 20;
+    static final long NONE = Long.MIN_VALUE;
+
+    static final class Group {
+        String key;
+        long count;
+        long[] values;
+        boolean[] present;
+        private boolean numeric;
+        private long intKey;
+    }
+
+    private final int keyColumn;
+    private final int[] ops;
+    private final int[] columns;
+    private final int last;
+    private final CsvTokenizer tokenizer = new CsvTokenizer();
+
+    private int groups;
+    private long[] counts = new long[64];
+    private long[] values;
+    private long[] seen;
+    private boolean[] numericKey = new boolean[64];
+    private long[] intKeys = new long[64];
+    private int[] keyStarts = new int[64];
+    private int[] keyLengths = new int[64];
+
+    private int[] dense;
+    private long denseBase;
+
+    private byte[] arena = new byte[1 << 10];
+    private int used;
+    private int[] slots = new int[256];
+    private int[] hashes = new int[64];
+    private byte[] scratch = new byte[64];
+    private long scanned;
+
+    GroupAggregator(int keyColumn, int[] ops, int[] columns) {
+        this.keyColumn = keyColumn;
+        this.ops = ops;
+        this.columns = columns;
+        int max = keyColumn;
+        for (int c : columns) max = Math.max(max, c);
+        this.last = max;
+        this.values = new long[64 * ops.length];
+        this.seen = new long[64 * ops.length];
+    }
+
+    long scanned() {
+        return scanned;
+    }
+
+    @Override
+    public boolean visit(ByteBuffer buf, int start, int end) {
+        scanned++;
+        if (tokenizer.tokenize(buf, start, end, last) <= keyColumn) {
+            return false;
+        }
+        int g;
+        if (tokenizer.needsUnescape(keyColumn)) {
+            byte[] b = tokenizer.fieldString(keyColumn).getBytes(StandardCharsets.UTF_8);
+            g = stringGroup(b, b.length);
+        } else {
+            g = group(buf, tokenizer.start(keyColumn), tokenizer.end(keyColumn));
+        }
+        counts[g]++;
+        for (int a = 0; a < ops.length; a++) {
+            int c = columns[a];
+            if (c >= tokenizer.count()) continue;
+            long v = tokenizer.needsUnescape(c) ? parseValue(tokenizer.fieldString(c))
+                    : parseValue(buf, tokenizer.start(c), tokenizer.end(c));
+            if (v != NONE) {
+                add(g, a, v);
+            }
+        }
+        return false;
+    }
+
+    // entry points for readers that already hold decoded keys and values (see ColumnarTable)
+    int group(ByteBuffer buf, int from, int to) {
+        long k = parseCanonicalInt(buf, from, to);
+        if (k != NONE) {
+            return denseGroup(k);
+        }
+        int len = to - from;
+        if (scratch.length < len) scratch = new byte[len * 2];
+        buf.get(from, scratch, 0, len);
+        return stringGroup(scratch, len);
+    }
+
+    int group(long key) {
+        if (key >= -DENSE_LIMIT && key < DENSE_LIMIT) {
+            return denseGroup(key);
+        }
+        byte[] b = Long.toString(key).getBytes(StandardCharsets.US_ASCII);
+        return stringGroup(b, b.length);
+    }
+
+    int nullGroup() {
+        return stringGroup(scratch, 0);
+    }
+
+    void count(int g, long rows) {
+        counts[g] += rows;
+        scanned += rows;
+    }
+
+    void add(int g, int agg, long v) {
+        accumulate(g * ops.length + agg, ops[agg], v, 1L);
+    }
+
+    void merge(GroupAggregator other) {
+        for (int og = 0; og < other.groups; og++) {
+            int g = other.numericKey[og] ? denseGroup(other.intKeys[og])
+                    : stringGroup(Arrays.copyOfRange(other.arena, other.keyStarts[og], other.keyStarts[og] + other.keyLengths[og]),
+                    other.keyLengths[og]);
+            counts[g] += other.counts[og];
+            for (int a = 0; a < ops.length; a++) {
+                int o = og * ops.length + a;
+                if (other.seen[o] > 0) {
+                    accumulate(g * ops.length + a, ops[a], other.values[o], other.seen[o]);
+                }
+            }
+        }
+        scanned += other.scanned;
+    }
+
+    // numeric keys ascending, then text keys, then the NULL (empty) group, as ORDER BY would
+    List<Group> groups(long havingMoreThan) {
+        List<Group> out = new ArrayList<>();
+        for (int g = 0; g < groups; g++) {
+            if (counts[g] <= havingMoreThan) continue;
+            Group r = new Group();
+            r.numeric = numericKey[g];
+            r.intKey = intKeys[g];
+            r.key = numericKey[g] ? Long.toString(intKeys[g])
+                    : keyLengths[g] == 0 ? null : new String(arena, keyStarts[g], keyLengths[g], StandardCharsets.UTF_8);
+            r.count = counts[g];
+            r.values = new long[ops.length];
+            r.present = new boolean[ops.length];
+            for (int a = 0; a < ops.length; a++) {
+                r.values[a] = values[g * ops.length + a];
+                r.present[a] = seen[g * ops.length + a] > 0;
+            }
+            out.add(r);
+        }
+        out.sort((x, y) -> {
+            if (x.numeric != y.numeric) return x.numeric ? -1 : 1;
+            if (x.numeric) return Long.compare(x.intKey, y.intKey);
+            if (x.key == null || y.key == null) return x.key == null ? (y.key == null ? 0 : 1) : -1;
+            return x.key.compareTo(y.key);
+        });
+        return out;
+    }
+
+    private void accumulate(int slot, int op, long v, long n) {
+        if (seen[slot] == 0) {
+            values[slot] = v;
+        } else if (op == MIN) {
+            values[slot] = Math.min(values[slot], v);
+        } else if (op == MAX) {
+            values[slot] = Math.max(values[slot], v);
+        } else {
+            values[slot] = Math.addExact(values[slot], v);
+        }
+        seen[slot] += n;
+    }
+
+    private int denseGroup(long k) {
+        if (dense == null) {
+            dense = new int[64];
+            denseBase = k - 32;
+        }
+        if (k < denseBase || k >= denseBase + dense.length) {
+            long lo = Math.min(denseBase, k);
+            long hi = Math.max(denseBase + dense.length, k + 1);
+            long size = Math.min(Math.max(hi - lo, 2L * dense.length), 2L * DENSE_LIMIT);
+            long base = k < denseBase ? hi - size : lo;
+            if (size == 2L * DENSE_LIMIT) {
+                base = -DENSE_LIMIT;
+            }
+            int[] grown = new int[(int) size];
+            System.arraycopy(dense, 0, grown, (int) (denseBase - base), dense.length);
+            dense = grown;
+            denseBase = base;
+        }
+        int i = (int) (k - denseBase);
+        int g = dense[i] - 1;
+        if (g < 0) {
+            g = newGroup();
+            numericKey[g] = true;
+            intKeys[g] = k;
+            dense[i] = g + 1;
+        }
+        return g;
+    }
+
+    private int stringGroup(byte[] key, int len) {
+        int h = GraceHashJoin.hash(key, len);
+        int mask = slots.length - 1;
+        int s = h & mask;
+        while (slots[s] != 0) {
+            int g = slots[s] - 1;
+            if (hashes[g] == h && keyLengths[g] == len
+                    && Arrays.equals(arena, keyStarts[g], keyStarts[g] + len, key, 0, len)) {
+                return g;
+            }
+            s = (s + 1) & mask;
+        }
+        int g = newGroup();
+        if (used + len > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, used + len));
+        }
+        System.arraycopy(key, 0, arena, used, len);
+        keyStarts[g] = used;
+        keyLengths[g] = len;
+        hashes[g] = h;
+        used += len;
+        slots[s] = g + 1;
+        if (groups * 2 > slots.length) {
+            int[] grown = new int[slots.length * 2];
+            int m = grown.length - 1;
+            for (int id = 0; id < groups; id++) {
+                if (numericKey[id]) continue;
+                int t = hashes[id] & m;
+                while (grown[t] != 0) t = (t + 1) & m;
+                grown[t] = id + 1;
+            }
+            slots = grown;
+        }
+        return g;
+    }
+
+    private int newGroup() {
+        if (groups == counts.length) {
+            int n = groups * 2;
+            counts = Arrays.copyOf(counts, n);
+            numericKey = Arrays.copyOf(numericKey, n);
+            intKeys = Arrays.copyOf(intKeys, n);
+            keyStarts = Arrays.copyOf(keyStarts, n);
+            keyLengths = Arrays.copyOf(keyLengths, n);
+            hashes = Arrays.copyOf(hashes, n);
+            values = Arrays.copyOf(values, n * ops.length);
+            seen = Arrays.copyOf(seen, n * ops.length);
+        }
+        return groups++;
+    }
+
+    private static long parseCanonicalInt(ByteBuffer buf, int from, int to) {
+        int i = from;
+        boolean negative = i < to && buf.get(i) == '-';
+        if (negative) i++;
+        if (i >= to || to - i > 7 || (buf.get(i) == '0' && (to - i > 1 || negative))) {
+            return NONE;
+        }
+        long n = 0L;
+        for (; i < to; i++) {
+            int d = buf.get(i) - '0';
+            if (d < 0 || d > 9) return NONE;
+            n = n * 10 + d;
+        }
+        n = negative ? -n : n;
+        return n >= -DENSE_LIMIT && n < DENSE_LIMIT ? n : NONE;
+    }
+
+    static long parseValue(ByteBuffer buf, int from, int to) {
+        if (from == to) {
+            return NONE;
+        }
+        int i = from;
+        byte first = buf.get(i);
+        if (first == '-' || first == '+') i++;
+        if (i < to && to - i <= 18) {
+            long n = 0L;
+            for (; i < to; i++) {
+                int d = buf.get(i) - '0';
+                if (d < 0 || d > 9) break;
+                n = n * 10 + d;
+            }
+            if (i == to) {
+                return first == '-' ? -n : n;
+            }
+        }
+        return parseValue(ChunkedCsvScanner.decode(buf, from, to));
+    }
+
+    static long parseValue(String s) {
+        String v = s.trim();
+        if (v.isEmpty()) {
+            return NONE;
+        }
+        try {
+            return Long.parseLong(v);
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException("Not an integer value: '" + s + "'");
+        }
+    }
+}
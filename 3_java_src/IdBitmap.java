@@ -0,0 +1,102 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+final class IdBitmap {
+
+    private static final int CHUNK_BITS = 16;
+    private static final int WORDS_PER_CHUNK = (1 << CHUNK_BITS) / 64;
+
+    // one 8 KiB chunk per populated 64Ki-id range, so sparse or offset id spaces stay small
+    private long[][] chunks = new long[16][];
+
+    void add(int id) {
+        int c = id >>> CHUNK_BITS;
+        if (c >= chunks.length) {
+            chunks = Arrays.copyOf(chunks, Math.max(c + 1, chunks.length * 2));
+        }
+        long[] words = chunks[c];
+        if (words == null) {
+            words = new long[WORDS_PER_CHUNK];
+            chunks[c] = words;
+        }
+        int bit = id & ((1 << CHUNK_BITS) - 1);
+        words[bit >>> 6] |= 1L << bit;
+    }
+
+    boolean contains(int id) {
+        int c = id >>> CHUNK_BITS;
+        if (c >= chunks.length || chunks[c] == null) {
+            return false;
+        }
+        int bit = id & ((1 << CHUNK_BITS) - 1);
+        return (chunks[c][bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    void or(IdBitmap other) {
+        if (other.chunks.length > chunks.length) {
+            chunks = Arrays.copyOf(chunks, other.chunks.length);
+        }
+        for (int c = 0; c < other.chunks.length; c++) {
+            long[] src = other.chunks[c];
+            if (src == null) continue;
+            if (chunks[c] == null) {
+                chunks[c] = src.clone();
+            } else {
+                long[] dst = chunks[c];
+                for (int w = 0; w < WORDS_PER_CHUNK; w++) dst[w] |= src[w];
+            }
+        }
+    }
+
+    long cardinality() {
+        long n = 0L;
+        for (long[] words : chunks) {
+            if (words == null) continue;
+            for (long w : words) n += Long.bitCount(w);
+        }
+        return n;
+    }
+
+    long bytes() {
+        long n = 8L * chunks.length;
+        for (long[] words : chunks) {
+            if (words != null) n += 8L * WORDS_PER_CHUNK;
+        }
+        return n;
+    }
+
+    // "tt0000001" -> prefix 'tt' in the high word, 1 in the low word; -1 for anything else
+    static long parseId(ByteBuffer buf, int from, int to) {
+        if (to - from < 3 || to - from > 12) {
+            return -1L;
+        }
+        int a = buf.get(from) & 0xFF;
+        int b = buf.get(from + 1) & 0xFF;
+        if (!isLetter(a) || !isLetter(b)) {
+            return -1L;
+        }
+        long n = 0L;
+        for (int i = from + 2; i < to; i++) {
+            int d = buf.get(i) - '0';
+            if (d < 0 || d > 9) {
+                return -1L;
+            }
+            n = n * 10 + d;
+        }
+        if (n > Integer.MAX_VALUE) {
+            return -1L;
+        }
+        return ((long) ((a << 8) | b) << 32) | n;
+    }
+
+    static long parseId(String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        return parseId(ByteBuffer.wrap(b), 0, b.length);
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
@@ -0,0 +1,309 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+
+// Writes movies.csv, persons.csv and movie_principals.csv in the layout process_imdb_normalized.py produces,
+// from a seed, so benchmark numbers can be reproduced without the real dump. Scale factor 1 is roughly the
+// size of the normalized dump (0.7M movies, 14M persons, 3.4M principal rows). The shapes follow it too:
+// titles of 1-8 Zipf-distributed words (median 2-3), ~3% of titles and ~1% of names quoted because of a
+// comma or a double quote, ~11% of titles and ~10% of names non-ASCII (accented Latin, CJK, Cyrillic),
+// years skewed towards the present, and 0-10 actor/actress/director rows per movie (mean 4.8) whose people
+// are drawn with a heavy skew so some persons have hundreds of credits. The same seed and scale always
+// give byte-identical files.
+final class ImdbGenerator {
+
+    static final long MOVIES_PER_SCALE = 700_000L;
+    static final long PERSONS_PER_SCALE = 14_000_000L;
+
+    static final class TableStats {
+        String file;
+        long rows;
+        long bytes;
+        long quoted;
+        long nonAscii;
+    }
+
+    static final class GenerateStats {
+        final TableStats movies = new TableStats();
+        final TableStats persons = new TableStats();
+        final TableStats principals = new TableStats();
+    }
+
+    private static final String[] WORDS = {
+        "The", "of", "Love", "Night", "Man", "Story", "Life", "Day", "House", "Time", "Girl", "Last", "Death",
+        "Dead", "World", "Home", "Little", "Black", "Blood", "Dark", "Lost", "City", "Heart", "Secret", "Road",
+        "Woman", "Star", "in", "and", "a", "New", "King", "Summer", "Red", "Family", "Devil", "War", "Big",
+        "Dream", "Return", "Game", "Island", "Fire", "Women", "Boy", "Murder", "Street", "Silent", "Wild",
+        "Christmas", "Angel", "Brothers", "Moon", "Revenge", "Night's", "Paradise", "Ghost", "Hotel", "Shadow",
+        "Kill", "Money", "Queen", "White", "Golden", "Devils", "Stars", "Beyond", "Escape", "Lady", "Sea",
+        "Hell", "Happy", "Mystery", "Mister", "Ride", "West", "Bride", "River", "Crazy", "Wedding", "Holiday",
+        "Spring", "Deadly", "Rising", "Sun", "Blue", "Zombie", "Dragon", "Tomorrow", "Monster", "Knight",
+        "Empire", "Hope", "Legend", "Song", "School", "Wars", "Mother", "Father", "Child", "Children", "Rock",
+        "Storm", "Ice", "Planet", "Journey", "Heaven", "Master", "Forever", "Jungle", "Train", "Sky", "Hunter",
+        "Prince", "Princess", "Yesterday", "Godfather", "Starlight", "Mustard", "Upstart", "Midnight",
+    };
+    // non-ASCII words are escaped so the file compiles whatever the platform encoding
+    private static final String[] ACCENTED = {
+        "Am\u00e9lie", "\u00c9t\u00e9", "Cr\u00e8me", "Caf\u00e9", "Ni\u00f1o", "Ma\u00f1ana", "Coraz\u00f3n",
+        "A\u00f1os", "\u00dcber", "M\u00e4dchen", "Stra\u00dfe", "F\u00fcr", "Zo\u00eb", "\u00c7a", "No\u00ebl",
+        "D\u00e9j\u00e0", "V\u00e9rit\u00e9", "S\u00e3o", "Cora\u00e7\u00e3o", "A\u00e7\u00e3o", "\u00c7ocuk",
+        "G\u00fcne\u015f", "\u015eehir", "\u0141\u00f3d\u017a", "Mi\u0142o\u015b\u0107", "\u017bycie",
+        "H\u00e5ll", "K\u00e4rlek", "S\u00f8ster", "\u00c5rets", "Fr\u00f6ken", "\u1f19\u03bb\u03ad\u03bd\u03b7",
+        "P\u00e8re", "\u00c2me",
+    };
+    private static final String[] CJK = {
+        "\u6771", "\u4eac", "\u7269", "\u8a9e", "\u611b", "\u591c", "\u82b1", "\u4eba", "\u751f", "\u98a8",
+        "\u5c71", "\u6d77", "\u5922", "\u6625", "\u79cb", "\u6708", "\u5149", "\u604b", "\u306e", "\u3068",
+        "\u306b", "\u5973", "\u7537", "\u5bb6", "\u5929", "\u56fd", "\u9f8d", "\u864e", "\uc0ac", "\ub791",
+        "\uc758", "\ubc24", "\uc9d1",
+    };
+    private static final String[] CYRILLIC = {
+        "\u041c\u043e\u0441\u043a\u0432\u0430", "\u041b\u044e\u0431\u043e\u0432\u044c",
+        "\u0412\u043e\u0439\u043d\u0430", "\u041d\u043e\u0447\u044c", "\u0416\u0438\u0437\u043d\u044c",
+        "\u0414\u043e\u043c", "\u0411\u0440\u0430\u0442", "\u0413\u043e\u0440\u043e\u0434",
+        "\u0421\u0435\u0440\u0434\u0446\u0435", "\u0417\u0438\u043c\u0430",
+        "\u0417\u0432\u0435\u0437\u0434\u0430", "\u0421\u043e\u043b\u043d\u0446\u0435",
+        "\u0414\u043e\u0440\u043e\u0433\u0430", "\u041c\u0438\u0440",
+        "\u0414\u0435\u0432\u0443\u0448\u043a\u0430", "\u0422\u0430\u0439\u043d\u0430",
+        "\u0423\u043a\u0440\u0430\u0457\u043d\u0430", "\u041c\u0430\u0442\u0438",
+    };
+    private static final String[] FIRST = {
+        "John", "Michael", "David", "Robert", "James", "Mary", "Maria", "Peter", "Paul", "Richard", "Anna",
+        "Tom", "William", "Thomas", "George", "Mark", "Daniel", "Jean", "Chris", "Anthony", "Joseph", "Sarah",
+        "Elizabeth", "Laura", "Lisa", "Linda", "Susan", "Karen", "Tony", "Steve", "Kevin", "Brian", "Alex",
+        "Emma", "Olivia", "Sophie", "Julia", "Laura", "Carlos", "Luis", "Juan", "Pedro", "Ana", "Marco", "Hans",
+        "Tomas", "Toni", "Antonio", "Victor", "Nina", "Hiroshi", "Raj", "Amit", "Priya", "Ali", "Omar",
+    };
+    private static final String[] FIRST_ACCENTED = {
+        "Jos\u00e9", "Zo\u00eb", "Bj\u00f6rk", "Ren\u00e9e", "S\u00f8ren", "Fran\u00e7ois", "J\u00fcrgen",
+        "Tom\u00e1s", "In\u00e9s", "\u0141ukasz", "\u00d3lafur", "H\u00e9l\u00e8ne", "M\u00f3nica", "\u00c1ngel",
+        "Ji\u0159\u00ed", "Nu\u00f1o", "\u00c7a\u011fan", "G\u00f6sta",
+    };
+    private static final String[] LAST = {
+        "Smith", "Johnson", "Williams", "Brown", "Jones", "Miller", "Davis", "Wilson", "Anderson", "Taylor",
+        "Thomas", "Moore", "Martin", "Jackson", "Thompson", "White", "Harris", "Clark", "Lewis", "Robinson",
+        "Walker", "Young", "Allen", "King", "Wright", "Scott", "Hill", "Green", "Adams", "Baker", "Nelson",
+        "Carter", "Mitchell", "Roberts", "Turner", "Phillips", "Campbell", "Parker", "Evans", "Edwards",
+        "Collins", "Stewart", "Morris", "Rogers", "Reed", "Cook", "Morgan", "Bell", "Murphy", "Bailey", "Cooper",
+        "Hanks", "Tomlinson", "Toth", "Kumar", "Singh", "Sharma", "Khan", "Kim", "Lee", "Park", "Chen", "Wang",
+        "Rossi", "Russo", "Ferrari", "Garcia", "Martinez", "Lopez", "Gonzalez", "Rodriguez", "Fernandez",
+        "Silva", "Santos", "Schmidt", "Schneider", "Fischer", "Weber", "Meyer", "Wagner", "O'Brien", "O'Connor",
+    };
+    private static final String[] LAST_ACCENTED = {
+        "M\u00fcller", "Garc\u00eda", "Nguy\u1ec5n", "N\u00fa\u00f1ez", "Pe\u00f1a", "G\u00f3mez", "P\u00e9rez",
+        "S\u00e1nchez", "Jim\u00e9nez", "Mu\u00f1oz", "\u00d6zt\u00fcrk", "Y\u0131lmaz", "Kowalczyk",
+        "Wi\u015bniewski", "Dvo\u0159\u00e1kov\u00e1", "H\u00e5kansson", "\u00d8degaard", "Lef\u00e8vre",
+    };
+    private static final String[] NAME_CJK = {
+        "\u5c71\u7530\u592a\u90ce", "\u4f50\u85e4\u82b1\u5b50", "\u9234\u6728\u4e00\u90ce",
+        "\u7530\u4e2d\u7f8e\u54b2", "\u738b\u4f1f", "\u674e\u5a1c", "\u5f20\u4f1f", "\u5218\u6d0b",
+        "\uae40\ubbfc\uc900", "\uc774\uc11c\uc5f0", "\ubc15\uc9c0\ud6c8",
+    };
+    private static final String[] NAME_CYRILLIC = {
+        "\u041e\u043b\u044c\u0433\u0430 \u0418\u0432\u0430\u043d\u043e\u0432\u0430",
+        "\u0421\u0435\u0440\u0433\u0435\u0439 \u041f\u0435\u0442\u0440\u043e\u0432",
+        "\u0410\u043d\u043d\u0430 \u0421\u043c\u0438\u0440\u043d\u043e\u0432\u0430",
+        "\u0414\u043c\u0438\u0442\u0440\u0438\u0439 \u041a\u043e\u0437\u043b\u043e\u0432",
+        "\u041d\u0430\u0442\u0430\u043b\u044c\u044f \u0412\u043e\u043b\u043a\u043e\u0432\u0430",
+        "\u0406\u0432\u0430\u043d \u0424\u0440\u0430\u043d\u043a\u043e",
+    };
+    // words per title, 1..8, and principals per movie, 0..10, in percent
+    private static final int[] TITLE_WORDS = { 22, 28, 20, 12, 8, 5, 3, 2 };
+    private static final int[] CREDITS = { 8, 6, 8, 10, 12, 14, 14, 11, 8, 5, 4 };
+
+    private ImdbGenerator() {
+    }
+
+    static GenerateStats generate(File dir, double scale, long seed) throws IOException {
+        if (!(scale > 0)) {
+            throw new IllegalArgumentException("--scale must be positive: " + scale);
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+        long movies = Math.max(1L, Math.round(MOVIES_PER_SCALE * scale));
+        long persons = Math.max(1L, Math.round(PERSONS_PER_SCALE * scale));
+        GenerateStats stats = new GenerateStats();
+        writeMovies(new File(dir, "movies.csv"), movies, new Random(seed), stats.movies);
+        writePersons(new File(dir, "persons.csv"), persons, new Random(seed ^ 0x9E3779B97F4A7C15L), stats.persons);
+        writePrincipals(new File(dir, "movie_principals.csv"), movies, persons,
+                new Random(seed ^ 0xC2B2AE3D27D4EB4FL), stats.principals);
+        return stats;
+    }
+
+    private static void writeMovies(File file, long rows, Random rnd, TableStats stats) throws IOException {
+        StringBuilder title = new StringBuilder(128);
+        StringBuilder row = new StringBuilder(160);
+        try (Writer w = open(file)) {
+            w.write("movie_id,title,year\n");
+            for (long i = 1; i <= rows; i++) {
+                title(rnd, title);
+                row.setLength(0);
+                id(row, "tt", i).append(',');
+                CsvTokenizer.appendField(row, title);
+                // skewed towards recent years, as most catalogued movies are
+                row.append(',').append(2025 - (int) (131 * Math.pow(rnd.nextDouble(), 2.2))).append('\n');
+                w.append(row);
+                count(stats, title);
+            }
+        }
+        finish(file, rows, stats);
+    }
+
+    private static void writePersons(File file, long rows, Random rnd, TableStats stats) throws IOException {
+        StringBuilder name = new StringBuilder(64);
+        StringBuilder row = new StringBuilder(96);
+        try (Writer w = open(file)) {
+            w.write("person_id,person_name\n");
+            for (long i = 1; i <= rows; i++) {
+                name(rnd, name);
+                row.setLength(0);
+                id(row, "nm", i).append(',');
+                CsvTokenizer.appendField(row, name);
+                w.append(row.append('\n'));
+                count(stats, name);
+            }
+        }
+        finish(file, rows, stats);
+    }
+
+    private static void writePrincipals(File file, long movies, long persons, Random rnd, TableStats stats)
+            throws IOException {
+        StringBuilder row = new StringBuilder(48);
+        long[] cast = new long[CREDITS.length];
+        long rows = 0L;
+        try (Writer w = open(file)) {
+            w.write("movie_id,person_id,category\n");
+            for (long m = 1; m <= movies; m++) {
+                int n = pick(rnd, CREDITS);
+                for (int k = 0; k < n; k++) {
+                    long p;
+                    boolean dup;
+                    do {
+                        // cubing the uniform draw gives a few persons most of the credits
+                        double u = rnd.nextDouble();
+                        p = 1 + Math.min(persons - 1, (long) (persons * u * u * u));
+                        dup = false;
+                        for (int j = 0; j < k; j++) dup |= cast[j] == p;
+                    } while (dup && persons > n);
+                    cast[k] = p;
+                    String category = k == 0 && rnd.nextInt(100) < 85 ? "director"
+                            : rnd.nextInt(100) < 58 ? "actor" : "actress";
+                    row.setLength(0);
+                    id(row, "tt", m).append(',');
+                    id(row, "nm", p).append(',').append(category).append('\n');
+                    w.append(row);
+                    rows++;
+                }
+            }
+        }
+        finish(file, rows, stats);
+    }
+
+    private static void title(Random rnd, StringBuilder t) {
+        t.setLength(0);
+        int script = rnd.nextInt(1000);
+        if (script < 20) {
+            int n = 2 + rnd.nextInt(6);
+            for (int i = 0; i < n; i++) t.append(CJK[rnd.nextInt(CJK.length)]);
+            return;
+        }
+        int words = 1 + pick(rnd, TITLE_WORDS);
+        boolean accented = script < 90;
+        boolean cyrillic = script >= 90 && script < 110;
+        if (rnd.nextInt(2000) == 0) t.append("XXX ");
+        for (int i = 0; i < words; i++) {
+            if (i > 0) t.append(i == 1 && rnd.nextInt(100) < 3 ? ", " : " ");
+            if (cyrillic) {
+                t.append(CYRILLIC[rnd.nextInt(CYRILLIC.length)]);
+            } else if (accented && (i == 0 || rnd.nextBoolean())) {
+                t.append(ACCENTED[rnd.nextInt(ACCENTED.length)]);
+            } else {
+                t.append(zipf(rnd, WORDS));
+            }
+        }
+        int extra = rnd.nextInt(1000);
+        if (extra < 10) {
+            t.append(", Part ").append(2 + rnd.nextInt(4));
+        } else if (extra < 13) {
+            t.append(" \"").append(zipf(rnd, WORDS)).append('"');
+        } else if (extra < 80) {
+            t.append(' ').append(2 + rnd.nextInt(3));
+        }
+    }
+
+    private static void name(Random rnd, StringBuilder n) {
+        n.setLength(0);
+        int script = rnd.nextInt(1000);
+        if (script < 15) {
+            n.append(NAME_CJK[rnd.nextInt(NAME_CJK.length)]);
+            return;
+        }
+        if (script < 30) {
+            n.append(NAME_CYRILLIC[rnd.nextInt(NAME_CYRILLIC.length)]);
+            return;
+        }
+        boolean accented = script < 100;
+        n.append(accented && rnd.nextBoolean() ? FIRST_ACCENTED[rnd.nextInt(FIRST_ACCENTED.length)] : zipf(rnd, FIRST));
+        int extra = rnd.nextInt(1000);
+        if (extra < 30) {
+            n.append(' ').append((char) ('A' + rnd.nextInt(26))).append('.');
+        } else if (extra < 32) {
+            n.append(" \"").append(zipf(rnd, WORDS)).append('"');
+        }
+        n.append(' ').append(accented ? LAST_ACCENTED[rnd.nextInt(LAST_ACCENTED.length)] : zipf(rnd, LAST));
+        if (extra >= 990) {
+            n.append(extra < 996 ? ", Jr." : ", Sr.");
+        }
+    }
+
+    private static String zipf(Random rnd, String[] words) {
+        double u = rnd.nextDouble();
+        return words[(int) (words.length * u * u)];
+    }
+
+    private static int pick(Random rnd, int[] weights) {
+        int total = 0;
+        for (int w : weights) total += w;
+        int r = rnd.nextInt(total);
+        for (int i = 0; i < weights.length; i++) {
+            r -= weights[i];
+            if (r < 0) return i;
+        }
+        return weights.length - 1;
+    }
+
+    private static StringBuilder id(StringBuilder sb, String prefix, long n) {
+        sb.append(prefix);
+        String digits = Long.toString(n);
+        for (int i = digits.length(); i < 7; i++) sb.append('0');
+        return sb.append(digits);
+    }
+
+    private static void count(TableStats stats, CharSequence value) {
+        boolean quote = false;
+        boolean wide = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            quote |= c == ',' || c == '"';
+            wide |= c > 0x7F;
+        }
+        if (quote) stats.quoted++;
+        if (wide) stats.nonAscii++;
+    }
+
+    private static Writer open(File file) throws IOException {
+        return new BufferedWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8), 1 << 20);
+    }
+
+    private static void finish(File file, long rows, TableStats stats) {
+        stats.file = file.getPath();
+        stats.rows = rows;
+        stats.bytes = file.length();
+    }
+}
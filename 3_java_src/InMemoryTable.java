@@ -0,0 +1,236 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+
+// A CSV file (with its delta log merged) loaded into one StringArena per column. Loading takes two passes
+// over the mapped file: the first sizes every column, the second copies the unescaped values into arenas
+// allocated at their exact size, so the heap never holds the text.
+final class InMemoryTable {
+
+    private final String file;
+    private final String[] names;
+    private final StringArena[] columns;
+    private final int rows;
+
+    private InMemoryTable(String file, String[] names, StringArena[] columns, int rows) {
+        this.file = file;
+        this.names = names;
+        this.columns = columns;
+        this.rows = rows;
+    }
+
+    // `load` names the columns to keep (all of them when null); `limit` caps the rows read
+    static InMemoryTable load(String file, List<String> load, Long limit) throws IOException {
+        try (ChunkedCsvScanner scanner = ChunkedCsvScanner.open(file)) {
+            String header = scanner.header();
+            if (header == null) {
+                throw new IllegalStateException("Empty file: " + file);
+            }
+            CsvTokenizer headerCols = new CsvTokenizer();
+            headerCols.tokenize(header, -1);
+            String[] names = new String[headerCols.count()];
+            for (int i = 0; i < names.length; i++) names[i] = headerCols.fieldString(i);
+            boolean[] keep = new boolean[names.length];
+            int last = -1;
+            for (int i = 0; i < names.length; i++) {
+                keep[i] = load == null;
+                if (load != null) {
+                    for (String c : load) keep[i] |= c.equalsIgnoreCase(names[i]);
+                }
+                if (keep[i]) last = i;
+            }
+            if (load != null) {
+                for (String c : load) {
+                    if (indexOf(names, c) < 0) {
+                        throw new IllegalStateException("Column not found in header: '" + c + "'. Header: " + header);
+                    }
+                }
+            }
+
+            long[] sizes = new long[names.length];
+            int maxField = last;
+            CsvTokenizer tokenizer = new CsvTokenizer();
+            long counted = scanner.scan(1, limit, () -> (buf, start, end) -> {
+                int n = tokenizer.tokenize(buf, start, end, maxField);
+                for (int c = 0; c <= maxField && c < n; c++) {
+                    if (keep[c]) sizes[c] += tokenizer.needsUnescape(c)
+                            ? tokenizer.fieldString(c).getBytes(StandardCharsets.UTF_8).length
+                            : tokenizer.end(c) - tokenizer.start(c);
+                }
+                return false;
+            }, null).scanned;
+            if (counted >= Integer.MAX_VALUE) {
+                throw new IllegalStateException(file + " has more rows than an in-memory table holds");
+            }
+            int rows = (int) counted;
+
+            StringArena[] arenas = new StringArena[names.length];
+            for (int c = 0; c < names.length; c++) {
+                if (keep[c]) arenas[c] = new StringArena(sizes[c], rows, names[c]);
+            }
+            scanner.scan(1, limit, () -> (buf, start, end) -> {
+                int n = tokenizer.tokenize(buf, start, end, maxField);
+                for (int c = 0; c <= maxField; c++) {
+                    if (!keep[c]) continue;
+                    if (c >= n) {
+                        arenas[c].add(buf, start, start);
+                    } else if (tokenizer.needsUnescape(c)) {
+                        arenas[c].add(tokenizer.fieldString(c).getBytes(StandardCharsets.UTF_8));
+                    } else {
+                        arenas[c].add(buf, tokenizer.start(c), tokenizer.end(c));
+                    }
+                }
+                return false;
+            }, null);
+            return new InMemoryTable(file, names, arenas, rows);
+        }
+    }
+
+    String file() {
+        return file;
+    }
+
+    String header() {
+        StringBuilder sb = new StringBuilder();
+        for (int c = 0; c < names.length; c++) {
+            if (c > 0) sb.append(',');
+            CsvTokenizer.appendField(sb, names[c]);
+        }
+        return sb.toString();
+    }
+
+    String[] columnNames() {
+        return names;
+    }
+
+    int columnIndex(String name) {
+        int idx = indexOf(names, name);
+        if (idx >= 0 && columns[idx] == null) {
+            throw new IllegalStateException("Column '" + name + "' was not loaded into memory");
+        }
+        return idx;
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    long offHeapBytes() {
+        long n = 0L;
+        for (StringArena a : columns) {
+            if (a != null) n += a.offHeapBytes();
+        }
+        return n;
+    }
+
+    long offsetBytes() {
+        long n = 0L;
+        for (StringArena a : columns) {
+            if (a != null) n += a.offsetBytes();
+        }
+        return n;
+    }
+
+    long bytesPerMillionRows() {
+        return rows == 0 ? 0L : Math.round((offHeapBytes() + offsetBytes()) * 1e6 / rows);
+    }
+
+    long scanned(Long limit) {
+        return limit == null ? rows : Math.min(rows, Math.max(0L, limit));
+    }
+
+    // matches the keyword against the column's bytes where they lie, on `threads` workers over row ranges
+    long scan(int column, KeywordMatcher matcher, Long limit, int threads) throws IOException {
+        StringArena a = columns[column];
+        int n = (int) scanned(limit);
+        return forEachRange(n, threads, (from, to) -> {
+            long matched = 0L;
+            for (int r = from; r < to; r++) {
+                if (matcher.containedIn(a.data(), a.start(r), a.end(r))) matched++;
+            }
+            return new long[] { matched };
+        })[0];
+    }
+
+    // per-keyword row counts, followed by the number of rows matching any keyword
+    long[] scan(int column, MultiKeywordMatcher matcher, Long limit, int threads) throws IOException {
+        StringArena a = columns[column];
+        int n = (int) scanned(limit);
+        return forEachRange(n, threads, (from, to) -> {
+            MultiKeywordMatcher.ColumnVisitor v = matcher.columnVisitor(column);
+            long matched = 0L;
+            for (int r = from; r < to; r++) {
+                if (v.visitValue(a.data(), a.start(r), a.end(r))) matched++;
+            }
+            long[] counts = v.counts();
+            long[] out = new long[counts.length + 1];
+            System.arraycopy(counts, 0, out, 0, counts.length);
+            out[counts.length] = matched;
+            return out;
+        });
+    }
+
+    void preview(long limit, Consumer<String> out) {
+        StringBuilder sb = new StringBuilder();
+        for (int r = 0; r < Math.min(limit, rows); r++) {
+            sb.setLength(0);
+            for (int c = 0; c < names.length; c++) {
+                if (c > 0) sb.append(',');
+                if (columns[c] != null) CsvTokenizer.appendField(sb, columns[c].get(r));
+            }
+            out.accept(sb.toString());
+        }
+    }
+
+    private interface RangeTask {
+        long[] run(int from, int to);
+    }
+
+    private static long[] forEachRange(int rows, int threads, RangeTask task) throws IOException {
+        int parts = (int) Math.min(threads, Math.max(1L, rows / 65536L));
+        if (parts <= 1) {
+            return task.run(0, rows);
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Future<long[]>> futures = new ArrayList<>(parts);
+            for (int k = 0; k < parts; k++) {
+                int from = (int) ((long) rows * k / parts);
+                int to = (int) ((long) rows * (k + 1) / parts);
+                futures.add(pool.submit(() -> task.run(from, to)));
+            }
+            long[] total = null;
+            for (Future<long[]> f : futures) {
+                long[] part = f.get();
+                if (total == null) {
+                    total = part;
+                } else {
+                    for (int i = 0; i < total.length; i++) total[i] += part[i];
+                }
+            }
+            return total;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while scanning", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equalsIgnoreCase(name)) return i;
+        }
+        return -1;
+    }
+}
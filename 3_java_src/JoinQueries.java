@@ -0,0 +1,310 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
+
+
+final class JoinQueries {
+
+    static final class JoinStats {
+        long count;
+        long personRows;
+        long principalRows;
+        long creditRows;
+        long movieRows;
+        int spillFiles;
+        long spilledBytes;
+    }
+
+    static final class SemiJoinStats {
+        long innerRows;
+        long distinctKeys;
+        long bitmapBytes;
+        long outerRows;
+        long count;
+    }
+
+    private JoinQueries() {
+    }
+
+
+
+
+    // SELECT COUNT(*) FROM movies m JOIN movie_principals mp ON m.movie_id = mp.movie_id
+    //   JOIN persons p ON mp.person_id = p.person_id WHERE p.person_name = ? AND mp.category IN (...)
+    static JoinStats countCredits(String moviesFile, String principalsFile, String personsFile,
+                                  String name, List<String> categories, long memoryBudget, File spillDir,
+                                  String nameIndex) throws IOException {
+        JoinStats stats = new JoinStats();
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        byte[][] wanted = new byte[categories.size()][];
+        for (int i = 0; i < wanted.length; i++) {
+            wanted[i] = categories.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+
+        try (GraceHashJoin byPerson = new GraceHashJoin(memoryBudget, spillDir);
+             GraceHashJoin byMovie = new GraceHashJoin(memoryBudget, spillDir)) {
+
+            // build: person_id of every person with the requested name
+            try (ChunkedCsvScanner scanner = ChunkedCsvScanner.open(personsFile)) {
+                int idIdx = columnIndex(scanner, "person_id");
+                int nameIdx = columnIndex(scanner, "person_name");
+                int last = Math.max(idIdx, nameIdx);
+                CsvTokenizer t = new CsvTokenizer();
+                FieldBuffer id = new FieldBuffer();
+                if (nameIndex != null) {
+                    try (SortedNameIndex index = SortedNameIndex.open(nameIndex, personsFile)) {
+                        if (index.columnIndex() != nameIdx) {
+                            throw new IllegalStateException("Index " + nameIndex + " covers column '" + index.column() + "', not 'person_name'");
+                        }
+                        index.lookup(name, false, scanner, offset -> {
+                            try {
+                                ByteBuffer row = scanner.readRecord(offset);
+                                if (t.tokenize(row, 0, row.limit(), last) > last) {
+                                    id.load(t, idIdx);
+                                    byPerson.build(id.bytes, id.len, 1L);
+                                }
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        });
+                    }
+                } else {
+                    scanner.scan(1, null, () -> (buf, start, end) -> {
+                        if (t.tokenize(buf, start, end, last) > last && t.fieldEquals(nameIdx, nameBytes)) {
+                            id.load(t, idIdx);
+                            build(byPerson, id);
+                        }
+                        return false;
+                    }, null);
+                }
+            }
+            stats.personRows = byPerson.buildRows();
+
+            // probe: stream movie_principals with the category filter pushed into the scan;
+            // every surviving credit is built into the movie_id side of the second join
+            GraceHashJoin.TupleSink credit = (buf, len, weight) -> byMovie.build(buf, len, weight);
+            if (stats.personRows > 0) {
+                try (ChunkedCsvScanner scanner = ChunkedCsvScanner.open(principalsFile)) {
+                    int movieIdx = columnIndex(scanner, "movie_id");
+                    int personIdx = columnIndex(scanner, "person_id");
+                    int categoryIdx = columnIndex(scanner, "category");
+                    int last = Math.max(movieIdx, Math.max(personIdx, categoryIdx));
+                    CsvTokenizer t = new CsvTokenizer();
+                    FieldBuffer person = new FieldBuffer();
+                    FieldBuffer movie = new FieldBuffer();
+                    ChunkedCsvScanner.Result r = scanner.scan(1, null, () -> (buf, start, end) -> {
+                        if (t.tokenize(buf, start, end, last) <= last || !anyEquals(t, categoryIdx, wanted)) {
+                            return false;
+                        }
+                        person.load(t, personIdx);
+                        movie.load(t, movieIdx);
+                        try {
+                            byPerson.probe(person.bytes, person.len, movie.bytes, movie.len, 1L, credit);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        return true;
+                    }, null);
+                    stats.principalRows = r.matched;
+                }
+                byPerson.finish(credit);
+            }
+            stats.creditRows = byMovie.buildRows();
+
+            // probe: stream movies against the (small) set of credited movie_ids
+            long[] total = new long[1];
+            GraceHashJoin.TupleSink counter = (buf, len, weight) -> total[0] += weight;
+            if (stats.creditRows > 0) {
+                try (ChunkedCsvScanner scanner = ChunkedCsvScanner.open(moviesFile)) {
+                    int movieIdx = columnIndex(scanner, "movie_id");
+                    CsvTokenizer t = new CsvTokenizer();
+                    FieldBuffer movie = new FieldBuffer();
+                    ChunkedCsvScanner.Result r = scanner.scan(1, null, () -> (buf, start, end) -> {
+                        if (t.tokenize(buf, start, end, movieIdx) <= movieIdx) {
+                            return false;
+                        }
+                        movie.load(t, movieIdx);
+                        try {
+                            byMovie.probe(movie.bytes, movie.len, null, 0, 1L, counter);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        return false;
+                    }, null);
+                    stats.movieRows = r.scanned;
+                }
+                byMovie.finish(counter);
+            }
+            stats.count = total[0];
+            stats.spillFiles = byPerson.spilledPartitions() + byMovie.spilledPartitions();
+            stats.spilledBytes = byPerson.spilledBytes() + byMovie.spilledBytes();
+        }
+        return stats;
+    }
+
+    // SELECT COUNT(*) FROM outer o WHERE [NOT] EXISTS
+    //   (SELECT 1 FROM movie_principals mp WHERE mp.key = o.key [AND mp.category IN (...)])
+    static SemiJoinStats semiJoin(String outerFile, String principalsFile, String key, List<String> categories,
+                                  boolean anti, int threads, Consumer<String> onMatch) throws IOException {
+        SemiJoinStats stats = new SemiJoinStats();
+        byte[][] wanted = new byte[categories.size()][];
+        for (int i = 0; i < wanted.length; i++) {
+            wanted[i] = categories.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+
+        IdBitmap members = new IdBitmap();
+        int prefix = -1;
+        try (ChunkedCsvScanner scanner = ChunkedCsvScanner.open(principalsFile)) {
+            int keyIdx = columnIndex(scanner, key);
+            int categoryIdx = wanted.length == 0 ? -1 : columnIndex(scanner, "category");
+            ChunkedCsvScanner.Result r = scanner.scan(threads, null,
+                    () -> new IdCollector(keyIdx, categoryIdx, wanted), null);
+            for (ChunkedCsvScanner.RowVisitor v : r.visitors) {
+                IdCollector c = (IdCollector) v;
+                if (c.prefix >= 0) {
+                    if (prefix >= 0 && prefix != c.prefix) {
+                        throw new IllegalStateException("Mixed id prefixes in " + principalsFile + " column '" + key + "'");
+                    }
+                    prefix = c.prefix;
+                }
+                members.or(c.ids);
+            }
+            stats.innerRows = r.matched;
+        }
+        stats.distinctKeys = members.cardinality();
+        stats.bitmapBytes = members.bytes();
+
+        int expected = prefix;
+        try (ChunkedCsvScanner scanner = ChunkedCsvScanner.open(outerFile)) {
+            int keyIdx = columnIndex(scanner, key);
+            ChunkedCsvScanner.Result r = scanner.scan(threads, null,
+                    () -> new IdProbe(keyIdx, members, expected, anti), onMatch);
+            stats.outerRows = r.scanned;
+            stats.count = r.matched;
+        }
+        return stats;
+    }
+
+    private static void build(GraceHashJoin join, FieldBuffer key) {
+        try {
+            join.build(key.bytes, key.len, 1L);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean anyEquals(CsvTokenizer t, int field, byte[][] values) {
+        for (byte[] v : values) {
+            if (t.fieldEquals(field, v)) return true;
+        }
+        return false;
+    }
+
+    static int columnIndex(ChunkedCsvScanner scanner, String column) {
+        String header = scanner.header();
+        if (header == null) {
+            throw new IllegalStateException("Empty file: " + scanner.file());
+        }
+        CsvTokenizer cols = new CsvTokenizer();
+        cols.tokenize(header, -1);
+        for (int i = 0; i < cols.count(); i++) {
+            if (column.equalsIgnoreCase(cols.fieldString(i))) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Cannot find '" + column + "' column in header of " + scanner.file() + ": " + header);
+    }
+
+
+
+
+    private static final class FieldBuffer {
+        byte[] bytes = new byte[32];
+        int len;
+
+        void load(CsvTokenizer t, int field) {
+            len = t.copyField(field, bytes);
+            if (len > bytes.length) {
+                bytes = new byte[len * 2];
+                len = t.copyField(field, bytes);
+            }
+        }
+    }
+
+    private static final class IdCollector implements ChunkedCsvScanner.RowVisitor {
+        private final int keyIdx;
+        private final int categoryIdx;
+        private final int last;
+        private final byte[][] wanted;
+        private final CsvTokenizer tokenizer = new CsvTokenizer();
+        final IdBitmap ids = new IdBitmap();
+        int prefix = -1;
+
+        IdCollector(int keyIdx, int categoryIdx, byte[][] wanted) {
+            this.keyIdx = keyIdx;
+            this.categoryIdx = categoryIdx;
+            this.last = Math.max(keyIdx, categoryIdx);
+            this.wanted = wanted;
+        }
+
+        @Override
+        public boolean visit(ByteBuffer buf, int start, int end) {
+            if (tokenizer.tokenize(buf, start, end, last) <= last) {
+                return false;
+            }
+            if (categoryIdx >= 0 && !anyEquals(tokenizer, categoryIdx, wanted)) {
+                return false;
+            }
+            long id = parseKey(tokenizer, buf, keyIdx);
+            if (id < 0) {
+                if (tokenizer.end(keyIdx) == tokenizer.start(keyIdx)) {
+                    return false;
+                }
+                throw new IllegalStateException("Not an IMDb-style id: '" + tokenizer.fieldString(keyIdx) + "'");
+            }
+            int p = (int) (id >>> 32);
+            if (prefix != p) {
+                if (prefix >= 0) {
+                    throw new IllegalStateException("Mixed id prefixes: '" + tokenizer.fieldString(keyIdx) + "'");
+                }
+                prefix = p;
+            }
+            ids.add((int) id);
+            return true;
+        }
+    }
+
+    private static final class IdProbe implements ChunkedCsvScanner.RowVisitor {
+        private final int keyIdx;
+        private final IdBitmap members;
+        private final int prefix;
+        private final boolean anti;
+        private final CsvTokenizer tokenizer = new CsvTokenizer();
+
+        IdProbe(int keyIdx, IdBitmap members, int prefix, boolean anti) {
+            this.keyIdx = keyIdx;
+            this.members = members;
+            this.prefix = prefix;
+            this.anti = anti;
+        }
+
+        @Override
+        public boolean visit(ByteBuffer buf, int start, int end) {
+            if (tokenizer.tokenize(buf, start, end, keyIdx) <= keyIdx) {
+                return false;
+            }
+            long id = parseKey(tokenizer, buf, keyIdx);
+            boolean member = id >= 0 && (int) (id >>> 32) == prefix && members.contains((int) id);
+            return member != anti;
+        }
+    }
+
+    private static long parseKey(CsvTokenizer t, ByteBuffer buf, int field) {
+        return t.needsUnescape(field) ? IdBitmap.parseId(t.fieldString(field))
+                : IdBitmap.parseId(buf, t.start(field), t.end(field));
+    }
+}
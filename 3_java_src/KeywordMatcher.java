@@ -0,0 +1,180 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+
+final class KeywordMatcher {
+
+    private static final byte[] IDENTITY = new byte[256];
+    private static final byte[] ASCII_LOWER = new byte[256];
+    private static final boolean ASCII_LOCALE;
+    private static final boolean[] FOLDS_TO_ASCII_CHAR = new boolean[1 << 16];
+    private static final boolean[] FOLDS_TO_ASCII_LEAD = new boolean[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            IDENTITY[i] = (byte) i;
+            ASCII_LOWER[i] = (byte) ((i >= 'A' && i <= 'Z') ? i + 32 : i);
+        }
+        // String.toLowerCase() only special-cases these languages; everywhere else it agrees with
+        // Character.toLowerCase(), which lets the tables below be built without allocating
+        String lang = Locale.getDefault().getLanguage();
+        ASCII_LOCALE = !("tr".equals(lang) || "az".equals(lang) || "lt".equals(lang));
+        // non-ASCII characters that lower-case into ASCII (e.g. KELVIN SIGN -> 'k'); a row holding one
+        // of them has to take the slow path or the ASCII fast path would miss a match
+        for (int c = 0x80; c < (1 << 16); c++) {
+            if (Character.toLowerCase(c) < 0x80 && !Character.isSurrogate((char) c)) {
+                FOLDS_TO_ASCII_CHAR[c] = true;
+                FOLDS_TO_ASCII_LEAD[c < 0x800 ? (0xC0 | (c >> 6)) : (0xE0 | (c >> 12))] = true;
+            }
+        }
+    }
+
+    private final String keyword;
+    private final String lowerKeyword;
+    private final boolean caseSensitive;
+    private final boolean fastPath;
+    private final byte[] needle;
+    private final byte[] fold;
+    private final int[] byteSkip = new int[256];
+    private final char[] chars;
+    private final int[] charSkip = new int[256];
+
+    private KeywordMatcher(String keyword, boolean caseSensitive) {
+        this.keyword = keyword;
+        this.caseSensitive = caseSensitive;
+        this.lowerKeyword = caseSensitive ? keyword : keyword.toLowerCase();
+
+        boolean ascii = true;
+        for (int i = 0; i < keyword.length(); i++) {
+            if (keyword.charAt(i) >= 0x80) {
+                ascii = false;
+                break;
+            }
+        }
+        this.fastPath = caseSensitive || (ascii && ASCII_LOCALE);
+        this.fold = caseSensitive ? IDENTITY : ASCII_LOWER;
+
+        String pattern = caseSensitive ? keyword : (fastPath ? lowerKeyword : keyword);
+        this.needle = pattern.getBytes(StandardCharsets.UTF_8);
+        this.chars = pattern.toCharArray();
+
+        int n = needle.length;
+        for (int i = 0; i < 256; i++) byteSkip[i] = Math.max(n, 1);
+        for (int j = 0; j < n - 1; j++) {
+            int b = needle[j] & 0xFF;
+            byteSkip[b] = n - 1 - j;
+            if (!caseSensitive && b >= 'a' && b <= 'z') byteSkip[b - 32] = n - 1 - j;
+        }
+        int m = chars.length;
+        for (int i = 0; i < 256; i++) charSkip[i] = Math.max(m, 1);
+        for (int j = 0; j < m - 1; j++) {
+            char c = chars[j];
+            charSkip[c & 0xFF] = Math.min(charSkip[c & 0xFF], m - 1 - j);
+            if (!caseSensitive && c >= 'a' && c <= 'z') charSkip[c - 32] = Math.min(charSkip[c - 32], m - 1 - j);
+        }
+    }
+
+    static KeywordMatcher compile(String keyword, boolean caseSensitive) {
+        return new KeywordMatcher(keyword == null ? "" : keyword, caseSensitive);
+    }
+
+    static boolean asciiFoldingExact() {
+        return ASCII_LOCALE;
+    }
+
+    static boolean mayFoldToAscii(ByteBuffer buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (FOLDS_TO_ASCII_LEAD[buf.get(i) & 0xFF]) return true;
+        }
+        return false;
+    }
+
+    String keyword() {
+        return keyword;
+    }
+
+    boolean caseSensitive() {
+        return caseSensitive;
+    }
+
+
+
+
+    boolean containedIn(CharSequence text) {
+        if (text == null) return false;
+        if (chars.length == 0) return true;
+        if (!fastPath) {
+            return text.toString().toLowerCase().contains(lowerKeyword);
+        }
+        if (indexIn(text, 0) >= 0) return true;
+        return !caseSensitive && foldsToAscii(text) && text.toString().toLowerCase().contains(lowerKeyword);
+    }
+
+    boolean containedIn(ByteBuffer buf, int from, int to) {
+        if (needle.length == 0) return true;
+        if (!fastPath) {
+            return ChunkedCsvScanner.decode(buf, from, to).toLowerCase().contains(lowerKeyword);
+        }
+        if (indexIn(buf, from, to) >= 0) return true;
+        return !caseSensitive && mayFoldToAscii(buf, from, to)
+                && ChunkedCsvScanner.decode(buf, from, to).toLowerCase().contains(lowerKeyword);
+    }
+
+    boolean fastPathFor(CharSequence text) {
+        return fastPath && (caseSensitive || !foldsToAscii(text));
+    }
+
+    int indexIn(ByteBuffer buf, int from, int to) {
+        int n = needle.length;
+        if (n == 0) return from;
+        int last = n - 1;
+        byte tail = needle[last];
+        int i = from;
+        int end = to - n;
+        while (i <= end) {
+            byte b = buf.get(i + last);
+            if (fold[b & 0xFF] == tail) {
+                int j = last - 1;
+                while (j >= 0 && fold[buf.get(i + j) & 0xFF] == needle[j]) j--;
+                if (j < 0) return i;
+            }
+            i += byteSkip[b & 0xFF];
+        }
+        return -1;
+    }
+
+    int indexIn(CharSequence text, int from) {
+        int n = chars.length;
+        if (n == 0) return from;
+        int last = n - 1;
+        char tail = chars[last];
+        int i = from;
+        int end = text.length() - n;
+        while (i <= end) {
+            char c = text.charAt(i + last);
+            if (foldChar(c) == tail) {
+                int j = last - 1;
+                while (j >= 0 && foldChar(text.charAt(i + j)) == chars[j]) j--;
+                if (j < 0) return i;
+            }
+            i += charSkip[c & 0xFF];
+        }
+        return -1;
+    }
+
+    int length() {
+        return chars.length;
+    }
+
+    private char foldChar(char c) {
+        return (!caseSensitive && c >= 'A' && c <= 'Z') ? (char) (c + 32) : c;
+    }
+
+    private static boolean foldsToAscii(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (FOLDS_TO_ASCII_CHAR[text.charAt(i)]) return true;
+        }
+        return false;
+    }
+}
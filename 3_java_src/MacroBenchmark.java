@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+// Runs whole commands repeatedly inside one JVM: `warmup` untimed runs so the JIT has compiled the hot
+// loops, then `iterations` timed runs with a GC before each. Standard output is discarded while a
+// workload runs. Allocation is read from the JVM's per-thread counters: the process-wide total on
+// Java 21+, otherwise the sum over the threads alive before and after a run (threads that start and
+// finish inside one run are not counted there).
+final class MacroBenchmark {
+
+    interface Workload {
+        void run() throws IOException;
+    }
+
+    static final class Result {
+        String name;
+        List<String> command;
+        long rows;
+        long bytes;
+        long[] nanos;
+        long[] allocated;
+    }
+
+    private static final Method TOTAL_ALLOCATED = totalAllocatedMethod();
+
+    private MacroBenchmark() {
+    }
+
+    static Result measure(String name, List<String> command, long rows, long bytes, int warmup, int iterations,
+                          Workload workload) throws IOException {
+        Result r = new Result();
+        r.name = name;
+        r.command = command;
+        r.rows = rows;
+        r.bytes = bytes;
+        r.nanos = new long[iterations];
+        r.allocated = new long[iterations];
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int i = 0; i < warmup; i++) {
+                workload.run();
+            }
+            for (int i = 0; i < iterations; i++) {
+                System.gc();
+                long alloc = allocatedBytes();
+                long start = System.nanoTime();
+                workload.run();
+                r.nanos[i] = System.nanoTime() - start;
+                r.allocated[i] = Math.max(0L, allocatedBytes() - alloc);
+            }
+        } finally {
+            System.setOut(out);
+        }
+        return r;
+    }
+
+    static boolean exactAllocation() {
+        return TOTAL_ALLOCATED != null;
+    }
+
+    // nearest-rank percentile, p in (0, 100]
+    static long percentile(long[] values, double p) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+
+    static Map<String, Object> toJson(Result r) {
+        long p50 = percentile(r.nanos, 50);
+        double seconds = p50 / 1e9;
+        long alloc = percentile(r.allocated, 50);
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("min", millis(percentile(r.nanos, 0.001)));
+        latency.put("p50", millis(p50));
+        latency.put("p95", millis(percentile(r.nanos, 95)));
+        latency.put("p99", millis(percentile(r.nanos, 99)));
+        latency.put("max", millis(percentile(r.nanos, 100)));
+        latency.put("mean", millis(Math.round(Arrays.stream(r.nanos).average().orElse(0))));
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("name", r.name);
+        m.put("command", r.command);
+        m.put("iterations", r.nanos.length);
+        m.put("rows", r.rows);
+        m.put("bytes", r.bytes);
+        m.put("latency_ms", latency);
+        m.put("rows_per_s", seconds > 0 ? Math.round(r.rows / seconds) : null);
+        m.put("mb_per_s", seconds > 0 ? round(r.bytes / seconds / (1 << 20)) : null);
+        m.put("alloc_bytes", alloc);
+        m.put("alloc_bytes_per_row", r.rows > 0 ? round((double) alloc / r.rows) : null);
+        return m;
+    }
+
+    // one key per line and one workload per line, so runs from two commits diff line by line
+    static String write(Map<String, Object> header, List<Result> results) {
+        StringBuilder sb = new StringBuilder("{\n");
+        for (Map.Entry<String, Object> e : header.entrySet()) {
+            sb.append("  ");
+            Json.quote(sb, e.getKey());
+            sb.append(": ");
+            Json.append(sb, e.getValue());
+            sb.append(",\n");
+        }
+        sb.append("  \"workloads\": [");
+        for (int i = 0; i < results.size(); i++) {
+            sb.append(i == 0 ? "\n    " : ",\n    ");
+            Json.append(sb, toJson(results.get(i)));
+        }
+        return sb.append(results.isEmpty() ? "]\n}\n" : "\n  ]\n}\n").toString();
+    }
+
+    static List<String> command(String... args) {
+        return new ArrayList<>(Arrays.asList(args));
+    }
+
+    private static double millis(long nanos) {
+        return round(nanos / 1e6);
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 1000.0) / 1000.0;
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return 0L;
+        }
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+        if (TOTAL_ALLOCATED != null) {
+            try {
+                return (Long) TOTAL_ALLOCATED.invoke(bean);
+            } catch (ReflectiveOperationException e) {
+                // fall back to the per-thread sum below
+            }
+        }
+        long total = 0L;
+        for (long a : bean.getThreadAllocatedBytes(bean.getAllThreadIds())) {
+            if (a > 0) total += a;
+        }
+        return total;
+    }
+
+    // ThreadMXBean.getTotalThreadAllocatedBytes exists from Java 21 on
+    private static Method totalAllocatedMethod() {
+        try {
+            return com.sun.management.ThreadMXBean.class.getMethod("getTotalThreadAllocatedBytes");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
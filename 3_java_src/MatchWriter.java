@@ -0,0 +1,113 @@
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+
+// Writes matched rows, one per line, through a reusable 1 MiB buffer straight to a file channel (standard
+// output when no file is given), so printing costs a bulk copy per row and a system call per megabyte
+// rather than a String decode and a synchronized, flushed println per row. The first `offset` rows are
+// skipped and at most `max` rows are written; stopAfter() tells the scan when it can end.
+final class MatchWriter implements ChunkedCsvScanner.MatchSink, Closeable {
+
+    private static final int BUFFER = 1 << 20;
+
+    private final FileChannel out;
+    private final boolean stdout;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+    private final long offset;
+    private final Long max;
+    private long seen;
+    private long written;
+    private long bytes;
+
+    private MatchWriter(FileChannel out, boolean stdout, long offset, Long max) {
+        this.out = out;
+        this.stdout = stdout;
+        this.offset = offset;
+        this.max = max;
+    }
+
+    // file null writes to standard output, which is left open on close
+    static MatchWriter open(String file, long offset, Long max) throws IOException {
+        if (offset < 0) throw new IllegalArgumentException("offset must not be negative: " + offset);
+        if (max != null && max < 0) throw new IllegalArgumentException("max must not be negative: " + max);
+        if (file == null) {
+            System.out.flush();
+            return new MatchWriter(new FileOutputStream(FileDescriptor.out).getChannel(), true, offset, max);
+        }
+        FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return new MatchWriter(ch, false, offset, max);
+    }
+
+    // matches the scan has to see before every requested row is written; null when it must read to the end
+    Long stopAfter() {
+        return max == null ? null : offset + max;
+    }
+
+    boolean full() {
+        return max != null && written >= max;
+    }
+
+    // rows the caller skipped itself, e.g. by not reading them back from the cache
+    void skipped(long rows) {
+        seen += rows;
+    }
+
+    long written() {
+        return written;
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    @Override
+    public void accept(ByteBuffer buf, int from, int to) throws IOException {
+        if (seen++ < offset || full()) {
+            return;
+        }
+        int n = to - from;
+        if (n >= buffer.remaining()) {
+            flush();
+            if (n >= buffer.capacity()) {
+                // longer than the whole buffer: hand the row to the channel as it is
+                write(buf.slice(from, n));
+                n = 0;
+            }
+        }
+        if (n > 0) {
+            buffer.put(buffer.position(), buf, from, n);
+            buffer.position(buffer.position() + n);
+        }
+        buffer.put((byte) '\n');
+        written++;
+        bytes += to - from + 1;
+    }
+
+    void flush() throws IOException {
+        buffer.flip();
+        write(buffer);
+        buffer.clear();
+    }
+
+    private void write(ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            out.write(b);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            if (!stdout) out.close();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+final class MultiKeywordMatcher {
+
+    private static final int ALPHABET = 256;
+
+    private final String[] keywords;
+    private final boolean caseSensitive;
+    private final boolean foldAscii;
+    private final boolean anyNonAscii;
+    private final int[] emptyIds;
+    private final int[] next;
+    private final int[][] out;
+
+    private MultiKeywordMatcher(List<String> keywords, boolean caseSensitive) {
+        this.keywords = keywords.toArray(new String[0]);
+        this.caseSensitive = caseSensitive;
+        this.foldAscii = !caseSensitive && KeywordMatcher.asciiFoldingExact();
+
+        List<byte[]> patterns = new ArrayList<>(keywords.size());
+        List<Integer> empty = new ArrayList<>();
+        boolean nonAscii = false;
+        int total = 1;
+        for (int id = 0; id < this.keywords.length; id++) {
+            String kw = caseSensitive ? this.keywords[id] : this.keywords[id].toLowerCase();
+            byte[] p = kw.getBytes(StandardCharsets.UTF_8);
+            for (byte b : p) {
+                if (b < 0) nonAscii = true;
+            }
+            if (p.length == 0) empty.add(id);
+            patterns.add(p);
+            total += p.length;
+        }
+        this.anyNonAscii = nonAscii;
+        this.emptyIds = empty.stream().mapToInt(Integer::intValue).toArray();
+
+        // trie over the pattern bytes, then completed into a DFA with failure links (Aho-Corasick)
+        int[] trans = new int[total * ALPHABET];
+        Arrays.fill(trans, -1);
+        int[][] outputs = new int[total][];
+        int states = 1;
+        for (int id = 0; id < patterns.size(); id++) {
+            byte[] p = patterns.get(id);
+            if (p.length == 0) continue;
+            int s = 0;
+            for (byte b : p) {
+                int t = s * ALPHABET + (b & 0xFF);
+                if (trans[t] < 0) {
+                    trans[t] = states++;
+                }
+                s = trans[t];
+            }
+            outputs[s] = append(outputs[s], id);
+        }
+
+        int[] fail = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < ALPHABET; c++) {
+            int t = trans[c];
+            if (t < 0) {
+                trans[c] = 0;
+            } else {
+                fail[t] = 0;
+                queue[tail++] = t;
+            }
+        }
+        while (head < tail) {
+            int s = queue[head++];
+            if (outputs[fail[s]] != null) {
+                for (int id : outputs[fail[s]]) outputs[s] = append(outputs[s], id);
+            }
+            for (int c = 0; c < ALPHABET; c++) {
+                int t = trans[s * ALPHABET + c];
+                int f = trans[fail[s] * ALPHABET + c];
+                if (t < 0) {
+                    trans[s * ALPHABET + c] = f;
+                } else {
+                    fail[t] = f;
+                    queue[tail++] = t;
+                }
+            }
+        }
+        this.next = Arrays.copyOf(trans, states * ALPHABET);
+        this.out = Arrays.copyOf(outputs, states);
+    }
+
+    static MultiKeywordMatcher compile(List<String> keywords, boolean caseSensitive) {
+        return new MultiKeywordMatcher(keywords, caseSensitive);
+    }
+
+    int size() {
+        return keywords.length;
+    }
+
+    String keyword(int id) {
+        return keywords[id];
+    }
+
+    ColumnVisitor columnVisitor(int column) {
+        return new ColumnVisitor(column);
+    }
+
+    private static int[] append(int[] ids, int id) {
+        if (ids == null) return new int[] { id };
+        for (int x : ids) {
+            if (x == id) return ids;
+        }
+        int[] grown = Arrays.copyOf(ids, ids.length + 1);
+        grown[ids.length] = id;
+        return grown;
+    }
+
+
+
+
+    final class ColumnVisitor implements ChunkedCsvScanner.RowVisitor {
+        private final int column;
+        private final CsvTokenizer tokenizer = new CsvTokenizer();
+        private final long[] counts = new long[keywords.length];
+        private final int[] seen = new int[keywords.length];
+        private int stamp;
+        private boolean hit;
+        private ScanMetrics.Recorder metrics = ScanMetrics.OFF;
+
+        ColumnVisitor(int column) {
+            this.column = column;
+        }
+
+        long[] counts() {
+            return counts;
+        }
+
+        @Override
+        public boolean metrics(ScanMetrics.Recorder recorder) {
+            metrics = recorder;
+            return true;
+        }
+
+        @Override
+        public boolean visit(ByteBuffer buf, int start, int end) {
+            long t = metrics.mark();
+            if (tokenizer.tokenize(buf, start, end, column) <= column) {
+                metrics.lap(ScanMetrics.PARSE, t);
+                return false;
+            }
+            t = metrics.lap(ScanMetrics.PARSE, t);
+            boolean matched;
+            if (tokenizer.needsUnescape(column)) {
+                byte[] value = tokenizer.fieldString(column).getBytes(StandardCharsets.UTF_8);
+                t = metrics.lap(ScanMetrics.DECODE, t);
+                matched = visitValue(ByteBuffer.wrap(value), 0, value.length);
+            } else {
+                matched = visitValue(buf, tokenizer.start(column), tokenizer.end(column));
+            }
+            metrics.lap(ScanMetrics.MATCH, t);
+            return matched;
+        }
+
+        // matches an already unescaped UTF-8 value
+        boolean visitValue(ByteBuffer buf, int from, int to) {
+            stamp++;
+            hit = false;
+            for (int id : emptyIds) mark(id);
+
+            if (!caseSensitive && (!foldAscii || needsLowerCase(buf, from, to))) {
+                scan(ChunkedCsvScanner.decode(buf, from, to).toLowerCase().getBytes(StandardCharsets.UTF_8), false);
+            } else {
+                int s = 0;
+                for (int i = from; i < to; i++) {
+                    int b = buf.get(i) & 0xFF;
+                    if (foldAscii && b >= 'A' && b <= 'Z') b += 32;
+                    s = next[s * ALPHABET + b];
+                    if (out[s] != null) report(out[s]);
+                }
+            }
+            return hit;
+        }
+
+        private boolean needsLowerCase(ByteBuffer buf, int from, int to) {
+            return anyNonAscii ? hasNonAscii(buf, from, to) : KeywordMatcher.mayFoldToAscii(buf, from, to);
+        }
+
+        private void scan(byte[] text, boolean fold) {
+            int s = 0;
+            for (byte value : text) {
+                int b = value & 0xFF;
+                if (fold && b >= 'A' && b <= 'Z') b += 32;
+                s = next[s * ALPHABET + b];
+                if (out[s] != null) report(out[s]);
+            }
+        }
+
+        private void report(int[] ids) {
+            for (int id : ids) mark(id);
+        }
+
+        private void mark(int id) {
+            if (seen[id] != stamp) {
+                seen[id] = stamp;
+                counts[id]++;
+                hit = true;
+            }
+        }
+
+        private boolean hasNonAscii(ByteBuffer buf, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (buf.get(i) < 0) return true;
+            }
+            return false;
+        }
+    }
+}
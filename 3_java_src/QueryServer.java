@@ -0,0 +1,518 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// Resident query server: tables are opened once and shared by every connection, so repeated queries
+// run on warm, JIT-compiled code over pages already in the page cache. The protocol is one JSON object
+// per line each way:
+//   {"op":"search","file":"movies.csv","keyword":"star"}  -> {"ok":true,"scanned":..,"matched":..}
+//   {"op":"preview","file":"movies.csv","rows":5}         -> {"ok":true,"header":"..","rows":[..]}
+//   {"op":"count","file":"movies.csv"}                    -> {"ok":true,"rows":..}
+// Each connection is served on its own virtual thread where the runtime has them (Java 21+), and on a
+// pooled platform thread otherwise. A table whose file (or delta log) changes is reopened on next use,
+// and the old one is closed when the last request still reading it finishes.
+// With --in-memory, CSV tables are served from off-heap string arenas (InMemoryTable) instead of the file.
+// Only the files the server was started with are served; a request naming any other file gets an error.
+// {"op":"shutdown"} stops the server only when it was started with --allow-shutdown, and only from a
+// loopback or Unix socket client.
+final class QueryServer implements Closeable {
+
+    static final class Table implements Closeable {
+        final String file;
+        final FileFingerprint fingerprint;
+        final long deltaLength;
+        final long deltaModified;
+        final ChunkedCsvScanner scanner;
+        final ColumnarTable columnar;
+        final InMemoryTable memory;
+        final String[] columns;
+        private volatile long rows = -1L;
+        // one for the server's table map and one per request using the table; the last close() frees it
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        private Table(String file, ChunkedCsvScanner scanner, ColumnarTable columnar, InMemoryTable memory) throws IOException {
+            this.file = file;
+            this.fingerprint = FileFingerprint.of(file);
+            File log = new File(DeltaLog.path(file));
+            this.deltaLength = log.isFile() ? log.length() : -1L;
+            this.deltaModified = log.isFile() ? log.lastModified() : -1L;
+            this.scanner = scanner;
+            this.columnar = columnar;
+            this.memory = memory;
+            if (columnar != null) {
+                this.columns = columnar.columnNames();
+            } else if (memory != null) {
+                this.columns = memory.columnNames();
+            } else if (scanner.header() == null) {
+                this.columns = new String[0];
+            } else {
+                CsvTokenizer header = new CsvTokenizer();
+                header.tokenize(scanner.header(), -1);
+                this.columns = new String[header.count()];
+                for (int i = 0; i < columns.length; i++) columns[i] = header.fieldString(i);
+            }
+        }
+
+        // with inMemory, a CSV file's columns are copied into off-heap arenas and the file is not read again
+        static Table open(String file, boolean inMemory) throws IOException {
+            if (ColumnarTable.isColumnar(file)) {
+                return new Table(file, null, ColumnarTable.open(file), null);
+            }
+            ChunkedCsvScanner scanner = ChunkedCsvScanner.open(file);
+            if (!inMemory || scanner.header() == null) {
+                return new Table(file, scanner, null, null);
+            }
+            try {
+                return new Table(file, null, null, InMemoryTable.load(file, null, null));
+            } finally {
+                scanner.close();
+            }
+        }
+
+        boolean current() throws IOException {
+            File log = new File(DeltaLog.path(file));
+            return new File(file).isFile() && fingerprint.matches(file)
+                    && (log.isFile() ? log.length() : -1L) == deltaLength
+                    && (log.isFile() ? log.lastModified() : -1L) == deltaModified;
+        }
+
+        int column(String name) {
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].equalsIgnoreCase(name)) return i;
+            }
+            throw new IllegalStateException("Cannot find '" + name + "' column in " + file);
+        }
+
+        long rows() throws IOException {
+            long n = rows;
+            if (n < 0) {
+                n = columnar != null ? columnar.rows() : memory != null ? memory.rows()
+                        : scanner.header() == null ? 0L : scanner.scan(1, null, () -> (buf, start, end) -> false, null).scanned;
+                rows = n;
+            }
+            return n;
+        }
+
+        // false once the table has been freed
+        private boolean retain() {
+            for (int n = references.get(); n > 0; n = references.get()) {
+                if (references.compareAndSet(n, n + 1)) return true;
+            }
+            return false;
+        }
+
+        // releases one reference; the off-heap arenas of an in-memory table go with the last one, when
+        // the table becomes unreachable
+        @Override
+        public void close() throws IOException {
+            if (references.decrementAndGet() == 0) {
+                if (scanner != null) scanner.close();
+                if (columnar != null) columnar.close();
+            }
+        }
+    }
+
+    private final ServerSocketChannel server;
+    private final String address;
+    private final String socketFile;
+    private final ExecutorService handlers;
+    private final boolean virtualThreads;
+    private final boolean inMemory;
+    private final boolean allowShutdown;
+    // the most worker threads one request may scan with
+    private final int maxThreads;
+    private final Map<String, Table> tables = new ConcurrentHashMap<>();
+    // canonical paths of the files given at startup
+    private final Set<String> served = ConcurrentHashMap.newKeySet();
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private volatile boolean stopping;
+
+    private QueryServer(ServerSocketChannel server, String address, String socketFile, boolean inMemory,
+                        boolean allowShutdown, int maxThreads) {
+        this.server = server;
+        this.inMemory = inMemory;
+        this.allowShutdown = allowShutdown;
+        this.maxThreads = maxThreads;
+        this.address = address;
+        this.socketFile = socketFile;
+        ExecutorService pool;
+        boolean virtual;
+        try {
+            pool = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            virtual = true;
+        } catch (ReflectiveOperationException e) {
+            pool = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "query-connection");
+                t.setDaemon(true);
+                return t;
+            });
+            virtual = false;
+        }
+        this.handlers = pool;
+        this.virtualThreads = virtual;
+    }
+
+    // `address` is host:port, :port / port (loopback), or unix:<path> for a Unix domain socket
+    // a request's "threads" is capped at maxThreads
+    static QueryServer bind(String address, boolean inMemory, boolean allowShutdown, int maxThreads) throws IOException {
+        if (maxThreads < 1) {
+            throw new IllegalArgumentException("--threads must be at least 1");
+        }
+        if (address.startsWith("unix:")) {
+            String path = address.substring("unix:".length());
+            if (Files.exists(Paths.get(path))) {
+                boolean live;
+                try (SocketChannel probe = SocketChannel.open(UnixDomainSocketAddress.of(path))) {
+                    live = probe.isConnected();
+                } catch (IOException stale) {
+                    live = false;
+                }
+                if (live) {
+                    throw new IllegalStateException("A server is already listening on " + path);
+                }
+                // left behind by a server that did not shut down cleanly
+                Files.delete(Paths.get(path));
+            }
+            ServerSocketChannel ch = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            ch.bind(UnixDomainSocketAddress.of(path));
+            return new QueryServer(ch, address, path, inMemory, allowShutdown, maxThreads);
+        }
+        ServerSocketChannel ch = ServerSocketChannel.open();
+        try {
+            ch.bind(inetAddress(address));
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+        InetSocketAddress bound = (InetSocketAddress) ch.getLocalAddress();
+        return new QueryServer(ch, bound.getHostString() + ":" + bound.getPort(), null, inMemory, allowShutdown, maxThreads);
+    }
+
+    static SocketChannel connect(String address) throws IOException {
+        if (address.startsWith("unix:")) {
+            return SocketChannel.open(UnixDomainSocketAddress.of(address.substring("unix:".length())));
+        }
+        return SocketChannel.open(inetAddress(address));
+    }
+
+    private static boolean local(SocketAddress peer) {
+        return peer instanceof UnixDomainSocketAddress
+                || (peer instanceof InetSocketAddress && ((InetSocketAddress) peer).getAddress().isLoopbackAddress());
+    }
+
+    private static SocketAddress inetAddress(String address) {
+        int colon = address.lastIndexOf(':');
+        String host = colon > 0 ? address.substring(0, colon) : "127.0.0.1";
+        String port = colon >= 0 ? address.substring(colon + 1) : address;
+        try {
+            return new InetSocketAddress(host, Integer.parseInt(port));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad address '" + address + "', expected host:port or unix:<path>");
+        }
+    }
+
+    String address() {
+        return address;
+    }
+
+    boolean virtualThreads() {
+        return virtualThreads;
+    }
+
+    long connections() {
+        return connections.get();
+    }
+
+    long requests() {
+        return requests.get();
+    }
+
+    // adds `file` to the served tables and opens it; the caller closes the returned reference
+    Table serve(String file) throws IOException {
+        served.add(new File(file).getCanonicalPath());
+        return load(file);
+    }
+
+    // The current table for a served `file`, with a reference the caller closes when done with it. A
+    // replaced table loses the map's reference here and is freed once the requests already reading it
+    // close theirs.
+    Table load(String file) throws IOException {
+        String key = new File(file).getCanonicalPath();
+        if (!served.contains(key)) {
+            throw new IllegalArgumentException("Not served: " + file + " (the server answers only for its --file tables)");
+        }
+        Table t = tables.get(key);
+        if (t != null && t.current() && t.retain()) {
+            return t;
+        }
+        synchronized (this) {
+            t = tables.get(key);
+            if (t == null || !t.current()) {
+                Table old = t;
+                t = Table.open(file, inMemory);
+                tables.put(key, t);
+                if (old != null) old.close();
+            }
+            // a table in the map still holds the map's reference, so this cannot fail
+            t.retain();
+            return t;
+        }
+    }
+
+    List<Table> tables() {
+        return new ArrayList<>(tables.values());
+    }
+
+    // accepts connections until a shutdown request arrives or the server is closed
+    void run() throws IOException {
+        try {
+            while (!stopping) {
+                SocketChannel ch;
+                try {
+                    ch = server.accept();
+                } catch (ClosedChannelException closed) {
+                    break;
+                }
+                connections.incrementAndGet();
+                handlers.execute(() -> serve(ch));
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private void serve(SocketChannel ch) {
+        try (SocketChannel c = ch;
+             BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(c), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(c), StandardCharsets.UTF_8))) {
+            boolean local = local(c.getRemoteAddress());
+            String line;
+            while (!stopping && (line = in.readLine()) != null) {
+                if (line.isBlank()) continue;
+                out.write(respond(line, local));
+                out.write('\n');
+                out.flush();
+            }
+        } catch (IOException gone) {
+            // the client hung up mid-request; nothing to answer
+        }
+    }
+
+    // `local` is set for a loopback or Unix socket client, the only ones a shutdown is taken from
+    String respond(String line, boolean local) {
+        requests.incrementAndGet();
+        Map<String, Object> res = new LinkedHashMap<>();
+        long start = System.nanoTime();
+        Object id = null;
+        try {
+            Map<String, Object> req = Json.parseObject(line);
+            id = req.get("id");
+            if (id != null) res.put("id", id);
+            String op = string(req, "op", null);
+            if (op == null) {
+                throw new IllegalArgumentException("Request needs an \"op\" (search, preview, count or shutdown)");
+            }
+            res.put("ok", true);
+            res.put("op", op);
+            switch (op) {
+                case "search":
+                    try (Table t = load(file(req))) {
+                        search(t, req, res);
+                    }
+                    break;
+                case "preview":
+                    try (Table t = load(file(req))) {
+                        preview(t, req, res);
+                    }
+                    break;
+                case "count":
+                    try (Table t = load(file(req))) {
+                        res.put("rows", t.rows());
+                    }
+                    break;
+                case "shutdown":
+                    if (!allowShutdown) {
+                        throw new IllegalArgumentException("shutdown is disabled; start the server with --allow-shutdown");
+                    }
+                    if (!local) {
+                        throw new IllegalArgumentException("shutdown is only accepted from a loopback or Unix socket client");
+                    }
+                    stopping = true;
+                    server.close();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown op '" + op + "'");
+            }
+        } catch (IOException | RuntimeException e) {
+            res.clear();
+            if (id != null) res.put("id", id);
+            res.put("ok", false);
+            res.put("error", e.getMessage() == null ? e.toString() : e.getMessage());
+        }
+        res.put("elapsed_us", (System.nanoTime() - start) / 1000L);
+        return Json.write(res);
+    }
+
+    private void search(Table t, Map<String, Object> req, Map<String, Object> res) throws IOException {
+        List<String> keywords = new ArrayList<>();
+        Object list = req.get("keywords");
+        if (list instanceof List) {
+            for (Object k : (List<?>) list) keywords.add(String.valueOf(k));
+        } else if (req.get("keyword") != null) {
+            keywords.add(string(req, "keyword", null));
+        }
+        if (keywords.isEmpty() || keywords.contains("")) {
+            throw new IllegalArgumentException("search needs a non-empty \"keyword\" or \"keywords\"");
+        }
+        int column = t.column(string(req, "column", "title"));
+        boolean caseSensitive = bool(req, "case_sensitive");
+        Long limit = req.get("limit") == null ? null : number(req, "limit", 0L);
+        int threads = (int) Math.max(1L, Math.min(maxThreads, number(req, "threads", 1L)));
+
+        if (t.columnar != null) {
+            if (keywords.size() > 1) {
+                throw new IllegalArgumentException("Columnar tables take one keyword per search");
+            }
+            res.put("scanned", t.columnar.scanned(limit));
+            res.put("matched", t.columnar.scan(column, KeywordMatcher.compile(keywords.get(0), caseSensitive), limit, threads));
+            return;
+        }
+        if (t.memory != null) {
+            res.put("scanned", t.memory.scanned(limit));
+            if (keywords.size() == 1) {
+                res.put("matched", t.memory.scan(column, KeywordMatcher.compile(keywords.get(0), caseSensitive), limit, threads));
+            } else {
+                long[] counts = t.memory.scan(column, MultiKeywordMatcher.compile(keywords, caseSensitive), limit, threads);
+                res.put("counts", perKeyword(keywords, counts));
+                res.put("matched", counts[keywords.size()]);
+            }
+            return;
+        }
+        if (t.scanner.header() == null) {
+            throw new IllegalStateException("Empty file: " + t.file);
+        }
+        ChunkedCsvScanner.Result r;
+        if (keywords.size() == 1) {
+            KeywordMatcher matcher = KeywordMatcher.compile(keywords.get(0), caseSensitive);
+            r = t.scanner.scan(threads, limit, () -> new ColumnKeywordMatcher(column, matcher), null);
+        } else {
+            MultiKeywordMatcher matcher = MultiKeywordMatcher.compile(keywords, caseSensitive);
+            r = t.scanner.scan(threads, limit, () -> matcher.columnVisitor(column), null);
+            long[] counts = new long[keywords.size()];
+            for (ChunkedCsvScanner.RowVisitor v : r.visitors) {
+                long[] c = ((MultiKeywordMatcher.ColumnVisitor) v).counts();
+                for (int k = 0; k < c.length; k++) counts[k] += c[k];
+            }
+            res.put("counts", perKeyword(keywords, counts));
+        }
+        res.put("scanned", r.scanned);
+        res.put("matched", r.matched);
+    }
+
+    private static Map<String, Object> perKeyword(List<String> keywords, long[] counts) {
+        Map<String, Object> per = new LinkedHashMap<>();
+        for (int k = 0; k < keywords.size(); k++) per.put(keywords.get(k), counts[k]);
+        return per;
+    }
+
+    private void preview(Table t, Map<String, Object> req, Map<String, Object> res) throws IOException {
+        long n = Math.max(0L, number(req, "rows", 10L));
+        List<String> rows = new ArrayList<>();
+        if (t.columnar != null) {
+            List<String> lines = new ArrayList<>();
+            t.columnar.preview(n, lines::add);
+            res.put("header", lines.get(0));
+            rows.addAll(lines.subList(1, lines.size()));
+        } else if (t.memory != null) {
+            res.put("header", t.memory.header());
+            t.memory.preview(n, rows::add);
+        } else {
+            res.put("header", t.scanner.header());
+            if (t.scanner.header() != null && n > 0) {
+                t.scanner.scan(1, n, () -> (buf, start, end) -> true, rows::add);
+            }
+        }
+        res.put("rows", rows);
+    }
+
+    private static String file(Map<String, Object> req) {
+        String file = string(req, "file", null);
+        if (file == null || file.isEmpty()) {
+            throw new IllegalArgumentException("Request needs a \"file\"");
+        }
+        return file;
+    }
+
+    private static String string(Map<String, Object> req, String key, String def) {
+        Object v = req.get(key);
+        if (v == null) return def;
+        if (!(v instanceof String)) {
+            throw new IllegalArgumentException("\"" + key + "\" must be a string");
+        }
+        return (String) v;
+    }
+
+    private static long number(Map<String, Object> req, String key, long def) {
+        Object v = req.get(key);
+        if (v == null) return def;
+        if (!(v instanceof Long)) {
+            throw new IllegalArgumentException("\"" + key + "\" must be an integer");
+        }
+        return (Long) v;
+    }
+
+    private static boolean bool(Map<String, Object> req, String key) {
+        Object v = req.get(key);
+        if (v == null) return false;
+        if (!(v instanceof Boolean)) {
+            throw new IllegalArgumentException("\"" + key + "\" must be true or false");
+        }
+        return (Boolean) v;
+    }
+
+    @Override
+    public void close() throws IOException {
+        stopping = true;
+        server.close();
+        handlers.shutdown();
+        try {
+            handlers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Table t : tables.values()) t.close();
+        tables.clear();
+        if (socketFile != null) {
+            Files.deleteIfExists(Paths.get(socketFile));
+        }
+    }
+}
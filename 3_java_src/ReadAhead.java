@@ -0,0 +1,102 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.LockSupport;
+
+
+// A reader thread that keeps a sequential scan's next AHEAD bytes of the file in the OS page cache, so a
+// cold-cache scan waits on the disk and on parsing at the same time instead of one after the other. It
+// reads SLOT bytes at a time ahead of the position the scanner reports through advance(), and parks while
+// it is AHEAD bytes in front. Nothing reads what it read: the bytes land in one scratch buffer that is
+// overwritten every read, only the page cache keeps them. The scanner still reads the file itself (from
+// its mapping, or through BlockGzip for compressed input); when the reader has fallen behind it skips
+// forward, so it can only make those reads cheaper, never wrong. Scanners start one only when asked to
+// (ChunkedCsvScanner.readAhead); with the file already cached it is pure overhead.
+//
+// The JDK has no posix_fadvise or madvise; a sequential read from a dedicated thread is the portable
+// equivalent of the SEQUENTIAL/WILLNEED hints. The reader thread is never interrupted: an interrupt
+// would close the shared FileChannel.
+final class ReadAhead implements Closeable {
+
+    static final int SLOT = 4 << 20;
+    private static final long AHEAD = 4L * SLOT;
+
+    private final FileChannel channel;
+    private final long end;
+    private final Thread reader;
+    private volatile long consumed;
+    private volatile boolean closed;
+    private volatile long bytes;
+
+    private ReadAhead(FileChannel channel, long from, long end) {
+        this.channel = channel;
+        this.end = end;
+        this.consumed = from;
+        this.reader = new Thread(() -> run(from), "read-ahead");
+        reader.setDaemon(true);
+    }
+
+    // reads [from, end) of `channel` ahead of the caller's advance() calls
+    static ReadAhead start(FileChannel channel, long from, long end) {
+        ReadAhead r = new ReadAhead(channel, from, end);
+        r.reader.start();
+        return r;
+    }
+
+    // the consumer has read everything before `pos`
+    void advance(long pos) {
+        if (pos > consumed) {
+            consumed = pos;
+            LockSupport.unpark(reader);
+        }
+    }
+
+    // bytes the reader thread pulled in
+    long bytes() {
+        return bytes;
+    }
+
+    private void run(long from) {
+        ByteBuffer b = ByteBuffer.allocateDirect(SLOT);
+        long pos = from;
+        try {
+            while (!closed && pos < end) {
+                long c = consumed;
+                if (pos < c) {
+                    pos = c;
+                    continue;
+                }
+                if (pos - c >= AHEAD) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                b.clear().limit((int) Math.min(SLOT, end - pos));
+                int n = channel.read(b, pos);
+                if (n <= 0) {
+                    break;
+                }
+                pos += n;
+                bytes += n;
+            }
+        } catch (IOException e) {
+            // the scanner reads these bytes itself and reports any error; read-ahead just stops
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(reader);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                reader.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
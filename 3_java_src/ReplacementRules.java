@@ -0,0 +1,326 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+// A batch of from -> to substitutions applied to CSV fields in one pass. Rules file lines are
+//   from<TAB>to[<TAB>flags[<TAB>column,column...]]
+// where flags is "i" for a case-insensitive rule (empty or "c" otherwise), the columns default to the
+// caller's, '#' starts a comment line and \t, \n, \\ escape a tab, newline and backslash.
+//
+// Matching is leftmost-longest over the original value: at each position the longest rule matching there
+// wins (the earlier rule on a tie), its replacement is emitted and scanning resumes after the match, so
+// replaced text is never matched again. Case-insensitive rules compare characters after simple case folding
+// (Character.toLowerCase(Character.toUpperCase(c))), which keeps match positions aligned with the value.
+final class ReplacementRules {
+
+    static final class Rule {
+        final String from;
+        final String to;
+        final boolean caseInsensitive;
+        final List<String> columns;
+        final int line;
+
+        Rule(String from, String to, boolean caseInsensitive, List<String> columns, int line) {
+            this.from = from;
+            this.to = to;
+            this.caseInsensitive = caseInsensitive;
+            this.columns = columns;
+            this.line = line;
+        }
+    }
+
+    private final List<Rule> rules;
+    private final List<String> columns;
+    private final Automaton[] sensitive;
+    private final Automaton[] insensitive;
+
+    private ReplacementRules(List<Rule> rules) {
+        this.rules = rules;
+        Map<String, List<Integer>> byColumn = new LinkedHashMap<>();
+        for (int id = 0; id < rules.size(); id++) {
+            for (String c : rules.get(id).columns) {
+                byColumn.computeIfAbsent(c.toLowerCase(), k -> new ArrayList<>()).add(id);
+            }
+        }
+        this.columns = new ArrayList<>(byColumn.keySet());
+        this.sensitive = new Automaton[columns.size()];
+        this.insensitive = new Automaton[columns.size()];
+        int f = 0;
+        for (List<Integer> ids : byColumn.values()) {
+            List<Integer> cs = new ArrayList<>();
+            List<Integer> ci = new ArrayList<>();
+            for (int id : ids) (rules.get(id).caseInsensitive ? ci : cs).add(id);
+            sensitive[f] = cs.isEmpty() ? null : new Automaton(rules, cs, false);
+            insensitive[f] = ci.isEmpty() ? null : new Automaton(rules, ci, true);
+            f++;
+        }
+    }
+
+    static ReplacementRules of(List<Rule> rules) {
+        if (rules.isEmpty()) {
+            throw new IllegalArgumentException("No replacement rules given");
+        }
+        return new ReplacementRules(rules);
+    }
+
+    static ReplacementRules load(String file, boolean defaultCaseInsensitive, List<String> defaultColumns) throws IOException {
+        List<Rule> rules = new ArrayList<>();
+        try (BufferedReader br = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line;
+            int n = 0;
+            while ((line = br.readLine()) != null) {
+                n++;
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] parts = line.split("\t", -1);
+                if (parts.length < 2 || parts.length > 4) {
+                    throw new IllegalArgumentException(file + ":" + n + ": expected from<TAB>to[<TAB>flags[<TAB>columns]]");
+                }
+                String from = unescape(parts[0], file, n);
+                if (from.isEmpty()) {
+                    throw new IllegalArgumentException(file + ":" + n + ": empty 'from' pattern");
+                }
+                boolean ci = defaultCaseInsensitive;
+                if (parts.length > 2 && !parts[2].isEmpty()) {
+                    if (parts[2].equals("i")) {
+                        ci = true;
+                    } else if (parts[2].equals("c")) {
+                        ci = false;
+                    } else {
+                        throw new IllegalArgumentException(file + ":" + n + ": unknown flags '" + parts[2] + "' (use i or c)");
+                    }
+                }
+                List<String> cols = defaultColumns;
+                if (parts.length > 3 && !parts[3].isEmpty()) {
+                    cols = new ArrayList<>();
+                    for (String c : parts[3].split(",")) {
+                        if (!c.trim().isEmpty() && !cols.contains(c.trim())) cols.add(c.trim());
+                    }
+                }
+                rules.add(new Rule(from, unescape(parts[1], file, n), ci, cols, n));
+            }
+        }
+        return of(rules);
+    }
+
+    List<Rule> rules() {
+        return rules;
+    }
+
+    // columns touched by at least one rule, in the order the slots of newReplacement() refer to them
+    List<String> columns() {
+        return columns;
+    }
+
+    Applier newReplacement() {
+        return new Applier();
+    }
+
+    static String describe(Rule r) {
+        return "'" + r.from + "' -> '" + r.to + "'" + (r.caseInsensitive ? " (case-insensitive)" : " (case-sensitive)");
+    }
+
+    private static String unescape(String s, String file, int line) {
+        if (s.indexOf('\\') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch != '\\') {
+                sb.append(ch);
+                continue;
+            }
+            char e = ++i < s.length() ? s.charAt(i) : 0;
+            if (e == 't') sb.append('\t');
+            else if (e == 'n') sb.append('\n');
+            else if (e == '\\') sb.append('\\');
+            else throw new IllegalArgumentException(file + ":" + line + ": unknown escape in '" + s + "'");
+        }
+        return sb.toString();
+    }
+
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+
+
+
+    // Per-thread state: hit counters and the per-position best-match scratch arrays.
+    final class Applier implements FieldRewriter.Replacement {
+        private final long[] hits = new long[rules.size()];
+        private int[] bestLen = new int[64];
+        private int[] bestRule = new int[64];
+
+        long[] hits() {
+            return hits;
+        }
+
+        @Override
+        public boolean mayChange(int field, ByteBuffer buf, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (buf.get(i) < 0) return true;
+            }
+            return (sensitive[field] != null && sensitive[field].matchesAscii(buf, from, to))
+                    || (insensitive[field] != null && insensitive[field].matchesAscii(buf, from, to));
+        }
+
+        @Override
+        public String apply(int field, String value) {
+            int n = value.length();
+            if (bestLen.length < n) {
+                bestLen = new int[n * 2];
+                bestRule = new int[n * 2];
+            }
+            Arrays.fill(bestLen, 0, n, 0);
+            boolean any = false;
+            if (sensitive[field] != null) any |= sensitive[field].collect(value, bestLen, bestRule);
+            if (insensitive[field] != null) any |= insensitive[field].collect(value, bestLen, bestRule);
+            if (!any) {
+                return value;
+            }
+            StringBuilder out = new StringBuilder(n + 16);
+            int i = 0;
+            while (i < n) {
+                int len = bestLen[i];
+                if (len == 0) {
+                    out.append(value.charAt(i++));
+                } else {
+                    int id = bestRule[i];
+                    hits[id]++;
+                    out.append(rules.get(id).to);
+                    i += len;
+                }
+            }
+            return out.toString();
+        }
+    }
+
+    // Aho-Corasick automaton over the UTF-16 characters of one column's rules. Characters that occur in no
+    // pattern share symbol 0, which keeps the transition table at states x (distinct pattern chars + 1).
+    private static final class Automaton {
+        private final boolean fold;
+        private final char[] symbols = new char[1 << 16];
+        private final int alphabet;
+        private final int[] next;
+        private final int[][] out;
+        private final int[] lengths;
+
+        Automaton(List<Rule> rules, List<Integer> ids, boolean fold) {
+            this.fold = fold;
+            this.lengths = new int[rules.size()];
+            int total = 1;
+            int sym = 1;
+            List<char[]> patterns = new ArrayList<>();
+            for (int id : ids) {
+                char[] p = rules.get(id).from.toCharArray();
+                for (int i = 0; i < p.length; i++) {
+                    if (fold) p[i] = fold(p[i]);
+                    if (symbols[p[i]] == 0) symbols[p[i]] = (char) sym++;
+                }
+                patterns.add(p);
+                lengths[id] = p.length;
+                total += p.length;
+            }
+            this.alphabet = sym;
+
+            int[] trans = new int[total * alphabet];
+            Arrays.fill(trans, -1);
+            int[][] outputs = new int[total][];
+            int states = 1;
+            for (int k = 0; k < patterns.size(); k++) {
+                int s = 0;
+                for (char c : patterns.get(k)) {
+                    int t = s * alphabet + symbols[c];
+                    if (trans[t] < 0) {
+                        trans[t] = states++;
+                    }
+                    s = trans[t];
+                }
+                outputs[s] = append(outputs[s], ids.get(k));
+            }
+
+            int[] failure = new int[states];
+            int[] queue = new int[states];
+            int head = 0;
+            int tail = 0;
+            for (int c = 0; c < alphabet; c++) {
+                int t = trans[c];
+                if (t < 0) {
+                    trans[c] = 0;
+                } else {
+                    queue[tail++] = t;
+                }
+            }
+            while (head < tail) {
+                int s = queue[head++];
+                if (outputs[failure[s]] != null) {
+                    for (int id : outputs[failure[s]]) outputs[s] = append(outputs[s], id);
+                }
+                for (int c = 0; c < alphabet; c++) {
+                    int t = trans[s * alphabet + c];
+                    int f = trans[failure[s] * alphabet + c];
+                    if (t < 0) {
+                        trans[s * alphabet + c] = f;
+                    } else {
+                        failure[t] = f;
+                        queue[tail++] = t;
+                    }
+                }
+            }
+            this.next = Arrays.copyOf(trans, states * alphabet);
+            this.out = Arrays.copyOf(outputs, states);
+        }
+
+        // raw bytes of an all-ASCII field are its characters
+        boolean matchesAscii(ByteBuffer buf, int from, int to) {
+            int s = 0;
+            for (int i = from; i < to; i++) {
+                char c = (char) buf.get(i);
+                s = next[s * alphabet + symbols[fold ? fold(c) : c]];
+                if (out[s] != null) return true;
+            }
+            return false;
+        }
+
+        // records, per start position, the longest match (earliest rule on ties) across calls
+        boolean collect(String text, int[] bestLen, int[] bestRule) {
+            boolean any = false;
+            int s = 0;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                s = next[s * alphabet + symbols[fold ? fold(c) : c]];
+                if (out[s] == null) continue;
+                any = true;
+                for (int id : out[s]) {
+                    int len = lengths[id];
+                    int start = i + 1 - len;
+                    if (len > bestLen[start] || (len == bestLen[start] && id < bestRule[start])) {
+                        bestLen[start] = len;
+                        bestRule[start] = id;
+                    }
+                }
+            }
+            return any;
+        }
+
+        private static int[] append(int[] ids, int id) {
+            if (ids == null) return new int[] { id };
+            for (int x : ids) {
+                if (x == id) return ids;
+            }
+            int[] grown = Arrays.copyOf(ids, ids.length + 1);
+            grown[ids.length] = id;
+            return grown;
+        }
+    }
+}
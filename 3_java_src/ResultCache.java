@@ -0,0 +1,256 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+
+// On-disk cache of query results. Entries live under <dir>/<hash of the data file's path>/, so every
+// entry for a file can be dropped at once when the file is rewritten; within that, the entry name is a
+// hash of the full key (path, size, mtime, delta log, optional head/tail digest and the query itself),
+// which is also stored in the entry and compared on read. Least recently used entries are evicted once
+// the directory grows past its size budget; a hit refreshes the entry's mtime.
+final class ResultCache {
+
+    private static final int MAGIC = 0x52435331;
+    private static final int VERSION = 1;
+    private static final int SAMPLE = 64 << 10;
+
+    static final class Entry {
+        long scanned;
+        long matched;
+        long[] counts = new long[0];
+        // offsets of the matching rows, when the query recorded them
+        long[] offsets;
+    }
+
+    // Wraps a row visitor and remembers the file offset of every row it accepts, so a cached result can
+    // print its rows again with ChunkedCsvScanner.readRecord().
+    static final class OffsetRecorder implements ChunkedCsvScanner.RowVisitor {
+        final ChunkedCsvScanner.RowVisitor inner;
+        private long base;
+        private long[] offsets = new long[16];
+        private int count;
+
+        OffsetRecorder(ChunkedCsvScanner.RowVisitor inner) {
+            this.inner = inner;
+        }
+
+        @Override
+        public void window(long fileOffset) {
+            base = fileOffset;
+            inner.window(fileOffset);
+        }
+
+        @Override
+        public boolean metrics(ScanMetrics.Recorder recorder) {
+            return inner.metrics(recorder);
+        }
+
+        @Override
+        public boolean visit(ByteBuffer buf, int start, int end) {
+            if (!inner.visit(buf, start, end)) {
+                return false;
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = base + start;
+            return true;
+        }
+
+        long[] offsets() {
+            return Arrays.copyOf(offsets, count);
+        }
+    }
+
+    private final File dir;
+    private final long maxBytes;
+
+    private ResultCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    static ResultCache open(String dir, long maxBytes) {
+        return new ResultCache(new File(dir == null ? defaultDir() : dir), maxBytes);
+    }
+
+    static String defaultDir() {
+        return new File(System.getProperty("java.io.tmpdir"), "file-search-cache").getPath();
+    }
+
+    File dir() {
+        return dir;
+    }
+
+    // With verifyContent the key also covers a digest of the first and last 64 KiB of the file, which
+    // catches rewrites that keep size and mtime at the cost of two small reads.
+    String key(String file, boolean verifyContent, String query) throws IOException {
+        FileFingerprint fp = FileFingerprint.of(file);
+        StringBuilder key = new StringBuilder(256);
+        key.append(canonical(file)).append('\n').append(fp.size).append(':').append(fp.mtime);
+        File log = new File(DeltaLog.path(file));
+        if (log.isFile()) {
+            key.append("\ndelta ").append(log.length()).append(':').append(log.lastModified());
+        }
+        if (verifyContent) {
+            key.append("\nhead/tail ").append(digest(file, fp.size));
+        }
+        return key.append('\n').append(query).toString();
+    }
+
+    Entry get(String file, String key) throws IOException {
+        File f = entryFile(file, key);
+        if (!f.isFile()) {
+            return null;
+        }
+        Entry e = new Entry();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            byte[] stored = new byte[in.readInt()];
+            in.readFully(stored);
+            if (!Arrays.equals(stored, key.getBytes(StandardCharsets.UTF_8))) {
+                return null;
+            }
+            e.scanned = in.readLong();
+            e.matched = in.readLong();
+            e.counts = new long[in.readInt()];
+            for (int i = 0; i < e.counts.length; i++) e.counts[i] = in.readLong();
+            int n = in.readInt();
+            if (n >= 0) {
+                e.offsets = new long[n];
+                for (int i = 0; i < n; i++) e.offsets[i] = in.readLong();
+            }
+        } catch (IOException | RuntimeException corrupt) {
+            // a truncated or foreign entry is just a miss
+            return null;
+        }
+        f.setLastModified(System.currentTimeMillis());
+        return e;
+    }
+
+    void put(String file, String key, Entry e) throws IOException {
+        File f = entryFile(file, key);
+        Files.createDirectories(f.getParentFile().toPath());
+        File tmp = new File(f.getPath() + ".tmp" + ProcessHandle.current().pid());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            byte[] k = key.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(k.length);
+            out.write(k);
+            out.writeLong(e.scanned);
+            out.writeLong(e.matched);
+            out.writeInt(e.counts.length);
+            for (long c : e.counts) out.writeLong(c);
+            out.writeInt(e.offsets == null ? -1 : e.offsets.length);
+            if (e.offsets != null) {
+                for (long o : e.offsets) out.writeLong(o);
+            }
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        evict();
+    }
+
+    // drops every cached result for `file`; called by anything that rewrites it
+    static void invalidate(String dir, String file) throws IOException {
+        File d = new File(dir == null ? defaultDir() : dir, hash(canonical(file)));
+        File[] entries = d.listFiles();
+        if (entries != null) {
+            for (File f : entries) f.delete();
+        }
+        d.delete();
+    }
+
+    private void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(dir.toPath(), 2)) {
+            files.filter(p -> p.getFileName().toString().endsWith(".res")).forEach(entries::add);
+        }
+        long[] sizes = new long[entries.size()];
+        long[] used = new long[entries.size()];
+        long total = 0L;
+        for (int i = 0; i < sizes.length; i++) {
+            File f = entries.get(i).toFile();
+            sizes[i] = f.length();
+            used[i] = f.lastModified();
+            total += sizes[i];
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        Integer[] order = new Integer[sizes.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingLong(i -> used[i]));
+        for (int i : order) {
+            if (total <= maxBytes) break;
+            if (entries.get(i).toFile().delete()) {
+                total -= sizes[i];
+            }
+        }
+    }
+
+    private File entryFile(String file, String key) throws IOException {
+        return new File(new File(dir, hash(canonical(file))), hash(key) + ".res");
+    }
+
+    private static String canonical(String file) throws IOException {
+        return new File(file).getCanonicalPath();
+    }
+
+    private static String digest(String file, long size) throws IOException {
+        MessageDigest md = sha256();
+        try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(SAMPLE);
+            for (long pos : new long[] { 0L, Math.max(0L, size - SAMPLE) }) {
+                buf.clear();
+                int n = 0;
+                while (buf.hasRemaining() && n >= 0) {
+                    n = ch.read(buf, pos + buf.position());
+                }
+                buf.flip();
+                md.update(buf);
+            }
+        }
+        return toHex(md.digest());
+    }
+
+    private static String hash(String s) {
+        return toHex(sha256().digest(s.getBytes(StandardCharsets.UTF_8))).substring(0, 32);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+}
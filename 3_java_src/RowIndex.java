@@ -0,0 +1,233 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+
+// Sparse row-number -> byte-offset index of a CSV file, kept in a <file>.ridx sidecar: the offset of
+// every `every`-th data row, found with the scanner's quote-aware framing so a row with quoted newlines
+// is still one row. Reaching row n costs one seek to the checkpoint at or before it plus a walk over at
+// most every - 1 rows. Offsets are into the uncompressed data, so block-compressed files work the same,
+// and rows replaced in the delta log keep their base offsets.
+final class RowIndex {
+
+    private static final int MAGIC = 0x52495831;
+    private static final int VERSION = 1;
+    static final int DEFAULT_EVERY = 1024;
+    private static final int BUFFER = 64 << 10;
+
+    static final class BuildStats {
+        long rows;
+        int checkpoints;
+        long bytes;
+    }
+
+    private final int every;
+    private final long rows;
+    private final long[] checkpoints;
+
+    private RowIndex(int every, long rows, long[] checkpoints) {
+        this.every = every;
+        this.rows = rows;
+        this.checkpoints = checkpoints;
+    }
+
+    static String defaultPath(String csvFile) {
+        return csvFile + ".ridx";
+    }
+
+    static BuildStats build(String csvFile, String indexFile, int every) throws IOException {
+        if (every < 1) {
+            throw new IllegalArgumentException("--every must be at least 1");
+        }
+        FileFingerprint fingerprint = FileFingerprint.of(csvFile);
+        Collector rows = new Collector(every);
+        try (ChunkedCsvScanner scanner = ChunkedCsvScanner.open(csvFile)) {
+            if (scanner.header() == null) {
+                throw new IllegalStateException("Empty file. Nothing to index.");
+            }
+            scanner.scan(1, null, () -> rows, null);
+        }
+
+        BuildStats stats = new BuildStats();
+        stats.rows = rows.rows;
+        stats.checkpoints = rows.count;
+        File target = new File(indexFile);
+        File tmp = new File(target.getAbsolutePath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 20))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            fingerprint.write(out);
+            out.writeInt(every);
+            out.writeLong(rows.rows);
+            out.writeInt(rows.count);
+            for (int k = 0; k < rows.count; k++) out.writeLong(rows.offsets[k]);
+            out.writeInt(MAGIC);
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        stats.bytes = target.length();
+        return stats;
+    }
+
+    static RowIndex open(String indexFile, String csvFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalStateException("Not a row index: " + indexFile);
+            }
+            FileFingerprint.read(in).requireMatch("Row index " + indexFile, csvFile, "build-row-index");
+            int every = in.readInt();
+            long rows = in.readLong();
+            int count = in.readInt();
+            if (every < 1 || rows < 0 || count < 0 || count != (rows + every - 1) / every) {
+                throw new IllegalStateException("Not a row index: " + indexFile);
+            }
+            long[] checkpoints = new long[count];
+            for (int k = 0; k < count; k++) checkpoints[k] = in.readLong();
+            if (in.readInt() != MAGIC) {
+                throw new IllegalStateException("Truncated row index: " + indexFile);
+            }
+            return new RowIndex(every, rows, checkpoints);
+        }
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    int every() {
+        return every;
+    }
+
+    // Hands data rows first .. first + count - 1 (clipped to the file) to `sink`, each without its line break.
+    void rows(ChunkedCsvScanner scanner, long first, long count, ChunkedCsvScanner.MatchSink sink) throws IOException {
+        long last = Math.min(rows, first + count);
+        if (first < 0 || first >= last) {
+            return;
+        }
+        Cursor c = new Cursor(scanner, checkpoints[(int) (first / every)]);
+        for (long r = first - first % every; r < first; r++) c.next(null);
+        for (long r = first; r < last; r++) c.next(sink);
+    }
+
+    // Hands the rows numbered in `sorted` (ascending, distinct) to `sink`, seeking between them.
+    void rows(ChunkedCsvScanner scanner, long[] sorted, ChunkedCsvScanner.MatchSink sink) throws IOException {
+        Cursor c = null;
+        long at = -1L;
+        for (long row : sorted) {
+            if (row < 0 || row >= rows) {
+                throw new IllegalArgumentException("Row " + row + " is outside the file's " + rows + " data rows");
+            }
+            if (c == null || row / every != at / every || row < at) {
+                // past the next checkpoint: seek rather than walk
+                at = row - row % every;
+                c = new Cursor(scanner, checkpoints[(int) (row / every)], c);
+            }
+            for (; at < row; at++) c.next(null);
+            c.next(sink);
+            at++;
+        }
+    }
+
+    // Walks rows forward from a row start through a reusable buffer, with the scanner's framing.
+    private static final class Cursor {
+        private final ChunkedCsvScanner scanner;
+        private ByteBuffer buf;
+        private long base;
+        private int pos;
+        private int limit;
+
+        Cursor(ChunkedCsvScanner scanner, long offset) {
+            this(scanner, offset, null);
+        }
+
+        Cursor(ChunkedCsvScanner scanner, long offset, Cursor reuse) {
+            this.scanner = scanner;
+            this.buf = reuse == null ? ByteBuffer.allocate(BUFFER) : reuse.buf;
+            this.base = offset;
+        }
+
+        void next(ChunkedCsvScanner.MatchSink sink) throws IOException {
+            int end;
+            while ((end = ChunkedCsvScanner.recordEnd(buf, pos, limit)) < 0) {
+                if (!fill()) {
+                    end = limit;
+                    break;
+                }
+            }
+            if (sink != null) {
+                long offset = base + pos;
+                if (scanner.overlaid(offset)) {
+                    ByteBuffer row = scanner.readRecord(offset);
+                    sink.accept(row, 0, row.limit());
+                } else {
+                    int rowEnd = end > pos && buf.get(end - 1) == '\r' ? end - 1 : end;
+                    sink.accept(buf, pos, rowEnd);
+                }
+            }
+            pos = Math.min(end + 1, limit);
+        }
+
+        // moves the unread bytes to the front and reads more; false at the end of the data
+        private boolean fill() throws IOException {
+            if (pos == 0 && limit == buf.capacity()) {
+                // one row fills the whole buffer
+                ByteBuffer bigger = ByteBuffer.allocate(buf.capacity() * 2);
+                bigger.put(buf.array(), 0, limit);
+                buf = bigger;
+            } else if (pos > 0) {
+                buf.limit(limit).position(pos);
+                buf.compact();
+                base += pos;
+                limit -= pos;
+                pos = 0;
+            }
+            buf.clear().position(limit);
+            int n = scanner.read(buf, base + limit);
+            if (n <= 0) {
+                return false;
+            }
+            limit += n;
+            return true;
+        }
+
+    }
+
+    private static final class Collector implements ChunkedCsvScanner.RowVisitor {
+        private final int every;
+        private long base;
+        long rows;
+        int count;
+        long[] offsets = new long[1024];
+
+        Collector(int every) {
+            this.every = every;
+        }
+
+        @Override
+        public void window(long fileOffset) {
+            base = fileOffset;
+        }
+
+        @Override
+        public boolean visit(ByteBuffer buf, int start, int end) {
+            if (rows++ % every == 0) {
+                if (count == offsets.length) {
+                    if (count == Integer.MAX_VALUE - 8) {
+                        throw new IllegalStateException("Too many rows for a row index; use a larger --every");
+                    }
+                    offsets = Arrays.copyOf(offsets, (int) Math.min(Integer.MAX_VALUE - 8, count * 2L));
+                }
+                offsets[count++] = base + start;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+// One per byte range a ChunkedCsvScanner worker finishes. Costs nothing unless a flight recording is
+// running, e.g. java -XX:StartFlightRecording=filename=scan.jfr ..., then jfr print --events filesearch.ScanChunk scan.jfr
+@Name("filesearch.ScanChunk")
+@Label("CSV Scan Chunk")
+@Category({ "File Search", "Scan" })
+@Description("A line-aligned byte range of a CSV file scanned by one worker")
+@StackTrace(false)
+final class ScanChunkEvent extends Event {
+
+    @Label("File")
+    String file;
+
+    @Label("Start Offset")
+    long start;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Rows")
+    long rows;
+
+    @Label("Matched Rows")
+    long matched;
+}
@@ -0,0 +1,310 @@
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+
+// Per-phase timers and byte counters for one command run. Every scanning thread records into its own
+// Recorder (plain fields, nothing shared) and the recorders are summed when the run is reported, so leaving
+// this on costs a few clock reads per chunk plus two per sampled row:
+//   read   - faulting the mapped file in, one touch per page a megabyte ahead of the rows, or inflating
+//            block-compressed input (exact)
+//   frame  - finding row boundaries (sampled)
+//   parse  - splitting the searched/rewritten fields out of a row (sampled)
+//   decode - turning escaped or replaced field bytes into Strings (sampled)
+//   match  - keyword matching and replacing (sampled)
+//   visit  - whole-row time of visitors that do not split it up themselves (sampled)
+//   write  - printing matched rows or writing the rewritten file (exact)
+// Sampled phases are timed on one row in SAMPLE_EVERY and scaled by rows / sampled rows. Phase times are
+// summed over threads, so with --threads they can add up to more than the elapsed time.
+final class ScanMetrics {
+
+    static final int READ = 0;
+    static final int FRAME = 1;
+    static final int PARSE = 2;
+    static final int DECODE = 3;
+    static final int MATCH = 4;
+    static final int VISIT = 5;
+    static final int WRITE = 6;
+    static final String[] PHASES = { "read", "frame", "parse", "decode", "match", "visit", "write" };
+    private static final boolean[] SAMPLED = { false, true, true, true, true, true, false };
+
+    static final int SAMPLE_EVERY = 64;
+    private static final int PAGE = 4096;
+    private static final int TOUCH_AHEAD = 1 << 20;
+
+    // handed to visitors when metrics are off: never sampling, and its clock always reads 0
+    static final Recorder OFF = new Recorder(null);
+
+    static final class Recorder {
+        private final ScanMetrics owner;
+        private final long[] nanos = new long[PHASES.length];
+        private final long[] bytes = new long[PHASES.length];
+        private long rows;
+        private long sampledRows;
+        private int sink;
+        // true while the current row is a sampled one; visitors time their phases only then
+        boolean sampling;
+
+        private Recorder(ScanMetrics owner) {
+            this.owner = owner;
+        }
+
+        boolean enabled() {
+            return owner != null;
+        }
+
+        // counts a row and says whether to time it
+        boolean sample() {
+            if (owner == null || (rows++ & (SAMPLE_EVERY - 1)) != 0) {
+                return false;
+            }
+            sampledRows++;
+            return true;
+        }
+
+        // the clock, when this row is being sampled; 0 otherwise
+        long mark() {
+            return sampling ? System.nanoTime() : 0L;
+        }
+
+        // the clock, when metrics are on; 0 otherwise
+        long clock() {
+            return owner != null ? System.nanoTime() : 0L;
+        }
+
+        // adds the time since `since` (a mark() or clock() value) to `phase` and returns the clock
+        long lap(int phase, long since) {
+            return lap(phase, since, 0L);
+        }
+
+        long lap(int phase, long since, long n) {
+            if (since == 0L) {
+                return 0L;
+            }
+            long now = System.nanoTime();
+            nanos[phase] += now - since;
+            bytes[phase] += n;
+            return now;
+        }
+
+        void count(int phase, long n) {
+            bytes[phase] += n;
+        }
+
+        // faults in the pages of buf from `from` up to a megabyte further, timed as read; returns where it stopped
+        int touch(ByteBuffer buf, int from, int limit) {
+            int to = (int) Math.min(limit, (long) from + TOUCH_AHEAD);
+            long t = System.nanoTime();
+            int sink = 0;
+            for (int p = from; p < to; p += PAGE) sink += buf.get(p);
+            if (to > from) sink += buf.get(to - 1);
+            nanos[READ] += System.nanoTime() - t;
+            bytes[READ] += to - from;
+            this.sink += sink;
+            return to;
+        }
+
+        // called by the recording thread when it is done with this recorder
+        void finish() {
+            if (owner != null) owner.threadDone();
+        }
+    }
+
+    private static final class ThreadStats {
+        String name;
+        long baseline;
+        long end;
+    }
+
+    private final String command;
+    private final String format;
+    private final List<Recorder> recorders = new ArrayList<>();
+    private final Map<Long, ThreadStats> threads = new LinkedHashMap<>();
+    private final long startNanos;
+    private final long gcCount;
+    private final long gcMillis;
+    private long elapsedNanos = -1L;
+    private long gcCountDelta;
+    private long gcMillisDelta;
+
+    private ScanMetrics(String command, String format) {
+        this.command = command;
+        this.format = format;
+        long[] gc = gc();
+        this.gcCount = gc[0];
+        this.gcMillis = gc[1];
+        threadDone();
+        this.startNanos = System.nanoTime();
+    }
+
+    // null when `format` is null, so callers can hand the result straight to scanners
+    static ScanMetrics start(String command, String format) {
+        if (format == null) {
+            return null;
+        }
+        checkFormat(format);
+        return new ScanMetrics(command, format);
+    }
+
+    static void checkFormat(String format) {
+        if (!format.equals("json") && !format.equals("prometheus")) {
+            throw new IllegalArgumentException("--metrics must be json or prometheus, not " + format);
+        }
+    }
+
+    synchronized Recorder recorder() {
+        Recorder r = new Recorder(this);
+        recorders.add(r);
+        threadDone();
+        return r;
+    }
+
+    void stop() {
+        threadDone();
+        long[] gc = gc();
+        gcCountDelta = gc[0] - gcCount;
+        gcMillisDelta = gc[1] - gcMillis;
+        elapsedNanos = System.nanoTime() - startNanos;
+    }
+
+    // the first call from a thread fixes its allocation baseline; later calls move its end mark
+    private synchronized void threadDone() {
+        long id = Thread.currentThread().getId();
+        long allocated = allocated(id);
+        ThreadStats s = threads.get(id);
+        if (s == null) {
+            s = new ThreadStats();
+            s.name = Thread.currentThread().getName();
+            s.baseline = allocated;
+            threads.put(id, s);
+        }
+        s.end = allocated;
+    }
+
+    void print(PrintStream out) {
+        if (elapsedNanos < 0) stop();
+        out.print(format.equals("json") ? json() + "\n" : prometheus());
+    }
+
+    synchronized String json() {
+        long[][] totals = totals();
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("command", command);
+        m.put("elapsed_ms", round(elapsedNanos / 1e6));
+        m.put("rows", totals[2][0]);
+        m.put("sampled_rows", totals[2][1]);
+        m.put("sample_every", SAMPLE_EVERY);
+        Map<String, Object> phases = new LinkedHashMap<>();
+        for (int p = 0; p < PHASES.length; p++) {
+            Map<String, Object> phase = new LinkedHashMap<>();
+            phase.put("ms", round(totals[0][p] / 1e6));
+            phase.put("bytes", totals[1][p]);
+            phase.put("sampled", SAMPLED[p]);
+            phases.put(PHASES[p], phase);
+        }
+        m.put("phases", phases);
+        Map<String, Object> alloc = new LinkedHashMap<>();
+        long all = 0L;
+        for (ThreadStats s : threads.values()) {
+            long n = Math.max(0L, s.end - s.baseline);
+            alloc.merge(s.name, n, (a, b) -> (Long) a + (Long) b);
+            all += n;
+        }
+        m.put("alloc_bytes", all);
+        m.put("thread_alloc_bytes", alloc);
+        Map<String, Object> gc = new LinkedHashMap<>();
+        gc.put("collections", gcCountDelta);
+        gc.put("ms", gcMillisDelta);
+        m.put("gc", gc);
+        return Json.write(m);
+    }
+
+    synchronized String prometheus() {
+        long[][] totals = totals();
+        String cmd = "command=\"" + command + "\"";
+        StringBuilder sb = new StringBuilder();
+        help(sb, "filesearch_elapsed_seconds", "gauge", "Wall time of the command.");
+        sb.append("filesearch_elapsed_seconds{").append(cmd).append("} ").append(seconds(elapsedNanos)).append('\n');
+        help(sb, "filesearch_rows_total", "counter", "Rows scanned.");
+        sb.append("filesearch_rows_total{").append(cmd).append("} ").append(totals[2][0]).append('\n');
+        help(sb, "filesearch_sampled_rows_total", "counter", "Rows whose per-row phases were timed.");
+        sb.append("filesearch_sampled_rows_total{").append(cmd).append("} ").append(totals[2][1]).append('\n');
+        help(sb, "filesearch_phase_seconds", "counter", "Time per phase; sampled phases are scaled to all rows.");
+        for (int p = 0; p < PHASES.length; p++) {
+            sb.append("filesearch_phase_seconds{").append(cmd).append(",phase=\"").append(PHASES[p])
+                    .append("\",sampled=\"").append(SAMPLED[p]).append("\"} ").append(seconds(totals[0][p])).append('\n');
+        }
+        help(sb, "filesearch_phase_bytes_total", "counter", "Bytes handled per phase.");
+        for (int p = 0; p < PHASES.length; p++) {
+            sb.append("filesearch_phase_bytes_total{").append(cmd).append(",phase=\"").append(PHASES[p]).append("\"} ")
+                    .append(totals[1][p]).append('\n');
+        }
+        help(sb, "filesearch_allocated_bytes_total", "counter", "Heap bytes allocated, per thread.");
+        for (ThreadStats s : threads.values()) {
+            sb.append("filesearch_allocated_bytes_total{").append(cmd).append(",thread=\"")
+                    .append(s.name.replace("\\", "\\\\").replace("\"", "\\\"")).append("\"} ")
+                    .append(Math.max(0L, s.end - s.baseline)).append('\n');
+        }
+        help(sb, "filesearch_gc_collections_total", "counter", "Garbage collections during the command.");
+        sb.append("filesearch_gc_collections_total{").append(cmd).append("} ").append(gcCountDelta).append('\n');
+        help(sb, "filesearch_gc_seconds", "counter", "Time the collectors reported during the command.");
+        sb.append("filesearch_gc_seconds{").append(cmd).append("} ").append(seconds(gcMillisDelta * 1_000_000L)).append('\n');
+        return sb.toString();
+    }
+
+    // {scaled nanos per phase}, {bytes per phase}, {rows, sampled rows}
+    private long[][] totals() {
+        long[] nanos = new long[PHASES.length];
+        long[] bytes = new long[PHASES.length];
+        long rows = 0L;
+        long sampled = 0L;
+        for (Recorder r : recorders) {
+            for (int p = 0; p < PHASES.length; p++) {
+                nanos[p] += SAMPLED[p] && r.sampledRows > 0
+                        ? (long) (r.nanos[p] * (r.rows / (double) r.sampledRows)) : r.nanos[p];
+                bytes[p] += r.bytes[p];
+            }
+            rows += r.rows;
+            sampled += r.sampledRows;
+        }
+        return new long[][] { nanos, bytes, { rows, sampled } };
+    }
+
+    private static void help(StringBuilder sb, String name, String type, String text) {
+        sb.append("# HELP ").append(name).append(' ').append(text).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.6f", nanos / 1e9);
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 1000.0) / 1000.0;
+    }
+
+    private static long allocated(long threadId) {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return Math.max(0L, ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(threadId));
+        }
+        return 0L;
+    }
+
+    private static long[] gc() {
+        long count = 0L;
+        long millis = 0L;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0L, gc.getCollectionCount());
+            millis += Math.max(0L, gc.getCollectionTime());
+        }
+        return new long[] { count, millis };
+    }
+}
@@ -0,0 +1,372 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+
+final class SortedNameIndex implements Closeable {
+
+    private static final int MAGIC = 0x4E495831;
+    private static final int VERSION = 1;
+    private static final int BLOCK_SIZE = 4096;
+    private static final int MAX_KEY = BLOCK_SIZE - 4 - 2 - 8;
+    private static final long WINDOW = 1L << 30;
+    private static final int FOOTER = 12;
+
+    static final class BuildStats {
+        long entries;
+        int blocks;
+        long bytes;
+    }
+
+    private final FileChannel channel;
+    private final String column;
+    private final int columnIndex;
+    private final long entries;
+    private final byte[][] firstKeys;
+    private final MappedByteBuffer[] windows;
+
+    private SortedNameIndex(FileChannel channel, DataInputStream in) throws IOException {
+        this.channel = channel;
+        this.column = in.readUTF();
+        this.columnIndex = in.readInt();
+        this.entries = in.readLong();
+        int blocks = in.readInt();
+        this.firstKeys = new byte[blocks][];
+        for (int b = 0; b < blocks; b++) {
+            byte[] key = new byte[in.readUnsignedShort()];
+            in.readFully(key);
+            firstKeys[b] = key;
+        }
+        this.windows = new MappedByteBuffer[(int) ((blocks * (long) BLOCK_SIZE + WINDOW - 1) / WINDOW)];
+    }
+
+    static String defaultPath(String csvFile) {
+        return csvFile + ".nidx";
+    }
+
+
+
+
+    static BuildStats build(String csvFile, String column, String indexFile) throws IOException {
+        FileFingerprint fingerprint = FileFingerprint.of(csvFile);
+        Collector keys;
+        int colIdx;
+        try (ChunkedCsvScanner scanner = ChunkedCsvScanner.open(csvFile)) {
+            colIdx = columnIndex(scanner.header(), column);
+            keys = new Collector(colIdx);
+            scanner.scan(1, null, () -> keys, null);
+        }
+
+        int[] order = new int[keys.count];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        keys.sort(order);
+
+        BuildStats stats = new BuildStats();
+        ByteArrayOutputStream top = new ByteArrayOutputStream(1 << 16);
+        DataOutputStream topOut = new DataOutputStream(top);
+        File target = new File(indexFile);
+        File tmp = new File(target.getAbsolutePath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 20))) {
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+            int inBlock = 0;
+            block.putInt(0);
+            for (int id : order) {
+                int len = keys.length(id);
+                if (block.remaining() < 2 + len + 8) {
+                    block.putInt(0, inBlock);
+                    out.write(block.array());
+                    stats.blocks++;
+                    block.clear();
+                    Arrays.fill(block.array(), (byte) 0);
+                    block.putInt(0);
+                    inBlock = 0;
+                }
+                if (inBlock == 0) {
+                    topOut.writeShort(len);
+                    topOut.write(keys.arena, keys.start(id), len);
+                }
+                block.putShort((short) len);
+                block.put(keys.arena, keys.start(id), len);
+                block.putLong(keys.rows[id]);
+                inBlock++;
+                stats.entries++;
+            }
+            if (inBlock > 0) {
+                block.putInt(0, inBlock);
+                out.write(block.array());
+                stats.blocks++;
+            }
+            topOut.flush();
+
+            long topStart = (long) stats.blocks * BLOCK_SIZE;
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            fingerprint.write(out);
+            out.writeUTF(column);
+            out.writeInt(colIdx);
+            out.writeLong(stats.entries);
+            out.writeInt(stats.blocks);
+            top.writeTo(out);
+            out.writeLong(topStart);
+            out.writeInt(MAGIC);
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        stats.bytes = target.length();
+        return stats;
+    }
+
+    static SortedNameIndex open(String indexFile, String csvFile) throws IOException {
+        FileChannel ch = FileChannel.open(Paths.get(indexFile), StandardOpenOption.READ);
+        try {
+            long size = ch.size();
+            if (size < FOOTER) {
+                throw new IllegalStateException("Not a name index: " + indexFile);
+            }
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER);
+            readFully(ch, footer, size - FOOTER);
+            long topStart = footer.getLong(0);
+            if (footer.getInt(8) != MAGIC || topStart < 0 || topStart > size - FOOTER) {
+                throw new IllegalStateException("Not a name index: " + indexFile);
+            }
+            ByteBuffer top = ByteBuffer.allocate((int) (size - FOOTER - topStart));
+            readFully(ch, top, topStart);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(top.array()));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalStateException("Not a name index: " + indexFile);
+            }
+            FileFingerprint.read(in).requireMatch("Index " + indexFile, csvFile, "build-name-index");
+            return new SortedNameIndex(ch, in);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    String column() {
+        return column;
+    }
+
+    int columnIndex() {
+        return columnIndex;
+    }
+
+    long entries() {
+        return entries;
+    }
+
+    long lookup(String value, boolean prefix, LongConsumer onRow) throws IOException {
+        byte[] key = value.getBytes(StandardCharsets.UTF_8);
+        int lo = 0;
+        int hi = firstKeys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Arrays.compareUnsigned(firstKeys[mid], key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        long hits = 0L;
+        byte[] entry = new byte[MAX_KEY];
+        for (int b = Math.max(0, lo - 1); b < firstKeys.length; b++) {
+            ByteBuffer block = block(b);
+            int n = block.getInt(0);
+            int p = 4;
+            for (int e = 0; e < n; e++) {
+                int len = block.getShort(p) & 0xFFFF;
+                block.get(p + 2, entry, 0, len);
+                long row = block.getLong(p + 2 + len);
+                p += 2 + len + 8;
+                int cmp;
+                if (prefix && len >= key.length
+                        && Arrays.equals(entry, 0, key.length, key, 0, key.length)) {
+                    cmp = 0;
+                } else {
+                    cmp = Arrays.compareUnsigned(entry, 0, len, key, 0, key.length);
+                }
+                if (cmp < 0) continue;
+                if (cmp > 0) return hits;
+                hits++;
+                if (onRow != null) onRow.accept(row);
+            }
+        }
+        return hits;
+    }
+
+    // lookup() against the merged view of `rows`: index hits on rows replaced by its delta log are dropped
+    // and the logged rows are matched directly, after the indexed ones
+    long lookup(String value, boolean prefix, ChunkedCsvScanner rows, LongConsumer onRow) throws IOException {
+        long[] logged = rows.overlaidRows();
+        if (logged.length == 0) {
+            return lookup(value, prefix, onRow);
+        }
+        long[] hits = new long[1];
+        lookup(value, prefix, row -> {
+            if (Arrays.binarySearch(logged, row) < 0) {
+                hits[0]++;
+                if (onRow != null) onRow.accept(row);
+            }
+        });
+        CsvTokenizer t = new CsvTokenizer();
+        for (long row : logged) {
+            ByteBuffer record = rows.readRecord(row);
+            if (t.tokenize(record, 0, record.limit(), columnIndex) <= columnIndex) {
+                continue;
+            }
+            String name = t.fieldString(columnIndex);
+            if (prefix ? name.startsWith(value) : name.equals(value)) {
+                hits[0]++;
+                if (onRow != null) onRow.accept(row);
+            }
+        }
+        return hits[0];
+    }
+
+    private ByteBuffer block(int b) throws IOException {
+        long pos = (long) b * BLOCK_SIZE;
+        int w = (int) (pos / WINDOW);
+        if (windows[w] == null) {
+            long start = w * WINDOW;
+            long len = Math.min(WINDOW, (long) firstKeys.length * BLOCK_SIZE - start);
+            windows[w] = channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+        }
+        return windows[w].slice((int) (pos - w * WINDOW), BLOCK_SIZE);
+    }
+
+    private static int columnIndex(String header, String column) {
+        if (header == null) {
+            throw new IllegalStateException("Empty file. Nothing to index.");
+        }
+        CsvTokenizer cols = new CsvTokenizer();
+        cols.tokenize(header, -1);
+        for (int i = 0; i < cols.count(); i++) {
+            if (column.equalsIgnoreCase(cols.fieldString(i))) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Cannot find '" + column + "' column in header: " + header);
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, pos + buf.position()) < 0) {
+                throw new IOException("Unexpected end of index file");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+
+
+
+    private static final class Collector implements ChunkedCsvScanner.RowVisitor {
+        private final int column;
+        private final CsvTokenizer tokenizer = new CsvTokenizer();
+        private byte[] arena = new byte[1 << 20];
+        private int used;
+        private int[] starts = new int[1 << 16];
+        private long[] rows = new long[1 << 16];
+        private int count;
+        private long base;
+
+        Collector(int column) {
+            this.column = column;
+        }
+
+        @Override
+        public void window(long fileOffset) {
+            base = fileOffset;
+        }
+
+        @Override
+        public boolean visit(ByteBuffer buf, int start, int end) {
+            if (tokenizer.tokenize(buf, start, end, column) <= column) {
+                return false;
+            }
+            byte[] value = null;
+            int len;
+            if (tokenizer.needsUnescape(column)) {
+                value = tokenizer.fieldString(column).getBytes(StandardCharsets.UTF_8);
+                len = value.length;
+            } else {
+                len = tokenizer.end(column) - tokenizer.start(column);
+            }
+            if (len > MAX_KEY) {
+                throw new IllegalStateException("Value at offset " + (base + start) + " is longer than " + MAX_KEY + " bytes");
+            }
+            if (count + 1 >= starts.length) {
+                starts = Arrays.copyOf(starts, starts.length * 2);
+                rows = Arrays.copyOf(rows, rows.length * 2);
+            }
+            if ((long) used + len > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Too many key bytes for an in-memory index build");
+            }
+            if (used + len > arena.length) {
+                arena = Arrays.copyOf(arena, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(arena.length * 2L, used + len)));
+            }
+            if (value != null) {
+                System.arraycopy(value, 0, arena, used, len);
+            } else {
+                buf.get(tokenizer.start(column), arena, used, len);
+            }
+            starts[count] = used;
+            rows[count] = base + start;
+            used += len;
+            count++;
+            starts[count] = used;
+            return false;
+        }
+
+        int start(int id) {
+            return starts[id];
+        }
+
+        int length(int id) {
+            return starts[id + 1] - starts[id];
+        }
+
+        void sort(int[] order) {
+            int[] tmp = new int[order.length];
+            for (int width = 1; width < order.length; width *= 2) {
+                for (int lo = 0; lo < order.length; lo += 2 * width) {
+                    int mid = Math.min(lo + width, order.length);
+                    int hi = Math.min(lo + 2 * width, order.length);
+                    int i = lo;
+                    int j = mid;
+                    int k = lo;
+                    while (i < mid && j < hi) {
+                        tmp[k++] = compare(order[i], order[j]) <= 0 ? order[i++] : order[j++];
+                    }
+                    while (i < mid) tmp[k++] = order[i++];
+                    while (j < hi) tmp[k++] = order[j++];
+                }
+                System.arraycopy(tmp, 0, order, 0, order.length);
+            }
+        }
+
+        private int compare(int a, int b) {
+            int c = Arrays.compareUnsigned(arena, start(a), start(a) + length(a), arena, start(b), start(b) + length(b));
+            return c != 0 ? c : Long.compare(rows[a], rows[b]);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+import java.nio.ByteBuffer;
+
+
+// One string column held off the heap: the UTF-8 bytes of every value back to back in a single direct
+// buffer, with value r at [start(r), end(r)). Compared with a String per value this drops the
+// object and array headers (~40 bytes) and the UTF-16 doubling of non-Latin-1 text, and the values can be
+// matched in place. The buffer is only read with absolute gets once filled, so readers can share it.
+final class StringArena {
+
+    private final ByteBuffer data;
+    private final int[] offsets;
+    private int rows;
+
+    StringArena(long bytes, int rows, String column) {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Column '" + column + "' holds " + bytes
+                    + " bytes of text, more than one arena can address; use convert for the columnar format instead");
+        }
+        this.data = ByteBuffer.allocateDirect((int) bytes);
+        this.offsets = new int[rows + 1];
+    }
+
+    void add(ByteBuffer src, int from, int to) {
+        int at = offsets[rows];
+        data.put(at, src, from, to - from);
+        offsets[++rows] = at + (to - from);
+    }
+
+    void add(byte[] value) {
+        int at = offsets[rows];
+        data.put(at, value);
+        offsets[++rows] = at + value.length;
+    }
+
+    int rows() {
+        return rows;
+    }
+
+    ByteBuffer data() {
+        return data;
+    }
+
+    int start(int row) {
+        return offsets[row];
+    }
+
+    int end(int row) {
+        return offsets[row + 1];
+    }
+
+    String get(int row) {
+        return ChunkedCsvScanner.decode(data, offsets[row], offsets[row + 1]);
+    }
+
+    long offHeapBytes() {
+        return data.capacity();
+    }
+
+    long offsetBytes() {
+        return 4L * offsets.length;
+    }
+}
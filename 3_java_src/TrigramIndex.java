@@ -0,0 +1,502 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+
+final class TrigramIndex implements Closeable {
+
+    private static final int MAGIC = 0x54524931;
+    private static final int VERSION = 2;
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+    // (trigram, row) pairs sorted in memory before a run is spilled: 64 MiB of longs
+    private static final int RUN_PAIRS = 1 << 23;
+
+    static final class BuildStats {
+        long rows;
+        long postings;
+        int trigrams;
+        long bytes;
+    }
+
+    private final FileChannel channel;
+    private final String column;
+    private final int columnIndex;
+    private final long rows;
+    private final int[] keys;
+    private final int[] counts;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final long postingsStart;
+
+    private TrigramIndex(FileChannel channel, DataInputStream in, DataInputStream dir, long postingsStart) throws IOException {
+        this.channel = channel;
+        this.column = in.readUTF();
+        this.columnIndex = in.readInt();
+        this.rows = in.readLong();
+        int n = dir.readInt();
+        this.keys = new int[n];
+        this.counts = new int[n];
+        this.offsets = new long[n];
+        this.lengths = new int[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = dir.readInt();
+            counts[i] = dir.readInt();
+            offsets[i] = dir.readLong();
+            lengths[i] = dir.readInt();
+        }
+        this.postingsStart = postingsStart;
+    }
+
+    static String defaultPath(String csvFile) {
+        return csvFile + ".tri";
+    }
+
+
+
+
+    // The (trigram, row offset) pairs are sorted in runs of RUN_PAIRS that are spilled next to the index,
+    // then merged while the postings are written straight into it. The directory follows the postings:
+    // header length, header, postings, directory, directory offset, MAGIC.
+    static BuildStats build(String csvFile, String column, String indexFile) throws IOException {
+        BuildStats stats = new BuildStats();
+        FileFingerprint fingerprint = FileFingerprint.of(csvFile);
+        File target = new File(indexFile);
+        File tmp = new File(target.getAbsolutePath() + ".tmp");
+        int colIdx;
+        int trigrams = 0;
+        Collector collector = null;
+        try {
+            try (ChunkedCsvScanner scanner = ChunkedCsvScanner.open(csvFile)) {
+                long size = scanner.size();
+                colIdx = columnIndex(scanner.header(), column);
+                if (size >= (1L << OFFSET_BITS)) {
+                    throw new IllegalStateException("CSV is too large for a trigram index: " + size + " bytes");
+                }
+                Collector c = new Collector(colIdx, target.getAbsoluteFile().getParentFile());
+                collector = c;
+                ChunkedCsvScanner.Result r = scanner.scan(1, null, () -> c, null);
+                stats.rows = r.scanned;
+            }
+
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(headerBytes);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            fingerprint.write(header);
+            header.writeUTF(column);
+            header.writeInt(colIdx);
+            header.writeLong(stats.rows);
+            header.flush();
+
+            ByteArrayOutputStream dirBytes = new ByteArrayOutputStream(1 << 16);
+            DataOutputStream dir = new DataOutputStream(dirBytes);
+            long postings = 0L;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 20));
+                 Merge pairs = new Merge(collector.runs())) {
+                out.writeInt(headerBytes.size());
+                headerBytes.writeTo(out);
+                while (pairs.hasNext()) {
+                    int key = (int) (pairs.peek() >>> OFFSET_BITS);
+                    long postingStart = postings;
+                    int count = 0;
+                    long prev = 0L;
+                    long last = -1L;
+                    while (pairs.hasNext() && (int) (pairs.peek() >>> OFFSET_BITS) == key) {
+                        long off = pairs.next() & OFFSET_MASK;
+                        if (off != last) {
+                            postings += writeVarLong(out, off - prev);
+                            prev = off;
+                            last = off;
+                            count++;
+                        }
+                    }
+                    dir.writeInt(key);
+                    dir.writeInt(count);
+                    dir.writeLong(postingStart);
+                    dir.writeInt((int) (postings - postingStart));
+                    stats.postings += count;
+                    trigrams++;
+                }
+                out.writeInt(trigrams);
+                dir.flush();
+                dirBytes.writeTo(out);
+                out.writeLong(4L + headerBytes.size() + postings);
+                out.writeInt(MAGIC);
+            }
+        } catch (IOException | RuntimeException e) {
+            tmp.delete();
+            throw e;
+        } finally {
+            if (collector != null) collector.deleteRuns();
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        stats.trigrams = trigrams;
+        stats.bytes = target.length();
+        return stats;
+    }
+
+    static TrigramIndex open(String indexFile, String csvFile) throws IOException {
+        FileChannel ch = FileChannel.open(Paths.get(indexFile), StandardOpenOption.READ);
+        try {
+            ByteBuffer len = ByteBuffer.allocate(4);
+            readFully(ch, len, 0L);
+            int headerLen = len.getInt(0);
+            ByteBuffer header = ByteBuffer.allocate(headerLen);
+            readFully(ch, header, 4L);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(header.array()));
+            if (in.readInt() != MAGIC) {
+                throw new IllegalStateException("Not a trigram index: " + indexFile);
+            }
+            if (in.readInt() != VERSION) {
+                throw new IllegalStateException("Index " + indexFile + " has an older format; rebuild it with build-index");
+            }
+            FileFingerprint.read(in).requireMatch("Index " + indexFile, csvFile, "build-index");
+            ByteBuffer trailer = ByteBuffer.allocate(12);
+            readFully(ch, trailer, ch.size() - 12L);
+            long dirStart = trailer.getLong(0);
+            if (trailer.getInt(8) != MAGIC || dirStart < 4L + headerLen || dirStart > ch.size() - 12L) {
+                throw new IllegalStateException("Truncated trigram index: " + indexFile);
+            }
+            ByteBuffer dir = ByteBuffer.allocate((int) (ch.size() - 12L - dirStart));
+            readFully(ch, dir, dirStart);
+            return new TrigramIndex(ch, in, new DataInputStream(new ByteArrayInputStream(dir.array())), 4L + headerLen);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    String column() {
+        return column;
+    }
+
+    int columnIndex() {
+        return columnIndex;
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    long[] candidates(String keyword, boolean caseSensitive) throws IOException {
+        String probe = caseSensitive ? keyword : keyword.toLowerCase();
+        byte[] b = probe.getBytes(StandardCharsets.UTF_8);
+        if (b.length < 3) {
+            return null;
+        }
+        int[] grams = new int[b.length - 2];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = trigram(b, i);
+        }
+        Arrays.sort(grams);
+        int[] slots = new int[grams.length];
+        int distinct = 0;
+        for (int i = 0; i < grams.length; i++) {
+            if (i > 0 && grams[i] == grams[i - 1]) continue;
+            int slot = Arrays.binarySearch(keys, grams[i]);
+            if (slot < 0) {
+                return new long[0];
+            }
+            slots[distinct++] = slot;
+        }
+        Integer[] order = new Integer[distinct];
+        for (int i = 0; i < distinct; i++) order[i] = slots[i];
+        Arrays.sort(order, (x, y) -> Integer.compare(counts[x], counts[y]));
+
+        long[] result = decode(order[0]);
+        for (int i = 1; i < distinct && result.length > 0; i++) {
+            result = intersect(result, decode(order[i]));
+        }
+        return result;
+    }
+
+    private long[] decode(int slot) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(lengths[slot]);
+        readFully(channel, buf, postingsStart + offsets[slot]);
+        long[] out = new long[counts[slot]];
+        long prev = 0L;
+        int p = 0;
+        for (int i = 0; i < out.length; i++) {
+            long v = 0L;
+            int shift = 0;
+            byte x;
+            do {
+                x = buf.get(p++);
+                v |= (long) (x & 0x7F) << shift;
+                shift += 7;
+            } while (x < 0);
+            prev += v;
+            out[i] = prev;
+        }
+        return out;
+    }
+
+    private static long[] intersect(long[] a, long[] b) {
+        long[] out = new long[Math.min(a.length, b.length)];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int trigram(byte[] b, int i) {
+        return (fold(b[i]) << 16) | (fold(b[i + 1]) << 8) | fold(b[i + 2]);
+    }
+
+    private static int fold(byte b) {
+        int c = b & 0xFF;
+        return (c >= 'A' && c <= 'Z') ? c + 32 : c;
+    }
+
+    private static int columnIndex(String header, String column) {
+        if (header == null) {
+            throw new IllegalStateException("Empty file. Nothing to index.");
+        }
+        CsvTokenizer cols = new CsvTokenizer();
+        cols.tokenize(header, -1);
+        for (int i = 0; i < cols.count(); i++) {
+            if (column.equalsIgnoreCase(cols.fieldString(i))) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Cannot find '" + column + "' column in header: " + header);
+    }
+
+    // returns the number of bytes written
+    private static int writeVarLong(OutputStream out, long v) throws IOException {
+        int n = 1;
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+            n++;
+        }
+        out.write((int) v);
+        return n;
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos + buf.position());
+            if (n < 0) {
+                throw new IOException("Unexpected end of index file");
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+
+
+
+    private static final class Collector implements ChunkedCsvScanner.RowVisitor {
+        private final int column;
+        private final CsvTokenizer tokenizer = new CsvTokenizer();
+        private final boolean foldExact = KeywordMatcher.asciiFoldingExact();
+        private final File spillDir;
+        private final List<File> runs = new ArrayList<>();
+        private final List<Integer> runLengths = new ArrayList<>();
+        private long[] pairs = new long[1 << 20];
+        private int count;
+        private long base;
+        private byte[] scratch = new byte[256];
+
+        Collector(int column, File spillDir) {
+            this.column = column;
+            this.spillDir = spillDir;
+        }
+
+        @Override
+        public void window(long fileOffset) {
+            base = fileOffset;
+        }
+
+        @Override
+        public boolean visit(ByteBuffer buf, int start, int end) {
+            if (tokenizer.tokenize(buf, start, end, column) <= column) {
+                return false;
+            }
+            long row = base + start;
+            byte[] value;
+            int len;
+            boolean nonAscii = false;
+            if (tokenizer.needsUnescape(column)) {
+                value = tokenizer.fieldString(column).getBytes(StandardCharsets.UTF_8);
+                len = value.length;
+            } else {
+                len = tokenizer.end(column) - tokenizer.start(column);
+                if (scratch.length < len) scratch = new byte[len * 2];
+                buf.get(tokenizer.start(column), scratch, 0, len);
+                value = scratch;
+            }
+            for (int i = 0; i < len; i++) {
+                if (value[i] < 0) {
+                    nonAscii = true;
+                    break;
+                }
+            }
+            add(value, len, row);
+            if (nonAscii || !foldExact) {
+                // case-insensitive probes use String.toLowerCase(), which can differ from ASCII folding
+                byte[] lower = new String(value, 0, len, StandardCharsets.UTF_8).toLowerCase().getBytes(StandardCharsets.UTF_8);
+                add(lower, lower.length, row);
+            }
+            return false;
+        }
+
+        private void add(byte[] value, int len, long row) {
+            for (int i = 0; i + 2 < len; i++) {
+                if (count == pairs.length) {
+                    if (count < RUN_PAIRS) {
+                        pairs = Arrays.copyOf(pairs, Math.min(RUN_PAIRS, pairs.length * 2));
+                    } else {
+                        spill();
+                    }
+                }
+                pairs[count++] = ((long) trigram(value, i) << OFFSET_BITS) | row;
+            }
+        }
+
+        // keys use all 24 bits, so flip the sign bit to make the signed sort order the unsigned one; the
+        // runs keep the flipped values and Merge flips them back
+        private void sort() {
+            for (int k = 0; k < count; k++) pairs[k] ^= Long.MIN_VALUE;
+            Arrays.parallelSort(pairs, 0, count);
+        }
+
+        private void spill() {
+            sort();
+            try {
+                File run = File.createTempFile("trigram-run-", ".tmp", spillDir);
+                run.deleteOnExit();
+                runs.add(run);
+                int n = 0;
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 20))) {
+                    for (int k = 0; k < count; k++) {
+                        if (k > 0 && pairs[k] == pairs[k - 1]) continue;
+                        out.writeLong(pairs[k]);
+                        n++;
+                    }
+                }
+                runLengths.add(n);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            count = 0;
+        }
+
+        // the spilled runs plus the pairs still in memory, each sorted
+        List<Run> runs() throws IOException {
+            sort();
+            List<Run> all = new ArrayList<>(runs.size() + 1);
+            for (int r = 0; r < runs.size(); r++) {
+                all.add(new Run(new DataInputStream(new BufferedInputStream(new FileInputStream(runs.get(r)), 1 << 16)),
+                        null, runLengths.get(r)));
+            }
+            all.add(new Run(null, pairs, count));
+            return all;
+        }
+
+        void deleteRuns() {
+            for (File run : runs) run.delete();
+        }
+    }
+
+    // one sorted run of sign-flipped pairs, read from a spill file or from memory
+    private static final class Run {
+        private final DataInputStream in;
+        private final long[] pairs;
+        private int left;
+        private int at;
+        long head;
+
+        Run(DataInputStream in, long[] pairs, int length) {
+            this.in = in;
+            this.pairs = pairs;
+            this.left = length;
+        }
+
+        // false at the end of the run
+        boolean advance() throws IOException {
+            if (left == 0) {
+                return false;
+            }
+            left--;
+            head = in != null ? in.readLong() : pairs[at++];
+            return true;
+        }
+
+        void close() throws IOException {
+            if (in != null) in.close();
+        }
+    }
+
+    // Merges sorted runs into one stream of pairs in unsigned order.
+    private static final class Merge implements Closeable {
+        private final PriorityQueue<Run> heads = new PriorityQueue<>(Comparator.comparingLong((Run r) -> r.head));
+        private final List<Run> runs;
+
+        Merge(List<Run> runs) throws IOException {
+            this.runs = runs;
+            for (Run r : runs) {
+                if (r.advance()) heads.add(r);
+            }
+        }
+
+        boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        long peek() {
+            return heads.peek().head ^ Long.MIN_VALUE;
+        }
+
+        long next() throws IOException {
+            Run r = heads.poll();
+            long pair = r.head ^ Long.MIN_VALUE;
+            if (r.advance()) heads.add(r);
+            return pair;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Run r : runs) r.close();
+        }
+    }
+}
@@ -0,0 +1,799 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+
+// A --where filter, parsed and bound to header columns once, then evaluated per row on the tokenized
+// fields without boxing:
+//   expr    := term (OR term)*
+//   term    := factor (AND factor)*
+//   factor  := NOT factor | '(' expr ')' | column test
+//   test    := (= | != | <> | < | <= | > | >=) literal | [NOT] BETWEEN literal AND literal
+//            | [NOT] IN '(' literal (',' literal)* ')' | [NOT] CONTAINS 'text' | IS [NOT] NULL
+// A number literal compares the column as a number (values that are not numbers compare as unknown); a
+// quoted literal compares it as UTF-8 text. Empty fields and \N are NULL. Comparisons with NULL are
+// unknown and AND/OR/NOT follow SQL's three-valued logic, so a row passes only when the whole filter is
+// true. CONTAINS follows --case-sensitive; the other text tests are exact.
+//
+// possible() answers the same question for a zone-map block: which outcomes its min/max and null
+// counts still allow. A block where true is impossible is skipped.
+final class WhereClause {
+
+    static final int FALSE = 0;
+    static final int TRUE = 1;
+    static final int UNKNOWN = 2;
+
+    private static final int EQ = 0;
+    private static final int NE = 1;
+    private static final int LT = 2;
+    private static final int LE = 3;
+    private static final int GT = 4;
+    private static final int GE = 5;
+    private static final String[] OPS = { "=", "!=", "<", "<=", ">", ">=" };
+
+    private static final int MAY_TRUE = 1 << TRUE;
+    private static final int MAY_FALSE = 1 << FALSE;
+    private static final int MAY_UNKNOWN = 1 << UNKNOWN;
+
+    private final Node root;
+    private final String text;
+    private final int lastColumn;
+
+    private WhereClause(Node root, int lastColumn) {
+        this.root = root;
+        this.text = root.toString();
+        this.lastColumn = lastColumn;
+    }
+
+    static WhereClause compile(String expr, String header, boolean caseSensitive) {
+        CsvTokenizer cols = new CsvTokenizer();
+        cols.tokenize(header, -1);
+        String[] names = new String[cols.count()];
+        for (int i = 0; i < names.length; i++) names[i] = cols.fieldString(i);
+        Parser p = new Parser(expr, names, caseSensitive);
+        Node root = p.expr();
+        if (p.peek() != null) {
+            throw p.error("unexpected '" + p.peek() + "'");
+        }
+        return new WhereClause(root, p.lastColumn);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    int lastColumn() {
+        return lastColumn;
+    }
+
+    // a visitor for one scanning thread
+    ChunkedCsvScanner.RowVisitor visitor() {
+        return new Filter(this);
+    }
+
+    // whether any row of zone-map block `block` can pass
+    boolean mayMatch(ZoneMap zones, int block) {
+        return (root.possible(zones, block) & MAY_TRUE) != 0;
+    }
+
+    static final class Filter implements ChunkedCsvScanner.RowVisitor {
+        private final WhereClause where;
+        private final CsvTokenizer tokenizer = new CsvTokenizer();
+        private ScanMetrics.Recorder metrics = ScanMetrics.OFF;
+
+        Filter(WhereClause where) {
+            this.where = where;
+        }
+
+        @Override
+        public boolean metrics(ScanMetrics.Recorder recorder) {
+            metrics = recorder;
+            return true;
+        }
+
+        @Override
+        public boolean visit(ByteBuffer buf, int start, int end) {
+            long t = metrics.mark();
+            tokenizer.tokenize(buf, start, end, where.lastColumn);
+            t = metrics.lap(ScanMetrics.PARSE, t);
+            boolean hit = where.root.eval(buf, tokenizer) == TRUE;
+            metrics.lap(ScanMetrics.MATCH, t);
+            return hit;
+        }
+    }
+
+    // both visitors have to accept the row; `second` only sees rows `first` accepted
+    static ChunkedCsvScanner.RowVisitor both(ChunkedCsvScanner.RowVisitor first, ChunkedCsvScanner.RowVisitor second) {
+        return new ChunkedCsvScanner.RowVisitor() {
+            @Override
+            public boolean visit(ByteBuffer buf, int start, int end) {
+                return first.visit(buf, start, end) && second.visit(buf, start, end);
+            }
+
+            @Override
+            public void window(long fileOffset) {
+                first.window(fileOffset);
+                second.window(fileOffset);
+            }
+
+            @Override
+            public boolean metrics(ScanMetrics.Recorder recorder) {
+                return first.metrics(recorder) & second.metrics(recorder);
+            }
+        };
+    }
+
+    // NaN unless the field is a plain decimal number
+    static double number(ByteBuffer buf, CsvTokenizer t, int column) {
+        if (t.needsUnescape(column)) {
+            return number(t.fieldString(column));
+        }
+        int i = t.start(column);
+        int end = t.end(column);
+        boolean negative = false;
+        if (i < end && (buf.get(i) == '-' || buf.get(i) == '+')) {
+            negative = buf.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0L;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        for (; i < end; i++) {
+            byte b = buf.get(i);
+            if (b >= '0' && b <= '9') {
+                if (mantissa > 1L << 53) break;
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (point) scale++;
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (digits == 0) {
+            return Double.NaN;
+        }
+        if (i < end || mantissa > 1L << 53 || scale > 22) {
+            // past what one division rounds exactly: parse it the way literals are parsed
+            return number(StandardCharsets.UTF_8.decode(buf.slice(t.start(column), end - t.start(column))).toString());
+        }
+        double v = scale == 0 ? mantissa : mantissa / Math.pow(10, scale);
+        return negative ? -v : v;
+    }
+
+    static boolean isNull(ByteBuffer buf, CsvTokenizer t, int column) {
+        int from = t.start(column);
+        int to = t.end(column);
+        return from == to || (to - from == 2 && buf.get(from) == '\\' && buf.get(from + 1) == 'N' && !t.needsUnescape(column));
+    }
+
+    private static double number(String s) {
+        if (s.isEmpty() || !s.matches("[+-]?([0-9]+\\.?[0-9]*|\\.[0-9]+)")) {
+            return Double.NaN;
+        }
+        return Double.parseDouble(s);
+    }
+
+    private abstract static class Node {
+        abstract int eval(ByteBuffer buf, CsvTokenizer t);
+
+        // bit set of the outcomes rows of `block` can have
+        abstract int possible(ZoneMap zones, int block);
+    }
+
+    private abstract static class Leaf extends Node {
+        final int column;
+        final String name;
+
+        Leaf(int column, String name) {
+            this.column = column;
+            this.name = name;
+        }
+
+        @Override
+        int eval(ByteBuffer buf, CsvTokenizer t) {
+            if (column >= t.count() || isNull(buf, t, column)) {
+                return nullResult();
+            }
+            return test(buf, t) ? TRUE : FALSE;
+        }
+
+        int nullResult() {
+            return UNKNOWN;
+        }
+
+        abstract boolean test(ByteBuffer buf, CsvTokenizer t);
+
+        // text tests learn nothing from the zone map but whether the block is all NULL
+        @Override
+        int possible(ZoneMap zones, int block) {
+            long rows = zones.rows(block);
+            long nulls = zones.nulls(block, column);
+            return (nulls < rows ? MAY_TRUE | MAY_FALSE : 0) | (nulls > 0 ? MAY_UNKNOWN : 0);
+        }
+    }
+
+    private abstract static class NumberLeaf extends Leaf {
+        NumberLeaf(int column, String name) {
+            super(column, name);
+        }
+
+        // NULL and values that are not numbers are unknown
+        @Override
+        final int eval(ByteBuffer buf, CsvTokenizer t) {
+            if (column >= t.count()) {
+                return UNKNOWN;
+            }
+            double v = number(buf, t, column);
+            return v != v ? UNKNOWN : test(v) ? TRUE : FALSE;
+        }
+
+        @Override
+        final boolean test(ByteBuffer buf, CsvTokenizer t) {
+            return test(number(buf, t, column));
+        }
+
+        abstract boolean test(double v);
+
+        // whether some value in [min, max] passes, and whether some value fails
+        abstract boolean mayPass(double min, double max);
+
+        abstract boolean mayFail(double min, double max);
+
+        @Override
+        final int possible(ZoneMap zones, int block) {
+            long numeric = zones.numeric(block, column);
+            int out = numeric < zones.rows(block) ? MAY_UNKNOWN : 0;
+            if (numeric > 0) {
+                double min = zones.min(block, column);
+                double max = zones.max(block, column);
+                if (mayPass(min, max)) out |= MAY_TRUE;
+                if (mayFail(min, max)) out |= MAY_FALSE;
+            }
+            return out;
+        }
+    }
+
+    private static final class Compare extends NumberLeaf {
+        private final int op;
+        private final double value;
+
+        Compare(int column, String name, int op, double value) {
+            super(column, name);
+            this.op = op;
+            this.value = value;
+        }
+
+        @Override
+        boolean test(double v) {
+            switch (op) {
+                case EQ: return v == value;
+                case NE: return v != value;
+                case LT: return v < value;
+                case LE: return v <= value;
+                case GT: return v > value;
+                default: return v >= value;
+            }
+        }
+
+        @Override
+        boolean mayPass(double min, double max) {
+            switch (op) {
+                case EQ: return min <= value && value <= max;
+                case NE: return min != value || max != value;
+                case LT: return min < value;
+                case LE: return min <= value;
+                case GT: return max > value;
+                default: return max >= value;
+            }
+        }
+
+        @Override
+        boolean mayFail(double min, double max) {
+            switch (op) {
+                case EQ: return min != value || max != value;
+                case NE: return min <= value && value <= max;
+                case LT: return max >= value;
+                case LE: return max > value;
+                case GT: return min <= value;
+                default: return min < value;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + OPS[op] + " " + format(value);
+        }
+    }
+
+    private static final class Between extends NumberLeaf {
+        private final double low;
+        private final double high;
+
+        Between(int column, String name, double low, double high) {
+            super(column, name);
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override
+        boolean test(double v) {
+            return low <= v && v <= high;
+        }
+
+        @Override
+        boolean mayPass(double min, double max) {
+            return max >= low && min <= high;
+        }
+
+        @Override
+        boolean mayFail(double min, double max) {
+            return min < low || max > high;
+        }
+
+        @Override
+        public String toString() {
+            return name + " BETWEEN " + format(low) + " AND " + format(high);
+        }
+    }
+
+    private static final class NumberIn extends NumberLeaf {
+        private final double[] values;
+
+        NumberIn(int column, String name, double[] values) {
+            super(column, name);
+            this.values = values;
+            Arrays.sort(values);
+        }
+
+        @Override
+        boolean test(double v) {
+            return Arrays.binarySearch(values, v) >= 0;
+        }
+
+        @Override
+        boolean mayPass(double min, double max) {
+            int k = Arrays.binarySearch(values, min);
+            if (k >= 0) return true;
+            k = -k - 1;
+            return k < values.length && values[k] <= max;
+        }
+
+        @Override
+        boolean mayFail(double min, double max) {
+            return min != max || !test(min);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(name).append(" IN (");
+            for (int i = 0; i < values.length; i++) sb.append(i == 0 ? "" : ", ").append(format(values[i]));
+            return sb.append(')').toString();
+        }
+    }
+
+    private static final class TextCompare extends Leaf {
+        private final int op;
+        private final byte[] value;
+        private final String literal;
+
+        TextCompare(int column, String name, int op, String literal) {
+            super(column, name);
+            this.op = op;
+            this.literal = literal;
+            this.value = literal.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        boolean test(ByteBuffer buf, CsvTokenizer t) {
+            int c = compare(buf, t, column, value);
+            switch (op) {
+                case EQ: return c == 0;
+                case NE: return c != 0;
+                case LT: return c < 0;
+                case LE: return c <= 0;
+                case GT: return c > 0;
+                default: return c >= 0;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + OPS[op] + " " + quote(literal);
+        }
+    }
+
+    private static final class TextIn extends Leaf {
+        private final byte[][] values;
+        private final List<String> literals;
+
+        TextIn(int column, String name, List<String> literals) {
+            super(column, name);
+            this.literals = literals;
+            this.values = new byte[literals.size()][];
+            for (int i = 0; i < values.length; i++) values[i] = literals.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        boolean test(ByteBuffer buf, CsvTokenizer t) {
+            for (byte[] v : values) {
+                if (compare(buf, t, column, v) == 0) return true;
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(name).append(" IN (");
+            for (int i = 0; i < literals.size(); i++) sb.append(i == 0 ? "" : ", ").append(quote(literals.get(i)));
+            return sb.append(')').toString();
+        }
+    }
+
+    private static final class Contains extends Leaf {
+        private final KeywordMatcher matcher;
+        private final String literal;
+
+        Contains(int column, String name, String literal, boolean caseSensitive) {
+            super(column, name);
+            this.literal = literal;
+            this.matcher = KeywordMatcher.compile(literal, caseSensitive);
+        }
+
+        @Override
+        boolean test(ByteBuffer buf, CsvTokenizer t) {
+            if (t.needsUnescape(column)) {
+                return matcher.containedIn(t.fieldString(column));
+            }
+            return matcher.containedIn(buf, t.start(column), t.end(column));
+        }
+
+        @Override
+        public String toString() {
+            return name + " CONTAINS " + quote(literal);
+        }
+    }
+
+    private static final class IsNull extends Leaf {
+        private final boolean negated;
+
+        IsNull(int column, String name, boolean negated) {
+            super(column, name);
+            this.negated = negated;
+        }
+
+        @Override
+        int nullResult() {
+            return negated ? FALSE : TRUE;
+        }
+
+        @Override
+        boolean test(ByteBuffer buf, CsvTokenizer t) {
+            return negated;
+        }
+
+        @Override
+        int possible(ZoneMap zones, int block) {
+            long rows = zones.rows(block);
+            long nulls = zones.nulls(block, column);
+            int isNull = (nulls > 0 ? MAY_TRUE : 0) | (nulls < rows ? MAY_FALSE : 0);
+            return negated ? flip(isNull) : isNull;
+        }
+
+        @Override
+        public String toString() {
+            return name + (negated ? " IS NOT NULL" : " IS NULL");
+        }
+    }
+
+    private static final class Not extends Node {
+        private final Node inner;
+
+        Not(Node inner) {
+            this.inner = inner;
+        }
+
+        @Override
+        int eval(ByteBuffer buf, CsvTokenizer t) {
+            int v = inner.eval(buf, t);
+            return v == UNKNOWN ? UNKNOWN : v == TRUE ? FALSE : TRUE;
+        }
+
+        @Override
+        int possible(ZoneMap zones, int block) {
+            return flip(inner.possible(zones, block));
+        }
+
+        @Override
+        public String toString() {
+            return "NOT " + (inner instanceof Leaf ? inner.toString() : "(" + inner + ")");
+        }
+    }
+
+    private static final class Logic extends Node {
+        private final boolean and;
+        private final Node left;
+        private final Node right;
+
+        Logic(boolean and, Node left, Node right) {
+            this.and = and;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        int eval(ByteBuffer buf, CsvTokenizer t) {
+            int a = left.eval(buf, t);
+            if (a == (and ? FALSE : TRUE)) {
+                return a;
+            }
+            return combine(a, right.eval(buf, t));
+        }
+
+        private int combine(int a, int b) {
+            if (and) {
+                return a == FALSE || b == FALSE ? FALSE : a == TRUE && b == TRUE ? TRUE : UNKNOWN;
+            }
+            return a == TRUE || b == TRUE ? TRUE : a == FALSE && b == FALSE ? FALSE : UNKNOWN;
+        }
+
+        @Override
+        int possible(ZoneMap zones, int block) {
+            int a = left.possible(zones, block);
+            if (and && (a & (MAY_TRUE | MAY_UNKNOWN)) == 0) {
+                return a;
+            }
+            int b = right.possible(zones, block);
+            int out = 0;
+            for (int x = FALSE; x <= UNKNOWN; x++) {
+                if ((a & (1 << x)) == 0) continue;
+                for (int y = FALSE; y <= UNKNOWN; y++) {
+                    if ((b & (1 << y)) != 0) out |= 1 << combine(x, y);
+                }
+            }
+            return out;
+        }
+
+        @Override
+        public String toString() {
+            return side(left) + (and ? " AND " : " OR ") + side(right);
+        }
+
+        private String side(Node n) {
+            return n instanceof Logic && ((Logic) n).and != and ? "(" + n + ")" : n.toString();
+        }
+    }
+
+    private static int flip(int outcomes) {
+        return (outcomes & MAY_UNKNOWN) | ((outcomes & MAY_TRUE) != 0 ? MAY_FALSE : 0) | ((outcomes & MAY_FALSE) != 0 ? MAY_TRUE : 0);
+    }
+
+    // unsigned byte order of the field against `value`, which for UTF-8 is code point order
+    private static int compare(ByteBuffer buf, CsvTokenizer t, int column, byte[] value) {
+        if (t.needsUnescape(column)) {
+            return Arrays.compareUnsigned(t.fieldString(column).getBytes(StandardCharsets.UTF_8), value);
+        }
+        int from = t.start(column);
+        int len = t.end(column) - from;
+        int n = Math.min(len, value.length);
+        for (int i = 0; i < n; i++) {
+            int c = Integer.compare(buf.get(from + i) & 0xff, value[i] & 0xff);
+            if (c != 0) return c;
+        }
+        return Integer.compare(len, value.length);
+    }
+
+    private static String format(double v) {
+        return v == Math.rint(v) && Math.abs(v) < 1e15 ? Long.toString((long) v) : Double.toString(v);
+    }
+
+    private static String quote(String s) {
+        return "'" + s.replace("'", "''") + "'";
+    }
+
+    private static final class Parser {
+        private final String src;
+        private final String[] columns;
+        private final boolean caseSensitive;
+        private final List<String> tokens = new ArrayList<>();
+        private final List<Integer> positions = new ArrayList<>();
+        // tokens that were quoted literals, so a quoted 'AND' is never read as a keyword
+        private final List<Boolean> quoted = new ArrayList<>();
+        private int next;
+        int lastColumn = -1;
+
+        Parser(String src, String[] columns, boolean caseSensitive) {
+            this.src = src;
+            this.columns = columns;
+            this.caseSensitive = caseSensitive;
+            lex();
+        }
+
+        private void lex() {
+            int i = 0;
+            while (i < src.length()) {
+                char c = src.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '\'' || c == '"') {
+                    StringBuilder sb = new StringBuilder();
+                    int start = i++;
+                    while (true) {
+                        if (i >= src.length()) {
+                            throw new IllegalArgumentException("--where: unterminated string starting at position " + (start + 1));
+                        }
+                        char d = src.charAt(i++);
+                        if (d == c) {
+                            if (i < src.length() && src.charAt(i) == c) {
+                                sb.append(c);
+                                i++;
+                            } else {
+                                break;
+                            }
+                        } else {
+                            sb.append(d);
+                        }
+                    }
+                    add(sb.toString(), start, true);
+                } else if (c == '(' || c == ')' || c == ',' || c == '=') {
+                    add(String.valueOf(c), i++, false);
+                } else if (c == '<' || c == '>' || c == '!') {
+                    int start = i++;
+                    if (i < src.length() && (src.charAt(i) == '=' || (c == '<' && src.charAt(i) == '>'))) i++;
+                    String op = src.substring(start, i);
+                    if (op.equals("!")) {
+                        throw new IllegalArgumentException("--where: expected != at position " + (start + 1));
+                    }
+                    add(op.equals("<>") ? "!=" : op, start, false);
+                } else {
+                    int start = i;
+                    while (i < src.length() && !Character.isWhitespace(src.charAt(i)) && "()',=<>!\"".indexOf(src.charAt(i)) < 0) i++;
+                    add(src.substring(start, i), start, false);
+                }
+            }
+        }
+
+        private void add(String token, int pos, boolean isQuoted) {
+            tokens.add(token);
+            positions.add(pos);
+            quoted.add(isQuoted);
+        }
+
+        String peek() {
+            return next < tokens.size() ? tokens.get(next) : null;
+        }
+
+        private boolean keyword(String k) {
+            if (next < tokens.size() && !quoted.get(next) && tokens.get(next).equalsIgnoreCase(k)) {
+                next++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String k) {
+            if (!keyword(k)) {
+                throw error("expected " + k);
+            }
+        }
+
+        IllegalArgumentException error(String msg) {
+            String at = next < tokens.size() ? " at position " + (positions.get(next) + 1) : " at the end";
+            return new IllegalArgumentException("--where: " + msg + at + " in: " + src);
+        }
+
+        Node expr() {
+            Node n = term();
+            while (keyword("OR")) n = new Logic(false, n, term());
+            return n;
+        }
+
+        private Node term() {
+            Node n = factor();
+            while (keyword("AND")) n = new Logic(true, n, factor());
+            return n;
+        }
+
+        private Node factor() {
+            if (keyword("NOT")) {
+                return new Not(factor());
+            }
+            if (keyword("(")) {
+                Node n = expr();
+                expect(")");
+                return n;
+            }
+            if (peek() == null || quoted.get(next)) {
+                throw error("expected a column name");
+            }
+            String name = tokens.get(next);
+            int column = -1;
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].equalsIgnoreCase(name)) {
+                    column = i;
+                    break;
+                }
+            }
+            if (column < 0) {
+                throw error("unknown column '" + name + "' (columns: " + String.join(", ", columns) + ")");
+            }
+            next++;
+            lastColumn = Math.max(lastColumn, column);
+            name = columns[column];
+            return test(column, name);
+        }
+
+        private Node test(int column, String name) {
+            if (keyword("IS")) {
+                boolean negated = keyword("NOT");
+                expect("NULL");
+                return new IsNull(column, name, negated);
+            }
+            boolean negated = keyword("NOT");
+            Node n;
+            if (keyword("BETWEEN")) {
+                double low = numberLiteral();
+                expect("AND");
+                n = new Between(column, name, low, numberLiteral());
+            } else if (keyword("IN")) {
+                expect("(");
+                List<String> texts = new ArrayList<>();
+                List<Double> numbers = new ArrayList<>();
+                do {
+                    if (peek() != null && quoted.get(next)) texts.add(tokens.get(next++));
+                    else numbers.add(numberLiteral());
+                } while (keyword(","));
+                expect(")");
+                if (!texts.isEmpty() && !numbers.isEmpty()) {
+                    throw error("IN mixes numbers and quoted text");
+                }
+                if (texts.isEmpty()) {
+                    double[] values = new double[numbers.size()];
+                    for (int i = 0; i < values.length; i++) values[i] = numbers.get(i);
+                    n = new NumberIn(column, name, values);
+                } else {
+                    n = new TextIn(column, name, texts);
+                }
+            } else if (keyword("CONTAINS")) {
+                if (peek() == null || !quoted.get(next)) {
+                    throw error("CONTAINS needs a quoted string");
+                }
+                String literal = tokens.get(next++);
+                if (literal.isEmpty()) {
+                    throw error("CONTAINS needs a non-empty string");
+                }
+                n = new Contains(column, name, literal, caseSensitive);
+            } else {
+                if (negated) {
+                    throw error("expected BETWEEN, IN or CONTAINS after NOT");
+                }
+                int op = Arrays.asList(OPS).indexOf(peek());
+                if (op < 0) {
+                    throw error("expected a comparison after column '" + name + "'");
+                }
+                next++;
+                if (peek() != null && quoted.get(next)) {
+                    return new TextCompare(column, name, op, tokens.get(next++));
+                }
+                return new Compare(column, name, op, numberLiteral());
+            }
+            return negated ? new Not(n) : n;
+        }
+
+        private double numberLiteral() {
+            String s = peek();
+            double v = s == null || quoted.get(next) ? Double.NaN : number(s.toLowerCase(Locale.ROOT));
+            if (v != v) {
+                throw error("expected a number");
+            }
+            next++;
+            return v;
+        }
+    }
+}
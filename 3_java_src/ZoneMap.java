@@ -0,0 +1,302 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+
+// Per-block column statistics of a CSV file, kept in a <file>.zmap sidecar. The data rows are cut into
+// row-aligned blocks of about `blockSize` bytes, and for every block and column it records how many
+// values are NULL (empty or \N), how many are numbers, and the smallest and largest number. A --where
+// filter asks each block whether any of its rows can pass and only the blocks that can are read.
+// Text values are not summarized, so text tests only skip blocks where the column is entirely NULL.
+final class ZoneMap {
+
+    private static final int MAGIC = 0x5A4D4150;
+    private static final int VERSION = 1;
+    static final int DEFAULT_BLOCK_SIZE = 64 << 10;
+    static final int MIN_BLOCK_SIZE = 4 << 10;
+    private static final long MIN_RANGE = 1L << 20;
+
+    static final class BuildStats {
+        long rows;
+        int blocks;
+        int columns;
+        long bytes;
+    }
+
+    // what a filter leaves to read: [from, to) pairs, row-aligned and in file order
+    static final class Selection {
+        long[] ranges;
+        int keptBlocks;
+        int blocks;
+        long keptBytes;
+        long bytes;
+    }
+
+    private final String[] columns;
+    private final int blockSize;
+    // starts[b] is block b's first byte; starts[blocks] is the end of the data
+    private final long[] starts;
+    private final long[] rows;
+    // indexed [block * columns + column]
+    private final long[] nulls;
+    private final long[] numeric;
+    private final double[] min;
+    private final double[] max;
+
+    private ZoneMap(String[] columns, int blockSize, long[] starts, long[] rows, long[] nulls, long[] numeric,
+                    double[] min, double[] max) {
+        this.columns = columns;
+        this.blockSize = blockSize;
+        this.starts = starts;
+        this.rows = rows;
+        this.nulls = nulls;
+        this.numeric = numeric;
+        this.min = min;
+        this.max = max;
+    }
+
+    static String defaultPath(String csvFile) {
+        return csvFile + ".zmap";
+    }
+
+    static BuildStats build(String csvFile, String zoneFile, int blockSize) throws IOException {
+        if (blockSize < MIN_BLOCK_SIZE) {
+            throw new IllegalArgumentException("--block-size must be at least " + MIN_BLOCK_SIZE + " bytes");
+        }
+        FileFingerprint fingerprint = FileFingerprint.of(csvFile);
+        String[] names;
+        Collector zones;
+        try (ChunkedCsvScanner scanner = ChunkedCsvScanner.open(csvFile)) {
+            String header = scanner.header();
+            if (header == null) {
+                throw new IllegalStateException("Empty file. Nothing to index.");
+            }
+            CsvTokenizer cols = new CsvTokenizer();
+            cols.tokenize(header, -1);
+            names = new String[cols.count()];
+            for (int c = 0; c < names.length; c++) names[c] = cols.fieldString(c);
+            zones = new Collector(names.length, blockSize, scanner.dataStart());
+            scanner.scan(1, null, () -> zones, null);
+            zones.finish(scanner.size());
+        }
+
+        BuildStats stats = new BuildStats();
+        stats.rows = zones.totalRows;
+        stats.blocks = zones.blocks;
+        stats.columns = names.length;
+        File target = new File(zoneFile);
+        File tmp = new File(target.getAbsolutePath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 20))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            fingerprint.write(out);
+            out.writeInt(blockSize);
+            out.writeInt(names.length);
+            for (String name : names) out.writeUTF(name);
+            out.writeInt(zones.blocks);
+            for (int b = 0; b <= zones.blocks; b++) out.writeLong(zones.starts[b]);
+            for (int b = 0; b < zones.blocks; b++) {
+                out.writeLong(zones.rows[b]);
+                for (int c = 0; c < names.length; c++) {
+                    int k = b * names.length + c;
+                    out.writeLong(zones.nulls[k]);
+                    out.writeLong(zones.numeric[k]);
+                    out.writeDouble(zones.min[k]);
+                    out.writeDouble(zones.max[k]);
+                }
+            }
+            out.writeInt(MAGIC);
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        stats.bytes = target.length();
+        return stats;
+    }
+
+    static ZoneMap open(String zoneFile, String csvFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(zoneFile), 1 << 20))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalStateException("Not a zone map: " + zoneFile);
+            }
+            FileFingerprint.read(in).requireMatch("Zone map " + zoneFile, csvFile, "build-zone-map");
+            int blockSize = in.readInt();
+            String[] names = new String[in.readInt()];
+            for (int c = 0; c < names.length; c++) names[c] = in.readUTF();
+            int blocks = in.readInt();
+            if (blocks < 0 || names.length == 0 || (long) blocks * names.length > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Not a zone map: " + zoneFile);
+            }
+            long[] starts = new long[blocks + 1];
+            for (int b = 0; b <= blocks; b++) starts[b] = in.readLong();
+            long[] rows = new long[blocks];
+            int cells = blocks * names.length;
+            long[] nulls = new long[cells];
+            long[] numeric = new long[cells];
+            double[] min = new double[cells];
+            double[] max = new double[cells];
+            for (int b = 0; b < blocks; b++) {
+                rows[b] = in.readLong();
+                for (int c = 0; c < names.length; c++) {
+                    int k = b * names.length + c;
+                    nulls[k] = in.readLong();
+                    numeric[k] = in.readLong();
+                    min[k] = in.readDouble();
+                    max[k] = in.readDouble();
+                }
+            }
+            if (in.readInt() != MAGIC) {
+                throw new IllegalStateException("Truncated zone map: " + zoneFile);
+            }
+            return new ZoneMap(names, blockSize, starts, rows, nulls, numeric, min, max);
+        }
+    }
+
+    int blocks() {
+        return rows.length;
+    }
+
+    int blockSize() {
+        return blockSize;
+    }
+
+    long rows(int block) {
+        return rows[block];
+    }
+
+    long nulls(int block, int column) {
+        return column < columns.length ? nulls[block * columns.length + column] : rows[block];
+    }
+
+    long numeric(int block, int column) {
+        return column < columns.length ? numeric[block * columns.length + column] : 0L;
+    }
+
+    double min(int block, int column) {
+        return min[block * columns.length + column];
+    }
+
+    double max(int block, int column) {
+        return max[block * columns.length + column];
+    }
+
+    // The blocks `where` may match, merged into ranges of adjacent blocks. Runs are cut at about a quarter
+    // of each thread's share so the threads still get several ranges each to balance over.
+    Selection select(WhereClause where, int threads) {
+        Selection s = new Selection();
+        s.blocks = blocks();
+        s.bytes = starts[s.blocks] - starts[0];
+        boolean[] keep = new boolean[s.blocks];
+        for (int b = 0; b < s.blocks; b++) {
+            keep[b] = where.mayMatch(this, b);
+            if (keep[b]) {
+                s.keptBlocks++;
+                s.keptBytes += starts[b + 1] - starts[b];
+            }
+        }
+        long cap = Math.max(MIN_RANGE, s.keptBytes / (Math.max(1, threads) * 4L));
+        long[] ranges = new long[16];
+        int n = 0;
+        for (int b = 0; b < s.blocks; b++) {
+            if (!keep[b]) continue;
+            if (n > 0 && ranges[n - 1] == starts[b] && starts[b + 1] - ranges[n - 2] <= cap) {
+                ranges[n - 1] = starts[b + 1];
+                continue;
+            }
+            if (n + 2 > ranges.length) ranges = Arrays.copyOf(ranges, ranges.length * 2);
+            ranges[n++] = starts[b];
+            ranges[n++] = starts[b + 1];
+        }
+        s.ranges = Arrays.copyOf(ranges, n);
+        return s;
+    }
+
+    private static final class Collector implements ChunkedCsvScanner.RowVisitor {
+        private final int width;
+        private final int blockSize;
+        private final CsvTokenizer tokenizer = new CsvTokenizer();
+        private long base;
+        long totalRows;
+        int blocks;
+        long[] starts = new long[64];
+        long[] rows = new long[64];
+        long[] nulls;
+        long[] numeric;
+        double[] min;
+        double[] max;
+
+        Collector(int width, int blockSize, long dataStart) {
+            this.width = width;
+            this.blockSize = blockSize;
+            this.nulls = new long[64 * width];
+            this.numeric = new long[64 * width];
+            this.min = new double[64 * width];
+            this.max = new double[64 * width];
+            starts[0] = dataStart;
+        }
+
+        @Override
+        public void window(long fileOffset) {
+            base = fileOffset;
+        }
+
+        @Override
+        public boolean visit(ByteBuffer buf, int start, int end) {
+            long offset = base + start;
+            if (blocks == 0 || offset - starts[blocks - 1] >= blockSize) {
+                open(offset);
+            }
+            int b = blocks - 1;
+            rows[b]++;
+            totalRows++;
+            int n = Math.min(tokenizer.tokenize(buf, start, end, width - 1), width);
+            int k = b * width;
+            for (int c = 0; c < n; c++, k++) {
+                if (WhereClause.isNull(buf, tokenizer, c)) {
+                    nulls[k]++;
+                    continue;
+                }
+                double v = WhereClause.number(buf, tokenizer, c);
+                if (v != v) continue;
+                if (numeric[k]++ == 0) {
+                    min[k] = v;
+                    max[k] = v;
+                } else if (v < min[k]) {
+                    min[k] = v;
+                } else if (v > max[k]) {
+                    max[k] = v;
+                }
+            }
+            // missing trailing columns read as NULL
+            for (int c = n; c < width; c++, k++) nulls[k]++;
+            return false;
+        }
+
+        private void open(long offset) {
+            if (blocks + 1 >= starts.length) {
+                int size = starts.length * 2;
+                if ((long) size * width > Integer.MAX_VALUE - 8) {
+                    throw new IllegalStateException("Too many blocks for a zone map; use a larger --block-size");
+                }
+                starts = Arrays.copyOf(starts, size);
+                rows = Arrays.copyOf(rows, size);
+                nulls = Arrays.copyOf(nulls, size * width);
+                numeric = Arrays.copyOf(numeric, size * width);
+                min = Arrays.copyOf(min, size * width);
+                max = Arrays.copyOf(max, size * width);
+            }
+            starts[blocks++] = offset;
+        }
+
+        void finish(long end) {
+            starts[blocks] = end;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package filesearch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmh.Main;
+
+
+// JMH's own command line, with the GC profiler always on so every result carries gc.alloc.rate.norm
+// (bytes allocated per operation) next to ops/s. Everything else, including -l, -h and -lprof, is
+// org.openjdk.jmh.Main's.
+public final class BenchMain {
+
+    private BenchMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> argv = new ArrayList<>(Arrays.asList(args));
+        if (!hasGcProfiler(args)) {
+            argv.add(0, "-prof");
+            argv.add(1, "gc");
+        }
+        Main.main(argv.toArray(new String[0]));
+    }
+
+    // -prof gc given on the command line already, possibly with options (gc:...)
+    private static boolean hasGcProfiler(String[] args) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals("-prof") && (args[i + 1].equals("gc") || args[i + 1].startsWith("gc:"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,60 @@
+package filesearch;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// Splitting one CSV line into fields (the old parseCsvLine): over raw UTF-8 bytes as the scanners do,
+// over a String as the header path does, and with the title materialised as a String.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CsvParseBench {
+
+    private static final int ROWS = 4096;
+
+    private ByteBuffer[] bytes;
+    private String[] strings;
+    private final CsvTokenizer tokenizer = new CsvTokenizer();
+    private int next;
+
+    @Setup
+    public void setup() {
+        List<String> rows = ImdbLines.movies(ROWS, 42L);
+        strings = rows.toArray(new String[0]);
+        bytes = ImdbLines.encode(rows);
+    }
+
+    @Benchmark
+    public int tokenizeBytes() {
+        ByteBuffer line = bytes[next++ & (ROWS - 1)];
+        return tokenizer.tokenize(line, 0, line.limit(), -1);
+    }
+
+    @Benchmark
+    public int tokenizeString() {
+        return tokenizer.tokenize(strings[next++ & (ROWS - 1)], -1);
+    }
+
+    @Benchmark
+    public String titleField() {
+        ByteBuffer line = bytes[next++ & (ROWS - 1)];
+        tokenizer.tokenize(line, 0, line.limit(), 1);
+        return tokenizer.fieldString(1);
+    }
+}
@@ -0,0 +1,62 @@
+package filesearch;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// Writing CSV: quoting one field (quoteCsvField) and joining a parsed row back into a line (toCsvLine).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CsvWriteBench {
+
+    private static final int ROWS = 4096;
+
+    private String[][] rows;
+    private final StringBuilder sb = new StringBuilder(256);
+    private int next;
+
+    @Setup
+    public void setup() {
+        List<String> lines = ImdbLines.movies(ROWS, 42L);
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        rows = new String[ROWS][];
+        for (int i = 0; i < ROWS; i++) {
+            int n = tokenizer.tokenize(lines.get(i), -1);
+            rows[i] = new String[n];
+            for (int c = 0; c < n; c++) rows[i][c] = tokenizer.fieldString(c);
+        }
+    }
+
+    @Benchmark
+    public int quoteField() {
+        sb.setLength(0);
+        CsvTokenizer.appendField(sb, rows[next++ & (ROWS - 1)][1]);
+        return sb.length();
+    }
+
+    @Benchmark
+    public String toCsvLine() {
+        String[] row = rows[next++ & (ROWS - 1)];
+        sb.setLength(0);
+        for (int c = 0; c < row.length; c++) {
+            if (c > 0) sb.append(',');
+            CsvTokenizer.appendField(sb, row[c]);
+        }
+        return sb.toString();
+    }
+}
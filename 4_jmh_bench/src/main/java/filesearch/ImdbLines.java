@@ -0,0 +1,103 @@
+package filesearch;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+// Deterministic IMDb-shaped rows for the benchmarks: movies (movie_id,title,year) where some titles are
+// quoted because they hold commas or quotes, and persons (person_id,person_name) with accented, Cyrillic
+// and CJK names next to plain ASCII ones.
+final class ImdbLines {
+
+    static final String MOVIES_HEADER = "movie_id,title,year";
+    static final String PERSONS_HEADER = "person_id,person_name";
+
+    private static final String[] WORDS = {
+        "Star", "Wars", "Night", "Story", "Godfather", "Return", "Dark", "Knight", "Love", "The", "of", "and",
+        "Last", "City", "Amélie", "Zoë", "Crème", "東京", "物語", "Москва", "Empire", "Hope", "Tomorrow", "Blue"
+    };
+    private static final String[] FIRST = {
+        "Tom", "Anna", "José", "Zoë", "Björk", "Renée", "Søren", "Hiroshi", "美咲", "Ольга", "Tomás", "Marie",
+        "John", "Mary", "Robert", "Linda", "Antonio", "François"
+    };
+    private static final String[] LAST = {
+        "Hanks", "Müller", "García", "Nguyễn", "O'Brien", "山田", "Smith", "Kowalski", "Johansson", "Brown",
+        "Tomlinson", "Dvořák", "Иванова", "Lee"
+    };
+
+    private ImdbLines() {
+    }
+
+    static List<String> movies(int n, long seed) {
+        Random rnd = new Random(seed);
+        List<String> rows = new ArrayList<>(n);
+        StringBuilder title = new StringBuilder();
+        StringBuilder row = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            title.setLength(0);
+            int words = 1 + rnd.nextInt(6);
+            for (int w = 0; w < words; w++) {
+                if (w > 0) title.append(' ');
+                title.append(WORDS[rnd.nextInt(WORDS.length)]);
+            }
+            int shape = rnd.nextInt(100);
+            if (shape < 15) {
+                title.append(", Part ").append(1 + rnd.nextInt(4));
+            } else if (shape < 18) {
+                title.append(" \"Redux\"");
+            }
+            row.setLength(0);
+            row.append(String.format("tt%07d", i + 1)).append(',');
+            CsvTokenizer.appendField(row, title);
+            row.append(',').append(1900 + rnd.nextInt(125));
+            rows.add(row.toString());
+        }
+        return rows;
+    }
+
+    static List<String> persons(int n, long seed) {
+        Random rnd = new Random(seed);
+        List<String> rows = new ArrayList<>(n);
+        StringBuilder name = new StringBuilder();
+        StringBuilder row = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            name.setLength(0);
+            name.append(FIRST[rnd.nextInt(FIRST.length)]).append(' ').append(LAST[rnd.nextInt(LAST.length)]);
+            if (rnd.nextInt(100) < 5) {
+                name.append(", Jr.");
+            }
+            row.setLength(0);
+            row.append(String.format("nm%07d", i + 1)).append(',');
+            CsvTokenizer.appendField(row, name);
+            rows.add(row.toString());
+        }
+        return rows;
+    }
+
+    static ByteBuffer[] encode(List<String> rows) {
+        ByteBuffer[] out = new ByteBuffer[rows.size()];
+        for (int i = 0; i < out.length; i++) out[i] = ByteBuffer.wrap(rows.get(i).getBytes(StandardCharsets.UTF_8));
+        return out;
+    }
+
+    static File write(String header, List<String> rows) throws IOException {
+        File f = File.createTempFile("imdb-bench-", ".csv");
+        f.deleteOnExit();
+        try (BufferedWriter w = Files.newBufferedWriter(f.toPath(), StandardCharsets.UTF_8)) {
+            w.write(header);
+            w.write('\n');
+            for (String r : rows) {
+                w.write(r);
+                w.write('\n');
+            }
+        }
+        return f;
+    }
+}
@@ -0,0 +1,85 @@
+package filesearch;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// Keyword containment on one title (the old containsWithCaseOption), case-sensitive and -insensitive,
+// against titles that all contain the keyword ("hit") or none do ("miss").
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeywordMatchBench {
+
+    private static final int ROWS = 4096;
+
+    @Param({ "true", "false" })
+    public boolean caseSensitive;
+
+    @Param({ "hit", "miss" })
+    public String outcome;
+
+    @Param({ "Star", "Amélie" })
+    public String keyword;
+
+    private ByteBuffer[] lines;
+    private int[] from;
+    private int[] to;
+    private String[] titles;
+    private KeywordMatcher matcher;
+    private int next;
+
+    @Setup
+    public void setup() {
+        matcher = KeywordMatcher.compile(keyword, caseSensitive);
+        List<String> picked = new ArrayList<>();
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        long seed = 7L;
+        while (picked.size() < ROWS) {
+            for (String row : ImdbLines.movies(ROWS, seed++)) {
+                tokenizer.tokenize(row, 1);
+                if (matcher.containedIn(tokenizer.fieldString(1)) == outcome.equals("hit") && picked.size() < ROWS) {
+                    picked.add(row);
+                }
+            }
+        }
+        lines = ImdbLines.encode(picked);
+        from = new int[ROWS];
+        to = new int[ROWS];
+        titles = new String[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            tokenizer.tokenize(lines[i], 0, lines[i].limit(), 1);
+            from[i] = tokenizer.start(1);
+            to[i] = tokenizer.end(1);
+            titles[i] = tokenizer.fieldString(1);
+        }
+    }
+
+    @Benchmark
+    public boolean containedInBytes() {
+        int i = next++ & (ROWS - 1);
+        return matcher.containedIn(lines[i], from[i], to[i]);
+    }
+
+    @Benchmark
+    public boolean containedInString() {
+        return matcher.containedIn(titles[next++ & (ROWS - 1)]);
+    }
+}
@@ -0,0 +1,92 @@
+package filesearch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// The full per-line loops over a generated file, one operation per row, so ops/s is rows/s and
+// gc.alloc.rate.norm is bytes allocated per row: a single-keyword search, a multi-keyword search and an
+// update-persons rewrite (case-insensitive "To" -> "TTOO" on person_name).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LineLoopBench {
+
+    static final int ROWS = 200_000;
+
+    private File movies;
+    private File persons;
+    private File output;
+    private KeywordMatcher star;
+    private MultiKeywordMatcher several;
+    private KeywordMatcher to;
+
+    @Setup
+    public void setup() throws IOException {
+        movies = ImdbLines.write(ImdbLines.MOVIES_HEADER, ImdbLines.movies(ROWS, 42L));
+        persons = ImdbLines.write(ImdbLines.PERSONS_HEADER, ImdbLines.persons(ROWS, 42L));
+        output = File.createTempFile("imdb-bench-out-", ".csv");
+        star = KeywordMatcher.compile("star", false);
+        several = MultiKeywordMatcher.compile(List.of("star", "night", "東京"), false);
+        to = KeywordMatcher.compile("To", false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        movies.delete();
+        persons.delete();
+        output.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long search() throws IOException {
+        try (ChunkedCsvScanner scanner = ChunkedCsvScanner.open(movies.getPath())) {
+            return scanner.scan(1, null, () -> new ColumnKeywordMatcher(1, star), null).matched;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long searchSeveral() throws IOException {
+        try (ChunkedCsvScanner scanner = ChunkedCsvScanner.open(movies.getPath())) {
+            return scanner.scan(1, null, () -> several.columnVisitor(1), null).matched;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long rewrite() throws IOException {
+        return FieldRewriter.rewrite(persons.getPath(), output, List.of("person_name"), 1, null,
+                () -> new FieldRewriter.Replacement() {
+                    @Override
+                    public boolean mayChange(int field, ByteBuffer buf, int from, int end) {
+                        return to.containedIn(buf, from, end);
+                    }
+
+                    @Override
+                    public String apply(int field, String value) {
+                        return FileSearchAndUpdate.replaceAllCaseInsensitive(value, to, "TTOO");
+                    }
+                }).updated;
+    }
+}
@@ -0,0 +1,66 @@
+package filesearch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// update-persons' per-value replacement: replaceAllCaseInsensitive and the String.replace used for
+// case-sensitive runs, on person names that contain the pattern ("hit") or do not ("miss").
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplaceBench {
+
+    private static final int ROWS = 4096;
+
+    @Param({ "hit", "miss" })
+    public String outcome;
+
+    private String[] names;
+    private KeywordMatcher matcher;
+    private int next;
+
+    @Setup
+    public void setup() {
+        matcher = KeywordMatcher.compile("To", false);
+        List<String> picked = new ArrayList<>();
+        CsvTokenizer tokenizer = new CsvTokenizer();
+        long seed = 11L;
+        while (picked.size() < ROWS) {
+            for (String row : ImdbLines.persons(ROWS, seed++)) {
+                tokenizer.tokenize(row, 1);
+                String name = tokenizer.fieldString(1);
+                if (matcher.containedIn(name) == outcome.equals("hit") && picked.size() < ROWS) {
+                    picked.add(name);
+                }
+            }
+        }
+        names = picked.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public String replaceCaseInsensitive() {
+        return FileSearchAndUpdate.replaceAllCaseInsensitive(names[next++ & (ROWS - 1)], matcher, "TTOO");
+    }
+
+    @Benchmark
+    public String replaceCaseSensitive() {
+        return names[next++ & (ROWS - 1)].replace("To", "TTOO");
+    }
+}
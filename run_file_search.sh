@@ -11,11 +11,15 @@ DEFAULT_KEYWORDS=("XXX" "STAR")
 RUNS="${RUNS:-3}"
 CASE_SENSITIVE="${CASE_SENSITIVE:-0}"
 LIMIT="${LIMIT:-}"
+THREADS="${THREADS:-1}"
+SINGLE_PASS="${SINGLE_PASS:-0}"
+CACHE="${CACHE:-0}"
 LOG_FILE="${LOG_FILE:-file_search_results.log}"
 JAVA_OUT_DIR="${JAVA_OUT_DIR:-out}"
 CPP_BUILD_DIR="${CPP_BUILD_DIR:-build}"
 CPP_BIN="${CPP_BIN:-${CPP_BUILD_DIR}/file_search_standalone}"
 JAVA_SRC="3_java_src/FileSearchStandalone.java"
+JAVA_SRC_DIR="3_java_src"
 CPP_SRC="3_cpp_src/file_search_standalone.cpp"
 info()  { echo "[INFO]  $*"; }
 warn()  { echo "[WARN]  $*" >&2; }
@@ -35,6 +39,9 @@ Environment overrides:
   RUNS=<N>                 Number of runs per keyword (default: 3)
   CASE_SENSITIVE=1         Enable case-sensitive matching (default: off)
   LIMIT=<N>                Scan only first N data rows (default: unset)
+  THREADS=<N>              Java scan worker threads (default: 1)
+  SINGLE_PASS=1            Also run one Java scan counting all keywords at once (default: off)
+  CACHE=1                  Let Java runs reuse cached results (default: off, every run scans)
   LOG_FILE=<path>          Output log file (default: file_search_results.log)
 
 Examples:
@@ -43,6 +50,9 @@ Examples:
   RUNS=5 $(basename "$0") STAR       # run "STAR" for 5 repetitions
   CASE_SENSITIVE=1 $(basename "$0")  # case-sensitive runs
   LIMIT=500000 $(basename "$0")      # limit scans for quicker trials
+  THREADS=8 $(basename "$0")         # parallel chunked Java scans
+  SINGLE_PASS=1 $(basename "$0")     # add a multi-keyword single-pass Java run
+  CACHE=1 $(basename "$0")           # runs after the first are served from the result cache
 EOF
 }
 if [[ "${1:-}" == "-h" || "${1:-}" == "--help" ]]; then
@@ -76,6 +86,8 @@ info "Appending results to: $LOG_FILE"
   echo "Runs per kw   : $RUNS"
   echo "Case-sensitive: $CASE_SENSITIVE"
   echo "Limit         : ${LIMIT:-<unset>}"
+  echo "Java threads  : $THREADS"
+  echo "Result cache  : $CACHE"
   echo "--- System ---"
   uname -a || true
   echo "--- Java ---"
@@ -89,10 +101,10 @@ info "Appending results to: $LOG_FILE"
 } >> "$LOG_FILE"
 info "Compiling Java: $JAVA_SRC"
 mkdir -p "$JAVA_OUT_DIR"
-javac -d "$JAVA_OUT_DIR" "$JAVA_SRC"
+javac -d "$JAVA_OUT_DIR" "$JAVA_SRC_DIR"/*.java
 append_log ""
 append_log "---- Java compile complete ----"
-append_log "  Source: $JAVA_SRC"
+append_log "  Source: $JAVA_SRC_DIR/*.java"
 append_log "  Out   : $JAVA_OUT_DIR"
 CPP_AVAILABLE=0
 if [[ -f "$CPP_SRC" ]]; then
@@ -120,6 +132,11 @@ if [[ -n "${LIMIT:-}" ]]; then
   LIMIT_FLAG=(--limit "$LIMIT")
 fi
 COLUMN_FLAG=(--column "$COLUMN")
+THREADS_FLAG=(--threads "$THREADS")
+CACHE_FLAG=()
+if [[ "$CACHE" != "1" ]]; then
+  CACHE_FLAG=(--no-cache)
+fi
 for kw in "${KEYWORDS[@]}"; do
   append_log ""
   append_log "================================================================================"
@@ -128,8 +145,8 @@ for kw in "${KEYWORDS[@]}"; do
   for ((i=1; i<=RUNS; i++)); do
     append_log ""
     append_log "[Java] Run #$i - keyword: $kw"
-    CMD_JAVA="java -cp $JAVA_OUT_DIR FileSearchStandalone --file $CSV_FILE --keyword \"$kw\" ${CASE_FLAG[*]} ${LIMIT_FLAG[*]} ${COLUMN_FLAG[*]}"
-    JAVA_ARGS=(java -cp "$JAVA_OUT_DIR" FileSearchStandalone --file "$CSV_FILE" --keyword "$kw" ${CASE_FLAG[@]+"${CASE_FLAG[@]}"} ${LIMIT_FLAG[@]+"${LIMIT_FLAG[@]}"} ${COLUMN_FLAG[@]+"${COLUMN_FLAG[@]}"} )
+    CMD_JAVA="java -cp $JAVA_OUT_DIR FileSearchStandalone --file $CSV_FILE --keyword \"$kw\" ${CASE_FLAG[*]} ${LIMIT_FLAG[*]} ${COLUMN_FLAG[*]} ${THREADS_FLAG[*]} ${CACHE_FLAG[*]}"
+    JAVA_ARGS=(java -cp "$JAVA_OUT_DIR" FileSearchStandalone --file "$CSV_FILE" --keyword "$kw" ${CASE_FLAG[@]+"${CASE_FLAG[@]}"} ${LIMIT_FLAG[@]+"${LIMIT_FLAG[@]}"} ${COLUMN_FLAG[@]+"${COLUMN_FLAG[@]}"} "${THREADS_FLAG[@]}" ${CACHE_FLAG[@]+"${CACHE_FLAG[@]}"} )
     run_and_log "$CMD_JAVA" "${JAVA_ARGS[@]}"
   done
   if [[ "$CPP_AVAILABLE" -eq 1 ]]; then
@@ -145,6 +162,23 @@ for kw in "${KEYWORDS[@]}"; do
     append_log "[C++] Skipped (binary unavailable)"
   fi
 done
+if [[ "$SINGLE_PASS" == "1" ]]; then
+  KW_FLAGS=()
+  for kw in "${KEYWORDS[@]}"; do
+    KW_FLAGS+=(--keyword "$kw")
+  done
+  append_log ""
+  append_log "================================================================================"
+  append_log "[Keywords] ${KEYWORDS[*]} (single pass)"
+  append_log "================================================================================"
+  for ((i=1; i<=RUNS; i++)); do
+    append_log ""
+    append_log "[Java] Run #$i - single pass over ${#KEYWORDS[@]} keywords"
+    CMD_JAVA="java -cp $JAVA_OUT_DIR FileSearchStandalone --file $CSV_FILE ${KW_FLAGS[*]} ${CASE_FLAG[*]} ${LIMIT_FLAG[*]} ${COLUMN_FLAG[*]} ${THREADS_FLAG[*]} ${CACHE_FLAG[*]}"
+    JAVA_ARGS=(java -cp "$JAVA_OUT_DIR" FileSearchStandalone --file "$CSV_FILE" "${KW_FLAGS[@]}" ${CASE_FLAG[@]+"${CASE_FLAG[@]}"} ${LIMIT_FLAG[@]+"${LIMIT_FLAG[@]}"} ${COLUMN_FLAG[@]+"${COLUMN_FLAG[@]}"} "${THREADS_FLAG[@]}" ${CACHE_FLAG[@]+"${CACHE_FLAG[@]}"} )
+    run_and_log "$CMD_JAVA" "${JAVA_ARGS[@]}"
+  done
+fi
 append_log ""
 append_log "################# File-side experiments completed at $(date -Iseconds) #################"
 info "All done. Results appended to: $LOG_FILE"